@@ -68,6 +68,9 @@ jmethodID sslHandshakeCallbacks_serverPSKKeyRequested;
 jmethodID sslHandshakeCallbacks_onNewSessionEstablished;
 jmethodID sslHandshakeCallbacks_selectApplicationProtocol;
 jmethodID sslHandshakeCallbacks_serverSessionRequested;
+jmethodID sslHandshakeCallbacks_privateKeySign;
+jmethodID sslHandshakeCallbacks_privateKeyDecrypt;
+jmethodID sslHandshakeCallbacks_privateKeyComplete;
 
 void init(JavaVM* vm, JNIEnv* env) {
     gJavaVM = vm;
@@ -116,13 +119,13 @@ void init(JavaVM* vm, JNIEnv* env) {
     buffer_limitMethod = getMethodRef(env, bufferClass, "limit", "()I");
     buffer_isDirectMethod = getMethodRef(env, bufferClass, "isDirect", "()Z");
     sslHandshakeCallbacks_verifyCertificateChain = getMethodRef(
-            env, sslHandshakeCallbacksClass, "verifyCertificateChain", "([[BLjava/lang/String;)V");
+            env, sslHandshakeCallbacksClass, "verifyCertificateChain", "([[BLjava/lang/String;)Z");
     sslHandshakeCallbacks_onSSLStateChange =
             getMethodRef(env, sslHandshakeCallbacksClass, "onSSLStateChange", "(II)V");
     sslHandshakeCallbacks_clientCertificateRequested = getMethodRef(
             env, sslHandshakeCallbacksClass, "clientCertificateRequested", "([B[I[[B)V");
     sslHandshakeCallbacks_serverCertificateRequested =
-            getMethodRef(env, sslHandshakeCallbacksClass, "serverCertificateRequested", "([I)V");
+            getMethodRef(env, sslHandshakeCallbacksClass, "serverCertificateRequested", "([IZ)V");
     sslHandshakeCallbacks_clientPSKKeyRequested = getMethodRef(
             env, sslHandshakeCallbacksClass, "clientPSKKeyRequested", "(Ljava/lang/String;[B[B)I");
     sslHandshakeCallbacks_serverPSKKeyRequested =
@@ -134,6 +137,12 @@ void init(JavaVM* vm, JNIEnv* env) {
             getMethodRef(env, sslHandshakeCallbacksClass, "serverSessionRequested", "([B)J");
     sslHandshakeCallbacks_selectApplicationProtocol =
             getMethodRef(env, sslHandshakeCallbacksClass, "selectApplicationProtocol", "([B)I");
+    sslHandshakeCallbacks_privateKeySign =
+            getMethodRef(env, sslHandshakeCallbacksClass, "privateKeySign", "(I[B)[B");
+    sslHandshakeCallbacks_privateKeyDecrypt =
+            getMethodRef(env, sslHandshakeCallbacksClass, "privateKeyDecrypt", "([B)[B");
+    sslHandshakeCallbacks_privateKeyComplete =
+            getMethodRef(env, sslHandshakeCallbacksClass, "privateKeyComplete", "()[B");
     cryptoUpcallsClass_rawSignMethod = env->GetStaticMethodID(
             cryptoUpcallsClass, "ecSignDigestWithPrivateKey", "(Ljava/security/PrivateKey;[B)[B");
     if (cryptoUpcallsClass_rawSignMethod == nullptr) {
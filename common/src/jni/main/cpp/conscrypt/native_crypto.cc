@@ -41,6 +41,7 @@
 #include <openssl/engine.h>
 #include <openssl/err.h>
 #include <openssl/evp.h>
+#include <openssl/hkdf.h>
 #include <openssl/hmac.h>
 #include <openssl/hpke.h>
 #include <openssl/mldsa.h>
@@ -59,6 +60,25 @@
 #include <type_traits>
 #include <vector>
 
+// Kernel TLS offload needs the Linux "tls" upper layer protocol.
+#if defined(__linux__) && defined(__has_include)
+#if __has_include(<linux/tls.h>)
+#define CONSCRYPT_HAVE_KTLS 1
+#include <linux/tls.h>
+#include <netinet/tcp.h>
+#include <sys/socket.h>
+#ifndef TCP_ULP
+#define TCP_ULP 31
+#endif
+#ifndef SOL_TLS
+#define SOL_TLS 282
+#endif
+#ifndef TLS_1_3_VERSION
+#define TLS_1_3_VERSION 0x0304
+#endif
+#endif
+#endif
+
 using conscrypt::AppData;
 using conscrypt::BioInputStream;
 using conscrypt::BioOutputStream;
@@ -8290,13 +8310,132 @@ static ssl_verify_result_t cert_verify_callback(SSL* ssl, CONSCRYPT_UNUSED uint8
             "authMethod=%s",
             ssl, authMethod);
     ScopedLocalRef<jstring> authMethodString(env, env->NewStringUTF(authMethod));
-    env->CallVoidMethod(sslHandshakeCallbacks, methodID, array.get(), authMethodString.get());
+    jboolean verified = env->CallBooleanMethod(sslHandshakeCallbacks, methodID, array.get(),
+                                               authMethodString.get());
 
-    ssl_verify_result_t result = env->ExceptionCheck() ? ssl_verify_invalid : ssl_verify_ok;
+    ssl_verify_result_t result;
+    if (env->ExceptionCheck()) {
+        result = ssl_verify_invalid;
+    } else if (!verified) {
+        // Verification is still in progress, the handshake will call us again when resumed.
+        result = ssl_verify_retry;
+    } else {
+        result = ssl_verify_ok;
+    }
     JNI_TRACE("ssl=%p cert_verify_callback => %d", ssl, result);
     return result;
 }
 
+/**
+ * Copies the result of a private key operation upcall to |out|. A null result means that the
+ * operation is still in progress and the handshake has to be suspended.
+ */
+static ssl_private_key_result_t private_key_result(JNIEnv* env, SSL* ssl, jbyteArray result,
+                                                   uint8_t* out, size_t* out_len,
+                                                   size_t max_out) {
+    if (env->ExceptionCheck()) {
+        JNI_TRACE("ssl=%p private_key_result => exception", ssl);
+        return ssl_private_key_failure;
+    }
+    if (result == nullptr) {
+        JNI_TRACE("ssl=%p private_key_result => retry", ssl);
+        return ssl_private_key_retry;
+    }
+    size_t length = static_cast<size_t>(env->GetArrayLength(result));
+    if (length > max_out) {
+        conscrypt::jniutil::throwSSLExceptionStr(env, "Private key operation output too large");
+        JNI_TRACE("ssl=%p private_key_result => output too large %zu > %zu", ssl, length,
+                  max_out);
+        return ssl_private_key_failure;
+    }
+    env->GetByteArrayRegion(result, 0, static_cast<jsize>(length), reinterpret_cast<jbyte*>(out));
+    *out_len = length;
+    JNI_TRACE("ssl=%p private_key_result => %zu bytes", ssl, length);
+    return ssl_private_key_success;
+}
+
+static ssl_private_key_result_t private_key_sign(SSL* ssl, uint8_t* out, size_t* out_len,
+                                                 size_t max_out, uint16_t signature_algorithm,
+                                                 const uint8_t* in, size_t in_len) {
+    JNI_TRACE("ssl=%p private_key_sign signature_algorithm=0x%04x", ssl, signature_algorithm);
+
+    AppData* appData = toAppData(ssl);
+    JNIEnv* env = appData->env;
+    if (env == nullptr) {
+        CONSCRYPT_LOG_ERROR("AppData->env missing in private_key_sign");
+        return ssl_private_key_failure;
+    }
+
+    ScopedLocalRef<jbyteArray> input(env, env->NewByteArray(static_cast<jsize>(in_len)));
+    if (input.get() == nullptr) {
+        return ssl_private_key_failure;
+    }
+    env->SetByteArrayRegion(input.get(), 0, static_cast<jsize>(in_len),
+                            reinterpret_cast<const jbyte*>(in));
+
+    ScopedLocalRef<jbyteArray> result(
+            env, reinterpret_cast<jbyteArray>(env->CallObjectMethod(
+                         appData->sslHandshakeCallbacks,
+                         conscrypt::jniutil::sslHandshakeCallbacks_privateKeySign,
+                         static_cast<jint>(signature_algorithm), input.get())));
+    return private_key_result(env, ssl, result.get(), out, out_len, max_out);
+}
+
+static ssl_private_key_result_t private_key_decrypt(SSL* ssl, uint8_t* out, size_t* out_len,
+                                                    size_t max_out, const uint8_t* in,
+                                                    size_t in_len) {
+    JNI_TRACE("ssl=%p private_key_decrypt", ssl);
+
+    AppData* appData = toAppData(ssl);
+    JNIEnv* env = appData->env;
+    if (env == nullptr) {
+        CONSCRYPT_LOG_ERROR("AppData->env missing in private_key_decrypt");
+        return ssl_private_key_failure;
+    }
+
+    ScopedLocalRef<jbyteArray> input(env, env->NewByteArray(static_cast<jsize>(in_len)));
+    if (input.get() == nullptr) {
+        return ssl_private_key_failure;
+    }
+    env->SetByteArrayRegion(input.get(), 0, static_cast<jsize>(in_len),
+                            reinterpret_cast<const jbyte*>(in));
+
+    ScopedLocalRef<jbyteArray> result(
+            env, reinterpret_cast<jbyteArray>(env->CallObjectMethod(
+                         appData->sslHandshakeCallbacks,
+                         conscrypt::jniutil::sslHandshakeCallbacks_privateKeyDecrypt,
+                         input.get())));
+    return private_key_result(env, ssl, result.get(), out, out_len, max_out);
+}
+
+static ssl_private_key_result_t private_key_complete(SSL* ssl, uint8_t* out, size_t* out_len,
+                                                     size_t max_out) {
+    JNI_TRACE("ssl=%p private_key_complete", ssl);
+
+    AppData* appData = toAppData(ssl);
+    JNIEnv* env = appData->env;
+    if (env == nullptr) {
+        CONSCRYPT_LOG_ERROR("AppData->env missing in private_key_complete");
+        return ssl_private_key_failure;
+    }
+
+    ScopedLocalRef<jbyteArray> result(
+            env, reinterpret_cast<jbyteArray>(env->CallObjectMethod(
+                         appData->sslHandshakeCallbacks,
+                         conscrypt::jniutil::sslHandshakeCallbacks_privateKeyComplete)));
+    return private_key_result(env, ssl, result.get(), out, out_len, max_out);
+}
+
+/**
+ * Private key method which hands signing and decryption to the Java layer, so that they can be
+ * performed outside of the handshake call which needs them.
+ */
+static const SSL_PRIVATE_KEY_METHOD private_key_method = {
+        private_key_sign,
+        private_key_decrypt,
+        private_key_complete,
+};
+
 /**
  * Call back to watch for handshake to be completed. This is necessary for
  * False Start support, since SSL_do_handshake returns before the handshake is
@@ -8463,8 +8602,17 @@ static enum ssl_select_cert_result_t select_certificate_cb(const SSL_CLIENT_HELL
         }
     }
 
+    // Early data is only ever offered alongside a pre-shared key.
+    const uint8_t* extension;
+    size_t extensionLen;
+    jboolean offersEarlyData =
+            SSL_early_callback_ctx_extension_get(client_hello, TLSEXT_TYPE_early_data,
+                                                 &extension, &extensionLen) &&
+            SSL_early_callback_ctx_extension_get(client_hello, TLSEXT_TYPE_pre_shared_key,
+                                                 &extension, &extensionLen);
+
     JNI_TRACE("ssl=%p select_certificate_cb calling serverCertificateRequested", ssl);
-    env->CallVoidMethod(sslHandshakeCallbacks, methodID, signatureAlgs);
+    env->CallVoidMethod(sslHandshakeCallbacks, methodID, signatureAlgs, offersEarlyData);
 
     if (env->ExceptionCheck()) {
         JNI_TRACE("ssl=%p select_certificate_cb exception", ssl);
@@ -8775,9 +8923,11 @@ static jlong NativeCrypto_SSL_CTX_new(JNIEnv* env, jclass) {
 
     // By default BoringSSL will cache in server mode, but we want to get
     // notified of new sessions being created in client mode. We set
-    // SSL_SESS_CACHE_BOTH in order to get the callback in client mode, but
-    // ignore it in server mode in favor of the internal cache.
-    SSL_CTX_set_session_cache_mode(sslCtx.get(), SSL_SESS_CACHE_BOTH);
+    // SSL_SESS_CACHE_BOTH in order to get the callback in both modes. The
+    // internal cache is disabled so that server sessions are only stored and
+    // looked up by the Java session context, which also consults the
+    // application's persistent cache.
+    SSL_CTX_set_session_cache_mode(sslCtx.get(), SSL_SESS_CACHE_BOTH | SSL_SESS_CACHE_NO_INTERNAL);
     SSL_CTX_sess_set_new_cb(sslCtx.get(), new_session_callback);
     SSL_CTX_sess_set_get_cb(sslCtx.get(), server_session_requested_callback);
 
@@ -8848,6 +8998,175 @@ static jlong NativeCrypto_SSL_CTX_set_timeout(JNIEnv* env, jclass, jlong ssl_ctx
     return SSL_CTX_set_timeout(ssl_ctx, static_cast<uint32_t>(seconds));
 }
 
+/**
+ * A session ticket key: a 16-byte name identifying the key in tickets, a 16-byte HMAC-SHA256
+ * secret and a 16-byte AES-128 key.
+ */
+struct TicketKey {
+    uint8_t name[16];
+    uint8_t hmac_key[16];
+    uint8_t aes_key[16];
+};
+
+/**
+ * The session ticket keys of an SSL_CTX. The first key encrypts new tickets and all of them
+ * decrypt tickets.
+ */
+struct TicketKeys {
+    std::mutex mutex;
+    std::vector<TicketKey> keys;
+
+    ~TicketKeys() {
+        clear();
+    }
+
+    void clear() {
+        if (!keys.empty()) {
+            OPENSSL_cleanse(keys.data(), keys.size() * sizeof(TicketKey));
+            keys.clear();
+        }
+    }
+};
+
+static void ticket_keys_free(void* /* parent */, void* ptr, CRYPTO_EX_DATA* /* ad */,
+                             int /* index */, long /* argl */ /* NOLINT(runtime/int) */,
+                             void* /* argp */) {
+    delete reinterpret_cast<TicketKeys*>(ptr);
+}
+
+static int ticket_keys_index() {
+    static int index = SSL_CTX_get_ex_new_index(0 /* argl */, nullptr /* argp */,
+                                                nullptr /* new_func */, nullptr /* dup_func */,
+                                                ticket_keys_free);
+    return index;
+}
+
+static int ticket_key_callback(SSL* ssl, uint8_t* key_name, uint8_t* iv,
+                               EVP_CIPHER_CTX* cipher_ctx, HMAC_CTX* hmac_ctx, int encrypt) {
+    TicketKeys* ticket_keys = reinterpret_cast<TicketKeys*>(
+            SSL_CTX_get_ex_data(SSL_get_SSL_CTX(ssl), ticket_keys_index()));
+    if (ticket_keys == nullptr) {
+        return -1;
+    }
+
+    std::lock_guard<std::mutex> lock(ticket_keys->mutex);
+    if (ticket_keys->keys.empty()) {
+        return -1;
+    }
+    const TicketKey* key = nullptr;
+    int result = 1;
+    if (encrypt) {
+        key = &ticket_keys->keys.front();
+        memcpy(key_name, key->name, sizeof(key->name));
+        if (!RAND_bytes(iv, 16) ||
+            !EVP_EncryptInit_ex(cipher_ctx, EVP_aes_128_cbc(), nullptr, key->aes_key, iv)) {
+            return -1;
+        }
+    } else {
+        for (size_t i = 0; i < ticket_keys->keys.size(); i++) {
+            if (memcmp(key_name, ticket_keys->keys[i].name, sizeof(key->name)) == 0) {
+                key = &ticket_keys->keys[i];
+                // Ask for a ticket encrypted with the current key if an older one was used.
+                result = i == 0 ? 1 : 2;
+                break;
+            }
+        }
+        if (key == nullptr) {
+            // Unknown key, fall back to a full handshake.
+            JNI_TRACE("ssl=%p ticket_key_callback => unknown key", ssl);
+            return 0;
+        }
+        if (!EVP_DecryptInit_ex(cipher_ctx, EVP_aes_128_cbc(), nullptr, key->aes_key, iv)) {
+            return -1;
+        }
+    }
+    if (!HMAC_Init_ex(hmac_ctx, key->hmac_key, sizeof(key->hmac_key), EVP_sha256(), nullptr)) {
+        return -1;
+    }
+    return result;
+}
+
+/**
+ * Replaces the session ticket keys of the SSL_CTX with the given concatenation of 48-byte keys,
+ * or restores the keys generated by BoringSSL and disables TLS 1.2 tickets if it is empty.
+ */
+static void NativeCrypto_SSL_CTX_set_ticket_keys(JNIEnv* env, jclass, jlong ssl_ctx_address,
+                                                 CONSCRYPT_UNUSED jobject holder,
+                                                 jbyteArray keys) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL_CTX* ssl_ctx = to_SSL_CTX(env, ssl_ctx_address, true);
+    JNI_TRACE("ssl_ctx=%p NativeCrypto_SSL_CTX_set_ticket_keys keys=%p", ssl_ctx, keys);
+    if (ssl_ctx == nullptr) {
+        return;
+    }
+
+    ScopedByteArrayRO buf(env, keys);
+    if (buf.get() == nullptr) {
+        JNI_TRACE("ssl_ctx=%p NativeCrypto_SSL_CTX_set_ticket_keys => threw exception", ssl_ctx);
+        return;
+    }
+    if (buf.size() % sizeof(TicketKey) != 0) {
+        conscrypt::jniutil::throwException(env, "java/lang/IllegalArgumentException",
+                                           "Invalid session ticket key length");
+        return;
+    }
+
+    TicketKeys* ticket_keys =
+            reinterpret_cast<TicketKeys*>(SSL_CTX_get_ex_data(ssl_ctx, ticket_keys_index()));
+    if (buf.size() == 0) {
+        SSL_CTX_set_tlsext_ticket_key_cb(ssl_ctx, nullptr);
+        SSL_CTX_set_options(ssl_ctx, SSL_OP_NO_TICKET);
+        if (ticket_keys != nullptr) {
+            std::lock_guard<std::mutex> lock(ticket_keys->mutex);
+            ticket_keys->clear();
+        }
+        JNI_TRACE("ssl_ctx=%p NativeCrypto_SSL_CTX_set_ticket_keys => cleared", ssl_ctx);
+        return;
+    }
+
+    if (ticket_keys == nullptr) {
+        ticket_keys = new TicketKeys();
+        if (!SSL_CTX_set_ex_data(ssl_ctx, ticket_keys_index(), ticket_keys)) {
+            delete ticket_keys;
+            conscrypt::jniutil::throwExceptionFromBoringSSLError(
+                    env, "NativeCrypto_SSL_CTX_set_ticket_keys");
+            return;
+        }
+    }
+    {
+        std::lock_guard<std::mutex> lock(ticket_keys->mutex);
+        ticket_keys->clear();
+        ticket_keys->keys.resize(buf.size() / sizeof(TicketKey));
+        memcpy(ticket_keys->keys.data(), buf.get(), buf.size());
+    }
+    SSL_CTX_set_tlsext_ticket_key_cb(ssl_ctx, ticket_key_callback);
+    // Tickets are disabled by default, but with keys shared between servers TLS 1.2 clients
+    // can resume statelessly too.
+    SSL_CTX_clear_options(ssl_ctx, SSL_OP_NO_TICKET);
+    JNI_TRACE("ssl_ctx=%p NativeCrypto_SSL_CTX_set_ticket_keys => %zu keys", ssl_ctx,
+              buf.size() / sizeof(TicketKey));
+}
+
+/**
+ * Sets the number of TLS 1.3 session tickets the server sends after each full handshake.
+ */
+static void NativeCrypto_SSL_CTX_set_num_tickets(JNIEnv* env, jclass, jlong ssl_ctx_address,
+                                                 CONSCRYPT_UNUSED jobject holder,
+                                                 jint num_tickets) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL_CTX* ssl_ctx = to_SSL_CTX(env, ssl_ctx_address, true);
+    JNI_TRACE("ssl_ctx=%p NativeCrypto_SSL_CTX_set_num_tickets num_tickets=%d", ssl_ctx,
+              num_tickets);
+    if (ssl_ctx == nullptr) {
+        return;
+    }
+    if (num_tickets < 0 || !SSL_CTX_set_num_tickets(ssl_ctx, static_cast<size_t>(num_tickets))) {
+        conscrypt::jniutil::throwException(env, "java/lang/IllegalArgumentException",
+                                           "Invalid number of session tickets");
+        ERR_clear_error();
+    }
+}
+
 /**
  * public static native int SSL_new(long ssl_ctx) throws SSLException;
  */
@@ -8975,6 +9294,65 @@ static void NativeCrypto_SSL_set1_tls_channel_id(JNIEnv* env, jclass, jlong ssl_
     JNI_TRACE("ssl=%p SSL_set1_tls_channel_id => ok", ssl);
 }
 
+/**
+ * Copies the encoded certificates into |certBufferRefs|, with |certBuffers| pointing at the same
+ * buffers. Returns false with an exception pending if the certificates are missing or cannot be
+ * copied.
+ */
+static bool copyEncodedCerts(JNIEnv* env, jobjectArray encodedCertificatesJava,
+                             std::vector<bssl::UniquePtr<CRYPTO_BUFFER>>* certBufferRefs,
+                             std::vector<CRYPTO_BUFFER*>* certBuffers) {
+    if (encodedCertificatesJava == nullptr) {
+        conscrypt::jniutil::throwNullPointerException(env, "certificates == null");
+        JNI_TRACE("copyEncodedCerts => certificates == null");
+        return false;
+    }
+    size_t numCerts = static_cast<size_t>(env->GetArrayLength(encodedCertificatesJava));
+    if (numCerts == 0) {
+        conscrypt::jniutil::throwException(env, "java/lang/IllegalArgumentException",
+                                           "certificates.length == 0");
+        JNI_TRACE("copyEncodedCerts => certificates.length == 0");
+        return false;
+    }
+
+    certBufferRefs->resize(numCerts);
+    certBuffers->resize(numCerts);
+    for (size_t i = 0; i < numCerts; ++i) {
+        ScopedLocalRef<jbyteArray> certArray(
+                env, reinterpret_cast<jbyteArray>(
+                             env->GetObjectArrayElement(encodedCertificatesJava, i)));
+        (*certBufferRefs)[i] = ByteArrayToCryptoBuffer(env, certArray.get(), nullptr);
+        if (!(*certBufferRefs)[i]) {
+            return false;
+        }
+        (*certBuffers)[i] = (*certBufferRefs)[i].get();
+    }
+    return true;
+}
+
+/**
+ * Sets the certificate chain of |ssl| together with either |pkey| or |method|, as for
+ * SSL_set_chain_and_key.
+ */
+static void setLocalCerts(JNIEnv* env, SSL* ssl, jobjectArray encodedCertificatesJava,
+                          EVP_PKEY* pkey, const SSL_PRIVATE_KEY_METHOD* method) {
+    // Copy the certificates.
+    std::vector<bssl::UniquePtr<CRYPTO_BUFFER>> certBufferRefs;
+    std::vector<CRYPTO_BUFFER*> certBuffers;
+    if (!copyEncodedCerts(env, encodedCertificatesJava, &certBufferRefs, &certBuffers)) {
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_set_chain_and_key => invalid certificates", ssl);
+        return;
+    }
+
+    if (!SSL_set_chain_and_key(ssl, certBuffers.data(), certBuffers.size(), pkey, method)) {
+        conscrypt::jniutil::throwSSLExceptionWithSslErrors(env, ssl, SSL_ERROR_NONE,
+                                                           "Error configuring certificate");
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_set_chain_and_key => error", ssl);
+        return;
+    }
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_set_chain_and_key => ok", ssl);
+}
+
 static void NativeCrypto_setLocalCertsAndPrivateKey(JNIEnv* env, jclass, jlong ssl_address,
                                                     CONSCRYPT_UNUSED jobject ssl_holder,
                                                     jobjectArray encodedCertificatesJava,
@@ -8988,18 +9366,6 @@ static void NativeCrypto_setLocalCertsAndPrivateKey(JNIEnv* env, jclass, jlong s
     if (ssl == nullptr) {
         return;
     }
-    if (encodedCertificatesJava == nullptr) {
-        conscrypt::jniutil::throwNullPointerException(env, "certificates == null");
-        JNI_TRACE("ssl=%p NativeCrypto_SSL_set_chain_and_key => certificates == null", ssl);
-        return;
-    }
-    size_t numCerts = static_cast<size_t>(env->GetArrayLength(encodedCertificatesJava));
-    if (numCerts == 0) {
-        conscrypt::jniutil::throwException(env, "java/lang/IllegalArgumentException",
-                                           "certificates.length == 0");
-        JNI_TRACE("ssl=%p NativeCrypto_SSL_set_chain_and_key => certificates.length == 0", ssl);
-        return;
-    }
     if (pkeyRef == nullptr) {
         conscrypt::jniutil::throwNullPointerException(env, "privateKey == null");
         JNI_TRACE("ssl=%p NativeCrypto_SSL_set_chain_and_key => privateKey == null", ssl);
@@ -9014,27 +9380,138 @@ static void NativeCrypto_setLocalCertsAndPrivateKey(JNIEnv* env, jclass, jlong s
         return;
     }
 
-    // Copy the certificates.
-    std::vector<bssl::UniquePtr<CRYPTO_BUFFER>> certBufferRefs(numCerts);
-    std::vector<CRYPTO_BUFFER*> certBuffers(numCerts);
-    for (size_t i = 0; i < numCerts; ++i) {
-        ScopedLocalRef<jbyteArray> certArray(
-                env, reinterpret_cast<jbyteArray>(
-                             env->GetObjectArrayElement(encodedCertificatesJava, i)));
-        certBufferRefs[i] = ByteArrayToCryptoBuffer(env, certArray.get(), nullptr);
-        if (!certBufferRefs[i]) {
-            return;
-        }
-        certBuffers[i] = certBufferRefs[i].get();
+    setLocalCerts(env, ssl, encodedCertificatesJava, pkey, nullptr);
+}
+
+static void NativeCrypto_setLocalCertsAndPrivateKeyMethod(JNIEnv* env, jclass,
+                                                          jlong ssl_address,
+                                                          CONSCRYPT_UNUSED jobject ssl_holder,
+                                                          jobjectArray encodedCertificatesJava) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    JNI_TRACE("ssl=%p NativeCrypto_setLocalCertsAndPrivateKeyMethod certificates=%p", ssl,
+              encodedCertificatesJava);
+    if (ssl == nullptr) {
+        return;
     }
 
-    if (!SSL_set_chain_and_key(ssl, certBuffers.data(), numCerts, pkey, nullptr)) {
+    setLocalCerts(env, ssl, encodedCertificatesJava, nullptr, &private_key_method);
+}
+
+static jlong NativeCrypto_SSL_CREDENTIAL_new_x509(JNIEnv* env, jclass,
+                                                  jobjectArray encodedCertificatesJava,
+                                                  jobject pkeyRef) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    JNI_TRACE("NativeCrypto_SSL_CREDENTIAL_new_x509 certificates=%p, privateKey=%p",
+              encodedCertificatesJava, pkeyRef);
+    EVP_PKEY* pkey = fromContextObject<EVP_PKEY>(env, pkeyRef);
+    if (pkey == nullptr) {
+        JNI_TRACE("NativeCrypto_SSL_CREDENTIAL_new_x509 => pkey == null");
+        return 0;
+    }
+
+    std::vector<bssl::UniquePtr<CRYPTO_BUFFER>> certBufferRefs;
+    std::vector<CRYPTO_BUFFER*> certBuffers;
+    if (!copyEncodedCerts(env, encodedCertificatesJava, &certBufferRefs, &certBuffers)) {
+        return 0;
+    }
+
+    bssl::UniquePtr<SSL_CREDENTIAL> cred(SSL_CREDENTIAL_new_x509());
+    if (cred == nullptr ||
+        !SSL_CREDENTIAL_set1_cert_chain(cred.get(), certBuffers.data(), certBuffers.size()) ||
+        !SSL_CREDENTIAL_set1_private_key(cred.get(), pkey)) {
+        conscrypt::jniutil::throwSSLExceptionStr(env, "Error creating credential");
+        ERR_clear_error();
+        JNI_TRACE("NativeCrypto_SSL_CREDENTIAL_new_x509 => error");
+        return 0;
+    }
+    JNI_TRACE("NativeCrypto_SSL_CREDENTIAL_new_x509 => %p", cred.get());
+    return reinterpret_cast<uintptr_t>(cred.release());
+}
+
+static void NativeCrypto_SSL_CREDENTIAL_free(JNIEnv* env, jclass, jlong credentialAddress) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL_CREDENTIAL* cred = reinterpret_cast<SSL_CREDENTIAL*>(credentialAddress);
+    JNI_TRACE("NativeCrypto_SSL_CREDENTIAL_free(%p)", cred);
+    SSL_CREDENTIAL_free(cred);
+}
+
+static void NativeCrypto_SSL_add1_credential(JNIEnv* env, jclass, jlong ssl_address,
+                                             CONSCRYPT_UNUSED jobject ssl_holder,
+                                             jobject credentialRef) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_add1_credential credential=%p", ssl, credentialRef);
+    if (ssl == nullptr) {
+        return;
+    }
+    SSL_CREDENTIAL* cred = fromContextObject<SSL_CREDENTIAL>(env, credentialRef);
+    if (cred == nullptr) {
+        return;
+    }
+    if (!SSL_add1_credential(ssl, cred)) {
         conscrypt::jniutil::throwSSLExceptionWithSslErrors(env, ssl, SSL_ERROR_NONE,
-                                                           "Error configuring certificate");
-        JNI_TRACE("ssl=%p NativeCrypto_SSL_set_chain_and_key => error", ssl);
+                                                           "Error adding credential");
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_add1_credential => error", ssl);
         return;
     }
-    JNI_TRACE("ssl=%p NativeCrypto_SSL_set_chain_and_key => ok", ssl);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_add1_credential => ok", ssl);
+}
+
+static jbyteArray NativeCrypto_signWithSignatureAlgorithm(JNIEnv* env, jclass, jobject pkeyRef,
+                                                          jint signatureAlgorithm,
+                                                          jbyteArray inputJava) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    EVP_PKEY* pkey = fromContextObject<EVP_PKEY>(env, pkeyRef);
+    JNI_TRACE("signWithSignatureAlgorithm(%p, 0x%04x, %p)", pkey, signatureAlgorithm,
+              inputJava);
+    if (pkey == nullptr) {
+        return nullptr;
+    }
+    ScopedByteArrayRO input(env, inputJava);
+    if (input.get() == nullptr) {
+        return nullptr;
+    }
+
+    uint16_t sigalg = static_cast<uint16_t>(signatureAlgorithm);
+    bssl::ScopedEVP_MD_CTX ctx;
+    EVP_PKEY_CTX* pkeyCtx;
+    if (!EVP_DigestSignInit(ctx.get(), &pkeyCtx, SSL_get_signature_algorithm_digest(sigalg),
+                            nullptr, pkey)) {
+        conscrypt::jniutil::throwExceptionFromBoringSSLError(env, "EVP_DigestSignInit");
+        return nullptr;
+    }
+    if (SSL_is_signature_algorithm_rsa_pss(sigalg)) {
+        // TLS uses a salt as long as the digest.
+        if (!EVP_PKEY_CTX_set_rsa_padding(pkeyCtx, RSA_PKCS1_PSS_PADDING) ||
+            !EVP_PKEY_CTX_set_rsa_pss_saltlen(pkeyCtx, -1)) {
+            conscrypt::jniutil::throwExceptionFromBoringSSLError(env, "EVP_PKEY_CTX_set_rsa_pss");
+            return nullptr;
+        }
+    }
+
+    const uint8_t* in = reinterpret_cast<const uint8_t*>(input.get());
+    size_t maxLen;
+    if (!EVP_DigestSign(ctx.get(), nullptr, &maxLen, in, input.size())) {
+        conscrypt::jniutil::throwExceptionFromBoringSSLError(env, "EVP_DigestSign");
+        return nullptr;
+    }
+    std::unique_ptr<uint8_t[]> buffer(new uint8_t[maxLen]);
+    size_t actualLen = maxLen;
+    if (!EVP_DigestSign(ctx.get(), buffer.get(), &actualLen, in, input.size())) {
+        conscrypt::jniutil::throwExceptionFromBoringSSLError(env, "EVP_DigestSign");
+        return nullptr;
+    }
+
+    ScopedLocalRef<jbyteArray> signature(env, env->NewByteArray(static_cast<jsize>(actualLen)));
+    if (signature.get() == nullptr) {
+        conscrypt::jniutil::throwOutOfMemory(env, "Unable to allocate signature array");
+        return nullptr;
+    }
+    env->SetByteArrayRegion(signature.get(), 0, static_cast<jsize>(actualLen),
+                            reinterpret_cast<const jbyte*>(buffer.get()));
+    JNI_TRACE("signWithSignatureAlgorithm(%p) => %zu bytes", pkey, actualLen);
+    return signature.release();
 }
 
 static void NativeCrypto_SSL_set_client_CA_list(JNIEnv* env, jclass, jlong ssl_address,
@@ -9707,21 +10184,102 @@ static jboolean NativeCrypto_SSL_session_reused(JNIEnv* env, jclass, jlong ssl_a
     return static_cast<jboolean>(reused);
 }
 
-static void NativeCrypto_SSL_accept_renegotiations(JNIEnv* env, jclass, jlong ssl_address,
-                                                   CONSCRYPT_UNUSED jobject ssl_holder) {
+static void NativeCrypto_SSL_set_early_data_enabled(JNIEnv* env, jclass, jlong ssl_address,
+                                                    CONSCRYPT_UNUSED jobject ssl_holder,
+                                                    jboolean enabled) {
     CHECK_ERROR_QUEUE_ON_RETURN;
     SSL* ssl = to_SSL(env, ssl_address, true);
-    JNI_TRACE("ssl=%p NativeCrypto_SSL_accept_renegotiations", ssl);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_set_early_data_enabled enabled=%d", ssl, enabled);
     if (ssl == nullptr) {
         return;
     }
 
-    SSL_set_renegotiate_mode(ssl, ssl_renegotiate_freely);
+    SSL_set_early_data_enabled(ssl, enabled ? 1 : 0);
 }
 
-static void NativeCrypto_SSL_set_tlsext_host_name(JNIEnv* env, jclass, jlong ssl_address,
-                                                  CONSCRYPT_UNUSED jobject ssl_holder,
-                                                  jstring hostname) {
+static jboolean NativeCrypto_SSL_in_early_data(JNIEnv* env, jclass, jlong ssl_address,
+                                               CONSCRYPT_UNUSED jobject ssl_holder) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_in_early_data", ssl);
+    if (ssl == nullptr) {
+        return JNI_FALSE;
+    }
+
+    int in_early_data = SSL_in_early_data(ssl);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_in_early_data => %d", ssl, in_early_data);
+    return in_early_data ? JNI_TRUE : JNI_FALSE;
+}
+
+static jboolean NativeCrypto_SSL_early_data_accepted(JNIEnv* env, jclass, jlong ssl_address,
+                                                     CONSCRYPT_UNUSED jobject ssl_holder) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_early_data_accepted", ssl);
+    if (ssl == nullptr) {
+        return JNI_FALSE;
+    }
+
+    int accepted = SSL_early_data_accepted(ssl);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_early_data_accepted => %d", ssl, accepted);
+    return accepted ? JNI_TRUE : JNI_FALSE;
+}
+
+/**
+ * Resets the client after the server rejected its early data, so that the handshake can be
+ * continued without it.
+ */
+static void NativeCrypto_SSL_reset_early_data_reject(JNIEnv* env, jclass, jlong ssl_address,
+                                                     CONSCRYPT_UNUSED jobject ssl_holder) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_reset_early_data_reject", ssl);
+    if (ssl == nullptr) {
+        return;
+    }
+
+    SSL_reset_early_data_reject(ssl);
+}
+
+static jbyteArray NativeCrypto_SSL_get_client_random(JNIEnv* env, jclass, jlong ssl_address,
+                                                     CONSCRYPT_UNUSED jobject ssl_holder) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_get_client_random", ssl);
+    if (ssl == nullptr) {
+        return nullptr;
+    }
+
+    uint8_t data[SSL3_RANDOM_SIZE];
+    size_t data_len = SSL_get_client_random(ssl, data, sizeof(data));
+    ScopedLocalRef<jbyteArray> byteArray(env, env->NewByteArray(static_cast<jsize>(data_len)));
+    if (byteArray.get() == nullptr) {
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_get_client_random => creating byte array failed",
+                  ssl);
+        return nullptr;
+    }
+
+    env->SetByteArrayRegion(byteArray.get(), 0, static_cast<jsize>(data_len),
+                            reinterpret_cast<const jbyte*>(data));
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_get_client_random => %p", ssl, byteArray.get());
+    return byteArray.release();
+}
+
+static void NativeCrypto_SSL_accept_renegotiations(JNIEnv* env, jclass, jlong ssl_address,
+                                                   CONSCRYPT_UNUSED jobject ssl_holder) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_accept_renegotiations", ssl);
+    if (ssl == nullptr) {
+        return;
+    }
+
+    SSL_set_renegotiate_mode(ssl, ssl_renegotiate_freely);
+}
+
+static void NativeCrypto_SSL_set_tlsext_host_name(JNIEnv* env, jclass, jlong ssl_address,
+                                                  CONSCRYPT_UNUSED jobject ssl_holder,
+                                                  jstring hostname) {
     CHECK_ERROR_QUEUE_ON_RETURN;
     SSL* ssl = to_SSL(env, ssl_address, true);
     JNI_TRACE("ssl=%p NativeCrypto_SSL_set_tlsext_host_name hostname=%p", ssl, hostname);
@@ -10492,6 +11050,70 @@ static jint NativeCrypto_SSL_read(JNIEnv* env, jclass, jlong ssl_address,
     return result;
 }
 
+/**
+ * Variant of NativeCrypto_SSL_read which reads into native memory, typically the contents of a
+ * direct ByteBuffer.
+ */
+static jint NativeCrypto_SSL_read_direct(JNIEnv* env, jclass, jlong ssl_address,
+                                         CONSCRYPT_UNUSED jobject ssl_holder, jobject fdObject,
+                                         jobject shc, jlong address, jint len,
+                                         jint read_timeout_millis) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    char* destPtr = reinterpret_cast<char*>(address);
+    JNI_TRACE(
+            "ssl=%p NativeCrypto_SSL_read_direct fd=%p shc=%p address=%p len=%d "
+            "read_timeout_millis=%d",
+            ssl, fdObject, shc, destPtr, len, read_timeout_millis);
+    if (ssl == nullptr) {
+        return 0;
+    }
+    if (fdObject == nullptr) {
+        conscrypt::jniutil::throwNullPointerException(env, "fd == null");
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_read_direct => fd == null", ssl);
+        return 0;
+    }
+    if (shc == nullptr) {
+        conscrypt::jniutil::throwNullPointerException(env, "sslHandshakeCallbacks == null");
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_read_direct => sslHandshakeCallbacks == null", ssl);
+        return 0;
+    }
+    if (destPtr == nullptr || len < 0) {
+        conscrypt::jniutil::throwException(env, "java/lang/IllegalArgumentException",
+                                           "Invalid destination buffer");
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_read_direct => invalid buffer", ssl);
+        return 0;
+    }
+
+    SslError sslError;
+    int ret = sslRead(env, ssl, fdObject, shc, destPtr, len, &sslError, read_timeout_millis);
+
+    int result;
+    switch (ret) {
+        case THROW_SSLEXCEPTION:
+            // See sslRead() regarding improper failure to handle normal cases.
+            conscrypt::jniutil::throwSSLExceptionWithSslErrors(env, ssl, sslError.release(),
+                                                               "Read error");
+            result = -1;
+            break;
+        case THROW_SOCKETTIMEOUTEXCEPTION:
+            conscrypt::jniutil::throwSocketTimeoutException(env, "Read timed out");
+            result = -1;
+            break;
+        case THROWN_EXCEPTION:
+            // SocketException thrown by NetFd.isClosed
+            // or RuntimeException thrown by callback
+            result = -1;
+            break;
+        default:
+            result = ret;
+            break;
+    }
+
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_read_direct => %d", ssl, result);
+    return result;
+}
+
 static int sslWrite(JNIEnv* env, SSL* ssl, jobject fdObject, jobject shc, const char* buf, jint len,
                     SslError* sslError, int write_timeout_millis) {
     JNI_TRACE("ssl=%p sslWrite buf=%p len=%d write_timeout_millis=%d", ssl, buf, len,
@@ -10730,81 +11352,523 @@ static void NativeCrypto_SSL_write(JNIEnv* env, jclass, jlong ssl_address,
 }
 
 /**
- * Interrupt any pending I/O before closing the socket.
+ * Variant of NativeCrypto_SSL_write which writes from native memory, typically the contents of
+ * a direct ByteBuffer.
  */
-static void NativeCrypto_SSL_interrupt(JNIEnv* env, jclass, jlong ssl_address,
-                                       CONSCRYPT_UNUSED jobject ssl_holder) {
+static void NativeCrypto_SSL_write_direct(JNIEnv* env, jclass, jlong ssl_address,
+                                          CONSCRYPT_UNUSED jobject ssl_holder, jobject fdObject,
+                                          jobject shc, jlong address, jint len,
+                                          jint write_timeout_millis) {
     CHECK_ERROR_QUEUE_ON_RETURN;
-    SSL* ssl = to_SSL(env, ssl_address, false);
-    JNI_TRACE("ssl=%p NativeCrypto_SSL_interrupt", ssl);
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    const char* sourcePtr = reinterpret_cast<const char*>(address);
+    JNI_TRACE(
+            "ssl=%p NativeCrypto_SSL_write_direct fd=%p shc=%p address=%p len=%d "
+            "write_timeout_millis=%d",
+            ssl, fdObject, shc, sourcePtr, len, write_timeout_millis);
     if (ssl == nullptr) {
         return;
     }
+    if (fdObject == nullptr) {
+        conscrypt::jniutil::throwNullPointerException(env, "fd == null");
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_write_direct => fd == null", ssl);
+        return;
+    }
+    if (shc == nullptr) {
+        conscrypt::jniutil::throwNullPointerException(env, "sslHandshakeCallbacks == null");
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_write_direct => sslHandshakeCallbacks == null", ssl);
+        return;
+    }
+    if (sourcePtr == nullptr || len < 0) {
+        conscrypt::jniutil::throwException(env, "java/lang/IllegalArgumentException",
+                                           "Invalid source buffer");
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_write_direct => invalid buffer", ssl);
+        return;
+    }
 
-    /*
-     * Mark the connection as quasi-dead, then send something to the emergency
-     * file descriptor, so any blocking select() calls are woken up.
-     */
+    SslError sslError;
+    int ret = sslWrite(env, ssl, fdObject, shc, sourcePtr, len, &sslError, write_timeout_millis);
+
+    switch (ret) {
+        case THROW_SSLEXCEPTION:
+            // See sslWrite() regarding improper failure to handle normal cases.
+            conscrypt::jniutil::throwSSLExceptionWithSslErrors(env, ssl, sslError.release(),
+                                                               "Write error");
+            break;
+        case THROW_SOCKETTIMEOUTEXCEPTION:
+            conscrypt::jniutil::throwSocketTimeoutException(env, "Write timed out");
+            break;
+        case THROWN_EXCEPTION:
+            // SocketException thrown by NetFd.isClosed
+            break;
+        default:
+            break;
+    }
+}
+
+#ifdef CONSCRYPT_HAVE_KTLS
+/**
+ * Derives a TLS 1.3 traffic key or IV from |secret| with HKDF-Expand-Label and an empty
+ * context, see RFC 8446, section 7.3.
+ */
+static bool ktlsExpandLabel(const EVP_MD* digest, bssl::Span<const uint8_t> secret,
+                            const char* label, uint8_t* out, size_t out_len) {
+    static const char kLabelPrefix[] = "tls13 ";
+    size_t prefix_len = strlen(kLabelPrefix);
+    size_t label_len = strlen(label);
+    std::vector<uint8_t> info;
+    info.push_back(static_cast<uint8_t>(out_len >> 8));
+    info.push_back(static_cast<uint8_t>(out_len));
+    info.push_back(static_cast<uint8_t>(prefix_len + label_len));
+    info.insert(info.end(), kLabelPrefix, kLabelPrefix + prefix_len);
+    info.insert(info.end(), label, label + label_len);
+    info.push_back(0);
+    return HKDF_expand(out, out_len, digest, secret.data(), secret.size(), info.data(),
+                       info.size()) == 1;
+}
+
+/**
+ * Writes |len| bytes of application data to a socket whose outgoing records are encrypted by
+ * the kernel. Returns the number of bytes written or one of the THROW_* codes of sslWrite.
+ */
+static int ktlsWrite(JNIEnv* env, SSL* ssl, jobject fdObject, const char* buf, jint len,
+                     int write_timeout_millis) {
+    JNI_TRACE("ssl=%p ktlsWrite buf=%p len=%d write_timeout_millis=%d", ssl, buf, len,
+              write_timeout_millis);
     AppData* appData = toAppData(ssl);
-    if (appData != nullptr) {
-        appData->aliveAndKicking = false;
+    if (appData == nullptr) {
+        return THROW_SSLEXCEPTION;
+    }
 
-        // At most two threads can be waiting.
-        sslNotify(appData);
-        sslNotify(appData);
+    int count = len;
+    while (appData->aliveAndKicking && len > 0) {
+        NetFd fd(env, fdObject);
+        if (fd.isClosed()) {
+            return THROWN_EXCEPTION;
+        }
+        ssize_t result = send(fd.get(), buf, static_cast<size_t>(len), MSG_NOSIGNAL);
+        JNI_TRACE("ssl=%p ktlsWrite send len=%d => %zd", ssl, len, result);
+        if (result > 0) {
+            buf += result;
+            len -= static_cast<jint>(result);
+            continue;
+        }
+        if (result < 0 && errno == EINTR) {
+            continue;
+        }
+        if (result < 0 && (errno == EAGAIN || errno == EWOULDBLOCK)) {
+            {
+                std::lock_guard<std::mutex> appDataLock(appData->mutex);
+                appData->waitingThreads++;
+            }
+            int selectResult =
+                    sslSelect(env, SSL_ERROR_WANT_WRITE, fdObject, appData, write_timeout_millis);
+            if (selectResult == THROWN_EXCEPTION) {
+                return THROWN_EXCEPTION;
+            }
+            if (selectResult == 0) {
+                return THROW_SOCKETTIMEOUTEXCEPTION;
+            }
+            if (selectResult == -1) {
+                return THROW_SSLEXCEPTION;
+            }
+            continue;
+        }
+        conscrypt::jniutil::throwException(env, "java/net/SocketException", strerror(errno));
+        return THROWN_EXCEPTION;
     }
+    return count;
 }
+#endif  // CONSCRYPT_HAVE_KTLS
 
 /**
- * OpenSSL close SSL socket function.
+ * Moves the encryption of outgoing records of an established connection into the kernel with
+ * the Linux "tls" upper layer protocol. Returns false, leaving the connection unchanged, if
+ * the platform, the kernel or the negotiated cipher does not support it.
  */
-static void NativeCrypto_SSL_shutdown(JNIEnv* env, jclass, jlong ssl_address,
-                                      CONSCRYPT_UNUSED jobject ssl_holder, jobject fdObject,
-                                      jobject shc) {
+static jboolean NativeCrypto_SSL_enable_ktls_tx(JNIEnv* env, jclass, jlong ssl_address,
+                                                CONSCRYPT_UNUSED jobject ssl_holder,
+                                                jobject fdObject) {
     CHECK_ERROR_QUEUE_ON_RETURN;
-    SSL* ssl = to_SSL(env, ssl_address, false);
-    JNI_TRACE("ssl=%p NativeCrypto_SSL_shutdown fd=%p shc=%p", ssl, fdObject, shc);
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_enable_ktls_tx fd=%p", ssl, fdObject);
     if (ssl == nullptr) {
-        return;
+        return JNI_FALSE;
     }
     if (fdObject == nullptr) {
-        return;
+        conscrypt::jniutil::throwNullPointerException(env, "fd == null");
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_enable_ktls_tx => fd == null", ssl);
+        return JNI_FALSE;
     }
-    if (shc == nullptr) {
-        conscrypt::jniutil::throwNullPointerException(env, "sslHandshakeCallbacks == null");
-        JNI_TRACE("ssl=%p NativeCrypto_SSL_shutdown => sslHandshakeCallbacks == null", ssl);
-        return;
+#ifdef CONSCRYPT_HAVE_KTLS
+    if (!SSL_is_init_finished(ssl)) {
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_enable_ktls_tx => handshake not finished", ssl);
+        return JNI_FALSE;
+    }
+    NetFd fd(env, fdObject);
+    if (fd.isClosed()) {
+        return JNI_FALSE;
     }
 
-    AppData* appData = toAppData(ssl);
-    if (appData != nullptr) {
-        if (!appData->setCallbackState(env, shc, fdObject)) {
-            // SocketException thrown by NetFd.isClosed
+    int version = SSL_version(ssl);
+    const SSL_CIPHER* cipher = SSL_get_current_cipher(ssl);
+    if (cipher == nullptr || (version != TLS1_2_VERSION && version != TLS1_3_VERSION)) {
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_enable_ktls_tx => unsupported version", ssl);
+        return JNI_FALSE;
+    }
+
+    // All supported AEADs use a 12 byte nonce. In TLS 1.2 only the first |fixed_iv_len| bytes
+    // come from the key block and the rest is the explicit nonce of each record.
+    size_t key_len;
+    size_t fixed_iv_len;
+    uint16_t cipher_type;
+    switch (SSL_CIPHER_get_cipher_nid(cipher)) {
+        case NID_aes_128_gcm:
+            key_len = TLS_CIPHER_AES_GCM_128_KEY_SIZE;
+            fixed_iv_len = TLS_CIPHER_AES_GCM_128_SALT_SIZE;
+            cipher_type = TLS_CIPHER_AES_GCM_128;
+            break;
+        case NID_aes_256_gcm:
+            key_len = TLS_CIPHER_AES_GCM_256_KEY_SIZE;
+            fixed_iv_len = TLS_CIPHER_AES_GCM_256_SALT_SIZE;
+            cipher_type = TLS_CIPHER_AES_GCM_256;
+            break;
+#ifdef TLS_CIPHER_CHACHA20_POLY1305
+        case NID_chacha20_poly1305:
+            key_len = TLS_CIPHER_CHACHA20_POLY1305_KEY_SIZE;
+            fixed_iv_len = TLS_CIPHER_CHACHA20_POLY1305_IV_SIZE;
+            cipher_type = TLS_CIPHER_CHACHA20_POLY1305;
+            break;
+#endif
+        default:
+            JNI_TRACE("ssl=%p NativeCrypto_SSL_enable_ktls_tx => unsupported cipher", ssl);
+            return JNI_FALSE;
+    }
+
+    uint8_t key[32];
+    uint8_t iv[12];
+    if (version == TLS1_3_VERSION) {
+        bssl::Span<const uint8_t> read_secret;
+        bssl::Span<const uint8_t> write_secret;
+        const EVP_MD* digest = SSL_CIPHER_get_handshake_digest(cipher);
+        if (!bssl::SSL_get_traffic_secrets(ssl, &read_secret, &write_secret) ||
+            !ktlsExpandLabel(digest, write_secret, "key", key, key_len) ||
+            !ktlsExpandLabel(digest, write_secret, "iv", iv, sizeof(iv))) {
             ERR_clear_error();
-            return;
+            JNI_TRACE("ssl=%p NativeCrypto_SSL_enable_ktls_tx => no traffic secret", ssl);
+            return JNI_FALSE;
         }
-
-        /*
-         * Try to make socket blocking again. OpenSSL literature recommends this.
-         */
-        int fd = SSL_get_fd(ssl);
-        JNI_TRACE("ssl=%p NativeCrypto_SSL_shutdown s=%d", ssl, fd);
-#ifndef _WIN32
-        if (fd != -1) {
-            conscrypt::netutil::setBlocking(fd, true);
+    } else {
+        // AEAD key blocks hold no MAC keys: client key, server key, client IV, server IV.
+        size_t block_len = SSL_get_key_block_len(ssl);
+        if (block_len != 2 * (key_len + fixed_iv_len)) {
+            JNI_TRACE("ssl=%p NativeCrypto_SSL_enable_ktls_tx => unexpected key block", ssl);
+            return JNI_FALSE;
+        }
+        std::vector<uint8_t> block(block_len);
+        if (!SSL_generate_key_block(ssl, block.data(), block_len)) {
+            ERR_clear_error();
+            JNI_TRACE("ssl=%p NativeCrypto_SSL_enable_ktls_tx => no key block", ssl);
+            return JNI_FALSE;
         }
+        bool server = SSL_is_server(ssl);
+        memcpy(key, block.data() + (server ? key_len : 0), key_len);
+        memcpy(iv, block.data() + 2 * key_len + (server ? fixed_iv_len : 0), fixed_iv_len);
+        OPENSSL_cleanse(block.data(), block.size());
+    }
+
+    uint64_t sequence = SSL_get_write_sequence(ssl);
+    uint8_t rec_seq[8];
+    for (size_t i = 0; i < sizeof(rec_seq); i++) {
+        rec_seq[i] = static_cast<uint8_t>(sequence >> (56 - 8 * i));
+    }
+
+    union {
+        struct tls12_crypto_info_aes_gcm_128 aes_gcm_128;
+        struct tls12_crypto_info_aes_gcm_256 aes_gcm_256;
+#ifdef TLS_CIPHER_CHACHA20_POLY1305
+        struct tls12_crypto_info_chacha20_poly1305 chacha20_poly1305;
+#endif
+    } crypto_info;
+    memset(&crypto_info, 0, sizeof(crypto_info));
+    socklen_t crypto_info_len = 0;
+    uint16_t tls_version = version == TLS1_3_VERSION ? TLS_1_3_VERSION : TLS_1_2_VERSION;
+    // For GCM in TLS 1.3 the kernel XORs the sequence number into salt || iv, in TLS 1.2 it
+    // sends iv as the explicit nonce, which BoringSSL also takes from the sequence number.
+    const uint8_t* gcm_iv = version == TLS1_3_VERSION ? iv + 4 : rec_seq;
+    switch (cipher_type) {
+        case TLS_CIPHER_AES_GCM_128:
+            crypto_info.aes_gcm_128.info.version = tls_version;
+            crypto_info.aes_gcm_128.info.cipher_type = cipher_type;
+            memcpy(crypto_info.aes_gcm_128.key, key, key_len);
+            memcpy(crypto_info.aes_gcm_128.salt, iv, 4);
+            memcpy(crypto_info.aes_gcm_128.iv, gcm_iv, 8);
+            memcpy(crypto_info.aes_gcm_128.rec_seq, rec_seq, sizeof(rec_seq));
+            crypto_info_len = sizeof(crypto_info.aes_gcm_128);
+            break;
+        case TLS_CIPHER_AES_GCM_256:
+            crypto_info.aes_gcm_256.info.version = tls_version;
+            crypto_info.aes_gcm_256.info.cipher_type = cipher_type;
+            memcpy(crypto_info.aes_gcm_256.key, key, key_len);
+            memcpy(crypto_info.aes_gcm_256.salt, iv, 4);
+            memcpy(crypto_info.aes_gcm_256.iv, gcm_iv, 8);
+            memcpy(crypto_info.aes_gcm_256.rec_seq, rec_seq, sizeof(rec_seq));
+            crypto_info_len = sizeof(crypto_info.aes_gcm_256);
+            break;
+#ifdef TLS_CIPHER_CHACHA20_POLY1305
+        case TLS_CIPHER_CHACHA20_POLY1305:
+            crypto_info.chacha20_poly1305.info.version = tls_version;
+            crypto_info.chacha20_poly1305.info.cipher_type = cipher_type;
+            memcpy(crypto_info.chacha20_poly1305.key, key, key_len);
+            memcpy(crypto_info.chacha20_poly1305.iv, iv, sizeof(iv));
+            memcpy(crypto_info.chacha20_poly1305.rec_seq, rec_seq, sizeof(rec_seq));
+            crypto_info_len = sizeof(crypto_info.chacha20_poly1305);
+            break;
 #endif
+    }
+    OPENSSL_cleanse(key, sizeof(key));
+    OPENSSL_cleanse(iv, sizeof(iv));
+
+    // Attaching the ULP fails with ENOENT if the tls module is not available. Until TLS_TX is
+    // set the socket keeps passing data through unchanged, so both failures leave the
+    // connection usable by BoringSSL.
+    bool enabled = setsockopt(fd.get(), IPPROTO_TCP, TCP_ULP, "tls", sizeof("tls")) == 0 &&
+                   setsockopt(fd.get(), SOL_TLS, TLS_TX, &crypto_info, crypto_info_len) == 0;
+    int saved_errno = errno;
+    OPENSSL_cleanse(&crypto_info, sizeof(crypto_info));
+    if (!enabled) {
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_enable_ktls_tx => setsockopt failed: %s", ssl,
+                  strerror(saved_errno));
+        return JNI_FALSE;
+    }
 
-        int ret = SSL_shutdown(ssl);
-        appData->clearCallbackState();
-        // callbacks can happen if server requests renegotiation
-        if (env->ExceptionCheck()) {
-            JNI_TRACE("ssl=%p NativeCrypto_SSL_shutdown => exception", ssl);
-            return;
-        }
-        switch (ret) {
-            case 0:
-                /*
+    // The kernel now owns the write sequence numbers, so BoringSSL must not write records to
+    // the socket anymore. Anything it still produces itself, such as a KeyUpdate in response
+    // to the peer, is discarded.
+    SSL_set0_wbio(ssl, BIO_new(BIO_s_mem()));
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_enable_ktls_tx => enabled", ssl);
+    return JNI_TRUE;
+#else
+    return JNI_FALSE;
+#endif  // CONSCRYPT_HAVE_KTLS
+}
+
+/**
+ * Writes application data to a connection set up with SSL_enable_ktls_tx.
+ */
+static void NativeCrypto_SSL_write_ktls(JNIEnv* env, jclass, jlong ssl_address,
+                                        CONSCRYPT_UNUSED jobject ssl_holder, jobject fdObject,
+                                        jbyteArray b, jint offset, jint len,
+                                        jint write_timeout_millis) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_write_ktls fd=%p b=%p offset=%d len=%d", ssl, fdObject,
+              b, offset, len);
+    if (ssl == nullptr) {
+        return;
+    }
+    if (fdObject == nullptr) {
+        conscrypt::jniutil::throwNullPointerException(env, "fd == null");
+        return;
+    }
+    if (b == nullptr) {
+        conscrypt::jniutil::throwNullPointerException(env, "b == null");
+        return;
+    }
+    size_t array_size = static_cast<size_t>(env->GetArrayLength(b));
+    if (ARRAY_CHUNK_INVALID(array_size, offset, len)) {
+        conscrypt::jniutil::throwException(env, "java/lang/ArrayIndexOutOfBoundsException", "b");
+        return;
+    }
+#ifdef CONSCRYPT_HAVE_KTLS
+    ScopedByteArrayRO bytes(env, b);
+    if (bytes.get() == nullptr) {
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_write_ktls => threw exception", ssl);
+        return;
+    }
+    int ret = ktlsWrite(env, ssl, fdObject, reinterpret_cast<const char*>(bytes.get() + offset),
+                        len, write_timeout_millis);
+    switch (ret) {
+        case THROW_SSLEXCEPTION:
+            conscrypt::jniutil::throwSSLExceptionStr(env, "Write error");
+            break;
+        case THROW_SOCKETTIMEOUTEXCEPTION:
+            conscrypt::jniutil::throwSocketTimeoutException(env, "Write timed out");
+            break;
+        default:
+            break;
+    }
+#else
+    conscrypt::jniutil::throwSSLExceptionStr(env, "Kernel TLS is not supported");
+#endif  // CONSCRYPT_HAVE_KTLS
+}
+
+/**
+ * Variant of NativeCrypto_SSL_write_ktls which writes from native memory.
+ */
+static void NativeCrypto_SSL_write_ktls_direct(JNIEnv* env, jclass, jlong ssl_address,
+                                               CONSCRYPT_UNUSED jobject ssl_holder,
+                                               jobject fdObject, jlong address, jint len,
+                                               jint write_timeout_millis) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    const char* sourcePtr = reinterpret_cast<const char*>(address);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_write_ktls_direct fd=%p address=%p len=%d", ssl, fdObject,
+              sourcePtr, len);
+    if (ssl == nullptr) {
+        return;
+    }
+    if (fdObject == nullptr) {
+        conscrypt::jniutil::throwNullPointerException(env, "fd == null");
+        return;
+    }
+    if (sourcePtr == nullptr || len < 0) {
+        conscrypt::jniutil::throwException(env, "java/lang/IllegalArgumentException",
+                                           "Invalid source buffer");
+        return;
+    }
+#ifdef CONSCRYPT_HAVE_KTLS
+    int ret = ktlsWrite(env, ssl, fdObject, sourcePtr, len, write_timeout_millis);
+    switch (ret) {
+        case THROW_SSLEXCEPTION:
+            conscrypt::jniutil::throwSSLExceptionStr(env, "Write error");
+            break;
+        case THROW_SOCKETTIMEOUTEXCEPTION:
+            conscrypt::jniutil::throwSocketTimeoutException(env, "Write timed out");
+            break;
+        default:
+            break;
+    }
+#else
+    conscrypt::jniutil::throwSSLExceptionStr(env, "Kernel TLS is not supported");
+#endif  // CONSCRYPT_HAVE_KTLS
+}
+
+/**
+ * Sends a close_notify alert on a connection set up with SSL_enable_ktls_tx, in place of
+ * SSL_shutdown.
+ */
+static void NativeCrypto_SSL_shutdown_ktls(JNIEnv* env, jclass, jlong ssl_address,
+                                           CONSCRYPT_UNUSED jobject ssl_holder,
+                                           jobject fdObject) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, false);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_shutdown_ktls fd=%p", ssl, fdObject);
+    if (ssl == nullptr || fdObject == nullptr) {
+        return;
+    }
+#ifdef CONSCRYPT_HAVE_KTLS
+    NetFd fd(env, fdObject);
+    if (fd.isClosed()) {
+        return;
+    }
+    conscrypt::netutil::setBlocking(fd.get(), true);
+
+    // A warning level close_notify alert, sent as a record of type alert(21).
+    uint8_t alert[2] = {1, 0};
+    struct iovec iov;
+    iov.iov_base = alert;
+    iov.iov_len = sizeof(alert);
+    char control[CMSG_SPACE(sizeof(uint8_t))];
+    memset(control, 0, sizeof(control));
+    struct msghdr msg;
+    memset(&msg, 0, sizeof(msg));
+    msg.msg_iov = &iov;
+    msg.msg_iovlen = 1;
+    msg.msg_control = control;
+    msg.msg_controllen = sizeof(control);
+    struct cmsghdr* cmsg = CMSG_FIRSTHDR(&msg);
+    cmsg->cmsg_level = SOL_TLS;
+    cmsg->cmsg_type = TLS_SET_RECORD_TYPE;
+    cmsg->cmsg_len = CMSG_LEN(sizeof(uint8_t));
+    *CMSG_DATA(cmsg) = 21;
+
+    // As with SSL_shutdown, failing to notify a peer which has gone away is not an error.
+    ssize_t result = sendmsg(fd.get(), &msg, MSG_NOSIGNAL);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_shutdown_ktls sendmsg => %zd", ssl, result);
+    if (result == static_cast<ssize_t>(sizeof(alert))) {
+        SSL_set_shutdown(ssl, SSL_get_shutdown(ssl) | SSL_SENT_SHUTDOWN);
+    }
+#endif  // CONSCRYPT_HAVE_KTLS
+    ERR_clear_error();
+}
+
+/**
+ * Interrupt any pending I/O before closing the socket.
+ */
+static void NativeCrypto_SSL_interrupt(JNIEnv* env, jclass, jlong ssl_address,
+                                       CONSCRYPT_UNUSED jobject ssl_holder) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, false);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_interrupt", ssl);
+    if (ssl == nullptr) {
+        return;
+    }
+
+    /*
+     * Mark the connection as quasi-dead, then send something to the emergency
+     * file descriptor, so any blocking select() calls are woken up.
+     */
+    AppData* appData = toAppData(ssl);
+    if (appData != nullptr) {
+        appData->aliveAndKicking = false;
+
+        // At most two threads can be waiting.
+        sslNotify(appData);
+        sslNotify(appData);
+    }
+}
+
+/**
+ * OpenSSL close SSL socket function.
+ */
+static void NativeCrypto_SSL_shutdown(JNIEnv* env, jclass, jlong ssl_address,
+                                      CONSCRYPT_UNUSED jobject ssl_holder, jobject fdObject,
+                                      jobject shc) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, false);
+    JNI_TRACE("ssl=%p NativeCrypto_SSL_shutdown fd=%p shc=%p", ssl, fdObject, shc);
+    if (ssl == nullptr) {
+        return;
+    }
+    if (fdObject == nullptr) {
+        return;
+    }
+    if (shc == nullptr) {
+        conscrypt::jniutil::throwNullPointerException(env, "sslHandshakeCallbacks == null");
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_shutdown => sslHandshakeCallbacks == null", ssl);
+        return;
+    }
+
+    AppData* appData = toAppData(ssl);
+    if (appData != nullptr) {
+        if (!appData->setCallbackState(env, shc, fdObject)) {
+            // SocketException thrown by NetFd.isClosed
+            ERR_clear_error();
+            return;
+        }
+
+        /*
+         * Try to make socket blocking again. OpenSSL literature recommends this.
+         */
+        int fd = SSL_get_fd(ssl);
+        JNI_TRACE("ssl=%p NativeCrypto_SSL_shutdown s=%d", ssl, fd);
+#ifndef _WIN32
+        if (fd != -1) {
+            conscrypt::netutil::setBlocking(fd, true);
+        }
+#endif
+
+        int ret = SSL_shutdown(ssl);
+        appData->clearCallbackState();
+        // callbacks can happen if server requests renegotiation
+        if (env->ExceptionCheck()) {
+            JNI_TRACE("ssl=%p NativeCrypto_SSL_shutdown => exception", ssl);
+            return;
+        }
+        switch (ret) {
+            case 0:
+                /*
                  * Shutdown was not successful (yet), but there also
                  * is no error. Since we can't know whether the remote
                  * server is actually still there, and we don't want to
@@ -11087,6 +12151,27 @@ static jboolean NativeCrypto_SSL_SESSION_should_be_single_use(JNIEnv* env, jclas
     return single_use ? JNI_TRUE : JNI_FALSE;
 }
 
+/**
+ * Returns the maximum amount of early data which may be sent when resuming the session, or zero
+ * if the session cannot be used for early data.
+ */
+static jlong NativeCrypto_SSL_SESSION_get_max_early_data(JNIEnv* env, jclass,
+                                                         jlong ssl_session_address) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL_SESSION* ssl_session = to_SSL_SESSION(env, ssl_session_address, true);
+    JNI_TRACE("ssl_session=%p NativeCrypto_SSL_SESSION_get_max_early_data", ssl_session);
+    if (ssl_session == nullptr) {
+        return 0;
+    }
+    if (!SSL_SESSION_early_data_capable(ssl_session)) {
+        return 0;
+    }
+    uint32_t max_early_data = SSL_SESSION_get_max_early_data(ssl_session);
+    JNI_TRACE("ssl_session=%p NativeCrypto_SSL_SESSION_get_max_early_data => %u", ssl_session,
+              max_early_data);
+    return static_cast<jlong>(max_early_data);
+}
+
 /**
  * Increments the reference count of the session.
  */
@@ -11580,7 +12665,9 @@ static jint NativeCrypto_ENGINE_SSL_do_handshake(JNIEnv* env, jclass, jlong ssl_
     SslError sslError(ssl, ret);
     int code = sslError.get();
 
-    if (ret > 0 || code == SSL_ERROR_WANT_READ || code == SSL_ERROR_WANT_WRITE) {
+    if (ret > 0 || code == SSL_ERROR_WANT_READ || code == SSL_ERROR_WANT_WRITE ||
+        code == SSL_ERROR_WANT_PRIVATE_KEY_OPERATION || code == SSL_ERROR_WANT_CERTIFICATE_VERIFY ||
+        code == SSL_ERROR_EARLY_DATA_REJECTED) {
         // Non-exceptional case.
         JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_do_handshake shc=%p => ret=%d", ssl, shc, code);
         return code;
@@ -11688,6 +12775,66 @@ static void NativeCrypto_ENGINE_SSL_shutdown(JNIEnv* env, jclass, jlong ssl_addr
     ERR_clear_error();
 }
 
+/**
+ * Converts the result of an SSL_read by the engine into the value returned to Java, throwing
+ * the appropriate exception for errors other than SSL_ERROR_ZERO_RETURN, SSL_ERROR_WANT_READ
+ * and SSL_ERROR_WANT_WRITE, which are returned negated.
+ */
+static int engineSslReadResult(JNIEnv* env, SSL* ssl, int result) {
+    SslError sslError(ssl, result);
+    switch (sslError.get()) {
+        case SSL_ERROR_NONE: {
+            // Successfully read at least one byte. Just return the result.
+            break;
+        }
+        case SSL_ERROR_ZERO_RETURN: {
+            // A close_notify was received, this stream is finished.
+            result = -SSL_ERROR_ZERO_RETURN;
+            break;
+        }
+        case SSL_ERROR_WANT_READ:
+        case SSL_ERROR_WANT_WRITE:
+        case SSL_ERROR_WANT_PRIVATE_KEY_OPERATION:
+        case SSL_ERROR_WANT_CERTIFICATE_VERIFY:
+        case SSL_ERROR_EARLY_DATA_REJECTED: {
+            // Return the negative of these values.
+            result = -sslError.get();
+            break;
+        }
+        case SSL_ERROR_SYSCALL: {
+            // A problem occurred during a system call, but this is not
+            // necessarily an error.
+            if (result == 0) {
+                // TODO(nmittler): Can this happen with memory BIOs?
+                // Connection closed without proper shutdown. Tell caller we
+                // have reached end-of-stream.
+                conscrypt::jniutil::throwException(env, "java/io/EOFException", "Read error");
+                break;
+            }
+
+            if (errno == EINTR) {
+                // TODO(nmittler): Can this happen with memory BIOs?
+                // System call has been interrupted. Simply retry.
+                conscrypt::jniutil::throwException(env, "java/io/InterruptedIOException",
+                                                   "Read error");
+                break;
+            }
+
+            // Note that for all other system call errors we fall through
+            // to the default case, which results in an Exception.
+            FALLTHROUGH_INTENDED;
+        }
+        default: {
+            // Everything else is basically an error.
+            conscrypt::jniutil::throwSSLExceptionWithSslErrors(env, ssl, sslError.release(),
+                                                               "Read error");
+            break;
+        }
+    }
+
+    return result;
+}
+
 static jint NativeCrypto_ENGINE_SSL_read_direct(JNIEnv* env, jclass, jlong ssl_address,
                                                 CONSCRYPT_UNUSED jobject ssl_holder, jlong address,
                                                 jint length, jobject shc) {
@@ -11733,52 +12880,7 @@ static jint NativeCrypto_ENGINE_SSL_read_direct(JNIEnv* env, jclass, jlong ssl_a
         return -1;
     }
 
-    SslError sslError(ssl, result);
-    switch (sslError.get()) {
-        case SSL_ERROR_NONE: {
-            // Successfully read at least one byte. Just return the result.
-            break;
-        }
-        case SSL_ERROR_ZERO_RETURN: {
-            // A close_notify was received, this stream is finished.
-            return -SSL_ERROR_ZERO_RETURN;
-        }
-        case SSL_ERROR_WANT_READ:
-        case SSL_ERROR_WANT_WRITE: {
-            // Return the negative of these values.
-            result = -sslError.get();
-            break;
-        }
-        case SSL_ERROR_SYSCALL: {
-            // A problem occurred during a system call, but this is not
-            // necessarily an error.
-            if (result == 0) {
-                // TODO(nmittler): Can this happen with memory BIOs?
-                // Connection closed without proper shutdown. Tell caller we
-                // have reached end-of-stream.
-                conscrypt::jniutil::throwException(env, "java/io/EOFException", "Read error");
-                break;
-            }
-
-            if (errno == EINTR) {
-                // TODO(nmittler): Can this happen with memory BIOs?
-                // System call has been interrupted. Simply retry.
-                conscrypt::jniutil::throwException(env, "java/io/InterruptedIOException",
-                                                   "Read error");
-                break;
-            }
-
-            // Note that for all other system call errors we fall through
-            // to the default case, which results in an Exception.
-            FALLTHROUGH_INTENDED;
-        }
-        default: {
-            // Everything else is basically an error.
-            conscrypt::jniutil::throwSSLExceptionWithSslErrors(env, ssl, sslError.release(),
-                                                               "Read error");
-            break;
-        }
-    }
+    result = engineSslReadResult(env, ssl, result);
 
     JNI_TRACE(
             "ssl=%p NativeCrypto_ENGINE_SSL_read_direct address=%p length=%d shc=%p "
@@ -11897,6 +12999,174 @@ static int NativeCrypto_ENGINE_SSL_read_BIO_direct(JNIEnv* env, jclass, jlong ss
     return result;
 }
 
+/**
+ * Layout of the packed value returned by ENGINE_SSL_unwrap_direct. Must be kept in sync with
+ * the decoding helpers in NativeCrypto.java.
+ */
+static const int kUnwrapConsumedShift = 32;
+static const jlong kUnwrapConsumedMask = 0x7FFFFF;
+static const int kUnwrapPendingShift = 55;
+static const int kUnwrapErrorShift = 56;
+
+static jlong packUnwrapResult(int consumed, int produced, int sslError, bool pending) {
+    return (static_cast<jlong>(sslError) << kUnwrapErrorShift) |
+           (static_cast<jlong>(pending ? 1 : 0) << kUnwrapPendingShift) |
+           ((static_cast<jlong>(consumed) & kUnwrapConsumedMask) << kUnwrapConsumedShift) |
+           static_cast<jlong>(static_cast<uint32_t>(produced));
+}
+
+/**
+ * Combines ENGINE_SSL_write_BIO_direct, repeated ENGINE_SSL_read_direct calls and
+ * SSL_pending_readable_bytes into a single call so that unwrapping a record of application
+ * data only crosses JNI once.
+ */
+static jlong NativeCrypto_ENGINE_SSL_unwrap_direct(JNIEnv* env, jclass, jlong ssl_address,
+                                                   CONSCRYPT_UNUSED jobject ssl_holder,
+                                                   jlong bioRef, jlong srcAddress, jint srcLength,
+                                                   jlongArray dstAddresses, jintArray dstLengths,
+                                                   jint dstCount, jobject shc) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    if (ssl == nullptr) {
+        return -1;
+    }
+    JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_unwrap_direct srcLength=%d dstCount=%d shc=%p", ssl,
+              srcLength, dstCount, shc);
+    if (shc == nullptr) {
+        conscrypt::jniutil::throwNullPointerException(env, "sslHandshakeCallbacks == null");
+        JNI_TRACE(
+                "ssl=%p NativeCrypto_ENGINE_SSL_unwrap_direct => sslHandshakeCallbacks "
+                "== null",
+                ssl);
+        return -1;
+    }
+    BIO* bio = to_BIO(env, bioRef);
+    if (bio == nullptr) {
+        return -1;
+    }
+    ScopedLongArrayRO addresses(env, dstAddresses);
+    ScopedIntArrayRO lengths(env, dstLengths);
+    if (addresses.get() == nullptr || lengths.get() == nullptr) {
+        return -1;
+    }
+    if (dstCount < 0 || static_cast<size_t>(dstCount) > addresses.size() ||
+        static_cast<size_t>(dstCount) > lengths.size()) {
+        conscrypt::jniutil::throwException(env, "java/lang/ArrayIndexOutOfBoundsException",
+                                           "dstCount");
+        return -1;
+    }
+
+    AppData* appData = toAppData(ssl);
+    if (appData == nullptr) {
+        conscrypt::jniutil::throwSSLExceptionStr(env, "Unable to retrieve application data");
+        JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_unwrap_direct => appData == null", ssl);
+        return -1;
+    }
+    if (!appData->setCallbackState(env, shc, nullptr)) {
+        conscrypt::jniutil::throwSSLExceptionStr(env, "Unable to set appdata callback");
+        ERR_clear_error();
+        JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_unwrap_direct => exception", ssl);
+        return -1;
+    }
+
+    errno = 0;
+
+    // Feed the encrypted record to the network BIO. As with ENGINE_SSL_write_BIO_direct,
+    // nothing is written unless the whole record fits.
+    int consumed = 0;
+    if (srcLength > 0 && BIO_ctrl_get_write_guarantee(bio) >= static_cast<size_t>(srcLength)) {
+        const char* sourcePtr = reinterpret_cast<const char*>(srcAddress);
+        int written = BIO_write(bio, sourcePtr, srcLength);
+        if (written > 0) {
+            consumed = written;
+            JNI_TRACE_PACKET_DATA(ssl, 'O', sourcePtr, static_cast<size_t>(written));
+        } else {
+            // Errors are ignored here as the subsequent SSL_read will report them.
+            ERR_clear_error();
+        }
+    }
+
+    // Read plaintext, filling each destination before moving to the next one, and stopping
+    // at the first short read just like the Java read loop in ConscryptEngine.
+    int produced = 0;
+    int code = SSL_ERROR_NONE;
+    for (jint i = 0; i < dstCount; ++i) {
+        int length = lengths[i];
+        if (length <= 0) {
+            continue;
+        }
+        char* destPtr = reinterpret_cast<char*>(addresses[i]);
+        int result = SSL_read(ssl, destPtr, length);
+        if (env->ExceptionCheck()) {
+            // An exception was thrown by one of the callbacks. Just propagate that
+            // exception.
+            appData->clearCallbackState();
+            ERR_clear_error();
+            JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_unwrap_direct => THROWN_EXCEPTION", ssl);
+            return -1;
+        }
+        if (result > 0) {
+            produced += result;
+            if (result < length) {
+                break;
+            }
+            continue;
+        }
+
+        // The same mapping as engineSslReadResult, except that the conditions which the Java
+        // read loop turns into an SSLEngineResult are returned in the packed value, so that the
+        // bytes consumed and produced so far are not lost.
+        SslError sslError(ssl, result);
+        code = sslError.get();
+        bool stop = false;
+        switch (code) {
+            case SSL_ERROR_ZERO_RETURN:
+            case SSL_ERROR_WANT_READ:
+            case SSL_ERROR_WANT_WRITE:
+            case SSL_ERROR_WANT_PRIVATE_KEY_OPERATION:
+            case SSL_ERROR_WANT_CERTIFICATE_VERIFY:
+            case SSL_ERROR_EARLY_DATA_REJECTED: {
+                stop = true;
+                break;
+            }
+            case SSL_ERROR_SYSCALL: {
+                if (result == 0) {
+                    // Connection closed without proper shutdown.
+                    conscrypt::jniutil::throwException(env, "java/io/EOFException",
+                                                       "Read error");
+                    break;
+                }
+                if (errno == EINTR) {
+                    // Returned as SSL_ERROR_SYSCALL, which the caller handles like the
+                    // InterruptedIOException thrown by ENGINE_SSL_read_direct.
+                    stop = true;
+                    break;
+                }
+                FALLTHROUGH_INTENDED;
+            }
+            default: {
+                conscrypt::jniutil::throwSSLExceptionWithSslErrors(env, ssl, sslError.release(),
+                                                                   "Read error");
+                break;
+            }
+        }
+        if (stop) {
+            break;
+        }
+        appData->clearCallbackState();
+        JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_unwrap_direct => exception", ssl);
+        return -1;
+    }
+    appData->clearCallbackState();
+
+    bool pending = code == SSL_ERROR_NONE && SSL_pending(ssl) > 0;
+    JNI_TRACE(
+            "ssl=%p NativeCrypto_ENGINE_SSL_unwrap_direct consumed=%d produced=%d code=%d "
+            "pending=%d",
+            ssl, consumed, produced, code, pending);
+    return packUnwrapResult(consumed, produced, code, pending);
+}
+
 static void NativeCrypto_ENGINE_SSL_force_read(JNIEnv* env, jclass, jlong ssl_address,
                                                CONSCRYPT_UNUSED jobject ssl_holder, jobject shc) {
     CHECK_ERROR_QUEUE_ON_RETURN;
@@ -11941,8 +13211,13 @@ static void NativeCrypto_ENGINE_SSL_force_read(JNIEnv* env, jclass, jlong ssl_ad
         case SSL_ERROR_NONE:
         case SSL_ERROR_ZERO_RETURN:
         case SSL_ERROR_WANT_READ:
-        case SSL_ERROR_WANT_WRITE: {
-            // The call succeeded, lacked data, or the SSL is closed.  All is well.
+        case SSL_ERROR_WANT_WRITE:
+        case SSL_ERROR_WANT_PRIVATE_KEY_OPERATION:
+        case SSL_ERROR_WANT_CERTIFICATE_VERIFY:
+        case SSL_ERROR_EARLY_DATA_REJECTED: {
+            // The call succeeded, lacked data, the handshake is suspended, or the SSL is closed.
+            // All is well. A rejection of early data is reported again by the next handshake
+            // call, which resets the SSL.
             break;
         }
         case SSL_ERROR_SYSCALL: {
@@ -12027,6 +13302,292 @@ static int NativeCrypto_ENGINE_SSL_write_direct(JNIEnv* env, jclass, jlong ssl_a
     return result;
 }
 
+/**
+ * Gives access to the elements of a Java byte array with GetPrimitiveArrayCritical. While the
+ * elements are held, no other JNI functions may be called and so no Java callbacks may run,
+ * and the garbage collector may be held off. It must therefore only be held around calls which
+ * never call back into Java and which process at most a single TLS record.
+ */
+class ScopedCriticalByteArray {
+public:
+    ScopedCriticalByteArray(JNIEnv* env, jbyteArray javaArray, bool readOnly)
+        : mEnv(env),
+          mJavaArray(javaArray),
+          mSize(env->GetArrayLength(javaArray)),
+          mReleaseMode(readOnly ? JNI_ABORT : 0),
+          mRawArray(nullptr) {}
+    ~ScopedCriticalByteArray() {
+        release();
+    }
+    jbyte* acquire() {
+        mRawArray = static_cast<jbyte*>(mEnv->GetPrimitiveArrayCritical(mJavaArray, nullptr));
+        return mRawArray;
+    }
+    void release() {
+        if (mRawArray != nullptr) {
+            mEnv->ReleasePrimitiveArrayCritical(mJavaArray, mRawArray, mReleaseMode);
+            mRawArray = nullptr;
+        }
+    }
+    size_t size() const {
+        return static_cast<size_t>(mSize);
+    }
+
+private:
+    JNIEnv* mEnv;
+    jbyteArray mJavaArray;
+    jsize mSize;
+    jint mReleaseMode;
+    jbyte* mRawArray;
+    ScopedCriticalByteArray(const ScopedCriticalByteArray&);
+    void operator=(const ScopedCriticalByteArray&);
+};
+
+/**
+ * Checks the arguments shared by the ENGINE_SSL_*_heap functions, throwing if they are invalid.
+ */
+static bool checkEngineHeapArray(JNIEnv* env, jbyteArray array, jint offset, jint length) {
+    if (array == nullptr) {
+        conscrypt::jniutil::throwNullPointerException(env, "array == null");
+        return false;
+    }
+    jsize size = env->GetArrayLength(array);
+    if (offset < 0 || length < 0 || offset > size || length > size - offset) {
+        conscrypt::jniutil::throwException(env, "java/lang/ArrayIndexOutOfBoundsException",
+                                           "offset/length");
+        return false;
+    }
+    return true;
+}
+
+/**
+ * Variant of ENGINE_SSL_read_direct which decrypts into a Java byte array without an
+ * intermediate copy.
+ */
+static jint NativeCrypto_ENGINE_SSL_read_heap(JNIEnv* env, jclass, jlong ssl_address,
+                                              CONSCRYPT_UNUSED jobject ssl_holder,
+                                              jbyteArray array, jint offset, jint length,
+                                              jobject shc) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    if (ssl == nullptr) {
+        return -1;
+    }
+    JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_read_heap array=%p offset=%d length=%d shc=%p",
+              ssl, array, offset, length, shc);
+    if (shc == nullptr) {
+        conscrypt::jniutil::throwNullPointerException(env, "sslHandshakeCallbacks == null");
+        JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_read_heap => sslHandshakeCallbacks == null",
+                  ssl);
+        return -1;
+    }
+    if (!checkEngineHeapArray(env, array, offset, length)) {
+        return -1;
+    }
+    AppData* appData = toAppData(ssl);
+    if (appData == nullptr) {
+        conscrypt::jniutil::throwSSLExceptionStr(env, "Unable to retrieve application data");
+        JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_read_heap => appData == null", ssl);
+        return -1;
+    }
+    if (!appData->setCallbackState(env, shc, nullptr)) {
+        conscrypt::jniutil::throwSSLExceptionStr(env, "Unable to set appdata callback");
+        ERR_clear_error();
+        JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_read_heap => exception", ssl);
+        return -1;
+    }
+
+    errno = 0;
+
+    // Processing a record may run callbacks into Java, for example for a post-handshake
+    // message, so first process records until application data is available without holding
+    // the array. Reading the decrypted data afterwards is then only a copy.
+    char probe;
+    int result = SSL_peek(ssl, &probe, 1);
+    appData->clearCallbackState();
+    if (env->ExceptionCheck()) {
+        // An exception was thrown by one of the callbacks. Just propagate that
+        // exception.
+        ERR_clear_error();
+        JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_read_heap => THROWN_EXCEPTION", ssl);
+        return -1;
+    }
+    if (result > 0) {
+        ScopedCriticalByteArray bytes(env, array, false);
+        jbyte* destPtr = bytes.acquire();
+        if (destPtr == nullptr) {
+            conscrypt::jniutil::throwOutOfMemory(env, "Unable to access array");
+            return -1;
+        }
+        result = SSL_read(ssl, destPtr + offset, length);
+    }
+
+    result = engineSslReadResult(env, ssl, result);
+
+    JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_read_heap array=%p shc=%p result=%d", ssl, array,
+              shc, result);
+    return result;
+}
+
+/**
+ * Variant of ENGINE_SSL_write_direct which encrypts from a Java byte array without an
+ * intermediate copy.
+ */
+static int NativeCrypto_ENGINE_SSL_write_heap(JNIEnv* env, jclass, jlong ssl_address,
+                                              CONSCRYPT_UNUSED jobject ssl_holder,
+                                              jbyteArray array, jint offset, jint length,
+                                              jobject shc) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    if (ssl == nullptr) {
+        return -1;
+    }
+    JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_write_heap array=%p offset=%d length=%d shc=%p",
+              ssl, array, offset, length, shc);
+    if (shc == nullptr) {
+        conscrypt::jniutil::throwNullPointerException(env, "sslHandshakeCallbacks == null");
+        JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_write_heap => sslHandshakeCallbacks == null",
+                  ssl);
+        return -1;
+    }
+    if (!checkEngineHeapArray(env, array, offset, length)) {
+        return -1;
+    }
+    AppData* appData = toAppData(ssl);
+    if (appData == nullptr) {
+        conscrypt::jniutil::throwSSLExceptionStr(env, "Unable to retrieve application data");
+        ERR_clear_error();
+        JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_write_heap appData => null", ssl);
+        return -1;
+    }
+    if (!appData->setCallbackState(env, shc, nullptr)) {
+        conscrypt::jniutil::throwSSLExceptionStr(env, "Unable to set appdata callback");
+        ERR_clear_error();
+        JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_write_heap => exception", ssl);
+        return -1;
+    }
+
+    errno = 0;
+
+    int result;
+    if (SSL_in_init(ssl)) {
+        // SSL_write may continue the handshake, which runs callbacks into Java, so the array
+        // can't be held in a critical section.
+        ScopedByteArrayRO bytes(env, array);
+        if (bytes.get() == nullptr) {
+            appData->clearCallbackState();
+            return -1;
+        }
+        result = SSL_write(ssl, bytes.get() + offset, length);
+    } else {
+        ScopedCriticalByteArray bytes(env, array, true);
+        jbyte* sourcePtr = bytes.acquire();
+        if (sourcePtr == nullptr) {
+            appData->clearCallbackState();
+            conscrypt::jniutil::throwOutOfMemory(env, "Unable to access array");
+            return -1;
+        }
+        result = SSL_write(ssl, sourcePtr + offset, length);
+    }
+    appData->clearCallbackState();
+    JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_write_heap array=%p shc=%p => ret=%d", ssl, array,
+              shc, result);
+    return result;
+}
+
+/**
+ * Variant of ENGINE_SSL_write_BIO_direct which writes encrypted data from a Java byte array.
+ */
+static int NativeCrypto_ENGINE_SSL_write_BIO_heap(JNIEnv* env, jclass, jlong ssl_address,
+                                                  CONSCRYPT_UNUSED jobject ssl_holder,
+                                                  jlong bioRef, jbyteArray array, jint offset,
+                                                  jint length, jobject shc) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    if (ssl == nullptr) {
+        return -1;
+    }
+    if (shc == nullptr) {
+        conscrypt::jniutil::throwNullPointerException(env, "sslHandshakeCallbacks == null");
+        JNI_TRACE(
+                "ssl=%p NativeCrypto_ENGINE_SSL_write_BIO_heap => "
+                "sslHandshakeCallbacks == null",
+                ssl);
+        return -1;
+    }
+    BIO* bio = to_BIO(env, bioRef);
+    if (bio == nullptr) {
+        return -1;
+    }
+    if (!checkEngineHeapArray(env, array, offset, length)) {
+        return -1;
+    }
+    if (BIO_ctrl_get_write_guarantee(bio) < static_cast<size_t>(length)) {
+        // The network BIO couldn't handle the entire write. Don't write anything,
+        // so that we only process one packet at a time.
+        return 0;
+    }
+
+    // Writing to the memory BIO never calls back into Java.
+    ScopedCriticalByteArray bytes(env, array, true);
+    jbyte* sourcePtr = bytes.acquire();
+    if (sourcePtr == nullptr) {
+        conscrypt::jniutil::throwOutOfMemory(env, "Unable to access array");
+        return -1;
+    }
+    int result = BIO_write(bio, sourcePtr + offset, length);
+    JNI_TRACE_PACKET_DATA(ssl, 'O', reinterpret_cast<const char*>(sourcePtr + offset),
+                          static_cast<size_t>(result));
+    bytes.release();
+    JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_write_BIO_heap bio=%p length=%d shc=%p => ret=%d",
+              ssl, bio, length, shc, result);
+    return result;
+}
+
+/**
+ * Variant of ENGINE_SSL_read_BIO_direct which reads encrypted data into a Java byte array.
+ */
+static int NativeCrypto_ENGINE_SSL_read_BIO_heap(JNIEnv* env, jclass, jlong ssl_address,
+                                                 CONSCRYPT_UNUSED jobject ssl_holder,
+                                                 jlong bioRef, jbyteArray array, jint offset,
+                                                 jint length, jobject shc) {
+    CHECK_ERROR_QUEUE_ON_RETURN;
+    SSL* ssl = to_SSL(env, ssl_address, true);
+    if (ssl == nullptr) {
+        return -1;
+    }
+    if (shc == nullptr) {
+        conscrypt::jniutil::throwNullPointerException(env, "sslHandshakeCallbacks == null");
+        JNI_TRACE(
+                "ssl=%p NativeCrypto_ENGINE_SSL_read_BIO_heap => "
+                "sslHandshakeCallbacks == null",
+                ssl);
+        return -1;
+    }
+    BIO* bio = to_BIO(env, bioRef);
+    if (bio == nullptr) {
+        return -1;
+    }
+    if (!checkEngineHeapArray(env, array, offset, length)) {
+        return -1;
+    }
+
+    // Reading from the memory BIO never calls back into Java.
+    ScopedCriticalByteArray bytes(env, array, false);
+    jbyte* destPtr = bytes.acquire();
+    if (destPtr == nullptr) {
+        conscrypt::jniutil::throwOutOfMemory(env, "Unable to access array");
+        return -1;
+    }
+    int result = BIO_read(bio, destPtr + offset, length);
+    JNI_TRACE_PACKET_DATA(ssl, 'I', reinterpret_cast<const char*>(destPtr + offset),
+                          static_cast<size_t>(result));
+    bytes.release();
+    JNI_TRACE("ssl=%p NativeCrypto_ENGINE_SSL_read_BIO_heap bio=%p length=%d shc=%p => ret=%d",
+              ssl, bio, length, shc, result);
+    return result;
+}
+
 /**
  * public static native bool usesBoringSsl_FIPS_mode();
  */
@@ -12563,6 +14124,8 @@ static jboolean NativeCrypto_SSL_CTX_ech_enable_server(JNIEnv* env, jclass, jlon
 #define REF_EVP_PKEY_CTX "L" TO_STRING(JNI_JARJAR_PREFIX) "org/conscrypt/NativeRef$EVP_PKEY_CTX;"
 #define REF_HMAC_CTX "L" TO_STRING(JNI_JARJAR_PREFIX) "org/conscrypt/NativeRef$HMAC_CTX;"
 #define REF_CMAC_CTX "L" TO_STRING(JNI_JARJAR_PREFIX) "org/conscrypt/NativeRef$CMAC_CTX;"
+#define REF_SSL_CREDENTIAL \
+    "L" TO_STRING(JNI_JARJAR_PREFIX) "org/conscrypt/NativeRef$SSL_CREDENTIAL;"
 #define REF_BIO_IN_STREAM "L" TO_STRING(JNI_JARJAR_PREFIX) "org/conscrypt/OpenSSLBIOInputStream;"
 #define REF_X509 "L" TO_STRING(JNI_JARJAR_PREFIX) "org/conscrypt/OpenSSLX509Certificate;"
 #define REF_X509_CRL "L" TO_STRING(JNI_JARJAR_PREFIX) "org/conscrypt/OpenSSLX509CRL;"
@@ -12822,11 +14385,18 @@ static JNINativeMethod sNativeCryptoMethods[] = {
         CONSCRYPT_NATIVE_METHOD(SSL_CTX_free, "(J" REF_SSL_CTX ")V"),
         CONSCRYPT_NATIVE_METHOD(SSL_CTX_set_session_id_context, "(J" REF_SSL_CTX "[B)V"),
         CONSCRYPT_NATIVE_METHOD(SSL_CTX_set_timeout, "(J" REF_SSL_CTX "J)J"),
+        CONSCRYPT_NATIVE_METHOD(SSL_CTX_set_ticket_keys, "(J" REF_SSL_CTX "[B)V"),
+        CONSCRYPT_NATIVE_METHOD(SSL_CTX_set_num_tickets, "(J" REF_SSL_CTX "I)V"),
         CONSCRYPT_NATIVE_METHOD(SSL_new, "(J" REF_SSL_CTX ")J"),
         CONSCRYPT_NATIVE_METHOD(SSL_enable_tls_channel_id, "(J" REF_SSL ")V"),
         CONSCRYPT_NATIVE_METHOD(SSL_get_tls_channel_id, "(J" REF_SSL ")[B"),
         CONSCRYPT_NATIVE_METHOD(SSL_set1_tls_channel_id, "(J" REF_SSL REF_EVP_PKEY ")V"),
         CONSCRYPT_NATIVE_METHOD(setLocalCertsAndPrivateKey, "(J" REF_SSL "[[B" REF_EVP_PKEY ")V"),
+        CONSCRYPT_NATIVE_METHOD(setLocalCertsAndPrivateKeyMethod, "(J" REF_SSL "[[B)V"),
+        CONSCRYPT_NATIVE_METHOD(SSL_CREDENTIAL_new_x509, "([[B" REF_EVP_PKEY ")J"),
+        CONSCRYPT_NATIVE_METHOD(SSL_CREDENTIAL_free, "(J)V"),
+        CONSCRYPT_NATIVE_METHOD(SSL_add1_credential, "(J" REF_SSL REF_SSL_CREDENTIAL ")V"),
+        CONSCRYPT_NATIVE_METHOD(signWithSignatureAlgorithm, "(" REF_EVP_PKEY "I[B)[B"),
         CONSCRYPT_NATIVE_METHOD(SSL_set_client_CA_list, "(J" REF_SSL "[[B)V"),
         CONSCRYPT_NATIVE_METHOD(SSL_set_mode, "(J" REF_SSL "J)J"),
         CONSCRYPT_NATIVE_METHOD(SSL_set_options, "(J" REF_SSL "J)J"),
@@ -12851,6 +14421,11 @@ static JNINativeMethod sNativeCryptoMethods[] = {
         CONSCRYPT_NATIVE_METHOD(SSL_set_session, "(J" REF_SSL "J)V"),
         CONSCRYPT_NATIVE_METHOD(SSL_set_session_creation_enabled, "(J" REF_SSL "Z)V"),
         CONSCRYPT_NATIVE_METHOD(SSL_session_reused, "(J" REF_SSL ")Z"),
+        CONSCRYPT_NATIVE_METHOD(SSL_set_early_data_enabled, "(J" REF_SSL "Z)V"),
+        CONSCRYPT_NATIVE_METHOD(SSL_in_early_data, "(J" REF_SSL ")Z"),
+        CONSCRYPT_NATIVE_METHOD(SSL_early_data_accepted, "(J" REF_SSL ")Z"),
+        CONSCRYPT_NATIVE_METHOD(SSL_reset_early_data_reject, "(J" REF_SSL ")V"),
+        CONSCRYPT_NATIVE_METHOD(SSL_get_client_random, "(J" REF_SSL ")[B"),
         CONSCRYPT_NATIVE_METHOD(SSL_accept_renegotiations, "(J" REF_SSL ")V"),
         CONSCRYPT_NATIVE_METHOD(SSL_set_tlsext_host_name, "(J" REF_SSL "Ljava/lang/String;)V"),
         CONSCRYPT_NATIVE_METHOD(SSL_get_servername, "(J" REF_SSL ")Ljava/lang/String;"),
@@ -12862,6 +14437,14 @@ static JNINativeMethod sNativeCryptoMethods[] = {
         CONSCRYPT_NATIVE_METHOD(SSL_get0_peer_certificates, "(J" REF_SSL ")[[B"),
         CONSCRYPT_NATIVE_METHOD(SSL_read, "(J" REF_SSL FILE_DESCRIPTOR SSL_CALLBACKS "[BIII)I"),
         CONSCRYPT_NATIVE_METHOD(SSL_write, "(J" REF_SSL FILE_DESCRIPTOR SSL_CALLBACKS "[BIII)V"),
+        CONSCRYPT_NATIVE_METHOD(SSL_read_direct,
+                                "(J" REF_SSL FILE_DESCRIPTOR SSL_CALLBACKS "JII)I"),
+        CONSCRYPT_NATIVE_METHOD(SSL_write_direct,
+                                "(J" REF_SSL FILE_DESCRIPTOR SSL_CALLBACKS "JII)V"),
+        CONSCRYPT_NATIVE_METHOD(SSL_enable_ktls_tx, "(J" REF_SSL FILE_DESCRIPTOR ")Z"),
+        CONSCRYPT_NATIVE_METHOD(SSL_write_ktls, "(J" REF_SSL FILE_DESCRIPTOR "[BIII)V"),
+        CONSCRYPT_NATIVE_METHOD(SSL_write_ktls_direct, "(J" REF_SSL FILE_DESCRIPTOR "JII)V"),
+        CONSCRYPT_NATIVE_METHOD(SSL_shutdown_ktls, "(J" REF_SSL FILE_DESCRIPTOR ")V"),
         CONSCRYPT_NATIVE_METHOD(SSL_interrupt, "(J" REF_SSL ")V"),
         CONSCRYPT_NATIVE_METHOD(SSL_shutdown, "(J" REF_SSL FILE_DESCRIPTOR SSL_CALLBACKS ")V"),
         CONSCRYPT_NATIVE_METHOD(SSL_get_shutdown, "(J" REF_SSL ")I"),
@@ -12877,6 +14460,7 @@ static JNINativeMethod sNativeCryptoMethods[] = {
         CONSCRYPT_NATIVE_METHOD(SSL_SESSION_get_version, "(J)Ljava/lang/String;"),
         CONSCRYPT_NATIVE_METHOD(SSL_SESSION_cipher, "(J)Ljava/lang/String;"),
         CONSCRYPT_NATIVE_METHOD(SSL_SESSION_should_be_single_use, "(J)Z"),
+        CONSCRYPT_NATIVE_METHOD(SSL_SESSION_get_max_early_data, "(J)J"),
         CONSCRYPT_NATIVE_METHOD(SSL_SESSION_up_ref, "(J)V"),
         CONSCRYPT_NATIVE_METHOD(SSL_SESSION_free, "(J)V"),
         CONSCRYPT_NATIVE_METHOD(i2d_SSL_SESSION, "(J)[B"),
@@ -12900,6 +14484,12 @@ static JNINativeMethod sNativeCryptoMethods[] = {
         CONSCRYPT_NATIVE_METHOD(ENGINE_SSL_write_direct, "(J" REF_SSL "JI" SSL_CALLBACKS ")I"),
         CONSCRYPT_NATIVE_METHOD(ENGINE_SSL_write_BIO_direct, "(J" REF_SSL "JJI" SSL_CALLBACKS ")I"),
         CONSCRYPT_NATIVE_METHOD(ENGINE_SSL_read_BIO_direct, "(J" REF_SSL "JJI" SSL_CALLBACKS ")I"),
+        CONSCRYPT_NATIVE_METHOD(ENGINE_SSL_read_heap, "(J" REF_SSL "[BII" SSL_CALLBACKS ")I"),
+        CONSCRYPT_NATIVE_METHOD(ENGINE_SSL_write_heap, "(J" REF_SSL "[BII" SSL_CALLBACKS ")I"),
+        CONSCRYPT_NATIVE_METHOD(ENGINE_SSL_write_BIO_heap, "(J" REF_SSL "J[BII" SSL_CALLBACKS ")I"),
+        CONSCRYPT_NATIVE_METHOD(ENGINE_SSL_read_BIO_heap, "(J" REF_SSL "J[BII" SSL_CALLBACKS ")I"),
+        CONSCRYPT_NATIVE_METHOD(ENGINE_SSL_unwrap_direct,
+                                "(J" REF_SSL "JJI[J[II" SSL_CALLBACKS ")J"),
         CONSCRYPT_NATIVE_METHOD(ENGINE_SSL_force_read, "(J" REF_SSL SSL_CALLBACKS ")V"),
         CONSCRYPT_NATIVE_METHOD(ENGINE_SSL_shutdown, "(J" REF_SSL SSL_CALLBACKS ")V"),
         CONSCRYPT_NATIVE_METHOD(usesBoringSsl_FIPS_mode, "()Z"),
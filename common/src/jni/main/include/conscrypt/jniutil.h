@@ -66,6 +66,9 @@ extern jmethodID sslHandshakeCallbacks_serverPSKKeyRequested;
 extern jmethodID sslHandshakeCallbacks_onNewSessionEstablished;
 extern jmethodID sslHandshakeCallbacks_selectApplicationProtocol;
 extern jmethodID sslHandshakeCallbacks_serverSessionRequested;
+extern jmethodID sslHandshakeCallbacks_privateKeySign;
+extern jmethodID sslHandshakeCallbacks_privateKeyDecrypt;
+extern jmethodID sslHandshakeCallbacks_privateKeyComplete;
 
 /**
  * Initializes the JNI constants from the environment.
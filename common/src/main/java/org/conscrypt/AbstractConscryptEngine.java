@@ -30,6 +30,26 @@ import javax.net.ssl.SSLSession;
 abstract class AbstractConscryptEngine extends SSLEngine {
     abstract void setBufferAllocator(BufferAllocator bufferAllocator);
 
+    /**
+     * Sets the maximum number of TLS records that a single call to {@code wrap} may produce.
+     */
+    abstract void setMaxRecordsPerWrap(int maxRecords);
+
+    /**
+     * Sets the maximum amount of application data sealed into a single record.
+     */
+    abstract void setMaxSendFragment(int maxSendFragment);
+
+    /**
+     * Enables dynamic record sizing, or disables it if {@code boostThreshold} is zero.
+     */
+    abstract void setDynamicRecordSizing(long boostThreshold, long idleTimeoutMillis);
+
+    /**
+     * Sets whether heap buffers are passed to JNI without copying them to a direct buffer.
+     */
+    abstract void setZeroCopyHeapBuffers(boolean enabled);
+
     /**
      * Returns the maximum overhead, in bytes, of sealing a record with SSL.
      */
@@ -121,6 +141,17 @@ abstract class AbstractConscryptEngine extends SSLEngine {
                                     final ByteBuffer[] dsts, final int dstsOffset,
                                     final int dstsLength) throws SSLException;
 
+    /**
+     * Variant of {@link #unwrap(ByteBuffer[], int, int, ByteBuffer[], int, int)} which stores
+     * the result in {@code out} instead of allocating a new {@link SSLEngineResult}.
+     *
+     * @return {@code out}
+     */
+    abstract MutableEngineResult unwrap(final ByteBuffer[] srcs, int srcsOffset,
+                                        final int srcsLength, final ByteBuffer[] dsts,
+                                        final int dstsOffset, final int dstsLength,
+                                        MutableEngineResult out) throws SSLException;
+
     @Override
     public abstract SSLEngineResult wrap(ByteBuffer src, ByteBuffer dst) throws SSLException;
 
@@ -128,6 +159,51 @@ abstract class AbstractConscryptEngine extends SSLEngine {
     public abstract SSLEngineResult wrap(ByteBuffer[] srcs, int srcsOffset, int srcsLength,
                                          ByteBuffer dst) throws SSLException;
 
+    /**
+     * Sets whether certificate verification and private key operations are returned from
+     * {@link #getDelegatedTask()} instead of running within {@code wrap} and {@code unwrap}.
+     */
+    abstract void setUseDelegatedTasks(boolean useDelegatedTasks);
+
+    /**
+     * Sets the operator performing the operations with the local private key asynchronously,
+     * or {@code null} to perform them with the key itself.
+     */
+    abstract void setAsyncPrivateKeyOperator(AsyncPrivateKeyOperator operator);
+
+    /**
+     * Sets the verifier used instead of the trust manager to verify the peer's certificate
+     * chain asynchronously, or {@code null} to use the trust manager.
+     */
+    abstract void setAsyncCertificateVerifier(AsyncCertificateVerifier verifier);
+
+    /**
+     * Sets the application data sent as TLS 1.3 early data when a session which allows it is
+     * resumed, or {@code null} to not send early data. Client-side only.
+     */
+    abstract void setEarlyData(byte[] earlyData);
+
+    /**
+     * Sets whether TLS 1.3 early data is accepted, using {@code antiReplayStore} to reject
+     * replayed ClientHellos. Server-side only.
+     */
+    abstract void setEarlyDataEnabled(boolean enabled, AntiReplayStore antiReplayStore);
+
+    /**
+     * Returns whether early data was sent and accepted on this connection.
+     */
+    abstract EarlyDataStatus getEarlyDataStatus();
+
+    /**
+     * Variant of {@link #wrap(ByteBuffer[], int, int, ByteBuffer)} which stores the result in
+     * {@code out} instead of allocating a new {@link SSLEngineResult}.
+     *
+     * @return {@code out}
+     */
+    abstract MutableEngineResult wrap(ByteBuffer[] srcs, int srcsOffset, int srcsLength,
+                                      ByteBuffer dst, MutableEngineResult out)
+            throws SSLException;
+
     /**
      * This method enables session ticket support.
      *
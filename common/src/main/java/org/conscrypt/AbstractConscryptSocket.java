@@ -28,6 +28,8 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.nio.channels.SocketChannel;
 import java.security.PrivateKey;
 import java.util.ArrayList;
@@ -43,6 +45,9 @@ import javax.net.ssl.SSLSocket;
  * Abstract base class for all Conscrypt {@link SSLSocket} classes.
  */
 abstract class AbstractConscryptSocket extends SSLSocket {
+    // Size of the temporary array used to read or write buffers without an accessible array.
+    private static final int COPY_BUFFER_SIZE = 16 * 1024;
+
     final Socket socket;
     private final boolean autoClose;
 
@@ -574,6 +579,106 @@ abstract class AbstractConscryptSocket extends SSLSocket {
         throw new SocketException("Method setHandshakeTimeout() is not supported.");
     }
 
+    /**
+     * Sets whether the encryption of outgoing records is moved into the kernel once the
+     * handshake has completed, where the platform supports it.
+     */
+    void setUseKernelTls(boolean useKernelTls) throws SocketException {
+        throw new SocketException("Method setUseKernelTls() is not supported.");
+    }
+
+    /**
+     * Sets the number of bytes of application data gathered from small writes before they are
+     * encrypted into records, or zero to encrypt the data of each write immediately. Buffered
+     * data is also sent when the output stream is flushed or the socket is closed.
+     */
+    void setWriteBufferSize(int writeBufferSize) throws SocketException {
+        throw new SocketException("Method setWriteBufferSize() is not supported.");
+    }
+
+    /**
+     * Sets the maximum amount of application data sealed into a single record.
+     */
+    void setMaxSendFragment(int maxSendFragment) throws SocketException {
+        throw new SocketException("Method setMaxSendFragment() is not supported.");
+    }
+
+    /**
+     * Enables dynamic record sizing, or disables it if {@code boostThreshold} is zero.
+     */
+    void setDynamicRecordSizing(long boostThreshold, long idleTimeoutMillis)
+            throws SocketException {
+        throw new SocketException("Method setDynamicRecordSizing() is not supported.");
+    }
+
+    /**
+     * Returns whether outgoing records are encrypted by the kernel.
+     */
+    boolean isKernelTlsActive() {
+        return false;
+    }
+
+    /**
+     * Reads decrypted data into {@code dst}, advancing its position.
+     *
+     * @return the number of bytes read, or {@code -1} if the end of the stream has been reached
+     * @throws ReadOnlyBufferException if {@code dst} is read-only
+     */
+    int read(ByteBuffer dst) throws IOException {
+        if (dst.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        InputStream in = getInputStream();
+        if (dst.hasArray()) {
+            int read = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (read > 0) {
+                dst.position(dst.position() + read);
+            }
+            return read;
+        }
+        byte[] buffer = new byte[Math.min(dst.remaining(), COPY_BUFFER_SIZE)];
+        int read = in.read(buffer);
+        if (read > 0) {
+            dst.put(buffer, 0, read);
+        }
+        return read;
+    }
+
+    /**
+     * Encrypts and writes the remaining contents of the given buffers, advancing their
+     * positions.
+     *
+     * @return the number of bytes written
+     */
+    final long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        ArrayUtils.checkOffsetAndCount(srcs.length, offset, length);
+        long written = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int count = srcs[i].remaining();
+            write(srcs[i]);
+            written += count;
+        }
+        return written;
+    }
+
+    /**
+     * Encrypts and writes the remaining contents of {@code src}, advancing its position.
+     */
+    void write(ByteBuffer src) throws IOException {
+        OutputStream out = getOutputStream();
+        if (src.hasArray()) {
+            out.write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.limit());
+            return;
+        }
+        byte[] buffer = new byte[Math.min(src.remaining(), COPY_BUFFER_SIZE)];
+        while (src.hasRemaining()) {
+            int count = Math.min(src.remaining(), buffer.length);
+            src.get(buffer, 0, count);
+            out.write(buffer, 0, count);
+        }
+    }
+
     final void checkOpen() throws SocketException {
         if (isClosed()) {
             throw new SocketException("Socket is closed");
@@ -718,6 +823,38 @@ abstract class AbstractConscryptSocket extends SSLSocket {
      */
     abstract void setApplicationProtocolSelector(ApplicationProtocolSelector selector);
 
+    /**
+     * Sets the verifier used instead of the trust manager to verify the peer's certificate
+     * chain, or {@code null} to use the trust manager.
+     *
+     * @throws IllegalStateException if the handshake has already started.
+     */
+    abstract void setAsyncCertificateVerifier(AsyncCertificateVerifier verifier);
+
+    /**
+     * Sets the application data sent as TLS 1.3 early data when a session which allows it is
+     * resumed, or {@code null} to not send early data. Client-side only.
+     */
+    void setEarlyData(byte[] earlyData) throws SocketException {
+        throw new SocketException("Method setEarlyData() is not supported.");
+    }
+
+    /**
+     * Sets whether TLS 1.3 early data is accepted, using {@code antiReplayStore} to reject
+     * replayed ClientHellos. Server-side only.
+     */
+    void setEarlyDataEnabled(boolean enabled, AntiReplayStore antiReplayStore)
+            throws SocketException {
+        throw new SocketException("Method setEarlyDataEnabled() is not supported.");
+    }
+
+    /**
+     * Returns whether early data was sent and accepted on this connection.
+     */
+    EarlyDataStatus getEarlyDataStatus() {
+        return EarlyDataStatus.NOT_ATTEMPTED;
+    }
+
     /**
      * Returns the tls-unique channel binding value for this connection, per RFC 5929.  This
      * will return {@code null} if there is no such value available, such as if the handshake
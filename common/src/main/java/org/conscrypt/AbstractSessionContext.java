@@ -16,12 +16,10 @@
 
 package org.conscrypt;
 
-import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -46,20 +44,20 @@ abstract class AbstractSessionContext implements SSLSessionContext {
 
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
-    private final Map<ByteArray, NativeSslSession> sessions =
-            new LinkedHashMap<ByteArray, NativeSslSession>() {
-                @Override
-                protected boolean removeEldestEntry(Map.Entry<ByteArray, NativeSslSession> eldest) {
-                    // NOTE: does not take into account any session that may have become
-                    // invalid.
-                    if (maximumSize > 0 && size() > maximumSize) {
-                        // Let the subclass know.
-                        onBeforeRemoveSession(eldest.getValue());
-                        return true;
-                    }
-                    return false;
-                }
-            };
+    private final SessionStore sessions;
+
+    // Writes to the persistent cache in the background, or null to write on the calling thread.
+    private volatile SessionCacheWriter persistentCacheWriter;
+
+    // Adjusts maximumSize from the hit rate, or null if the size is fixed.
+    private volatile AdaptiveCacheSizer sizer;
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong lookupHits = new AtomicLong();
+    private final AtomicLong persistentLookups = new AtomicLong();
+    private final AtomicLong persistentLookupHits = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
 
     /**
      * Constructs a new session context.
@@ -68,6 +66,7 @@ abstract class AbstractSessionContext implements SSLSessionContext {
      */
     AbstractSessionContext(int maximumSize) {
         this.maximumSize = maximumSize;
+        this.sessions = new SessionStore(maximumSize);
     }
 
     /**
@@ -77,10 +76,7 @@ abstract class AbstractSessionContext implements SSLSessionContext {
     @Override
     public final Enumeration<byte[]> getIds() {
         // Make a copy of the IDs.
-        final Iterator<NativeSslSession> iter;
-        synchronized (sessions) {
-            iter = Arrays.asList(sessions.values().toArray(new NativeSslSession[0])).iterator();
-        }
+        final Iterator<NativeSslSession> iter = sessions.values().iterator();
         return new Enumeration<byte[]>() {
             private NativeSslSession next;
 
@@ -122,10 +118,7 @@ abstract class AbstractSessionContext implements SSLSessionContext {
             throw new NullPointerException("sessionId");
         }
         ByteArray key = new ByteArray(sessionId);
-        NativeSslSession session;
-        synchronized (sessions) {
-            session = sessions.get(key);
-        }
+        NativeSslSession session = sessions.get(key);
         if (session != null && session.isValid()) {
             return session.toSSLSession();
         }
@@ -148,25 +141,19 @@ abstract class AbstractSessionContext implements SSLSessionContext {
             throw new IllegalArgumentException("seconds < 0");
         }
 
-        synchronized (sessions) {
-            // Set the timeout on this context.
-            timeout = seconds;
-            // setSessionTimeout(0) is defined to remove the timeout, but passing 0
-            // to SSL_CTX_set_timeout in BoringSSL sets it to the default timeout instead.
-            // Pass INT_MAX seconds (68 years), since that's equivalent for practical purposes.
-            setTimeout(seconds > 0 ? seconds : Integer.MAX_VALUE);
-
-            Iterator<NativeSslSession> i = sessions.values().iterator();
-            while (i.hasNext()) {
-                NativeSslSession session = i.next();
-                // SSLSession's know their context and consult the
-                // timeout as part of their validity condition.
-                if (!session.isValid()) {
-                    // Let the subclass know.
-                    onBeforeRemoveSession(session);
-                    i.remove();
-                }
-            }
+        // Set the timeout on this context.
+        timeout = seconds;
+        // setSessionTimeout(0) is defined to remove the timeout, but passing 0
+        // to SSL_CTX_set_timeout in BoringSSL sets it to the default timeout instead.
+        // Pass INT_MAX seconds (68 years), since that's equivalent for practical purposes.
+        setTimeout(seconds > 0 ? seconds : Integer.MAX_VALUE);
+
+        // SSLSession's know their context and consult the
+        // timeout as part of their validity condition.
+        for (NativeSslSession session : sessions.removeInvalid()) {
+            // Let the subclass know.
+            onBeforeRemoveSession(session);
+            expirations.incrementAndGet();
         }
     }
 
@@ -187,8 +174,76 @@ abstract class AbstractSessionContext implements SSLSessionContext {
             throw new IllegalArgumentException("size < 0");
         }
 
+        // An explicit size replaces adaptive sizing.
+        sizer = null;
+        resize(size);
+    }
+
+    /**
+     * Applications should not use this method. Instead use {@link
+     * Conscrypt#setAdaptiveSessionCacheSize(SSLSessionContext, int, int, long)}.
+     */
+    public final void setAdaptiveSessionCacheSize(int minSize, int maxSize,
+                                                  long memoryBudgetBytes) {
+        AdaptiveCacheSizer newSizer = new AdaptiveCacheSizer(minSize, maxSize, memoryBudgetBytes);
+        sizer = newSizer;
+        resize(newSizer.clamp(maximumSize));
+    }
+
+    /**
+     * Applications should not use this method. Instead use {@link
+     * Conscrypt#getSessionCacheStats(SSLSessionContext)}.
+     */
+    public final SessionCacheStats getSessionCacheStats() {
+        return new SessionCacheStats(sessions.size(), maximumSize, lookups.get(),
+                                     lookupHits.get(), persistentLookups.get(),
+                                     persistentLookupHits.get(), evictions.get(),
+                                     expirations.get(), getPendingPersistentCacheWrites(),
+                                     getDroppedPersistentCacheWrites());
+    }
+
+    /**
+     * Counts a handshake which looked for a session to resume, and adjusts the cache size if
+     * adaptive sizing is enabled.
+     */
+    final void recordLookup(boolean hit) {
+        lookups.incrementAndGet();
+        if (hit) {
+            lookupHits.incrementAndGet();
+        }
+        AdaptiveCacheSizer sizer = this.sizer;
+        if (sizer != null) {
+            int oldMaximum = maximumSize;
+            int newMaximum = sizer.resize(oldMaximum, sessions.size(), lookups.get(),
+                                          lookupHits.get(), evictions.get());
+            if (newMaximum != oldMaximum) {
+                resize(newMaximum);
+            }
+        }
+    }
+
+    /**
+     * Counts a lookup in the persistent cache.
+     */
+    final void recordPersistentLookup(boolean hit) {
+        persistentLookups.incrementAndGet();
+        if (hit) {
+            persistentLookupHits.incrementAndGet();
+        }
+    }
+
+    final long getLookupCount() {
+        return lookups.get();
+    }
+
+    final long getLookupHitCount() {
+        return lookupHits.get();
+    }
+
+    private void resize(int size) {
         int oldMaximum = maximumSize;
         maximumSize = size;
+        sessions.setMaximumSize(size);
 
         // Trim cache to size if necessary.
         if (size < oldMaximum) {
@@ -249,6 +304,35 @@ abstract class AbstractSessionContext implements SSLSessionContext {
         }
     }
 
+    /**
+     * Replaces the session ticket keys of the native context with {@code keys}, the
+     * concatenation of 48-byte keys, or restores the default keys if it is empty.
+     */
+    void setNativeTicketKeys(byte[] keys) {
+        lock.writeLock().lock();
+        try {
+            if (isValid()) {
+                NativeCrypto.SSL_CTX_set_ticket_keys(sslCtxNativePointer, this, keys);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the number of TLS 1.3 session tickets sent by servers after each full handshake.
+     */
+    void setNativeTicketCount(int count) {
+        lock.writeLock().lock();
+        try {
+            if (isValid()) {
+                NativeCrypto.SSL_CTX_set_num_tickets(sslCtxNativePointer, this, count);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     private void freeNative() {
         lock.writeLock().lock();
         try {
@@ -281,32 +365,49 @@ abstract class AbstractSessionContext implements SSLSessionContext {
             return;
         }
 
-        synchronized (sessions) {
-            ByteArray key = new ByteArray(id);
-            if (sessions.containsKey(key)) {
-                removeSession(sessions.get(key));
-            }
-            // Let the subclass know.
-            onBeforeAddSession(session);
+        ByteArray key = new ByteArray(id);
+        NativeSslSession existing = sessions.get(key);
+        if (existing != null) {
+            removeSession(existing);
+        }
+        // Let the subclass know.
+        onBeforeAddSession(session);
 
-            sessions.put(key, session);
+        NativeSslSession replaced = sessions.put(key, session);
+        if (replaced != null && replaced != existing) {
+            // Another thread cached a session with the same ID in the meantime.
+            onBeforeRemoveSession(replaced);
+        }
+        for (NativeSslSession evicted : sessions.evictExcess()) {
+            // Let the subclass know.
+            onBeforeRemoveSession(evicted);
+            evictions.incrementAndGet();
         }
     }
 
     /**
      * Removes the given session from the cache.
+     *
+     * @return whether the session was cached by ID, which is {@code false} if another thread
+     *         has already removed it
      */
-    final void removeSession(NativeSslSession session) {
+    final boolean removeSession(NativeSslSession session) {
         byte[] id = session.getId();
         if (id == null || id.length == 0) {
-            return;
+            return false;
         }
 
         onBeforeRemoveSession(session);
 
-        ByteArray key = new ByteArray(id);
-        synchronized (sessions) {
-            sessions.remove(key);
+        return sessions.remove(new ByteArray(id), session);
+    }
+
+    /**
+     * Removes a session which was found to have timed out.
+     */
+    final void expireSession(NativeSslSession session) {
+        if (removeSession(session)) {
+            expirations.incrementAndGet();
         }
     }
 
@@ -320,15 +421,16 @@ abstract class AbstractSessionContext implements SSLSessionContext {
         }
 
         // First, look in the in-memory cache.
-        NativeSslSession session;
-        synchronized (sessions) {
-            session = sessions.get(new ByteArray(sessionId));
-        }
-        if (session != null && session.isValid()) {
-            if (session.isSingleUse()) {
-                removeSession(session);
+        NativeSslSession session = sessions.get(new ByteArray(sessionId));
+        if (session != null) {
+            if (session.isValid()) {
+                // Only one handshake may resume a single-use session.
+                if (!session.isSingleUse() || removeSession(session)) {
+                    return session;
+                }
+            } else {
+                expireSession(session);
             }
-            return session;
         }
 
         // Look in persistent cache.  We don't currently delete sessions from the persistent
@@ -337,6 +439,57 @@ abstract class AbstractSessionContext implements SSLSessionContext {
         return getSessionFromPersistentCache(sessionId);
     }
 
+    /**
+     * Sets whether sessions are written to the persistent cache on a background thread.
+     *
+     * @param maxPendingWrites the maximum number of queued writes, or zero to write sessions on
+     *        the handshake thread
+     */
+    final void setPersistentCacheWriteBehind(int maxPendingWrites) {
+        if (maxPendingWrites < 0) {
+            throw new IllegalArgumentException("maxPendingWrites < 0");
+        }
+        persistentCacheWriter =
+                maxPendingWrites > 0 ? new SessionCacheWriter(this, maxPendingWrites) : null;
+    }
+
+    /**
+     * Returns the number of sessions waiting to be written to the persistent cache.
+     */
+    public final int getPendingPersistentCacheWrites() {
+        SessionCacheWriter writer = persistentCacheWriter;
+        return writer != null ? writer.getPendingCount() : 0;
+    }
+
+    /**
+     * Returns the number of sessions which were not written to the persistent cache because
+     * too many writes were pending.
+     */
+    public final long getDroppedPersistentCacheWrites() {
+        SessionCacheWriter writer = persistentCacheWriter;
+        return writer != null ? writer.getDroppedCount() : 0;
+    }
+
+    /**
+     * Writes the session to the persistent cache, in the background if enabled. Writes for the
+     * same {@code key} which are still pending are replaced.
+     */
+    final void persistSession(Object key, NativeSslSession session) {
+        SessionCacheWriter writer = persistentCacheWriter;
+        if (writer != null) {
+            writer.enqueue(key, session);
+        } else {
+            writeToPersistentCache(session);
+        }
+    }
+
+    /**
+     * Writes the session to the persistent cache, if there is one.
+     *
+     * <p>Visible for extension only, not intended to be called directly.
+     */
+    abstract void writeToPersistentCache(NativeSslSession session);
+
     /**
      * Called when the given session is about to be added. Used by {@link ClientSessionContext} to
      * update its host-and-port based cache.
@@ -364,17 +517,9 @@ abstract class AbstractSessionContext implements SSLSessionContext {
      * Makes sure cache size is < maximumSize.
      */
     private void trimToSize() {
-        synchronized (sessions) {
-            int size = sessions.size();
-            if (size > maximumSize) {
-                int removals = size - maximumSize;
-                Iterator<NativeSslSession> i = sessions.values().iterator();
-                while (removals-- > 0) {
-                    NativeSslSession session = i.next();
-                    onBeforeRemoveSession(session);
-                    i.remove();
-                }
-            }
+        for (NativeSslSession session : sessions.evictExcess()) {
+            onBeforeRemoveSession(session);
+            evictions.incrementAndGet();
         }
     }
 }
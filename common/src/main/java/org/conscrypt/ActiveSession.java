@@ -48,6 +48,7 @@ final class ActiveSession implements ConscryptSession {
     private X509Certificate[] peerCertificates;
     private byte[] peerCertificateOcspData;
     private byte[] peerTlsSctData;
+    private volatile EarlyDataStatus earlyDataStatus = EarlyDataStatus.NOT_ATTEMPTED;
 
     ActiveSession(NativeSsl ssl, AbstractSessionContext sessionContext) {
         this.ssl = checkNotNull(ssl, "ssl");
@@ -295,6 +296,18 @@ final class ActiveSession implements ConscryptSession {
         return applicationProtocol;
     }
 
+    @Override
+    public EarlyDataStatus getEarlyDataStatus() {
+        return earlyDataStatus;
+    }
+
+    /**
+     * Records the outcome of sending early data, once it is known.
+     */
+    void setEarlyDataStatus(EarlyDataStatus earlyDataStatus) {
+        this.earlyDataStatus = earlyDataStatus;
+    }
+
     /**
      * Configures the peer information once it has been received by the handshake.
      */
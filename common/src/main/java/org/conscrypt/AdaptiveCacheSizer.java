@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+import static org.conscrypt.Preconditions.checkArgument;
+
+/**
+ * Picks the maximum size of a session cache from its recent hit rate. The size is reconsidered
+ * every {@link #RESIZE_INTERVAL} lookups: it doubles if sessions were evicted while the hit
+ * rate was below {@link #TARGET_HIT_RATE}, and halves if the cache would still fit and nothing
+ * was evicted. It always stays within the configured bounds and the memory budget.
+ */
+final class AdaptiveCacheSizer {
+    /**
+     * The number of lookups between two adjustments.
+     */
+    static final int RESIZE_INTERVAL = 256;
+
+    /**
+     * The hit rate above which a cache is not grown any further.
+     */
+    static final double TARGET_HIT_RATE = 0.9;
+
+    /**
+     * The assumed memory footprint of one cached session, including its certificate chain.
+     */
+    static final int ESTIMATED_SESSION_BYTES = 4096;
+
+    private final int minSize;
+    private final int maxSize;
+
+    // Totals as of the last adjustment. Written while holding this object's lock.
+    private volatile long lastLookups;
+    private long lastHits;
+    private long lastEvictions;
+
+    AdaptiveCacheSizer(int minSize, int maxSize, long memoryBudgetBytes) {
+        checkArgument(minSize > 0, "minSize must be positive");
+        checkArgument(maxSize >= minSize, "maxSize must not be less than minSize");
+        checkArgument(memoryBudgetBytes > 0, "memoryBudgetBytes must be positive");
+        long budgetSize = memoryBudgetBytes / ESTIMATED_SESSION_BYTES;
+        this.minSize = minSize;
+        this.maxSize = (int) Math.max(minSize, Math.min(maxSize, budgetSize));
+    }
+
+    int getMinSize() {
+        return minSize;
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns {@code size} moved within the bounds of this sizer.
+     */
+    int clamp(int size) {
+        return Math.max(minSize, Math.min(maxSize, size));
+    }
+
+    /**
+     * Returns the maximum size the cache should have, given its current maximum size, the
+     * number of sessions it holds and its running totals.
+     */
+    int resize(int currentMaximum, int size, long lookups, long hits, long evictions) {
+        if (lookups - lastLookups < RESIZE_INTERVAL) {
+            return currentMaximum;
+        }
+        synchronized (this) {
+            long windowLookups = lookups - lastLookups;
+            if (windowLookups < RESIZE_INTERVAL) {
+                // Another thread has just made the adjustment.
+                return currentMaximum;
+            }
+            long windowHits = hits - lastHits;
+            long windowEvictions = evictions - lastEvictions;
+            lastLookups = lookups;
+            lastHits = hits;
+            lastEvictions = evictions;
+
+            double hitRate = (double) windowHits / windowLookups;
+            if (windowEvictions > 0 && hitRate < TARGET_HIT_RATE) {
+                return clamp((int) Math.min(Integer.MAX_VALUE, 2L * currentMaximum));
+            }
+            int halved = currentMaximum / 2;
+            if (windowEvictions == 0 && size <= halved) {
+                return clamp(halved);
+            }
+            return clamp(currentMaximum);
+        }
+    }
+}
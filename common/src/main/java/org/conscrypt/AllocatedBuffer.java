@@ -34,53 +34,120 @@ package org.conscrypt;
 import static org.conscrypt.Preconditions.checkNotNull;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * A buffer that was allocated by a {@link BufferAllocator}.
+ *
+ * <p>Buffers are reference counted. A new buffer has a reference count of one, {@link #retain()}
+ * increments it and {@link #release()} decrements it. When the count reaches zero,
+ * {@link #deallocate()} is called so that the allocator can reuse the delegate
+ * {@link ByteBuffer}. Releasing a buffer more often than it was retained throws
+ * {@link IllegalStateException}, except for buffers created with {@link #wrap(ByteBuffer)},
+ * which ignore extra releases as they always have.
  */
 @ExperimentalApi
 public abstract class AllocatedBuffer {
+    private static final AtomicIntegerFieldUpdater<AllocatedBuffer> REF_CNT_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(AllocatedBuffer.class, "refCnt");
+
+    @SuppressWarnings("unused") // Updated via REF_CNT_UPDATER
+    private volatile int refCnt = 1;
+
     /**
      * Returns the {@link ByteBuffer} that backs this buffer.
      */
     public abstract ByteBuffer nioBuffer();
 
     /**
-     * Returns the current instance for backward compatibility.
+     * Returns the current reference count of this buffer.
+     */
+    public int refCnt() {
+        return refCnt;
+    }
+
+    /**
+     * Increments the reference count of this buffer.
      *
-     * @deprecated this method is not used
+     * @return this {@link AllocatedBuffer} instance
+     * @throws IllegalStateException if the buffer has already been released
      */
-    @Deprecated
-    @SuppressWarnings("InlineMeSuggester")
     public AllocatedBuffer retain() {
-        // Do nothing.
-        return this;
+        for (;;) {
+            int current = refCnt;
+            if (current <= 0) {
+                throw new IllegalStateException("Buffer has already been released");
+            }
+            if (REF_CNT_UPDATER.compareAndSet(this, current, current + 1)) {
+                return this;
+            }
+        }
     }
 
     /**
-     * Returns the delegate {@link ByteBuffer} for reuse or garbage collection.
+     * Decrements the reference count of this buffer and returns the delegate
+     * {@link ByteBuffer} for reuse or garbage collection once it reaches zero.
      *
      * @return this {@link AllocatedBuffer} instance
+     * @throws IllegalStateException if the buffer has already been released
      */
-    public abstract AllocatedBuffer release();
+    public AllocatedBuffer release() {
+        return doRelease(true);
+    }
+
+    /**
+     * Decrements the reference count. If it is already zero, throws if {@code strict} and
+     * does nothing otherwise.
+     */
+    final AllocatedBuffer doRelease(boolean strict) {
+        for (;;) {
+            int current = refCnt;
+            if (current <= 0) {
+                if (!strict) {
+                    return this;
+                }
+                throw new IllegalStateException("Buffer has already been released");
+            }
+            if (REF_CNT_UPDATER.compareAndSet(this, current, current - 1)) {
+                if (current == 1) {
+                    deallocate();
+                }
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Called exactly once, when the reference count drops to zero. The default implementation
+     * does nothing.
+     */
+    protected void deallocate() {}
 
     /**
      * Creates a new {@link AllocatedBuffer} that is backed by the given {@link ByteBuffer}.
+     * Releasing the returned buffer more often than it was retained has no effect.
      */
     public static AllocatedBuffer wrap(final ByteBuffer buffer) {
         checkNotNull(buffer, "buffer");
 
-        return new AllocatedBuffer() {
-            @Override
-            public ByteBuffer nioBuffer() {
-                return buffer;
-            }
+        return new WrappedBuffer(buffer);
+    }
 
-            @Override
-            public AllocatedBuffer release() {
-                // Do nothing.
-                return this;
-            }
-        };
+    private static final class WrappedBuffer extends AllocatedBuffer {
+        private final ByteBuffer buffer;
+
+        WrappedBuffer(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public ByteBuffer nioBuffer() {
+            return buffer;
+        }
+
+        @Override
+        public AllocatedBuffer release() {
+            return doRelease(false);
+        }
     }
 }
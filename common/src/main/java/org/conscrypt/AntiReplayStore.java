@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+/**
+ * Detects replayed TLS 1.3 early data (0-RTT). Early data is not protected against replay by
+ * the protocol itself, so a server which accepts it should remember which ClientHello messages
+ * it has already accepted early data for and refuse early data for any repeated one.
+ *
+ * <p>A store shared by all the servers which accept the same session tickets gives the strongest
+ * protection. Implementations must be thread-safe.
+ *
+ * @see Conscrypt#setEarlyDataEnabled(javax.net.ssl.SSLEngine, boolean, AntiReplayStore)
+ */
+@ExperimentalApi
+public interface AntiReplayStore {
+    /**
+     * Records a ClientHello which offers early data.
+     *
+     * @param clientHelloId a value which uniquely identifies the ClientHello, such as its client
+     *        random
+     * @return {@code true} if early data may be accepted, or {@code false} if the ClientHello
+     *         has been seen before or the store cannot tell, in which case early data is
+     *         rejected and the handshake continues without it
+     */
+    boolean tryAccept(byte[] clientHelloId);
+}
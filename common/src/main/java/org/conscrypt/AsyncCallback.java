@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+/**
+ * Receives the result of an operation which Conscrypt started asynchronously, for example with
+ * an {@link AsyncPrivateKeyOperator} or an {@link AsyncCertificateVerifier}.
+ *
+ * <p>Exactly one of the methods should be called, once, from any thread. Only the first call
+ * has an effect.
+ *
+ * @param <T> the type of the result
+ */
+@ExperimentalApi
+public interface AsyncCallback<T> {
+    /**
+     * Completes the operation with {@code result}.
+     */
+    void onSuccess(T result);
+
+    /**
+     * Fails the operation, which fails the handshake.
+     */
+    void onFailure(Throwable failure);
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * Verifies the certificate chain of the peer asynchronously, for example when OCSP responses or
+ * CRLs have to be fetched or the chain has to be built against a large certificate store. When
+ * set, it is used instead of the {@link javax.net.ssl.X509TrustManager} of the connection, so it
+ * is responsible for all checks including hostname verification.
+ *
+ * <p>The method is called with the connection's lock held, so it must start the verification
+ * and return without waiting for it. The callback may be called from any thread, including
+ * before the method returns. An exception thrown by the method fails the handshake.
+ *
+ * @see Conscrypt#setAsyncCertificateVerifier(javax.net.ssl.SSLEngine, AsyncCertificateVerifier)
+ * @see Conscrypt#setAsyncCertificateVerifier(javax.net.ssl.SSLSocket, AsyncCertificateVerifier)
+ */
+@ExperimentalApi
+public interface AsyncCertificateVerifier {
+    /**
+     * Verifies the certificate chain sent by the peer.
+     *
+     * @param chain the peer certificate chain, starting with the peer's own certificate
+     * @param authType the key exchange algorithm when verifying a server, or the algorithm of
+     *        the peer's public key when verifying a client, as passed to the trust manager
+     * @param handshakeSession the session being negotiated
+     * @param callback called with {@code null} if the chain is trusted, or with the failure,
+     *        preferably a {@link java.security.cert.CertificateException}, to fail the handshake
+     */
+    void verify(X509Certificate[] chain, String authType, SSLSession handshakeSession,
+                AsyncCallback<Void> callback);
+}
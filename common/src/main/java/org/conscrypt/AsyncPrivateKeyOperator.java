@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+import java.security.PrivateKey;
+
+/**
+ * Performs the operations with the local private key of an engine asynchronously, for example by
+ * sending them to a remote signing service. While an operation is in progress the handshake is
+ * suspended without blocking the thread driving the engine.
+ *
+ * <p>The methods are called with the engine's lock held, so they must start the operation and
+ * return without waiting for it. The callback may be called from any thread, including before
+ * the method returns. An exception thrown by the methods fails the handshake.
+ *
+ * @see Conscrypt#setAsyncPrivateKeyOperator(javax.net.ssl.SSLEngine, AsyncPrivateKeyOperator)
+ */
+@ExperimentalApi
+public interface AsyncPrivateKeyOperator {
+    /**
+     * Signs {@code message} with {@code key}.
+     *
+     * @param key the private key returned by the key manager for the local certificate
+     * @param signatureAlgorithm the TLS SignatureScheme to sign with, for example {@code 0x0804}
+     *        for rsa_pss_rsae_sha256. The message must be hashed as specified by the scheme.
+     * @param message the data to sign, which has not been hashed
+     * @param callback called with the signature, or with the failure to fail the handshake
+     */
+    void sign(PrivateKey key, int signatureAlgorithm, byte[] message,
+              AsyncCallback<byte[]> callback);
+
+    /**
+     * Decrypts {@code input} with the RSA {@code key} without removing any padding. Only used
+     * by cipher suites with RSA key exchange.
+     *
+     * @param key the private key returned by the key manager for the local certificate
+     * @param input the data to decrypt
+     * @param callback called with the raw decrypted data, or with the failure to fail the
+     *        handshake
+     */
+    void decrypt(PrivateKey key, byte[] input, AsyncCallback<byte[]> callback);
+}
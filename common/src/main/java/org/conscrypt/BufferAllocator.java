@@ -42,6 +42,15 @@ public abstract class BufferAllocator {
         return UNPOOLED;
     }
 
+    /**
+     * Returns a shared pooled buffer allocator, which recycles direct buffers across all of the
+     * engines and sockets which use it. It holds at most 16MiB of released buffers and does not
+     * cache buffers per thread. See {@link PooledBufferAllocator} for details.
+     */
+    public static PooledBufferAllocator pooled() {
+        return PooledHolder.POOLED;
+    }
+
     /**
      * Allocates a direct (i.e. non-heap) buffer with the given capacity.
      */
@@ -51,4 +60,11 @@ public abstract class BufferAllocator {
      * Allocates a heap buffer with the given capacity.
      */
     public abstract AllocatedBuffer allocateHeapBuffer(int capacity);
+
+    // Lazily creates the shared pool, as most applications never use it.
+    private static final class PooledHolder {
+        static final PooledBufferAllocator POOLED = new PooledBufferAllocator(
+                PooledBufferAllocator.DEFAULT_MAX_POOLED_BYTES,
+                PooledBufferAllocator.DEFAULT_MAX_CACHED_BUFFERS_PER_THREAD);
+    }
 }
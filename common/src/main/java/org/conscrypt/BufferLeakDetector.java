@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+import static org.conscrypt.Preconditions.checkArgument;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Detects {@link AllocatedBuffer} instances which become unreachable without having been
+ * released. A sample of one in {@code samplingInterval} buffers records its allocation site,
+ * which is logged if the buffer is garbage collected while still tracked.
+ */
+final class BufferLeakDetector {
+    private static final Logger logger = Logger.getLogger(BufferLeakDetector.class.getName());
+
+    private final int samplingInterval;
+    private final ReferenceQueue<AllocatedBuffer> queue = new ReferenceQueue<AllocatedBuffer>();
+    // Keeps the trackers reachable until their buffer is either released or collected.
+    private final Set<Tracker> trackers =
+            Collections.newSetFromMap(new ConcurrentHashMap<Tracker, Boolean>());
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong allocationCount = new AtomicLong();
+
+    BufferLeakDetector(int samplingInterval) {
+        checkArgument(samplingInterval > 0, "samplingInterval must be positive");
+        this.samplingInterval = samplingInterval;
+    }
+
+    /**
+     * Starts tracking {@code buffer} if it is selected by sampling.
+     *
+     * @return the tracker to close when the buffer is released, or {@code null} if the buffer
+     * is not tracked
+     */
+    Tracker track(AllocatedBuffer buffer, int size) {
+        if (samplingInterval > 1
+                && allocationCount.getAndIncrement() % samplingInterval != 0) {
+            return null;
+        }
+        Tracker tracker = new Tracker(buffer, size);
+        trackers.add(tracker);
+        return tracker;
+    }
+
+    /**
+     * Logs every tracked buffer which has been garbage collected without being released since
+     * the last call.
+     *
+     * @return the total size of the leaked buffers
+     */
+    long drainLeaks() {
+        long leakedBytes = 0;
+        Tracker tracker;
+        while ((tracker = (Tracker) queue.poll()) != null) {
+            if (trackers.remove(tracker)) {
+                leakCount.incrementAndGet();
+                leakedBytes += tracker.size;
+                logger.log(Level.WARNING,
+                           "AllocatedBuffer was garbage collected without being released",
+                           tracker.allocationSite);
+            }
+        }
+        return leakedBytes;
+    }
+
+    /**
+     * Returns the number of leaks detected so far.
+     */
+    long getLeakCount() {
+        return leakCount.get();
+    }
+
+    final class Tracker extends PhantomReference<AllocatedBuffer> {
+        private final int size;
+        private final Throwable allocationSite;
+
+        private Tracker(AllocatedBuffer buffer, int size) {
+            super(buffer, queue);
+            this.size = size;
+            this.allocationSite = new Throwable("Buffer of " + size + " bytes allocated here");
+        }
+
+        /**
+         * Stops tracking, to be called when the buffer is released.
+         */
+        void close() {
+            trackers.remove(this);
+            clear();
+        }
+    }
+}
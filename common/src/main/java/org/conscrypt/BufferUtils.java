@@ -29,8 +29,16 @@ final class BufferUtils {
      * Throws {@link IllegalArgumentException} if any of the buffers in the array are null.
      */
     static void checkNotNull(ByteBuffer[] buffers) {
-        for (ByteBuffer buffer : buffers) {
-            if (buffer == null) {
+        checkNotNull(buffers, 0, buffers.length);
+    }
+
+    /**
+     * Throws {@link IllegalArgumentException} if any of the {@code length} buffers starting at
+     * {@code offset} in the array are null.
+     */
+    static void checkNotNull(ByteBuffer[] buffers, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buffers[i] == null) {
                 throw new IllegalArgumentException("Null buffer in array");
             }
         }
@@ -40,9 +48,17 @@ final class BufferUtils {
      * Returns the total number of bytes remaining in the buffer array.
      */
     static long remaining(ByteBuffer[] buffers) {
+        return remaining(buffers, 0, buffers.length);
+    }
+
+    /**
+     * Returns the total number of bytes remaining in the {@code length} buffers starting at
+     * {@code offset} in the array.
+     */
+    static long remaining(ByteBuffer[] buffers, int offset, int length) {
         long size = 0;
-        for (ByteBuffer buffer : buffers) {
-            size += buffer.remaining();
+        for (int i = offset; i < offset + length; i++) {
+            size += buffers[i].remaining();
         }
         return size;
     }
@@ -53,7 +69,18 @@ final class BufferUtils {
      * @throws IllegalArgumentException if there are fewer than {@code toConsume} bytes remaining
      */
     static void consume(ByteBuffer[] sourceBuffers, int toConsume) {
-        for (ByteBuffer sourceBuffer : sourceBuffers) {
+        consume(sourceBuffers, 0, sourceBuffers.length, toConsume);
+    }
+
+    /**
+     * Marks {@code toConsume} bytes of data as consumed from the {@code length} buffers starting
+     * at {@code offset} in the array.
+     *
+     * @throws IllegalArgumentException if there are fewer than {@code toConsume} bytes remaining
+     */
+    static void consume(ByteBuffer[] sourceBuffers, int offset, int length, int toConsume) {
+        for (int i = offset; i < offset + length; i++) {
+            ByteBuffer sourceBuffer = sourceBuffers[i];
             int amount = min(sourceBuffer.remaining(), toConsume);
             if (amount > 0) {
                 sourceBuffer.position(sourceBuffer.position() + amount);
@@ -73,15 +100,24 @@ final class BufferUtils {
      * has no preceding non-empty buffers OR is the only non-empty buffer in the array.
      */
     static ByteBuffer getBufferLargerThan(ByteBuffer[] buffers, int minSize) {
-        int length = buffers.length;
-        for (int i = 0; i < length; i++) {
+        return getBufferLargerThan(buffers, 0, buffers.length, minSize);
+    }
+
+    /**
+     * Variant of {@link #getBufferLargerThan(ByteBuffer[], int)} which only considers the
+     * {@code length} buffers starting at {@code offset} in the array.
+     */
+    static ByteBuffer getBufferLargerThan(ByteBuffer[] buffers, int offset, int length,
+                                          int minSize) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
             ByteBuffer buffer = buffers[i];
             int remaining = buffer.remaining();
             if (remaining > 0) {
                 if (remaining >= minSize) {
                     return buffer;
                 }
-                for (int j = i + 1; j < length; j++) {
+                for (int j = i + 1; j < end; j++) {
                     if (buffers[j].remaining() > 0) {
                         return null;
                     }
@@ -101,9 +137,19 @@ final class BufferUtils {
      *
      */
     static ByteBuffer copyNoConsume(ByteBuffer[] buffers, ByteBuffer destination, int maxAmount) {
+        return copyNoConsume(buffers, 0, buffers.length, destination, maxAmount);
+    }
+
+    /**
+     * Variant of {@link #copyNoConsume(ByteBuffer[], ByteBuffer, int)} which only copies from
+     * the {@code length} buffers starting at {@code offset} in the array.
+     */
+    static ByteBuffer copyNoConsume(ByteBuffer[] buffers, int offset, int length,
+                                    ByteBuffer destination, int maxAmount) {
         checkArgument(destination.remaining() >= maxAmount, "Destination buffer too small");
         int needed = maxAmount;
-        for (ByteBuffer buffer : buffers) {
+        for (int i = offset; i < offset + length; i++) {
+            ByteBuffer buffer = buffers[i];
             int remaining = buffer.remaining();
             if (remaining > 0) {
                 // If this buffer can fit completely then copy it all, otherwise temporarily
@@ -16,10 +16,15 @@
 
 package org.conscrypt;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import static org.conscrypt.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.net.ssl.SSLContext;
 
@@ -29,24 +34,69 @@ import javax.net.ssl.SSLContext;
  */
 @Internal
 public final class ClientSessionContext extends AbstractSessionContext {
+    private static final Logger logger = Logger.getLogger(ClientSessionContext.class.getName());
+
+    /**
+     * The maximum number of hosts and ports for which pool statistics are kept.
+     */
+    static final int MAX_TRACKED_HOSTS = 10000;
+
     /**
-     * Sessions indexed by host and port. Protect from concurrent
-     * access by holding a lock on sessionsByHostAndPort.
+     * Sessions indexed by host and port. Each value is an immutable array which is
+     * replaced atomically, so lookups never block.
      *
-     * Invariant: Each list includes either exactly one multi-use session or one
+     * Invariant: Each array includes either exactly one multi-use session or one
      * or more single-use sessions.  The types of sessions are never mixed, and adding
      * a session of one kind will remove all sessions of the other kind.
      */
-    @SuppressWarnings("serial")
-    private final Map<HostAndPort, List<NativeSslSession>> sessionsByHostAndPort =
-            new HashMap<HostAndPort, List<NativeSslSession>>();
+    private final ConcurrentMap<HostAndPort, NativeSslSession[]> sessionsByHostAndPort =
+            new ConcurrentHashMap<HostAndPort, NativeSslSession[]>();
+
+    private volatile SSLClientSessionCache persistentCache;
 
-    private SSLClientSessionCache persistentCache;
+    // The maximum number of sessions kept per host and port, or zero for no limit.
+    private volatile int maxSessionsPerHost;
+    private volatile SessionPoolRefiller refiller;
+    private volatile int refillThreshold;
+    private final ConcurrentMap<HostAndPort, PoolStats> poolStats =
+            new ConcurrentHashMap<HostAndPort, PoolStats>();
 
     ClientSessionContext() {
         super(10);
     }
 
+    /**
+     * Applications should not use this method. Instead use {@link
+     * Conscrypt#setClientSessionPoolSize(SSLContext, int)}.
+     */
+    public void setMaxSessionsPerHost(int maxSessionsPerHost) {
+        checkArgument(maxSessionsPerHost >= 0, "maxSessionsPerHost must be non-negative");
+        this.maxSessionsPerHost = maxSessionsPerHost;
+    }
+
+    /**
+     * Applications should not use this method. Instead use {@link
+     * Conscrypt#setClientSessionPoolRefiller(SSLContext, SessionPoolRefiller, int)}.
+     */
+    public void setSessionPoolRefiller(SessionPoolRefiller refiller, int threshold) {
+        checkArgument(threshold > 0, "threshold must be positive");
+        this.refillThreshold = threshold;
+        this.refiller = refiller;
+    }
+
+    /**
+     * Applications should not use this method. Instead use {@link
+     * Conscrypt#getClientSessionPoolStats(SSLContext, String, int)}.
+     */
+    public SessionPoolStats getSessionPoolStats(String host, int port) {
+        HostAndPort key = new HostAndPort(host, port);
+        PoolStats stats = poolStats.get(key);
+        if (stats == null) {
+            return null;
+        }
+        return new SessionPoolStats(stats.hits.get(), stats.misses.get(), available(key));
+    }
+
     /**
      * Applications should not use this method. Instead use {@link
      * Conscrypt#setClientSessionCache(SSLContext, SSLClientSessionCache)}.
@@ -58,17 +108,88 @@ public final class ClientSessionContext extends AbstractSessionContext {
     /**
      * Gets the suitable session reference from the session cache container.
      */
-    synchronized NativeSslSession getCachedSession(String hostName, int port,
-                                                   SSLParametersImpl sslParameters) {
+    NativeSslSession getCachedSession(String hostName, int port,
+                                      SSLParametersImpl sslParameters) {
         if (hostName == null) {
             return null;
         }
 
-        NativeSslSession session = getSession(hostName, port);
-        if (session == null) {
-            return null;
+        HostAndPort key = new HostAndPort(hostName, port);
+        PoolStats stats = getPoolStats(key);
+        NativeSslSession session = takeSession(key, sslParameters);
+        recordLookup(session != null);
+        if (stats != null) {
+            if (session != null) {
+                stats.hits.incrementAndGet();
+            } else {
+                stats.misses.incrementAndGet();
+            }
+            requestRefillIfLow(key, stats);
+        }
+        return session;
+    }
+
+    private NativeSslSession takeSession(HostAndPort key, SSLParametersImpl sslParameters) {
+        while (true) {
+            NativeSslSession session = getSession(key.host, key.port);
+            if (session == null) {
+                return null;
+            }
+            if (!isCompatible(session, sslParameters)) {
+                return null;
+            }
+            if (!session.isSingleUse()) {
+                return session;
+            }
+            // A single-use session may only be handed out once. If another thread took this
+            // one first, try the next.
+            if (removeSession(key, session)) {
+                removeSession(session);
+                return session;
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics for the given host and port, creating them unless pooling is not
+     * configured or too many hosts are already tracked.
+     */
+    private PoolStats getPoolStats(HostAndPort key) {
+        PoolStats stats = poolStats.get(key);
+        if (stats == null && isPoolingConfigured() && poolStats.size() < MAX_TRACKED_HOSTS) {
+            PoolStats newStats = new PoolStats();
+            stats = poolStats.putIfAbsent(key, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
         }
+        return stats;
+    }
 
+    private boolean isPoolingConfigured() {
+        return maxSessionsPerHost > 0 || refiller != null;
+    }
+
+    private void requestRefillIfLow(HostAndPort key, PoolStats stats) {
+        SessionPoolRefiller refiller = this.refiller;
+        if (refiller == null || available(key) >= refillThreshold
+                || !stats.refillRequested.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refiller.refill(key.host, key.port);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Session pool refiller failed for " + key.host, e);
+        }
+    }
+
+    private int available(HostAndPort key) {
+        NativeSslSession[] sessions = sessionsByHostAndPort.get(key);
+        return sessions != null ? sessions.length : 0;
+    }
+
+    private static boolean isCompatible(NativeSslSession session,
+                                        SSLParametersImpl sslParameters) {
         String protocol = session.getProtocol();
         boolean protocolFound = false;
         for (String enabledProtocol : sslParameters.enabledProtocols) {
@@ -78,7 +199,7 @@ public final class ClientSessionContext extends AbstractSessionContext {
             }
         }
         if (!protocolFound) {
-            return null;
+            return false;
         }
 
         String cipherSuite = session.getCipherSuite();
@@ -89,22 +210,13 @@ public final class ClientSessionContext extends AbstractSessionContext {
                 break;
             }
         }
-        if (!cipherSuiteFound) {
-            return null;
-        }
-
-        if (session.isSingleUse()) {
-            removeSession(session);
-        }
-        return session;
+        return cipherSuiteFound;
     }
 
     int size() {
         int size = 0;
-        synchronized (sessionsByHostAndPort) {
-            for (List<NativeSslSession> sessions : sessionsByHostAndPort.values()) {
-                size += sessions.size();
-            }
+        for (NativeSslSession[] sessions : sessionsByHostAndPort.values()) {
+            size += sessions.length;
         }
         return size;
     }
@@ -122,15 +234,14 @@ public final class ClientSessionContext extends AbstractSessionContext {
         }
 
         HostAndPort key = new HostAndPort(host, port);
-        NativeSslSession session = null;
-        synchronized (sessionsByHostAndPort) {
-            List<NativeSslSession> sessions = sessionsByHostAndPort.get(key);
-            if (sessions != null && sessions.size() > 0) {
-                session = sessions.get(0);
+        NativeSslSession[] sessions = sessionsByHostAndPort.get(key);
+        NativeSslSession session = sessions != null ? sessions[0] : null;
+        if (session != null) {
+            if (session.isValid()) {
+                return session;
             }
-        }
-        if (session != null && session.isValid()) {
-            return session;
+            // Drop expired sessions as they are found.
+            expireSession(session);
         }
 
         // Look in persistent cache.  We don't currently delete sessions from the persistent
@@ -141,47 +252,96 @@ public final class ClientSessionContext extends AbstractSessionContext {
             if (data != null) {
                 session = NativeSslSession.newInstance(this, data, host, port);
                 if (session != null && session.isValid()) {
+                    recordPersistentLookup(true);
                     putSession(key, session);
                     return session;
                 }
             }
+            recordPersistentLookup(false);
         }
 
         return null;
     }
 
     private void putSession(HostAndPort key, NativeSslSession session) {
-        synchronized (sessionsByHostAndPort) {
-            List<NativeSslSession> sessions = sessionsByHostAndPort.get(key);
-            if (sessions == null) {
-                sessions = new ArrayList<NativeSslSession>();
-                sessionsByHostAndPort.put(key, sessions);
+        NativeSslSession[] displaced = null;
+        while (true) {
+            NativeSslSession[] current = sessionsByHostAndPort.get(key);
+            if (current == null) {
+                if (sessionsByHostAndPort.putIfAbsent(key, new NativeSslSession[] {session})
+                        == null) {
+                    displaced = null;
+                    break;
+                }
+                continue;
             }
+            NativeSslSession[] updated;
             // To maintain the invariant that single- and multi-use sessions aren't
-            // mixed, check what the current list contains and remove those sessions if
+            // mixed, check what the current array contains and replace those sessions if
             // they're of the other type.
-            if (sessions.size() > 0 && sessions.get(0).isSingleUse() != session.isSingleUse()) {
-                while (!sessions.isEmpty()) {
-                    removeSession(sessions.get(0));
-                }
-                // The last removeSession() call will have removed the list from
-                // the map, so put it back.
-                sessionsByHostAndPort.put(key, sessions);
+            int max = maxSessionsPerHost;
+            if (current[0].isSingleUse() != session.isSingleUse()) {
+                updated = new NativeSslSession[] {session};
+                displaced = current;
+            } else if (max > 0 && current.length >= max) {
+                // The pool is full, drop its oldest sessions.
+                int keep = max - 1;
+                updated = Arrays.copyOfRange(current, current.length - keep,
+                                             current.length + 1);
+                updated[keep] = session;
+                displaced = Arrays.copyOf(current, current.length - keep);
+            } else {
+                updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = session;
+                displaced = null;
+            }
+            if (sessionsByHostAndPort.replace(key, current, updated)) {
+                break;
+            }
+        }
+        if (displaced != null) {
+            // These are no longer indexed by host and port, so this only removes them from
+            // the cache by ID.
+            for (NativeSslSession s : displaced) {
+                removeSession(s);
             }
-            sessions.add(session);
         }
     }
 
-    private void removeSession(HostAndPort key, NativeSslSession session) {
-        synchronized (sessionsByHostAndPort) {
-            List<NativeSslSession> sessions = sessionsByHostAndPort.get(key);
-            if (sessions != null) {
-                sessions.remove(session);
-                if (sessions.isEmpty()) {
-                    sessionsByHostAndPort.remove(key);
+    /**
+     * Removes the given session from the sessions for its host and port.
+     *
+     * @return whether the session was found
+     */
+    private boolean removeSession(HostAndPort key, NativeSslSession session) {
+        while (true) {
+            NativeSslSession[] current = sessionsByHostAndPort.get(key);
+            int index = current == null ? -1 : indexOf(current, session);
+            if (index < 0) {
+                return false;
+            }
+            if (current.length == 1) {
+                if (sessionsByHostAndPort.remove(key, current)) {
+                    return true;
                 }
+                continue;
+            }
+            NativeSslSession[] updated = new NativeSslSession[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, updated.length - index);
+            if (sessionsByHostAndPort.replace(key, current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    private static int indexOf(NativeSslSession[] sessions, NativeSslSession session) {
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i] == session) {
+                return i;
             }
         }
+        return -1;
     }
 
     @Override
@@ -194,12 +354,23 @@ public final class ClientSessionContext extends AbstractSessionContext {
 
         HostAndPort key = new HostAndPort(host, port);
         putSession(key, session);
+        PoolStats stats = poolStats.get(key);
+        if (stats != null) {
+            stats.refillRequested.set(false);
+        }
 
-        // TODO: Do this in a background thread.
         if (persistentCache != null && !session.isSingleUse()) {
+            persistSession(key, session);
+        }
+    }
+
+    @Override
+    void writeToPersistentCache(NativeSslSession session) {
+        SSLClientSessionCache cache = persistentCache;
+        if (cache != null) {
             byte[] data = session.toBytes();
             if (data != null) {
-                persistentCache.putSessionData(session.toSSLSession(), data);
+                cache.putSessionData(session.toSSLSession(), data);
             }
         }
     }
@@ -221,6 +392,13 @@ public final class ClientSessionContext extends AbstractSessionContext {
         return null;
     }
 
+    private static final class PoolStats {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        // Whether the refiller has been called since the last session was added.
+        final AtomicBoolean refillRequested = new AtomicBoolean();
+    }
+
     private static final class HostAndPort {
         final String host;
         final int port;
@@ -21,7 +21,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.security.KeyManagementException;
 import java.security.PrivateKey;
 import java.security.Provider;
@@ -41,6 +43,7 @@ import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509KeyManager;
 import javax.net.ssl.X509TrustManager;
 
 /**
@@ -289,6 +292,208 @@ public final class Conscrypt {
         ((ServerSessionContext) serverContext).setPersistentCache(cache);
     }
 
+    /**
+     * Sets whether the client and server session contexts of the given context write sessions
+     * to their persistent caches on a background thread instead of during the handshake. This
+     * keeps slow storage out of handshake latency, at the cost of sessions reaching the
+     * persistent cache slightly later.
+     *
+     * <p>Pending writes for the same host and port (or, on servers, session ID) are coalesced.
+     * At most {@code maxPendingWrites} writes are queued per session context; when the queue is
+     * full the oldest write is dropped. The queue depth and the number of dropped writes are
+     * reported by the session contexts.
+     *
+     * @param maxPendingWrites the maximum number of queued writes, or zero to write sessions
+     *        during the handshake, which is the default
+     * @throws IllegalArgumentException if the context is not a Conscrypt context or
+     *         {@code maxPendingWrites} is negative
+     */
+    @ExperimentalApi
+    public static void setPersistentCacheWriteBehind(SSLContext context, int maxPendingWrites) {
+        toConscryptClientSessionContext(context).setPersistentCacheWriteBehind(maxPendingWrites);
+        toConscryptServerSessionContext(context).setPersistentCacheWriteBehind(maxPendingWrites);
+    }
+
+    /**
+     * Sets the keys which the server side of the context uses to encrypt and decrypt session
+     * tickets, replacing the random keys generated for every context. Servers which share the
+     * same keys can resume each other's sessions without sharing a session cache, including
+     * after a restart. Installing keys also enables tickets for TLS 1.2 on the server side, so
+     * TLS 1.2 clients which enable session tickets resume statelessly as well.
+     *
+     * <p>Each key is 48 bytes long: a 16-byte key name which is sent in tickets, a 16-byte
+     * HMAC-SHA256 secret and a 16-byte AES-128 key. The first key encrypts new tickets and all
+     * of them are accepted for decryption; sessions resumed with any other key are issued a new
+     * ticket under the first key. To rotate keys, install the new key first followed by the
+     * previous ones which should still be accepted. Replacing the keys is atomic and affects
+     * handshakes in progress. Calling this method with no keys restores the default keys.
+     *
+     * @throws IllegalArgumentException if the context is not a Conscrypt context or a key is
+     *         not 48 bytes long
+     */
+    @ExperimentalApi
+    public static void setSessionTicketKeys(SSLContext context, byte[]... keys) {
+        toConscryptServerSessionContext(context).setTicketKeys(keys);
+    }
+
+    /**
+     * Sets a callback which supplies the session ticket keys of the server side of the
+     * context. The callback is consulted before every handshake and the keys are installed as
+     * with {@link #setSessionTicketKeys(SSLContext, byte[]...)} whenever they change. Passing
+     * {@code null} stops consulting the callback and keeps the current keys.
+     *
+     * @throws IllegalArgumentException if the context is not a Conscrypt context or the keys
+     *         returned by the callback are invalid
+     */
+    @ExperimentalApi
+    public static void setSessionTicketKeyCallback(SSLContext context,
+                                                   SessionTicketKeyCallback callback) {
+        toConscryptServerSessionContext(context).setTicketKeyCallback(callback);
+    }
+
+    /**
+     * Sets the number of session tickets which the server side of the context issues after
+     * each TLS 1.3 handshake. TLS 1.3 tickets should only be used once, so clients which open
+     * many parallel connections resume more of them when they receive several tickets per
+     * handshake. The default is two.
+     *
+     * @param count the number of tickets, between 0 and 16
+     * @throws IllegalArgumentException if the context is not a Conscrypt context or the count
+     *         is out of range
+     */
+    @ExperimentalApi
+    public static void setSessionTicketCount(SSLContext context, int count) {
+        toConscryptServerSessionContext(context).setTicketCount(count);
+    }
+
+    /**
+     * Sets the maximum number of sessions which the client side of the context keeps for each
+     * host and port. TLS 1.3 servers can issue several single-use tickets per handshake, and
+     * pooling them lets parallel connections to the same host all resume. When the pool of a
+     * host is full, its oldest session is dropped. The session cache must also be large enough
+     * to hold the pooled sessions of every host, see {@link SSLSessionContext#setSessionCacheSize}.
+     *
+     * @param maxSessionsPerHost the maximum number of sessions per host and port, or zero for
+     *        no limit, which is the default
+     * @throws IllegalArgumentException if the context is not a Conscrypt context or
+     *         {@code maxSessionsPerHost} is negative
+     */
+    @ExperimentalApi
+    public static void setClientSessionPoolSize(SSLContext context, int maxSessionsPerHost) {
+        toConscryptClientSessionContext(context).setMaxSessionsPerHost(maxSessionsPerHost);
+    }
+
+    /**
+     * Sets a callback which the client side of the context calls when a handshake leaves fewer
+     * than {@code threshold} sessions cached for its host and port, so that the application can
+     * make a handshake in the background and top up the pool before it runs dry. Passing
+     * {@code null} disables refilling.
+     *
+     * @throws IllegalArgumentException if the context is not a Conscrypt context or
+     *         {@code threshold} is not positive
+     */
+    @ExperimentalApi
+    public static void setClientSessionPoolRefiller(SSLContext context,
+                                                    SessionPoolRefiller refiller, int threshold) {
+        toConscryptClientSessionContext(context).setSessionPoolRefiller(refiller, threshold);
+    }
+
+    /**
+     * Returns how often the client side of the context could offer a cached session to
+     * handshakes with the given host and port, or {@code null} if no handshake with them has
+     * been made since a pool size or refiller was set. Statistics are only kept while pooling
+     * is configured with {@link #setClientSessionPoolSize(SSLContext, int)} or
+     * {@link #setClientSessionPoolRefiller(SSLContext, SessionPoolRefiller, int)}.
+     *
+     * @throws IllegalArgumentException if the context is not a Conscrypt context
+     */
+    @ExperimentalApi
+    public static SessionPoolStats getClientSessionPoolStats(SSLContext context, String host,
+                                                             int port) {
+        return toConscryptClientSessionContext(context).getSessionPoolStats(host, port);
+    }
+
+    /**
+     * Returns a snapshot of the statistics of the given client or server session context,
+     * such as its hit rate, evictions and timeout expirations, to help choose its size.
+     *
+     * @throws IllegalArgumentException if the session context is not a Conscrypt context
+     */
+    @ExperimentalApi
+    public static SessionCacheStats getSessionCacheStats(SSLSessionContext sessionContext) {
+        return toConscryptSessionContext(sessionContext).getSessionCacheStats();
+    }
+
+    /**
+     * Lets the given client or server session context choose its own maximum size between
+     * {@code minSize} and {@code maxSize}. The size is reconsidered every few hundred
+     * handshakes: it grows while sessions are evicted and the hit rate is low, and shrinks
+     * while the cache holds far fewer sessions than it could. The maximum size is further
+     * limited so that the cached sessions fit in about {@code memoryBudgetBytes}, counting
+     * 4 KiB per session. Calling {@link SSLSessionContext#setSessionCacheSize(int)} disables
+     * adaptive sizing again.
+     *
+     * @throws IllegalArgumentException if the session context is not a Conscrypt context,
+     *         {@code minSize} is not positive, {@code maxSize} is less than {@code minSize} or
+     *         {@code memoryBudgetBytes} is not positive
+     */
+    @ExperimentalApi
+    public static void setAdaptiveSessionCacheSize(SSLSessionContext sessionContext,
+                                                   int minSize, int maxSize,
+                                                   long memoryBudgetBytes) {
+        toConscryptSessionContext(sessionContext)
+                .setAdaptiveSessionCacheSize(minSize, maxSize, memoryBudgetBytes);
+    }
+
+    private static AbstractSessionContext toConscryptSessionContext(
+            SSLSessionContext sessionContext) {
+        if (!(sessionContext instanceof AbstractSessionContext)) {
+            throw new IllegalArgumentException("Not a conscrypt session context: "
+                                               + sessionContext.getClass().getName());
+        }
+        return (AbstractSessionContext) sessionContext;
+    }
+
+    /**
+     * Converts the server certificate chains and private keys of {@code keyManager} into native
+     * credentials held by the server side of the context. Server handshakes whose key manager
+     * is {@code keyManager} and which choose one of its RSA or EC aliases then use the
+     * converted credential instead of encoding the chain, converting the key and parsing both
+     * again. Aliases are still chosen by the key manager for every handshake.
+     *
+     * <p>{@code keyManager} should be the key manager the context was initialized with. The
+     * credentials are a snapshot: call this method again after the key manager's certificates
+     * or keys change, or pass {@code null} to discard them. Handshakes which hand private key
+     * operations to the application, or which staple an OCSP response or a signed certificate
+     * timestamp list, do not use preloaded credentials.
+     *
+     * @throws IllegalArgumentException if the context is not a Conscrypt context
+     * @throws KeyManagementException if a certificate chain or private key cannot be converted
+     */
+    @ExperimentalApi
+    public static void preloadServerCredentials(SSLContext context, X509KeyManager keyManager)
+            throws KeyManagementException {
+        toConscryptServerSessionContext(context).preloadCredentials(keyManager);
+    }
+
+    private static ClientSessionContext toConscryptClientSessionContext(SSLContext context) {
+        SSLSessionContext clientContext = context.getClientSessionContext();
+        if (!(clientContext instanceof ClientSessionContext)) {
+            throw new IllegalArgumentException("Not a conscrypt client context: "
+                                               + clientContext.getClass().getName());
+        }
+        return (ClientSessionContext) clientContext;
+    }
+
+    private static ServerSessionContext toConscryptServerSessionContext(SSLContext context) {
+        SSLSessionContext serverContext = context.getServerSessionContext();
+        if (!(serverContext instanceof ServerSessionContext)) {
+            throw new IllegalArgumentException("Not a conscrypt server context: "
+                                               + serverContext.getClass().getName());
+        }
+        return (ServerSessionContext) serverContext;
+    }
+
     /**
      * Indicates whether the given {@link SSLSocketFactory} was created by this distribution of
      * Conscrypt.
@@ -486,6 +691,164 @@ public final class Conscrypt {
         toConscrypt(socket).setApplicationProtocolSelector(selector);
     }
 
+    /**
+     * Sets a verifier which is used instead of the trust manager to verify the peer's
+     * certificate chain. The handshake thread waits for the verification to complete, for at
+     * most the handshake timeout.
+     *
+     * @param socket the socket
+     * @param verifier the verifier, or {@code null} to use the trust manager
+     * @throws IllegalArgumentException if the provided socket is not a Conscrypt socket
+     * @throws IllegalStateException if the handshake has already started
+     */
+    @ExperimentalApi
+    public static void setAsyncCertificateVerifier(SSLSocket socket,
+                                                   AsyncCertificateVerifier verifier) {
+        toConscrypt(socket).setAsyncCertificateVerifier(verifier);
+    }
+
+    /**
+     * Sets the application data which the given client socket sends as TLS 1.3 early data, see
+     * {@link #setEarlyData(SSLEngine, byte[])}.
+     *
+     * @throws IllegalArgumentException if the provided socket is not a Conscrypt socket
+     * @throws IllegalStateException if the handshake has already started
+     * @throws SocketException if the socket does not support early data
+     */
+    @ExperimentalApi
+    public static void setEarlyData(SSLSocket socket, byte[] earlyData) throws SocketException {
+        toConscrypt(socket).setEarlyData(earlyData);
+    }
+
+    /**
+     * Sets whether the given server socket accepts TLS 1.3 early data, see
+     * {@link #setEarlyDataEnabled(SSLEngine, boolean, AntiReplayStore)}.
+     *
+     * @throws IllegalArgumentException if the provided socket is not a Conscrypt socket
+     * @throws IllegalStateException if the handshake has already started
+     * @throws SocketException if the socket does not support early data
+     */
+    @ExperimentalApi
+    public static void setEarlyDataEnabled(SSLSocket socket, boolean enabled,
+                                           AntiReplayStore antiReplayStore)
+            throws SocketException {
+        toConscrypt(socket).setEarlyDataEnabled(enabled, antiReplayStore);
+    }
+
+    /**
+     * Returns whether TLS 1.3 early data was sent and accepted on the given socket.
+     *
+     * @throws IllegalArgumentException if the provided socket is not a Conscrypt socket
+     */
+    @ExperimentalApi
+    public static EarlyDataStatus getEarlyDataStatus(SSLSocket socket) {
+        return toConscrypt(socket).getEarlyDataStatus();
+    }
+
+    /**
+     * Sets whether the encryption of outgoing records is moved into the kernel (Linux kTLS)
+     * once the handshake has completed. This requires the {@code tls} kernel module and a
+     * TLS 1.2 or 1.3 connection using AES-GCM or ChaCha20-Poly1305; otherwise records keep
+     * being encrypted in user space. Incoming records are always decrypted in user space.
+     *
+     * <p>While active, data written to the socket's file descriptor, for example with
+     * {@code sendfile}, is encrypted by the kernel. BoringSSL can no longer send messages of its
+     * own, so a TLS 1.3 KeyUpdate requested by the peer is not answered.
+     *
+     * @param socket the socket
+     * @param useKernelTls whether to use kernel TLS when possible
+     * @throws IllegalArgumentException if the provided socket is not a Conscrypt socket
+     * @throws IllegalStateException if the handshake has already started
+     * @throws SocketException if the socket does not use a file descriptor directly
+     */
+    @ExperimentalApi
+    public static void setUseKernelTls(SSLSocket socket, boolean useKernelTls)
+            throws SocketException {
+        toConscrypt(socket).setUseKernelTls(useKernelTls);
+    }
+
+    /**
+     * Sets the maximum amount of application data the given socket seals into a single TLS
+     * record, see {@link #setMaxSendFragment(SSLEngine, int)}.
+     *
+     * @throws IllegalArgumentException if the provided socket is not a Conscrypt socket or
+     * {@code maxSendFragment} is out of range.
+     * @throws SocketException if the socket does not support limiting the record size
+     */
+    @ExperimentalApi
+    public static void setMaxSendFragment(SSLSocket socket, int maxSendFragment)
+            throws SocketException {
+        toConscrypt(socket).setMaxSendFragment(maxSendFragment);
+    }
+
+    /**
+     * Enables dynamic record sizing on the given socket, see
+     * {@link #setDynamicRecordSizing(SSLEngine, long, long)}.
+     *
+     * @throws IllegalArgumentException if the provided socket is not a Conscrypt socket or an
+     * argument is negative.
+     * @throws SocketException if the socket does not support dynamic record sizing
+     */
+    @ExperimentalApi
+    public static void setDynamicRecordSizing(SSLSocket socket, long boostThreshold,
+                                              long idleTimeoutMillis) throws SocketException {
+        toConscrypt(socket).setDynamicRecordSizing(boostThreshold, idleTimeoutMillis);
+    }
+
+    /**
+     * Sets the number of bytes of application data gathered from small writes before they are
+     * encrypted into TLS records, so that many small writes are sent in few records and
+     * system calls. Buffered data is sent when the buffer fills up, when the output stream is
+     * flushed and when the socket is closed. Zero, the default, encrypts the data of each
+     * write immediately.
+     *
+     * @throws IllegalArgumentException if the provided socket is not a Conscrypt socket, or if
+     *         {@code writeBufferSize} is negative.
+     * @throws SocketException if the socket does not support write buffering.
+     */
+    @ExperimentalApi
+    public static void setWriteBufferSize(SSLSocket socket, int writeBufferSize)
+            throws SocketException {
+        toConscrypt(socket).setWriteBufferSize(writeBufferSize);
+    }
+
+    /**
+     * Returns whether the outgoing records of the socket are encrypted by the kernel.
+     *
+     * @see #setUseKernelTls(SSLSocket, boolean)
+     */
+    @ExperimentalApi
+    public static boolean isKernelTlsActive(SSLSocket socket) {
+        return toConscrypt(socket).isKernelTlsActive();
+    }
+
+    /**
+     * Reads decrypted data from the socket into {@code dst}, advancing its position. Data is
+     * decrypted straight into direct buffers, without a copy through a Java array, where the
+     * socket supports it.
+     *
+     * @return the number of bytes read, or {@code -1} if the end of the stream has been reached
+     * @throws IllegalArgumentException if the provided socket is not a Conscrypt socket.
+     * @throws java.nio.ReadOnlyBufferException if {@code dst} is read-only.
+     */
+    @ExperimentalApi
+    public static int read(SSLSocket socket, ByteBuffer dst) throws IOException {
+        return toConscrypt(socket).read(dst);
+    }
+
+    /**
+     * Encrypts and writes the remaining contents of the given buffers to the socket, advancing
+     * their positions. Direct buffers, such as a {@link java.nio.MappedByteBuffer}, are
+     * encrypted without a copy through a Java array where the socket supports it.
+     *
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if the provided socket is not a Conscrypt socket.
+     */
+    @ExperimentalApi
+    public static long write(SSLSocket socket, ByteBuffer[] srcs) throws IOException {
+        return toConscrypt(socket).write(srcs, 0, srcs.length);
+    }
+
     /**
      * Sets the application-layer protocols (ALPN) in prioritization order.
      *
@@ -585,6 +948,198 @@ public final class Conscrypt {
         ConscryptEngine.setDefaultBufferAllocator(bufferAllocator);
     }
 
+    /**
+     * Sets the maximum number of TLS records that a single call to {@code wrap} on the given
+     * engine may produce. By default each wrap call seals at most one record. With a larger
+     * value, a wrap call keeps sealing full records while source data remains and the
+     * destination buffer has room for another record, which amortizes the per-call overhead
+     * for large writes.
+     *
+     * @param engine the engine
+     * @param maxRecords the maximum number of records per wrap, which must be positive
+     * @throws IllegalArgumentException if the provided engine is not a Conscrypt engine or
+     * {@code maxRecords} is not positive.
+     */
+    @ExperimentalApi
+    public static void setMaxRecordsPerWrap(SSLEngine engine, int maxRecords) {
+        toConscrypt(engine).setMaxRecordsPerWrap(maxRecords);
+    }
+
+    /**
+     * Sets the maximum amount of application data the given engine seals into a single TLS
+     * record. Smaller records let the peer start decrypting sooner at the cost of more overhead.
+     * Defaults to the maximum TLS record size of 16384 bytes.
+     *
+     * @param engine the engine
+     * @param maxSendFragment the maximum record payload, between 512 and 16384 bytes
+     * @throws IllegalArgumentException if the provided engine is not a Conscrypt engine or
+     * {@code maxSendFragment} is out of range.
+     */
+    @ExperimentalApi
+    public static void setMaxSendFragment(SSLEngine engine, int maxSendFragment) {
+        toConscrypt(engine).setMaxSendFragment(maxSendFragment);
+    }
+
+    /**
+     * Enables dynamic record sizing on the given engine. Records start small enough to fit into
+     * a single TCP segment, which improves the time to the first decrypted byte on new
+     * connections, and grow to the maximum send fragment once {@code boostThreshold} bytes have
+     * been sent. After {@code idleTimeoutMillis} without writes, records are small again; with
+     * an idle timeout of zero, they stay at the maximum send fragment.
+     *
+     * @param engine the engine
+     * @param boostThreshold the number of bytes sent in small records, or zero to disable
+     *        dynamic record sizing
+     * @param idleTimeoutMillis the idle time after which records are small again, or zero to
+     *        never make them small again
+     * @throws IllegalArgumentException if the provided engine is not a Conscrypt engine or an
+     * argument is negative.
+     */
+    @ExperimentalApi
+    public static void setDynamicRecordSizing(SSLEngine engine, long boostThreshold,
+                                              long idleTimeoutMillis) {
+        toConscrypt(engine).setDynamicRecordSizing(boostThreshold, idleTimeoutMillis);
+    }
+
+    /**
+     * Sets whether the given engine passes heap {@link java.nio.ByteBuffer}s backed by an
+     * accessible array straight to the native code, which avoids copying every record to and
+     * from an intermediate direct buffer. This is enabled by default; disabling it restores
+     * the copying behaviour, for example to compare the two in benchmarks. Read-only heap
+     * buffers are always copied.
+     *
+     * @param engine the engine
+     * @param enabled whether to avoid copying heap buffers
+     * @throws IllegalArgumentException if the provided engine is not a Conscrypt engine
+     */
+    @ExperimentalApi
+    public static void setZeroCopyHeapBuffers(SSLEngine engine, boolean enabled) {
+        toConscrypt(engine).setZeroCopyHeapBuffers(enabled);
+    }
+
+    /**
+     * Sets whether the given engine hands out the expensive steps of the handshake as delegated
+     * tasks. When enabled, verifying the peer's certificate chain and signing or decrypting with
+     * the local private key are not performed within {@code wrap} or {@code unwrap}; instead the
+     * handshake status becomes {@link javax.net.ssl.SSLEngineResult.HandshakeStatus#NEED_TASK
+     * NEED_TASK} and the step is returned from {@link SSLEngine#getDelegatedTask()}, so that it
+     * can be run on another thread. Once the task has run the handshake status is
+     * {@link javax.net.ssl.SSLEngineResult.HandshakeStatus#NEED_WRAP NEED_WRAP} and the next
+     * {@code wrap} resumes the handshake. Disabled by default.
+     *
+     * @param engine the engine
+     * @param useDelegatedTasks whether to use delegated tasks
+     * @throws IllegalArgumentException if the provided engine is not a Conscrypt engine
+     * @throws IllegalStateException if the handshake has already started
+     */
+    @ExperimentalApi
+    public static void setUseDelegatedTasks(SSLEngine engine, boolean useDelegatedTasks) {
+        toConscrypt(engine).setUseDelegatedTasks(useDelegatedTasks);
+    }
+
+    /**
+     * Sets an operator which performs the signing and decryption operations with the local
+     * private key asynchronously, for example with a remote signing service, instead of the
+     * engine performing them with the key returned by the key manager. The key manager still
+     * selects the certificate chain and key, which is passed to the operator.
+     *
+     * <p>While an operation is in progress, wrap and unwrap consume and produce nothing and the
+     * handshake status is {@link javax.net.ssl.SSLEngineResult.HandshakeStatus#NEED_TASK}.
+     * The task returned by {@link SSLEngine#getDelegatedTask()} only waits for the operation to
+     * complete, so callers which do not want to block a thread can instead call {@code wrap}
+     * again once the operator has called its callback.
+     *
+     * @param engine the engine
+     * @param operator the operator, or {@code null} to use the private key directly
+     * @throws IllegalArgumentException if the provided engine is not a Conscrypt engine
+     * @throws IllegalStateException if the handshake has already started
+     */
+    @ExperimentalApi
+    public static void setAsyncPrivateKeyOperator(SSLEngine engine,
+                                                  AsyncPrivateKeyOperator operator) {
+        toConscrypt(engine).setAsyncPrivateKeyOperator(operator);
+    }
+
+    /**
+     * Sets a verifier which is used instead of the trust manager to verify the peer's
+     * certificate chain. While the verification is in progress the handshake is suspended in
+     * the same way as for {@link #setAsyncPrivateKeyOperator(SSLEngine,
+     * AsyncPrivateKeyOperator)}: the handshake status is
+     * {@link javax.net.ssl.SSLEngineResult.HandshakeStatus#NEED_TASK} and {@code wrap} resumes
+     * the handshake once the verifier has called its callback.
+     *
+     * @param engine the engine
+     * @param verifier the verifier, or {@code null} to use the trust manager
+     * @throws IllegalArgumentException if the provided engine is not a Conscrypt engine
+     * @throws IllegalStateException if the handshake has already started
+     */
+    @ExperimentalApi
+    public static void setAsyncCertificateVerifier(SSLEngine engine,
+                                                   AsyncCertificateVerifier verifier) {
+        toConscrypt(engine).setAsyncCertificateVerifier(verifier);
+    }
+
+    /**
+     * Sets application data which the given client engine sends as TLS 1.3 early data (0-RTT),
+     * together with its first handshake flight. Early data is only sent when the engine resumes
+     * a session from its {@link javax.net.ssl.SSLSessionContext} whose server allows at least
+     * this much early data; otherwise the handshake proceeds normally.
+     *
+     * <p>Early data can be replayed by an attacker, so it must only contain requests which are
+     * safe to process more than once. Whether the server accepted the data is available from
+     * {@link #getEarlyDataStatus(SSLEngine)} once the handshake has completed. If it was not
+     * accepted, the application has to send it again as ordinary application data.
+     *
+     * @param engine the client engine
+     * @param earlyData the data to send, or {@code null} to not send early data
+     * @throws IllegalArgumentException if the provided engine is not a Conscrypt engine or
+     * {@code earlyData} is empty
+     * @throws IllegalStateException if the handshake has already started
+     */
+    @ExperimentalApi
+    public static void setEarlyData(SSLEngine engine, byte[] earlyData) {
+        toConscrypt(engine).setEarlyData(earlyData);
+    }
+
+    /**
+     * Sets whether the given server engine accepts TLS 1.3 early data (0-RTT). Sessions
+     * established while early data is enabled allow clients to send early data when they resume
+     * them.
+     *
+     * <p>When early data is accepted, the handshake status becomes
+     * {@link javax.net.ssl.SSLEngineResult.HandshakeStatus#FINISHED} once the server's flight
+     * has been wrapped, so that the early data can be unwrapped straight away. The rest of the
+     * handshake is completed by later calls to {@code unwrap}.
+     *
+     * <p>{@code antiReplayStore} is consulted for every ClientHello; early data is rejected if
+     * it refuses the ClientHello. Early data is also rejected if client authentication is
+     * requested.
+     *
+     * @param engine the server engine
+     * @param enabled whether early data is accepted
+     * @param antiReplayStore the store used to detect replays, which may only be {@code null}
+     *        if {@code enabled} is {@code false}
+     * @throws IllegalArgumentException if the provided engine is not a Conscrypt engine
+     * @throws IllegalStateException if the handshake has already started
+     */
+    @ExperimentalApi
+    public static void setEarlyDataEnabled(SSLEngine engine, boolean enabled,
+                                           AntiReplayStore antiReplayStore) {
+        toConscrypt(engine).setEarlyDataEnabled(enabled, antiReplayStore);
+    }
+
+    /**
+     * Returns whether TLS 1.3 early data was sent and accepted on the given engine. A server
+     * reports early data which it did not accept as
+     * {@link EarlyDataStatus#NOT_ATTEMPTED}, since it cannot tell whether the client offered it.
+     *
+     * @throws IllegalArgumentException if the provided engine is not a Conscrypt engine
+     */
+    @ExperimentalApi
+    public static EarlyDataStatus getEarlyDataStatus(SSLEngine engine) {
+        return toConscrypt(engine).getEarlyDataStatus();
+    }
+
     /**
      * This method enables Server Name Indication (SNI) and overrides the hostname supplied
      * during engine creation.
@@ -699,6 +1254,66 @@ public final class Conscrypt {
                                           dstsLength);
     }
 
+    /**
+     * Variant of {@link #unwrap(SSLEngine, ByteBuffer[], int, int, ByteBuffer[], int, int)}
+     * which stores the result in a caller-owned {@link MutableEngineResult} instead of
+     * allocating a new {@link SSLEngineResult} for each call.
+     *
+     * @param engine the target engine for the unwrap.
+     * @param srcs the source buffers
+     * @param srcsOffset the offset in the {@code srcs} array of the first source buffer
+     * @param srcsLength the number of source buffers starting at {@code srcsOffset}
+     * @param dsts the destination buffers
+     * @param dstsOffset the offset in the {@code dsts} array of the first destination buffer
+     * @param dstsLength the number of destination buffers starting at {@code dstsOffset}
+     * @param out the object in which to store the result of the unwrap operation
+     * @return {@code out}
+     * @throws SSLException thrown if an SSL error occurred
+     */
+    @ExperimentalApi
+    public static MutableEngineResult unwrap(SSLEngine engine, final ByteBuffer[] srcs,
+                                             int srcsOffset, final int srcsLength,
+                                             final ByteBuffer[] dsts, final int dstsOffset,
+                                             final int dstsLength, MutableEngineResult out)
+            throws SSLException {
+        return toConscrypt(engine).unwrap(srcs, srcsOffset, srcsLength, dsts, dstsOffset,
+                                          dstsLength, out);
+    }
+
+    /**
+     * Variant of {@link SSLEngine#wrap(ByteBuffer[], int, int, ByteBuffer)} which stores the
+     * result in a caller-owned {@link MutableEngineResult} instead of allocating a new
+     * {@link SSLEngineResult} for each call.
+     *
+     * @param engine the target engine for the wrap.
+     * @param srcs the source buffers
+     * @param srcsOffset the offset in the {@code srcs} array of the first source buffer
+     * @param srcsLength the number of source buffers starting at {@code srcsOffset}
+     * @param dst the destination buffer
+     * @param out the object in which to store the result of the wrap operation
+     * @return {@code out}
+     * @throws SSLException thrown if an SSL error occurred
+     */
+    @ExperimentalApi
+    public static MutableEngineResult wrap(SSLEngine engine, ByteBuffer[] srcs, int srcsOffset,
+                                           int srcsLength, ByteBuffer dst,
+                                           MutableEngineResult out) throws SSLException {
+        return toConscrypt(engine).wrap(srcs, srcsOffset, srcsLength, dst, out);
+    }
+
+    /**
+     * Creates a channel which protects the data read from and written to {@code channel} with
+     * TLS, using the given engine. The client or server mode of the engine must already be set
+     * and the handshake must not have begun.
+     *
+     * @throws IllegalArgumentException if the provided engine is not a Conscrypt engine.
+     */
+    @ExperimentalApi
+    public static ConscryptSocketChannel newSocketChannel(SocketChannel channel,
+                                                          SSLEngine engine) {
+        return new ConscryptSocketChannel(channel, toConscrypt(engine));
+    }
+
     /**
      * This method enables session ticket support.
      *
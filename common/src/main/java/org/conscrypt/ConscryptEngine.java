@@ -37,6 +37,10 @@ import static org.conscrypt.NativeConstants.SSL3_RT_MAX_PACKET_SIZE;
 import static org.conscrypt.NativeConstants.SSL3_RT_MAX_PLAIN_LENGTH;
 import static org.conscrypt.NativeConstants.SSL_CB_HANDSHAKE_DONE;
 import static org.conscrypt.NativeConstants.SSL_CB_HANDSHAKE_START;
+import static org.conscrypt.NativeConstants.SSL_ERROR_EARLY_DATA_REJECTED;
+import static org.conscrypt.NativeConstants.SSL_ERROR_SYSCALL;
+import static org.conscrypt.NativeConstants.SSL_ERROR_WANT_CERTIFICATE_VERIFY;
+import static org.conscrypt.NativeConstants.SSL_ERROR_WANT_PRIVATE_KEY_OPERATION;
 import static org.conscrypt.NativeConstants.SSL_ERROR_WANT_READ;
 import static org.conscrypt.NativeConstants.SSL_ERROR_WANT_WRITE;
 import static org.conscrypt.NativeConstants.SSL_ERROR_ZERO_RETURN;
@@ -59,6 +63,7 @@ import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 import static javax.net.ssl.SSLEngineResult.HandshakeStatus.FINISHED;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_TASK;
 import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_UNWRAP;
 import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_WRAP;
 import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
@@ -82,7 +87,8 @@ import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.ECKey;
 import java.security.spec.ECParameterSpec;
-import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 
 import javax.crypto.SecretKey;
 import javax.net.ssl.SSLEngine;
@@ -104,16 +110,6 @@ import javax.security.auth.x500.X500Principal;
 final class ConscryptEngine extends AbstractConscryptEngine
         implements NativeCrypto.SSLHandshakeCallbacks, SSLParametersImpl.AliasChooser,
                    SSLParametersImpl.PSKCallbacks {
-    private static final SSLEngineResult NEED_UNWRAP_OK =
-            new SSLEngineResult(OK, NEED_UNWRAP, 0, 0);
-    private static final SSLEngineResult NEED_UNWRAP_CLOSED =
-            new SSLEngineResult(CLOSED, NEED_UNWRAP, 0, 0);
-    private static final SSLEngineResult NEED_WRAP_OK = new SSLEngineResult(OK, NEED_WRAP, 0, 0);
-    private static final SSLEngineResult NEED_WRAP_CLOSED =
-            new SSLEngineResult(CLOSED, NEED_WRAP, 0, 0);
-    private static final SSLEngineResult CLOSED_NOT_HANDSHAKING =
-            new SSLEngineResult(CLOSED, NOT_HANDSHAKING, 0, 0);
-
     private static BufferAllocator defaultBufferAllocator = null;
 
     private final SSLParametersImpl sslParameters;
@@ -177,6 +173,70 @@ final class ConscryptEngine extends AbstractConscryptEngine
 
     private HandshakeListener handshakeListener;
 
+    /**
+     * The maximum number of TLS records sealed by a single call to {@code wrap}.
+     */
+    private int maxRecordsPerWrap = 1;
+
+    /**
+     * Chooses the amount of application data sealed into each record.
+     */
+    private final RecordSizer recordSizer = new RecordSizer();
+
+    /**
+     * Whether heap buffers backed by an accessible array are passed to JNI directly rather than
+     * being copied to and from a direct buffer.
+     */
+    private boolean zeroCopyHeapBuffers = true;
+
+    /**
+     * Whether certificate verification and private key operations are returned from
+     * {@link #getDelegatedTask()} rather than being performed within wrap and unwrap.
+     */
+    private boolean useDelegatedTasks;
+
+    /**
+     * Performs the operations with the local private key asynchronously, if set.
+     */
+    private AsyncPrivateKeyOperator asyncPrivateKeyOperator;
+
+    /**
+     * The step the handshake is suspended on until it has been run, if any.
+     */
+    // @GuardedBy("ssl");
+    private DelegatedTask<?> delegatedTask;
+
+    /**
+     * Application data sent as TLS 1.3 early data if a session which allows it is resumed.
+     * Client-side only.
+     */
+    private byte[] earlyData;
+
+    /**
+     * Whether {@link #earlyData} has been written during the current handshake.
+     */
+    // @GuardedBy("ssl");
+    private boolean earlyDataWritten;
+
+    /**
+     * Rejects early data from replayed ClientHellos. Early data is only accepted if this is set.
+     * Server-side only.
+     */
+    private AntiReplayStore antiReplayStore;
+
+    /**
+     * Result filled in by the JSSE {@code wrap} and {@code unwrap} methods before it is
+     * converted into an {@link SSLEngineResult}.
+     */
+    // @GuardedBy("ssl");
+    private final MutableEngineResult jsseResult = new MutableEngineResult();
+
+    /**
+     * Scratch space for the destination regions passed to the single-call unwrap path.
+     */
+    private long[] unwrapDstAddresses = new long[1];
+    private int[] unwrapDstLengths = new int[1];
+
     private final ByteBuffer[] singleSrcBuffer = new ByteBuffer[1];
     private final ByteBuffer[] singleDstBuffer = new ByteBuffer[1];
     private final PeerInfoProvider peerInfoProvider;
@@ -247,6 +307,69 @@ final class ConscryptEngine extends AbstractConscryptEngine
         }
     }
 
+    /**
+     * Sets the maximum number of TLS records that a single call to {@code wrap} may produce.
+     * With a value greater than one, a wrap call keeps sealing records while source data
+     * remains and the destination buffer has room for another full record.
+     */
+    @Override
+    void setMaxRecordsPerWrap(int maxRecords) {
+        checkArgument(maxRecords > 0, "maxRecords must be positive: %d", maxRecords);
+        synchronized (ssl) {
+            this.maxRecordsPerWrap = maxRecords;
+        }
+    }
+
+    @Override
+    void setMaxSendFragment(int maxSendFragment) {
+        synchronized (ssl) {
+            recordSizer.setMaxSendFragment(maxSendFragment);
+        }
+    }
+
+    @Override
+    void setDynamicRecordSizing(long boostThreshold, long idleTimeoutMillis) {
+        synchronized (ssl) {
+            recordSizer.setDynamicRecordSizing(boostThreshold, idleTimeoutMillis);
+        }
+    }
+
+    /**
+     * Sets whether heap buffers are passed to JNI without copying them to a direct buffer.
+     */
+    @Override
+    void setZeroCopyHeapBuffers(boolean enabled) {
+        synchronized (ssl) {
+            this.zeroCopyHeapBuffers = enabled;
+        }
+    }
+
+    @Override
+    void setUseDelegatedTasks(boolean useDelegatedTasks) {
+        synchronized (ssl) {
+            if (isHandshakeStarted()) {
+                throw new IllegalStateException(
+                        "Could not change delegated tasks after the initial handshake has begun.");
+            }
+            this.useDelegatedTasks = useDelegatedTasks;
+            ssl.setOffloadPrivateKeyOperations(
+                    useDelegatedTasks || asyncPrivateKeyOperator != null);
+        }
+    }
+
+    @Override
+    void setAsyncPrivateKeyOperator(AsyncPrivateKeyOperator operator) {
+        synchronized (ssl) {
+            if (isHandshakeStarted()) {
+                throw new IllegalStateException(
+                        "Could not set private key operator after the initial handshake has "
+                        + "begun.");
+            }
+            this.asyncPrivateKeyOperator = operator;
+            ssl.setOffloadPrivateKeyOperations(useDelegatedTasks || operator != null);
+        }
+    }
+
     /**
      * Returns the maximum overhead, in bytes, of sealing a record with SSL.
      */
@@ -445,7 +568,14 @@ final class ConscryptEngine extends AbstractConscryptEngine
                         getHostname(), getPeerPort(), sslParameters);
                 if (cachedSession != null) {
                     cachedSession.offerToResume(ssl);
+                    // Only offer early data if all of it may be sent before the handshake
+                    // completes.
+                    if (earlyData != null && earlyData.length <= cachedSession.getMaxEarlyData()) {
+                        ssl.setEarlyDataEnabled(true);
+                    }
                 }
+            } else if (antiReplayStore != null) {
+                ssl.setEarlyDataEnabled(true);
             }
 
             maxSealOverhead = ssl.getMaxSealOverhead();
@@ -504,8 +634,14 @@ final class ConscryptEngine extends AbstractConscryptEngine
 
     @Override
     public Runnable getDelegatedTask() {
-        // This implementation doesn't use any delegated tasks.
-        return null;
+        synchronized (ssl) {
+            DelegatedTask<?> task = delegatedTask;
+            if (task == null || task.handedOut) {
+                return null;
+            }
+            task.handedOut = true;
+            return task;
+        }
     }
 
     @Override
@@ -549,7 +685,7 @@ final class ConscryptEngine extends AbstractConscryptEngine
         }
         switch (state) {
             case STATE_HANDSHAKE_STARTED:
-                return pendingStatus(pendingOutboundEncryptedBytes());
+                return pendingHandshakeStatus(pendingOutboundEncryptedBytes());
             case STATE_HANDSHAKE_COMPLETED:
                 return HandshakeStatus.NEED_WRAP;
             case STATE_NEW:
@@ -579,6 +715,14 @@ final class ConscryptEngine extends AbstractConscryptEngine
         return pendingOutboundBytes > 0 ? NEED_WRAP : NEED_UNWRAP;
     }
 
+    private SSLEngineResult.HandshakeStatus pendingHandshakeStatus(int pendingOutboundBytes) {
+        if (pendingOutboundBytes == 0 && delegatedTask != null) {
+            // The handshake is suspended until the task has run, after which wrap() resumes it.
+            return delegatedTask.isDone() ? NEED_WRAP : NEED_TASK;
+        }
+        return pendingStatus(pendingOutboundBytes);
+    }
+
     @Override
     public boolean getNeedClientAuth() {
         return sslParameters.getNeedClientAuth();
@@ -755,6 +899,18 @@ final class ConscryptEngine extends AbstractConscryptEngine
     SSLEngineResult unwrap(final ByteBuffer[] srcs, int srcsOffset, final int srcsLength,
                            final ByteBuffer[] dsts, final int dstsOffset, final int dstsLength)
             throws SSLException {
+        synchronized (ssl) {
+            return unwrap(srcs, srcsOffset, srcsLength, dsts, dstsOffset, dstsLength, jsseResult)
+                    .toSSLEngineResult();
+        }
+    }
+
+    @Override
+    MutableEngineResult unwrap(final ByteBuffer[] srcs, int srcsOffset, final int srcsLength,
+                               final ByteBuffer[] dsts, final int dstsOffset,
+                               final int dstsLength, MutableEngineResult out)
+            throws SSLException {
+        checkArgument(out != null, "out is null");
         checkArgument(srcs != null, "srcs is null");
         checkArgument(dsts != null, "dsts is null");
         checkPositionIndexes(srcsOffset, srcsOffset + srcsLength, srcs.length);
@@ -777,7 +933,7 @@ final class ConscryptEngine extends AbstractConscryptEngine
                 case STATE_CLOSED:
                     freeIfDone();
                     // If the inbound direction is closed. we can't send anymore.
-                    return new SSLEngineResult(Status.CLOSED, getHandshakeStatusInternal(), 0, 0);
+                    return out.set(Status.CLOSED, getHandshakeStatusInternal(), 0, 0);
                 case STATE_NEW:
                     throw new IllegalStateException(
                             "Client/server mode must be set before calling unwrap");
@@ -788,11 +944,11 @@ final class ConscryptEngine extends AbstractConscryptEngine
             HandshakeStatus handshakeStatus = HandshakeStatus.NOT_HANDSHAKING;
             if (!handshakeFinished) {
                 handshakeStatus = handshake();
-                if (handshakeStatus == NEED_WRAP) {
-                    return NEED_WRAP_OK;
+                if (handshakeStatus == NEED_WRAP || handshakeStatus == NEED_TASK) {
+                    return out.set(OK, handshakeStatus, 0, 0);
                 }
                 if (state == STATE_CLOSED) {
-                    return NEED_WRAP_CLOSED;
+                    return out.set(CLOSED, NEED_WRAP, 0, 0);
                 }
                 // NEED_UNWRAP - just fall through to perform the unwrap.
             }
@@ -803,7 +959,7 @@ final class ConscryptEngine extends AbstractConscryptEngine
             if (srcLength > 0 && noCleartextDataAvailable) {
                 if (srcLength < SSL3_RT_HEADER_LENGTH) {
                     // Need to be able to read a full TLS header.
-                    return new SSLEngineResult(BUFFER_UNDERFLOW, getHandshakeStatus(), 0, 0);
+                    return out.set(BUFFER_UNDERFLOW, getHandshakeStatus(), 0, 0);
                 }
 
                 int packetLength = SSLUtils.getEncryptedPacketLength(srcs, srcsOffset);
@@ -814,14 +970,24 @@ final class ConscryptEngine extends AbstractConscryptEngine
                 if (srcLength < packetLength) {
                     // We either have not enough data to read the packet header or not enough for
                     // reading the whole packet.
-                    return new SSLEngineResult(BUFFER_UNDERFLOW, getHandshakeStatus(), 0, 0);
+                    return out.set(BUFFER_UNDERFLOW, getHandshakeStatus(), 0, 0);
                 }
 
                 // Limit the amount of data to be read to a single packet.
                 lenRemaining = packetLength;
             } else if (noCleartextDataAvailable) {
                 // No pending data and nothing provided as input.  Need more data.
-                return new SSLEngineResult(BUFFER_UNDERFLOW, getHandshakeStatus(), 0, 0);
+                return out.set(BUFFER_UNDERFLOW, getHandshakeStatus(), 0, 0);
+            }
+
+            // Once the handshake is done, direct buffers can be unwrapped in a single JNI call.
+            if (handshakeFinished && lenRemaining > 0 && dstLength > 0) {
+                MutableEngineResult directResult =
+                        unwrapDirect(out, srcs, srcsOffset, srcsEndOffset, lenRemaining, dsts,
+                                     dstsOffset, endOffset, handshakeStatus);
+                if (directResult != null) {
+                    return directResult;
+                }
             }
 
             // Write all of the encrypted source data to the networkBio
@@ -888,18 +1054,26 @@ final class ConscryptEngine extends AbstractConscryptEngine
                         } else {
                             switch (bytesRead) {
                                 case -SSL_ERROR_WANT_READ:
-                                case -SSL_ERROR_WANT_WRITE: {
-                                    return newResult(bytesConsumed, bytesProduced, handshakeStatus);
+                                case -SSL_ERROR_WANT_WRITE:
+                                case -SSL_ERROR_WANT_PRIVATE_KEY_OPERATION:
+                                case -SSL_ERROR_WANT_CERTIFICATE_VERIFY: {
+                                    return newResult(out, bytesConsumed, bytesProduced,
+                                                     handshakeStatus);
+                                }
+                                case -SSL_ERROR_EARLY_DATA_REJECTED: {
+                                    onEarlyDataRejected();
+                                    return newResult(out, bytesConsumed, bytesProduced,
+                                                     handshake());
                                 }
                                 case -SSL_ERROR_ZERO_RETURN: {
                                     // We received a close_notify from the peer, so mark the
                                     // inbound direction as closed and shut down the SSL object
                                     closeAll();
-                                    return new SSLEngineResult(Status.CLOSED,
-                                                               pendingOutboundEncryptedBytes() > 0
-                                                                       ? NEED_WRAP
-                                                                       : NOT_HANDSHAKING,
-                                                               bytesConsumed, bytesProduced);
+                                    return out.set(Status.CLOSED,
+                                                   pendingOutboundEncryptedBytes() > 0
+                                                           ? NEED_WRAP
+                                                           : NOT_HANDSHAKING,
+                                                   bytesConsumed, bytesProduced);
                                 }
                                 default: {
                                     // Should never get here.
@@ -916,7 +1090,7 @@ final class ConscryptEngine extends AbstractConscryptEngine
                     ssl.forceRead();
                 }
             } catch (InterruptedIOException e) {
-                return newResult(bytesConsumed, bytesProduced, handshakeStatus);
+                return newResult(out, bytesConsumed, bytesProduced, handshakeStatus);
             } catch (IOException e) {
                 // Shut down the SSL and rethrow the exception.  Users will need to drain any alerts
                 // from the SSL before closing.
@@ -931,7 +1105,7 @@ final class ConscryptEngine extends AbstractConscryptEngine
             if (pendingCleartextBytes > 0) {
                 // We filled all buffers but there is still some data pending in the BIO buffer,
                 // return BUFFER_OVERFLOW.
-                return new SSLEngineResult(
+                return out.set(
                         BUFFER_OVERFLOW,
                         mayFinishHandshake(handshakeStatus == FINISHED
                                                    ? handshakeStatus
@@ -939,10 +1113,107 @@ final class ConscryptEngine extends AbstractConscryptEngine
                         bytesConsumed, bytesProduced);
             }
 
-            return newResult(bytesConsumed, bytesProduced, handshakeStatus);
+            return newResult(out, bytesConsumed, bytesProduced, handshakeStatus);
         }
     }
 
+    /**
+     * Feeds a single TLS record to the network BIO and reads the resulting plaintext in one
+     * native call. This is only possible when the whole record is in a single direct source
+     * buffer and all destination buffers are direct; otherwise returns {@code null} so that the
+     * caller falls back to the general path.
+     */
+    private MutableEngineResult unwrapDirect(MutableEngineResult out, ByteBuffer[] srcs,
+                                             int srcsOffset, int srcsEndOffset, int packetLength,
+                                             ByteBuffer[] dsts, int dstsOffset, int dstsEndOffset,
+                                             HandshakeStatus handshakeStatus)
+            throws SSLException {
+        ByteBuffer src = null;
+        for (int i = srcsOffset; i < srcsEndOffset; i++) {
+            if (srcs[i].hasRemaining()) {
+                src = srcs[i];
+                break;
+            }
+        }
+        if (src == null || !src.isDirect() || src.remaining() < packetLength) {
+            return null;
+        }
+        int dstCount = dstsEndOffset - dstsOffset;
+        for (int i = dstsOffset; i < dstsEndOffset; i++) {
+            if (!dsts[i].isDirect()) {
+                return null;
+            }
+        }
+        if (unwrapDstAddresses.length < dstCount) {
+            unwrapDstAddresses = new long[dstCount];
+            unwrapDstLengths = new int[dstCount];
+        }
+        for (int i = 0; i < dstCount; i++) {
+            ByteBuffer dst = dsts[dstsOffset + i];
+            unwrapDstAddresses[i] = directByteBufferAddress(dst, dst.position());
+            unwrapDstLengths[i] = dst.remaining();
+        }
+
+        final long packedResult;
+        final int srcPos = src.position();
+        try {
+            packedResult = networkBio.unwrapDirect(directByteBufferAddress(src, srcPos),
+                                                   packetLength, unwrapDstAddresses,
+                                                   unwrapDstLengths, dstCount);
+        } catch (IOException | CertificateException e) {
+            // Shut down the SSL and rethrow the exception.  Users will need to drain any alerts
+            // from the SSL before closing.
+            closeAll();
+            throw convertException(e);
+        }
+
+        int bytesConsumed = NativeCrypto.unwrapBytesConsumed(packedResult);
+        int bytesProduced = NativeCrypto.unwrapBytesProduced(packedResult);
+        src.position(srcPos + bytesConsumed);
+        // The destinations are filled in order, so only the last one written may be partial.
+        int toAdvance = bytesProduced;
+        for (int i = dstsOffset; i < dstsEndOffset && toAdvance > 0; i++) {
+            ByteBuffer dst = dsts[i];
+            int advance = min(dst.remaining(), toAdvance);
+            dst.position(dst.position() + advance);
+            toAdvance -= advance;
+        }
+
+        // The same results as the read loop of the general path.
+        switch (NativeCrypto.unwrapSslError(packedResult)) {
+            case SSL_ERROR_WANT_READ:
+            case SSL_ERROR_WANT_WRITE:
+            case SSL_ERROR_WANT_PRIVATE_KEY_OPERATION:
+            case SSL_ERROR_WANT_CERTIFICATE_VERIFY:
+            case SSL_ERROR_SYSCALL:
+                // SSL_ERROR_SYSCALL means the read was interrupted.
+                return newResult(out, bytesConsumed, bytesProduced, handshakeStatus);
+            case SSL_ERROR_EARLY_DATA_REJECTED:
+                onEarlyDataRejected();
+                return newResult(out, bytesConsumed, bytesProduced, handshake());
+            case SSL_ERROR_ZERO_RETURN:
+                // We received a close_notify from the peer, so mark the inbound direction as
+                // closed and shut down the SSL object
+                closeAll();
+                return out.set(Status.CLOSED,
+                               pendingOutboundEncryptedBytes() > 0 ? NEED_WRAP : NOT_HANDSHAKING,
+                               bytesConsumed, bytesProduced);
+            default:
+                break;
+        }
+
+        if (NativeCrypto.unwrapHasPendingPlaintext(packedResult)) {
+            // We filled all buffers but there is still some data pending in the BIO buffer,
+            // return BUFFER_OVERFLOW.
+            return out.set(BUFFER_OVERFLOW,
+                           mayFinishHandshake(handshakeStatus == FINISHED
+                                                      ? handshakeStatus
+                                                      : getHandshakeStatusInternal()),
+                           bytesConsumed, bytesProduced);
+        }
+        return newResult(out, bytesConsumed, bytesProduced, handshakeStatus);
+    }
+
     private static int calcDstsLength(ByteBuffer[] dsts, int dstsOffset, int dstsLength) {
         int capacity = 0;
         for (int i = 0; i < dsts.length; i++) {
@@ -978,14 +1249,43 @@ final class ConscryptEngine extends AbstractConscryptEngine
                 int ssl_error_code = ssl.doHandshake();
                 switch (ssl_error_code) {
                     case SSL_ERROR_WANT_READ:
-                        return pendingStatus(pendingOutboundEncryptedBytes());
+                    case SSL_ERROR_WANT_PRIVATE_KEY_OPERATION:
+                    case SSL_ERROR_WANT_CERTIFICATE_VERIFY:
+                        return pendingHandshakeStatus(pendingOutboundEncryptedBytes());
                     case SSL_ERROR_WANT_WRITE: {
                         return NEED_WRAP;
                     }
+                    case SSL_ERROR_EARLY_DATA_REJECTED: {
+                        onEarlyDataRejected();
+                        return handshake();
+                    }
                     default: {
                         // SSL_ERROR_NONE.
                     }
                 }
+                if ((earlyData != null || antiReplayStore != null) && ssl.isInEarlyData()) {
+                    if (getUseClientMode()) {
+                        // The ClientHello offered early data, send it ahead of the rest of the
+                        // handshake.
+                        if (!earlyDataWritten) {
+                            writeEarlyData();
+                            return handshake();
+                        }
+                        return pendingHandshakeStatus(pendingOutboundEncryptedBytes());
+                    }
+                    // The server accepted early data. Once its flight has been sent, the
+                    // handshake completes as the application reads, as with False Start.
+                    activeSession.setEarlyDataStatus(EarlyDataStatus.ACCEPTED);
+                    if (pendingOutboundEncryptedBytes() > 0) {
+                        return NEED_WRAP;
+                    }
+                    transitionTo(STATE_READY_HANDSHAKE_CUT_THROUGH);
+                } else if (earlyDataWritten
+                        && activeSession.getEarlyDataStatus() == EarlyDataStatus.NOT_ATTEMPTED) {
+                    // The client's handshake completed without a rejection being reported.
+                    activeSession.setEarlyDataStatus(ssl.isEarlyDataAccepted()
+                                    ? EarlyDataStatus.ACCEPTED : EarlyDataStatus.REJECTED);
+                }
             } catch (IOException e) {
                 // Shut down the SSL and rethrow the exception.  Users will need to drain any alerts
                 // from the SSL before closing.
@@ -1005,6 +1305,25 @@ final class ConscryptEngine extends AbstractConscryptEngine
         }
     }
 
+    private void writeEarlyData() throws SSLException {
+        earlyDataWritten = true;
+        ByteBuffer src = ByteBuffer.wrap(earlyData);
+        while (src.hasRemaining()) {
+            if (writePlaintextData(src, src.remaining()) <= 0) {
+                throw new SSLException("Failed to write early data");
+            }
+        }
+    }
+
+    /**
+     * Called on a client when the server declined its early data, so that the handshake
+     * continues without it. The application has to send the data again if needed.
+     */
+    private void onEarlyDataRejected() {
+        ssl.resetEarlyDataReject();
+        activeSession.setEarlyDataStatus(EarlyDataStatus.REJECTED);
+    }
+
     private void finishHandshake() throws SSLException {
         handshakeFinished = true;
         // Notify the listener, if provided.
@@ -1041,6 +1360,9 @@ final class ConscryptEngine extends AbstractConscryptEngine
     }
 
     private int writePlaintextDataHeap(ByteBuffer src, int pos, int len) throws IOException {
+        if (zeroCopyHeapBuffers && src.hasArray()) {
+            return ssl.writeArray(src.array(), src.arrayOffset() + pos, len);
+        }
         AllocatedBuffer allocatedBuffer = null;
         try {
             final ByteBuffer buffer;
@@ -1103,6 +1425,14 @@ final class ConscryptEngine extends AbstractConscryptEngine
 
     private int readPlaintextDataHeap(ByteBuffer dst, int len)
             throws IOException, CertificateException {
+        if (zeroCopyHeapBuffers && dst.hasArray()) {
+            int pos = dst.position();
+            int bytesRead = ssl.readArray(dst.array(), dst.arrayOffset() + pos, len);
+            if (bytesRead > 0) {
+                dst.position(pos + bytesRead);
+            }
+            return bytesRead;
+        }
         AllocatedBuffer allocatedBuffer = null;
         try {
             final ByteBuffer buffer;
@@ -1171,6 +1501,10 @@ final class ConscryptEngine extends AbstractConscryptEngine
     }
 
     private int writeEncryptedDataHeap(ByteBuffer src, int pos, int len) throws IOException {
+        if (zeroCopyHeapBuffers && src.hasArray()) {
+            return networkBio.writeArray(src.array(), src.arrayOffset() + pos,
+                                         min(src.limit() - pos, len));
+        }
         AllocatedBuffer allocatedBuffer = null;
         try {
             final ByteBuffer buffer;
@@ -1221,9 +1555,9 @@ final class ConscryptEngine extends AbstractConscryptEngine
         return NativeCrypto.getDirectBufferAddress(directBuffer) + pos;
     }
 
-    private SSLEngineResult readPendingBytesFromBIO(ByteBuffer dst, int bytesConsumed,
-                                                    int bytesProduced,
-                                                    SSLEngineResult.HandshakeStatus status)
+    private MutableEngineResult readPendingBytesFromBIO(MutableEngineResult out, ByteBuffer dst,
+                                                        int bytesConsumed, int bytesProduced,
+                                                        SSLEngineResult.HandshakeStatus status)
             throws SSLException {
         try {
             // Check to see if the engine wrote data into the network BIO
@@ -1232,7 +1566,7 @@ final class ConscryptEngine extends AbstractConscryptEngine
                 // Do we have enough room in dst to write encrypted data?
                 int capacity = dst.remaining();
                 if (capacity < pendingNet) {
-                    return new SSLEngineResult(
+                    return out.set(
                             BUFFER_OVERFLOW,
                             mayFinishHandshake(status == FINISHED ? status
                                                                   : getHandshakeStatus(pendingNet)),
@@ -1252,7 +1586,7 @@ final class ConscryptEngine extends AbstractConscryptEngine
                     pendingNet -= produced;
                 }
 
-                return new SSLEngineResult(
+                return out.set(
                         getEngineStatus(),
                         mayFinishHandshake(status == FINISHED ? status
                                                               : getHandshakeStatus(pendingNet)),
@@ -1297,6 +1631,14 @@ final class ConscryptEngine extends AbstractConscryptEngine
     }
 
     private int readEncryptedDataHeap(ByteBuffer dst, int len) throws IOException {
+        if (zeroCopyHeapBuffers && dst.hasArray()) {
+            int pos = dst.position();
+            int bytesRead = networkBio.readArray(dst.array(), dst.arrayOffset() + pos, len);
+            if (bytesRead > 0) {
+                dst.position(pos + bytesRead);
+            }
+            return bytesRead;
+        }
         AllocatedBuffer allocatedBuffer = null;
         try {
             final ByteBuffer buffer;
@@ -1339,7 +1681,7 @@ final class ConscryptEngine extends AbstractConscryptEngine
 
     private SSLEngineResult.HandshakeStatus getHandshakeStatus(int pending) {
         // Check if we are in the initial handshake phase or shutdown phase
-        return !handshakeFinished ? pendingStatus(pending) : NOT_HANDSHAKING;
+        return !handshakeFinished ? pendingHandshakeStatus(pending) : NOT_HANDSHAKING;
     }
 
     private SSLEngineResult.Status getEngineStatus() {
@@ -1371,9 +1713,11 @@ final class ConscryptEngine extends AbstractConscryptEngine
         return new SSLHandshakeException(err);
     }
 
-    private SSLEngineResult newResult(int bytesConsumed, int bytesProduced,
-                                      SSLEngineResult.HandshakeStatus status) throws SSLException {
-        return new SSLEngineResult(
+    private MutableEngineResult newResult(MutableEngineResult out, int bytesConsumed,
+                                          int bytesProduced,
+                                          SSLEngineResult.HandshakeStatus status)
+            throws SSLException {
+        return out.set(
                 getEngineStatus(),
                 mayFinishHandshake(status == FINISHED ? status : getHandshakeStatusInternal()),
                 bytesConsumed, bytesProduced);
@@ -1393,17 +1737,22 @@ final class ConscryptEngine extends AbstractConscryptEngine
     @Override
     public SSLEngineResult wrap(ByteBuffer[] srcs, int srcsOffset, int srcsLength, ByteBuffer dst)
             throws SSLException {
+        synchronized (ssl) {
+            return wrap(srcs, srcsOffset, srcsLength, dst, jsseResult).toSSLEngineResult();
+        }
+    }
+
+    @Override
+    MutableEngineResult wrap(ByteBuffer[] srcs, int srcsOffset, int srcsLength, ByteBuffer dst,
+                             MutableEngineResult out) throws SSLException {
+        checkArgument(out != null, "out is null");
         checkArgument(srcs != null, "srcs is null");
         checkArgument(dst != null, "dst is null");
         checkPositionIndexes(srcsOffset, srcsOffset + srcsLength, srcs.length);
         if (dst.isReadOnly()) {
             throw new ReadOnlyBufferException();
         }
-
-        if ((srcsOffset != 0) || (srcsLength != srcs.length)) {
-            srcs = Arrays.copyOfRange(srcs, srcsOffset, srcsOffset + srcsLength);
-        }
-        BufferUtils.checkNotNull(srcs);
+        BufferUtils.checkNotNull(srcs, srcsOffset, srcsLength);
 
         synchronized (ssl) {
             switch (state) {
@@ -1415,13 +1764,13 @@ final class ConscryptEngine extends AbstractConscryptEngine
                 case STATE_CLOSED:
                     // We may have pending encrypted bytes from a close_notify alert, so
                     // try to read them out
-                    SSLEngineResult pendingNetResult =
-                            readPendingBytesFromBIO(dst, 0, 0, HandshakeStatus.NOT_HANDSHAKING);
+                    MutableEngineResult pendingNetResult =
+                            readPendingBytesFromBIO(out, dst, 0, 0, NOT_HANDSHAKING);
                     if (pendingNetResult != null) {
                         freeIfDone();
                         return pendingNetResult;
                     }
-                    return new SSLEngineResult(Status.CLOSED, getHandshakeStatusInternal(), 0, 0);
+                    return out.set(Status.CLOSED, getHandshakeStatusInternal(), 0, 0);
                 case STATE_NEW:
                     throw new IllegalStateException(
                             "Client/server mode must be set before calling wrap");
@@ -1434,57 +1783,86 @@ final class ConscryptEngine extends AbstractConscryptEngine
             // Prepare OpenSSL to work in server mode and receive handshake
             if (!handshakeFinished) {
                 handshakeStatus = handshake();
-                if (handshakeStatus == NEED_UNWRAP) {
-                    return NEED_UNWRAP_OK;
+                if (handshakeStatus == NEED_UNWRAP || handshakeStatus == NEED_TASK) {
+                    return out.set(OK, handshakeStatus, 0, 0);
                 }
 
                 if (state == STATE_CLOSED) {
-                    return NEED_UNWRAP_CLOSED;
+                    return out.set(CLOSED, NEED_UNWRAP, 0, 0);
                 }
                 // NEED_WRAP - just fall through to perform the wrap.
             }
 
-            int dataLength = (int) min(BufferUtils.remaining(srcs), SSL3_RT_MAX_PLAIN_LENGTH);
+            long srcsRemaining = BufferUtils.remaining(srcs, srcsOffset, srcsLength);
+            int recordSize = recordSizer.nextRecordSize();
+            int dataLength = (int) min(srcsRemaining, recordSize);
             if (dst.remaining() < calculateOutNetBufSize(dataLength)) {
-                return new SSLEngineResult(Status.BUFFER_OVERFLOW, getHandshakeStatusInternal(), 0,
-                                           0);
+                return out.set(Status.BUFFER_OVERFLOW, getHandshakeStatusInternal(), 0, 0);
             }
 
             int bytesProduced = 0;
             int bytesConsumed = 0;
-            if (dataLength > 0) {
+            int recordsRemaining = maxRecordsPerWrap;
+            while (dataLength > 0) {
                 // Try and find a single buffer to send, e.g. the first non-empty buffer has
                 // more than enough data remaining to fill a TLS record. Otherwise copy as much
                 // data as possible from the source buffers to fill a record. Note the we can't
                 // mark the data as consumed until we see how much the TLS layer actually consumes.
                 boolean isCopy = false;
+                AllocatedBuffer allocatedCopy = null;
                 ByteBuffer outputBuffer =
-                        BufferUtils.getBufferLargerThan(srcs, SSL3_RT_MAX_PLAIN_LENGTH);
+                        BufferUtils.getBufferLargerThan(srcs, srcsOffset, srcsLength,
+                                                        recordSize);
                 if (outputBuffer == null) {
-                    // The buffer by getOrCreateLazyDirectBuffer() is also used by
-                    // writePlainTextDataHeap(), but by filling it here the write path will go via
-                    // writePlainTextDataDirect() and the cost will be approximately the same,
-                    // especially if compacting multiple non-direct buffers into a single
-                    // direct one.
-                    // TODO(): use bufferAllocator if set.
-                    // https://github.com/google/conscrypt/issues/974
-                    outputBuffer = BufferUtils.copyNoConsume(srcs, getOrCreateLazyDirectBuffer(),
-                                                             SSL3_RT_MAX_PLAIN_LENGTH);
+                    // The copy is made into a direct buffer, which is the same buffer that
+                    // writePlainTextDataHeap() would use, but by filling it here the write path
+                    // will go via writePlainTextDataDirect() and the cost will be approximately
+                    // the same, especially if compacting multiple non-direct buffers into a
+                    // single direct one.
+                    final ByteBuffer copyBuffer;
+                    if (bufferAllocator != null) {
+                        try {
+                            allocatedCopy = bufferAllocator.allocateDirectBuffer(dataLength);
+                        } catch (RuntimeException e) {
+                            if (bytesConsumed == 0) {
+                                throw e;
+                            }
+                            // Report the records which have already been sealed rather than
+                            // losing them, the next call will retry the allocation.
+                            break;
+                        }
+                        copyBuffer = allocatedCopy.nioBuffer();
+                    } else {
+                        copyBuffer = getOrCreateLazyDirectBuffer();
+                    }
+                    outputBuffer = BufferUtils.copyNoConsume(srcs, srcsOffset, srcsLength,
+                                                             copyBuffer, dataLength);
                     isCopy = true;
                 }
-                final SSLEngineResult pendingNetResult;
+                final MutableEngineResult pendingNetResult;
                 // Write plaintext application data to the SSL engine
-                int result = writePlaintextData(
-                        outputBuffer, min(SSL3_RT_MAX_PLAIN_LENGTH, outputBuffer.remaining()));
+                final int result;
+                try {
+                    result = writePlaintextData(outputBuffer,
+                            min(recordSize, outputBuffer.remaining()));
+                } finally {
+                    if (allocatedCopy != null) {
+                        // The data has been copied into the SSL, release the buffer back to
+                        // the pool.
+                        allocatedCopy.release();
+                    }
+                }
                 if (result > 0) {
-                    bytesConsumed = result;
+                    recordSizer.onRecordWritten(result);
+                    bytesConsumed += result;
+                    srcsRemaining -= result;
                     if (isCopy) {
                         // Data was a copy, so mark it as consumed in the original buffers.
-                        BufferUtils.consume(srcs, bytesConsumed);
+                        BufferUtils.consume(srcs, srcsOffset, srcsLength, result);
                     }
 
-                    pendingNetResult = readPendingBytesFromBIO(dst, bytesConsumed, bytesProduced,
-                                                               handshakeStatus);
+                    pendingNetResult = readPendingBytesFromBIO(out, dst, bytesConsumed,
+                                                               bytesProduced, handshakeStatus);
                     if (pendingNetResult != null) {
                         if (pendingNetResult.getStatus() != OK) {
                             return pendingNetResult;
@@ -1499,9 +1877,11 @@ final class ConscryptEngine extends AbstractConscryptEngine
                             // and outbound
                             closeAll();
                             pendingNetResult = readPendingBytesFromBIO(
-                                    dst, bytesConsumed, bytesProduced, handshakeStatus);
-                            return pendingNetResult != null ? pendingNetResult
-                                                            : CLOSED_NOT_HANDSHAKING;
+                                    out, dst, bytesConsumed, bytesProduced, handshakeStatus);
+                            return pendingNetResult != null
+                                    ? pendingNetResult
+                                    : out.set(CLOSED, NOT_HANDSHAKING, bytesConsumed,
+                                              bytesProduced);
                         case SSL_ERROR_WANT_READ:
                             // If there is no pending data to read from BIO we should go back to
                             // event loop and try
@@ -1510,11 +1890,20 @@ final class ConscryptEngine extends AbstractConscryptEngine
                             // has been closed. [1]
                             // https://www.openssl.org/docs/manmaster/man3/SSL_write.html
                             pendingNetResult = readPendingBytesFromBIO(
-                                    dst, bytesConsumed, bytesProduced, handshakeStatus);
+                                    out, dst, bytesConsumed, bytesProduced, handshakeStatus);
+                            return pendingNetResult != null
+                                    ? pendingNetResult
+                                    : out.set(getEngineStatus(), NEED_UNWRAP, bytesConsumed,
+                                              bytesProduced);
+                        case SSL_ERROR_WANT_PRIVATE_KEY_OPERATION:
+                        case SSL_ERROR_WANT_CERTIFICATE_VERIFY:
+                            // The handshake has been suspended on a delegated task.
+                            pendingNetResult = readPendingBytesFromBIO(
+                                    out, dst, bytesConsumed, bytesProduced, handshakeStatus);
                             return pendingNetResult != null
                                     ? pendingNetResult
-                                    : new SSLEngineResult(getEngineStatus(), NEED_UNWRAP,
-                                                          bytesConsumed, bytesProduced);
+                                    : out.set(getEngineStatus(), getHandshakeStatusInternal(),
+                                              bytesConsumed, bytesProduced);
                         case SSL_ERROR_WANT_WRITE:
                             // SSL_ERROR_WANT_WRITE typically means that the underlying
                             // transport is not writable
@@ -1536,26 +1925,39 @@ final class ConscryptEngine extends AbstractConscryptEngine
                             // openssl engine and close.
                             // [1] https://www.openssl.org/docs/manmaster/man3/SSL_write.html
                             pendingNetResult = readPendingBytesFromBIO(
-                                    dst, bytesConsumed, bytesProduced, handshakeStatus);
-                            return pendingNetResult != null ? pendingNetResult : NEED_WRAP_CLOSED;
+                                    out, dst, bytesConsumed, bytesProduced, handshakeStatus);
+                            return pendingNetResult != null
+                                    ? pendingNetResult
+                                    : out.set(CLOSED, NEED_WRAP, bytesConsumed, bytesProduced);
                         default:
                             // Everything else is considered as error
                             closeAll();
                             throw newSslExceptionWithMessage("SSL_write: error " + sslError);
                     }
                 }
+
+                // Seal further records only once the handshake is done, and only while the
+                // destination is guaranteed to have room for the next one.
+                if (--recordsRemaining == 0 || !handshakeFinished) {
+                    break;
+                }
+                recordSize = recordSizer.nextRecordSize();
+                dataLength = (int) min(srcsRemaining, recordSize);
+                if (dst.remaining() < calculateOutNetBufSize(dataLength)) {
+                    break;
+                }
             }
 
             // We need to check if pendingWrittenBytesInBIO was checked yet, as we may not have
             // checked if the srcs was empty, or only contained empty buffers.
             if (bytesConsumed == 0) {
-                SSLEngineResult pendingNetResult =
-                        readPendingBytesFromBIO(dst, 0, bytesProduced, handshakeStatus);
+                MutableEngineResult pendingNetResult =
+                        readPendingBytesFromBIO(out, dst, 0, bytesProduced, handshakeStatus);
                 if (pendingNetResult != null) {
                     return pendingNetResult;
                 }
             }
-            return newResult(bytesConsumed, bytesProduced, handshakeStatus);
+            return newResult(out, bytesConsumed, bytesProduced, handshakeStatus);
         }
     }
 
@@ -1595,12 +1997,33 @@ final class ConscryptEngine extends AbstractConscryptEngine
     }
 
     @Override
-    public void serverCertificateRequested(int[] signatureAlgs) throws IOException {
+    public void serverCertificateRequested(int[] signatureAlgs, boolean offersEarlyData)
+            throws IOException {
         synchronized (ssl) {
             String[] jsseAlgs = SSLUtils.mapSignatureAlgorithms(signatureAlgs);
             activeSession.onPeerSignatureAlgorithmsReceived(jsseAlgs);
             ssl.configureServerCertificate();
+            // Only hellos which offer early data are recorded, so that full handshakes do not
+            // take up room in the store. Early data stays enabled for the others so that the
+            // tickets they are issued still allow it.
+            if (antiReplayStore != null && offersEarlyData && !acceptEarlyData()) {
+                ssl.setEarlyDataEnabled(false);
+            }
+        }
+    }
+
+    /**
+     * Decides whether early data may be accepted for the ClientHello being processed. This
+     * runs before BoringSSL makes its own decision, which it can then only turn into a
+     * rejection.
+     */
+    private boolean acceptEarlyData() {
+        // Early data is sent before the client could authenticate itself.
+        if (sslParameters.getNeedClientAuth() || sslParameters.getWantClientAuth()) {
+            return false;
         }
+        byte[] clientRandom = ssl.getClientRandom();
+        return clientRandom != null && antiReplayStore.tryAccept(clientRandom);
     }
 
     @Override
@@ -1626,33 +2049,66 @@ final class ConscryptEngine extends AbstractConscryptEngine
 
     @Override
     public long serverSessionRequested(byte[] id) {
-        // TODO(nathanmittler): Implement server-side caching for TLS < 1.3
+        AbstractSessionContext ctx = sessionContext();
+        if (ctx instanceof ServerSessionContext) {
+            return ((ServerSessionContext) ctx).getSessionForResumption(id);
+        }
         return 0;
     }
 
     @Override
-    public void verifyCertificateChain(byte[][] certChain, String authMethod)
+    public boolean verifyCertificateChain(byte[][] certChain, String authMethod)
             throws CertificateException {
         try {
+            if (delegatedTask != null) {
+                // The handshake has been resumed, complete it with the result of the task.
+                DelegatedTask<?> task = takeFinishedDelegatedTask();
+                if (task == null) {
+                    return false;
+                }
+                task.get();
+                return true;
+            }
+
             if (certChain == null || certChain.length == 0) {
                 throw new CertificateException("Peer sent no certificate");
             }
-            X509Certificate[] peerCertChain = SSLUtils.decodeX509CertificateChain(certChain);
+            final X509Certificate[] peerCertChain =
+                    SSLUtils.decodeX509CertificateChain(certChain);
 
-            X509TrustManager x509tm = sslParameters.getX509TrustManager();
-            if (x509tm == null) {
+            AsyncCertificateVerifier verifier = sslParameters.getAsyncCertificateVerifier();
+            final X509TrustManager x509tm = sslParameters.getX509TrustManager();
+            if (verifier == null && x509tm == null) {
                 throw new CertificateException("No X.509 TrustManager");
             }
 
             // Update the peer information on the session.
             activeSession.onPeerCertificatesReceived(getPeerHost(), getPeerPort(), peerCertChain);
 
-            if (getUseClientMode()) {
-                Platform.checkServerTrusted(x509tm, peerCertChain, authMethod, this);
-            } else {
-                String authType = peerCertChain[0].getPublicKey().getAlgorithm();
-                Platform.checkClientTrusted(x509tm, peerCertChain, authType, this);
+            if (verifier != null) {
+                AsyncTask<Void> task = new AsyncTask<Void>();
+                verifier.verify(peerCertChain, peerAuthType(peerCertChain, authMethod),
+                        handshakeSession(), task);
+                if (task.isDone()) {
+                    task.get();
+                    return true;
+                }
+                delegatedTask = task;
+                return false;
             }
+            if (useDelegatedTasks) {
+                final String verifyAuthMethod = authMethod;
+                delegatedTask = new ComputeTask<Void>() {
+                    @Override
+                    Void compute() throws CertificateException {
+                        checkPeerTrusted(x509tm, peerCertChain, verifyAuthMethod);
+                        return null;
+                    }
+                };
+                return false;
+            }
+            checkPeerTrusted(x509tm, peerCertChain, authMethod);
+            return true;
         } catch (CertificateException e) {
             throw e;
         } catch (Exception e) {
@@ -1660,6 +2116,159 @@ final class ConscryptEngine extends AbstractConscryptEngine
         }
     }
 
+    private void checkPeerTrusted(X509TrustManager x509tm, X509Certificate[] peerCertChain,
+                                  String authMethod) throws CertificateException {
+        if (getUseClientMode()) {
+            Platform.checkServerTrusted(x509tm, peerCertChain, authMethod, this);
+        } else {
+            String authType = peerAuthType(peerCertChain, authMethod);
+            Platform.checkClientTrusted(x509tm, peerCertChain, authType, this);
+        }
+    }
+
+    private String peerAuthType(X509Certificate[] peerCertChain, String authMethod) {
+        return getUseClientMode() ? authMethod : peerCertChain[0].getPublicKey().getAlgorithm();
+    }
+
+    @Override
+    void setAsyncCertificateVerifier(AsyncCertificateVerifier verifier) {
+        synchronized (ssl) {
+            if (isHandshakeStarted()) {
+                throw new IllegalStateException(
+                        "Could not set certificate verifier after the initial handshake has "
+                        + "begun.");
+            }
+            sslParameters.setAsyncCertificateVerifier(verifier);
+        }
+    }
+
+    @Override
+    void setEarlyData(byte[] earlyData) {
+        checkArgument(earlyData == null || earlyData.length > 0, "earlyData must not be empty");
+        synchronized (ssl) {
+            if (isHandshakeStarted()) {
+                throw new IllegalStateException(
+                        "Early data must be set before starting the handshake.");
+            }
+            this.earlyData = earlyData != null ? earlyData.clone() : null;
+        }
+    }
+
+    @Override
+    void setEarlyDataEnabled(boolean enabled, AntiReplayStore antiReplayStore) {
+        if (enabled) {
+            checkNotNull(antiReplayStore, "antiReplayStore");
+        }
+        synchronized (ssl) {
+            if (isHandshakeStarted()) {
+                throw new IllegalStateException(
+                        "Early data must be enabled before starting the handshake.");
+            }
+            this.antiReplayStore = enabled ? antiReplayStore : null;
+        }
+    }
+
+    @Override
+    EarlyDataStatus getEarlyDataStatus() {
+        return provideSession().getEarlyDataStatus();
+    }
+
+    @Override
+    public byte[] privateKeySign(final int signatureAlgorithm, final byte[] input)
+            throws SSLException {
+        // Only called when private key operations are offloaded, i.e. with delegated tasks or
+        // an asynchronous operator.
+        if (asyncPrivateKeyOperator != null) {
+            AsyncTask<byte[]> task = new AsyncTask<byte[]>();
+            try {
+                asyncPrivateKeyOperator.sign(
+                        ssl.getLocalPrivateKey(), signatureAlgorithm, input, task);
+            } catch (RuntimeException e) {
+                throw new SSLException("Private key operation failed", e);
+            }
+            return startAsyncPrivateKeyOperation(task);
+        }
+        delegatedTask = new ComputeTask<byte[]>() {
+            @Override
+            byte[] compute() {
+                return ssl.signWithLocalPrivateKey(signatureAlgorithm, input);
+            }
+        };
+        return null;
+    }
+
+    @Override
+    public byte[] privateKeyDecrypt(final byte[] input) throws SSLException {
+        if (asyncPrivateKeyOperator != null) {
+            AsyncTask<byte[]> task = new AsyncTask<byte[]>();
+            try {
+                asyncPrivateKeyOperator.decrypt(ssl.getLocalPrivateKey(), input, task);
+            } catch (RuntimeException e) {
+                throw new SSLException("Private key operation failed", e);
+            }
+            return startAsyncPrivateKeyOperation(task);
+        }
+        delegatedTask = new ComputeTask<byte[]>() {
+            @Override
+            byte[] compute() throws Exception {
+                return ssl.decryptWithLocalPrivateKey(input);
+            }
+        };
+        return null;
+    }
+
+    @Override
+    public byte[] privateKeyComplete() throws SSLException {
+        if (delegatedTask == null) {
+            throw new SSLException("No private key operation in progress");
+        }
+        DelegatedTask<?> task = takeFinishedDelegatedTask();
+        if (task == null) {
+            return null;
+        }
+        return privateKeyResult(task);
+    }
+
+    /**
+     * Suspends the handshake until {@code task} completes, unless it already has, in which
+     * case its result is returned directly.
+     */
+    private byte[] startAsyncPrivateKeyOperation(AsyncTask<byte[]> task) throws SSLException {
+        if (task.isDone()) {
+            return privateKeyResult(task);
+        }
+        delegatedTask = task;
+        return null;
+    }
+
+    private static byte[] privateKeyResult(DelegatedTask<?> task) throws SSLException {
+        Object result;
+        try {
+            result = task.get();
+        } catch (SSLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SSLException("Private key operation failed", e);
+        }
+        if (!(result instanceof byte[])) {
+            throw new SSLException("Private key operation returned no result");
+        }
+        return (byte[]) result;
+    }
+
+    /**
+     * Returns the task the handshake is suspended on if it has finished, so that the handshake
+     * can continue with its result, or {@code null} if it is still running.
+     */
+    private DelegatedTask<?> takeFinishedDelegatedTask() {
+        DelegatedTask<?> task = delegatedTask;
+        if (!task.isDone()) {
+            return null;
+        }
+        delegatedTask = null;
+        return task;
+    }
+
     @Override
     public void clientCertificateRequested(byte[] keyTypeBytes, int[] signatureAlgs,
                                            byte[][] asn1DerEncodedPrincipals)
@@ -1839,6 +2448,7 @@ final class ConscryptEngine extends AbstractConscryptEngine
         switch (newState) {
             case STATE_HANDSHAKE_STARTED: {
                 handshakeFinished = false;
+                earlyDataWritten = false;
                 activeSession = new ActiveSession(ssl, sslParameters.getSessionContext());
                 break;
             }
@@ -1856,4 +2466,96 @@ final class ConscryptEngine extends AbstractConscryptEngine
         // Update the state
         this.state = newState;
     }
+
+    /**
+     * A step of the handshake which is handed to the caller of {@link #getDelegatedTask()} while
+     * the handshake is suspended. The handshake picks up the result once it is resumed.
+     */
+    private abstract static class DelegatedTask<T> implements Runnable {
+        // @GuardedBy("ssl");
+        boolean handedOut;
+        private volatile boolean done;
+        private T result;
+        private Exception failure;
+
+        /**
+         * Records the outcome of the task. Only the first call has an effect.
+         */
+        final synchronized void complete(T result, Exception failure) {
+            if (done) {
+                return;
+            }
+            this.result = result;
+            this.failure = failure;
+            done = true;
+        }
+
+        final boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Returns the result of the finished task, or throws the exception it failed with.
+         */
+        final T get() throws Exception {
+            if (failure != null) {
+                throw failure;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A task which performs its step of the handshake when it is run.
+     */
+    private abstract static class ComputeTask<T> extends DelegatedTask<T> {
+        @Override
+        public final void run() {
+            if (isDone()) {
+                return;
+            }
+            try {
+                complete(compute(), null);
+            } catch (Exception e) {
+                complete(null, e);
+            }
+        }
+
+        abstract T compute() throws Exception;
+    }
+
+    /**
+     * A task for a step of the handshake which is performed asynchronously. Running it only
+     * waits for the step to complete, so callers which do not want to block can skip it and
+     * call wrap once the step has completed instead. The step completes the task through its
+     * {@link AsyncCallback} methods.
+     */
+    private static final class AsyncTask<T> extends DelegatedTask<T> implements AsyncCallback<T> {
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        @Override
+        public void onSuccess(T result) {
+            complete(result, null);
+            completed.countDown();
+        }
+
+        @Override
+        public void onFailure(Throwable failure) {
+            if (failure == null) {
+                failure = new NullPointerException("failure == null");
+            }
+            complete(null, failure instanceof Exception ? (Exception) failure
+                                                        : new ExecutionException(failure));
+            completed.countDown();
+        }
+
+        @Override
+        public void run() {
+            try {
+                completed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
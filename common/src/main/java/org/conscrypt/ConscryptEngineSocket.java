@@ -16,6 +16,8 @@
 
 package org.conscrypt;
 
+import static org.conscrypt.NativeConstants.SSL3_RT_HEADER_LENGTH;
+import static org.conscrypt.Preconditions.checkArgument;
 import static org.conscrypt.SSLUtils.EngineStates.STATE_CLOSED;
 import static org.conscrypt.SSLUtils.EngineStates.STATE_HANDSHAKE_COMPLETED;
 import static org.conscrypt.SSLUtils.EngineStates.STATE_HANDSHAKE_STARTED;
@@ -31,6 +33,7 @@ import org.conscrypt.metrics.StatsLog;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
@@ -39,6 +42,8 @@ import java.nio.ByteBuffer;
 import java.security.PrivateKey;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
@@ -58,8 +63,10 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
     private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
 
     private final ConscryptEngine engine;
-    private final Object stateLock = new Object();
-    private final Object handshakeLock = new Object();
+    private final ReentrantLock stateLock = new ReentrantLock();
+    // Signalled by transitionTo() when the state changes.
+    private final Condition stateChanged = stateLock.newCondition();
+    private final ReentrantLock handshakeLock = new ReentrantLock();
 
     private SSLOutputStream out;
     private SSLInputStream in;
@@ -68,6 +75,9 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
 
     private BufferAllocator bufferAllocator = ConscryptEngine.getDefaultBufferAllocator();
 
+    // Number of bytes gathered from small writes before they are encrypted, zero to disable.
+    private volatile int writeBufferSize;
+
     // @GuardedBy("stateLock");
     private int state = STATE_NEW;
 
@@ -202,10 +212,12 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
         checkOpen();
 
         try {
-            synchronized (handshakeLock) {
+            handshakeLock.lock();
+            try {
                 // Only lock stateLock when we begin the handshake. This is done so that we don't
                 // hold the stateLock when we invoke the handshake completion listeners.
-                synchronized (stateLock) {
+                stateLock.lock();
+                try {
                     // Initialize the handshake if we haven't already.
                     if (state == STATE_NEW) {
                         transitionTo(STATE_HANDSHAKE_STARTED);
@@ -220,8 +232,12 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
                         // ignore addition handshake calls.
                         return;
                     }
+                } finally {
+                    stateLock.unlock();
                 }
                 doHandshake();
+            } finally {
+                handshakeLock.unlock();
             }
         } catch (IOException e) {
             close();
@@ -253,9 +269,10 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
                         break;
                     }
                     case NEED_TASK: {
-                        // Should never get here, since our engine never provides tasks.
-                        close();
-                        throw new IllegalStateException("Engine tasks are unsupported");
+                        // Only asynchronous certificate verification suspends the handshake of
+                        // a socket, and its task just waits for the verification to complete.
+                        runDelegatedTask();
+                        break;
                     }
                     case NOT_HANDSHAKING:
                     case FINISHED: {
@@ -290,14 +307,27 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
         }
     }
 
+    private void runDelegatedTask() throws IOException {
+        Runnable task = engine.getDelegatedTask();
+        if (task == null) {
+            // The task has already been run, so its wait for completion was interrupted.
+            throw new InterruptedIOException("Interrupted waiting for the handshake");
+        }
+        task.run();
+    }
+
     private boolean isState(int desiredState) {
-        synchronized (stateLock) {
+        stateLock.lock();
+        try {
             return state == desiredState;
+        } finally {
+            stateLock.unlock();
         }
     }
 
     private int transitionTo(int newState) {
-        synchronized (stateLock) {
+        stateLock.lock();
+        try {
             if (state == newState) {
                 return state;
             }
@@ -343,9 +373,11 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
 
             state = newState;
             if (notify) {
-                stateLock.notifyAll();
+                stateChanged.signalAll();
             }
             return previousState;
+        } finally {
+            stateLock.unlock();
         }
     }
 
@@ -356,10 +388,13 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
     }
 
     private SSLInputStream createInputStream() {
-        synchronized (stateLock) {
+        stateLock.lock();
+        try {
             if (in == null) {
                 in = new SSLInputStream();
             }
+        } finally {
+            stateLock.unlock();
         }
         return in;
     }
@@ -371,10 +406,13 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
     }
 
     private SSLOutputStream createOutputStream() {
-        synchronized (stateLock) {
+        stateLock.lock();
+        try {
             if (out == null) {
                 out = new SSLOutputStream();
             }
+        } finally {
+            stateLock.unlock();
         }
         return out;
     }
@@ -533,7 +571,8 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
             return;
         }
 
-        int previousState = transitionTo(STATE_CLOSED);
+        // Data gathered from small writes must precede the close notify.
+        int previousState = out != null ? out.writeBufferedAndClose() : transitionTo(STATE_CLOSED);
         if (previousState == STATE_CLOSED) {
             return;
         }
@@ -568,6 +607,22 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
         // Not supported but ignored rather than throwing for compatibility: b/146041327
     }
 
+    @Override
+    final void setMaxSendFragment(int maxSendFragment) {
+        engine.setMaxSendFragment(maxSendFragment);
+    }
+
+    @Override
+    final void setDynamicRecordSizing(long boostThreshold, long idleTimeoutMillis) {
+        engine.setDynamicRecordSizing(boostThreshold, idleTimeoutMillis);
+    }
+
+    @Override
+    final void setWriteBufferSize(int writeBufferSize) {
+        checkArgument(writeBufferSize >= 0, "writeBufferSize must be non-negative");
+        this.writeBufferSize = writeBufferSize;
+    }
+
     @Override
     final void setApplicationProtocols(String[] protocols) {
         engine.setApplicationProtocols(protocols);
@@ -599,6 +654,26 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
         engine.setApplicationProtocolSelector(selector);
     }
 
+    @Override
+    final void setAsyncCertificateVerifier(AsyncCertificateVerifier verifier) {
+        engine.setAsyncCertificateVerifier(verifier);
+    }
+
+    @Override
+    final void setEarlyData(byte[] earlyData) {
+        engine.setEarlyData(earlyData);
+    }
+
+    @Override
+    final void setEarlyDataEnabled(boolean enabled, AntiReplayStore antiReplayStore) {
+        engine.setEarlyDataEnabled(enabled, antiReplayStore);
+    }
+
+    @Override
+    final EarlyDataStatus getEarlyDataStatus() {
+        return engine.getEarlyDataStatus();
+    }
+
     void setBufferAllocator(BufferAllocator bufferAllocator) {
         engine.setBufferAllocator(bufferAllocator);
         this.bufferAllocator = bufferAllocator;
@@ -619,12 +694,13 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
     private void waitForHandshake() throws IOException {
         startHandshake();
 
-        synchronized (stateLock) {
+        stateLock.lock();
+        try {
             while (state != STATE_READY
                    // Waiting threads are allowed to compete with handshake listeners for access.
                    && state != STATE_READY_HANDSHAKE_CUT_THROUGH && state != STATE_CLOSED) {
                 try {
-                    stateLock.wait();
+                    stateChanged.await();
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     throw new IOException("Interrupted waiting for handshake", e);
@@ -634,6 +710,19 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
             if (state == STATE_CLOSED) {
                 throw new SocketException("Socket is closed");
             }
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    private void checkNotClosed() throws SocketException {
+        stateLock.lock();
+        try {
+            if (state == STATE_CLOSED) {
+                throw new SocketException("Socket is closed");
+            }
+        } finally {
+            stateLock.unlock();
         }
     }
 
@@ -672,14 +761,26 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
      * Wrap bytes written to the underlying socket.
      */
     private final class SSLOutputStream extends OutputStream {
-        private final Object writeLock = new Object();
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final BufferAllocator allocator;
+        private final int targetSize;
+        // Only used when there is no allocator, otherwise a buffer is allocated for each write.
         private final ByteBuffer target;
-        private final int targetArrayOffset;
+        private final byte[] singleByte = new byte[1];
+        private final ByteBuffer singleByteBuffer = ByteBuffer.wrap(singleByte);
+        // Application data gathered from small writes when writeBufferSize is set.
+        // @GuardedBy("writeLock")
+        private byte[] buffered;
+        // @GuardedBy("writeLock")
+        private ByteBuffer bufferedData;
+        // @GuardedBy("writeLock")
+        private int bufferedLength;
         private OutputStream socketOutputStream;
 
         SSLOutputStream() {
-            target = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
-            targetArrayOffset = target.arrayOffset();
+            allocator = bufferAllocator;
+            targetSize = engine.getSession().getPacketBufferSize();
+            target = allocator == null ? ByteBuffer.allocate(targetSize) : null;
         }
 
         @Override
@@ -690,24 +791,106 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
         @Override
         public void write(int b) throws IOException {
             waitForHandshake();
-            synchronized (writeLock) {
-                write(new byte[] {(byte) b});
+            writeLock.lock();
+            try {
+                singleByte[0] = (byte) b;
+                if (!buffer(singleByte, 0, 1)) {
+                    singleByteBuffer.clear();
+                    writeInternal(singleByteBuffer);
+                }
+            } finally {
+                writeLock.unlock();
             }
         }
 
         @Override
         public void write(byte[] b) throws IOException {
-            waitForHandshake();
-            synchronized (writeLock) {
-                writeInternal(ByteBuffer.wrap(b));
-            }
+            write(b, 0, b.length);
         }
 
         @Override
         public void write(byte[] b, int off, int len) throws IOException {
             waitForHandshake();
-            synchronized (writeLock) {
-                writeInternal(ByteBuffer.wrap(b, off, len));
+            writeLock.lock();
+            try {
+                ArrayUtils.checkOffsetAndCount(b.length, off, len);
+                if (!buffer(b, off, len)) {
+                    writeInternal(ByteBuffer.wrap(b, off, len));
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Gathers the data into the write buffer if buffering is enabled and the data fits.
+         * Buffered data is encrypted once the buffer is full or the stream is flushed.
+         *
+         * @return {@code false} if the data must be written immediately instead, in which case
+         *         any previously buffered data has already been written
+         */
+        // @GuardedBy("writeLock")
+        private boolean buffer(byte[] b, int off, int len) throws IOException {
+            int size = writeBufferSize;
+            if (size > 0) {
+                // Data buffered after close() would silently never be sent.
+                checkNotClosed();
+            }
+            if ((buffered == null ? 0 : buffered.length) != size) {
+                writeBuffered();
+                buffered = size > 0 ? new byte[size] : null;
+                bufferedData = size > 0 ? ByteBuffer.wrap(buffered) : null;
+            }
+            if (size == 0) {
+                return false;
+            }
+            if (len > size - bufferedLength) {
+                writeBuffered();
+                if (len >= size) {
+                    return false;
+                }
+            }
+            System.arraycopy(b, off, buffered, bufferedLength, len);
+            bufferedLength += len;
+            if (bufferedLength == size) {
+                writeBuffered();
+            }
+            return true;
+        }
+
+        // @GuardedBy("writeLock")
+        private void writeBuffered() throws IOException {
+            if (bufferedLength == 0) {
+                return;
+            }
+            bufferedData.clear();
+            bufferedData.limit(bufferedLength);
+            bufferedLength = 0;
+            writeInternal(bufferedData);
+        }
+
+        /**
+         * Writes any buffered data, ignoring failures, and moves the socket to the closed state
+         * so that later writes fail rather than buffer data which is never sent. A concurrent
+         * write is waited for, so the data of every write which has returned is sent before the
+         * close notify; this blocks for as long as that write is blocked on the socket.
+         *
+         * @return the state of the socket before it was closed
+         */
+        int writeBufferedAndClose() {
+            writeLock.lock();
+            try {
+                try {
+                    if (bufferedLength > 0) {
+                        writeBuffered();
+                        flushInternal();
+                    }
+                } catch (IOException e) {
+                    // Ignore, the socket is being closed.
+                }
+                return transitionTo(STATE_CLOSED);
+            } finally {
+                writeLock.unlock();
             }
         }
 
@@ -716,44 +899,65 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
             checkOpen();
             init();
 
-            // Need to loop through at least once to enable handshaking where no application
-            // bytes are processed.
-            int len = buffer.remaining();
-            SSLEngineResult engineResult;
-            do {
-                target.clear();
-                engineResult = engine.wrap(buffer, target);
-                if (engineResult.getStatus() != OK && engineResult.getStatus() != CLOSED) {
-                    throw new SSLException("Unexpected engine result " + engineResult.getStatus());
-                }
-                if (target.position() != engineResult.bytesProduced()) {
-                    throw new SSLException("Engine bytesProduced " + engineResult.bytesProduced()
-                                           + " does not match bytes written "
-                                           + target.position());
-                }
-                len -= engineResult.bytesConsumed();
-                if (len != buffer.remaining()) {
-                    throw new SSLException("Engine did not read the correct number of bytes");
-                }
-                if (engineResult.getStatus() == CLOSED && engineResult.bytesProduced() == 0) {
-                    if (len > 0) {
-                        throw new SocketException("Socket closed");
+            AllocatedBuffer allocatedTarget = null;
+            final ByteBuffer target;
+            if (allocator != null) {
+                allocatedTarget = allocator.allocateHeapBuffer(targetSize);
+                target = allocatedTarget.nioBuffer();
+            } else {
+                target = this.target;
+            }
+            try {
+                // Need to loop through at least once to enable handshaking where no application
+                // bytes are processed.
+                int len = buffer.remaining();
+                SSLEngineResult engineResult;
+                do {
+                    target.clear();
+                    engineResult = engine.wrap(buffer, target);
+                    if (engineResult.getStatus() != OK && engineResult.getStatus() != CLOSED) {
+                        throw new SSLException(
+                                "Unexpected engine result " + engineResult.getStatus());
+                    }
+                    if (target.position() != engineResult.bytesProduced()) {
+                        throw new SSLException("Engine bytesProduced "
+                                               + engineResult.bytesProduced()
+                                               + " does not match bytes written "
+                                               + target.position());
+                    }
+                    len -= engineResult.bytesConsumed();
+                    if (len != buffer.remaining()) {
+                        throw new SSLException("Engine did not read the correct number of bytes");
+                    }
+                    if (engineResult.getStatus() == CLOSED && engineResult.bytesProduced() == 0) {
+                        if (len > 0) {
+                            throw new SocketException("Socket closed");
+                        }
+                        break;
                     }
-                    break;
-                }
 
-                target.flip();
+                    target.flip();
 
-                // Write the data to the socket.
-                writeToSocket();
-            } while (len > 0);
+                    // Write the data to the socket.
+                    writeToSocket(target);
+                } while (len > 0);
+            } finally {
+                if (allocatedTarget != null) {
+                    // Release the buffer back to the pool.
+                    allocatedTarget.release();
+                }
+            }
         }
 
         @Override
         public void flush() throws IOException {
             waitForHandshake();
-            synchronized (writeLock) {
+            writeLock.lock();
+            try {
+                writeBuffered();
                 flushInternal();
+            } finally {
+                writeLock.unlock();
             }
         }
 
@@ -769,9 +973,9 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
             }
         }
 
-        private void writeToSocket() throws IOException {
+        private void writeToSocket(ByteBuffer target) throws IOException {
             // Write the data to the socket.
-            socketOutputStream.write(target.array(), targetArrayOffset, target.limit());
+            socketOutputStream.write(target.array(), target.arrayOffset(), target.limit());
         }
     }
 
@@ -779,28 +983,31 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
      * Unwrap bytes read from the underlying socket.
      */
     private final class SSLInputStream extends InputStream {
-        private final Object readLock = new Object();
+        private final ReentrantLock readLock = new ReentrantLock();
         private final byte[] singleByte = new byte[1];
-        private final ByteBuffer fromEngine;
-        private final ByteBuffer fromSocket;
-        private final int fromSocketArrayOffset;
-        private final AllocatedBuffer allocatedBuffer;
+        // Receives the first bytes of a record while no socket buffer is held.
+        private final byte[] recordStart = new byte[SSL3_RT_HEADER_LENGTH];
+        private final BufferAllocator allocator;
+        private final int fromEngineSize;
+        private final int fromSocketSize;
+        // When there is an allocator, these buffers are only held while they contain data, and
+        // never while waiting for the socket with nothing buffered.
+        private ByteBuffer fromEngine;
+        private ByteBuffer fromSocket;
+        private AllocatedBuffer allocatedFromEngine;
+        private AllocatedBuffer allocatedFromSocket;
         private InputStream socketInputStream;
 
         SSLInputStream() {
-            if (bufferAllocator != null) {
-                allocatedBuffer = bufferAllocator.allocateDirectBuffer(
-                        engine.getSession().getApplicationBufferSize());
-                fromEngine = allocatedBuffer.nioBuffer();
-            } else {
-                allocatedBuffer = null;
-                fromEngine =
-                        ByteBuffer.allocateDirect(engine.getSession().getApplicationBufferSize());
+            allocator = bufferAllocator;
+            fromEngineSize = engine.getSession().getApplicationBufferSize();
+            fromSocketSize = engine.getSession().getPacketBufferSize();
+            if (allocator == null) {
+                fromEngine = ByteBuffer.allocateDirect(fromEngineSize);
+                // Initially fromEngine.remaining() == 0.
+                fromEngine.flip();
+                fromSocket = ByteBuffer.allocate(fromSocketSize);
             }
-            // Initially fromEngine.remaining() == 0.
-            fromEngine.flip();
-            fromSocket = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
-            fromSocketArrayOffset = fromSocket.arrayOffset();
         }
 
         @Override
@@ -809,17 +1016,58 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
         }
 
         void release() {
-            synchronized (readLock) {
-                if (allocatedBuffer != null) {
-                    allocatedBuffer.release();
+            readLock.lock();
+            try {
+                if (allocatedFromEngine != null) {
+                    allocatedFromEngine.release();
+                    allocatedFromEngine = null;
+                    fromEngine = null;
+                }
+                if (allocatedFromSocket != null) {
+                    allocatedFromSocket.release();
+                    allocatedFromSocket = null;
+                    fromSocket = null;
                 }
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        private void allocateBuffers() {
+            if (fromEngine == null) {
+                allocatedFromEngine = allocator.allocateDirectBuffer(fromEngineSize);
+                fromEngine = allocatedFromEngine.nioBuffer();
+                // Initially fromEngine.remaining() == 0.
+                fromEngine.flip();
+            }
+            if (fromSocket == null) {
+                allocatedFromSocket = allocator.allocateHeapBuffer(fromSocketSize);
+                fromSocket = allocatedFromSocket.nioBuffer();
+            }
+        }
+
+        /**
+         * Returns the buffers to the allocator if they no longer hold any data, so that idle
+         * connections don't keep them.
+         */
+        private void releaseEmptyBuffers() {
+            if (allocatedFromEngine != null && !fromEngine.hasRemaining()) {
+                allocatedFromEngine.release();
+                allocatedFromEngine = null;
+                fromEngine = null;
+            }
+            if (allocatedFromSocket != null && fromSocket.position() == 0) {
+                allocatedFromSocket.release();
+                allocatedFromSocket = null;
+                fromSocket = null;
             }
         }
 
         @Override
         public int read() throws IOException {
             waitForHandshake();
-            synchronized (readLock) {
+            readLock.lock();
+            try {
                 // Handle returning of -1 if EOF is reached.
                 int count = read(singleByte, 0, 1);
                 if (count == -1) {
@@ -830,14 +1078,19 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
                     throw new SSLException("read incorrect number of bytes " + count);
                 }
                 return singleByte[0] & 0xff;
+            } finally {
+                readLock.unlock();
             }
         }
 
         @Override
         public int read(byte[] b) throws IOException {
             waitForHandshake();
-            synchronized (readLock) {
+            readLock.lock();
+            try {
                 return read(b, 0, b.length);
+            } finally {
+                readLock.unlock();
             }
         }
 
@@ -847,17 +1100,23 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
             if (len == 0) {
                 return 0;
             }
-            synchronized (readLock) {
+            readLock.lock();
+            try {
                 return readUntilDataAvailable(b, off, len);
+            } finally {
+                readLock.unlock();
             }
         }
 
         @Override
         public int available() throws IOException {
             waitForHandshake();
-            synchronized (readLock) {
+            readLock.lock();
+            try {
                 init();
-                return fromEngine.remaining();
+                return fromEngine == null ? 0 : fromEngine.remaining();
+            } finally {
+                readLock.unlock();
             }
         }
 
@@ -893,7 +1152,23 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
             // Make sure the input stream has been created.
             init();
 
+            if (allocator == null) {
+                return processDataFromSocketInternal(b, off, len);
+            }
+            try {
+                return processDataFromSocketInternal(b, off, len);
+            } finally {
+                releaseEmptyBuffers();
+            }
+        }
+
+        private int processDataFromSocketInternal(byte[] b, int off, int len)
+                throws IOException {
             for (;;) {
+                if (allocator != null) {
+                    allocateBuffers();
+                }
+
                 // Serve any remaining data from the engine first.
                 if (fromEngine.remaining() > 0) {
                     int readFromEngine = Math.min(fromEngine.remaining(), len);
@@ -960,6 +1235,9 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
                 }
 
                 // Read more data from the socket.
+                if (allocator != null) {
+                    releaseEmptyBuffers();
+                }
                 if (needMoreDataFromSocket && readFromSocket() == -1) {
                     // Failed to read the next encrypted packet before reaching EOF.
                     return -1;
@@ -970,8 +1248,11 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
         }
 
         private boolean isHandshakeFinished() {
-            synchronized (stateLock) {
+            stateLock.lock();
+            try {
                 return state > STATE_HANDSHAKE_STARTED;
+            } finally {
+                stateLock.unlock();
             }
         }
 
@@ -979,8 +1260,11 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
          * Processes a renegotiation received from the remote peer.
          */
         private void renegotiate() throws IOException {
-            synchronized (handshakeLock) {
+            handshakeLock.lock();
+            try {
                 doHandshake();
+            } finally {
+                handshakeLock.unlock();
             }
         }
 
@@ -992,12 +1276,15 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
 
         private int readFromSocket() throws IOException {
             try {
+                if (fromSocket == null) {
+                    return readRecordStartFromSocket();
+                }
                 // Read directly to the underlying array and increment the buffer position if
                 // appropriate.
                 int pos = fromSocket.position();
                 int lim = fromSocket.limit();
-                int read = socketInputStream.read(fromSocket.array(), fromSocketArrayOffset + pos,
-                                                  lim - pos);
+                int read = socketInputStream.read(fromSocket.array(),
+                                                  fromSocket.arrayOffset() + pos, lim - pos);
 
                 if (read > 0) {
                     fromSocket.position(pos + read);
@@ -1007,5 +1294,29 @@ class ConscryptEngineSocket extends OpenSSLSocketImpl implements SSLParametersIm
                 return -1;
             }
         }
+
+        /**
+         * Waits for the next record without holding a socket buffer. Once the first bytes have
+         * arrived, borrows the buffer and also reads whatever else is already available.
+         */
+        private int readRecordStartFromSocket() throws IOException {
+            int read = socketInputStream.read(recordStart, 0, recordStart.length);
+            if (read <= 0) {
+                return read;
+            }
+            allocateBuffers();
+            fromSocket.put(recordStart, 0, read);
+            int available = Math.min(socketInputStream.available(), fromSocket.remaining());
+            if (available > 0) {
+                int pos = fromSocket.position();
+                int more = socketInputStream.read(fromSocket.array(),
+                                                  fromSocket.arrayOffset() + pos, available);
+                if (more > 0) {
+                    fromSocket.position(pos + more);
+                    read += more;
+                }
+            }
+            return read;
+        }
     }
 }
@@ -33,6 +33,8 @@ import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.security.InvalidKeyException;
 import java.security.PrivateKey;
 import java.security.cert.CertificateEncodingException;
@@ -40,6 +42,8 @@ import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.ECKey;
 import java.security.spec.ECParameterSpec;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.SecretKey;
 import javax.net.ssl.SSLException;
@@ -119,6 +123,10 @@ class ConscryptFileDescriptorSocket extends OpenSSLSocketImpl
 
     private int writeTimeoutMilliseconds = 0;
     private int handshakeTimeoutMilliseconds = -1; // -1 = same as timeout; 0 = infinite
+    private boolean useKernelTls;
+
+    // @GuardedBy("ssl");
+    private final RecordSizer recordSizer = new RecordSizer();
 
     private long handshakeStartedMillis = 0;
 
@@ -259,6 +267,11 @@ class ConscryptFileDescriptorSocket extends OpenSSLSocketImpl
                 }
             }
 
+            if (useKernelTls) {
+                // Records keep being encrypted by BoringSSL if the kernel cannot take over.
+                ssl.enableKernelTlsTx(Platform.getFileDescriptor(socket));
+            }
+
             // Restore the original timeout now that the handshake is complete
             if (handshakeTimeoutMilliseconds >= 0) {
                 setSoTimeout(savedReadTimeoutMilliseconds);
@@ -379,12 +392,16 @@ class ConscryptFileDescriptorSocket extends OpenSSLSocketImpl
 
     @Override
     public final long serverSessionRequested(byte[] id) {
-        // TODO(nathanmittler): Implement server-side caching for TLS < 1.3
+        AbstractSessionContext ctx = sessionContext();
+        if (ctx instanceof ServerSessionContext) {
+            return ((ServerSessionContext) ctx).getSessionForResumption(id);
+        }
         return 0;
     }
 
     @Override
-    public final void serverCertificateRequested(int[] signatureAlgs) throws IOException {
+    public final void serverCertificateRequested(int[] signatureAlgs, boolean offersEarlyData)
+            throws IOException {
         synchronized (ssl) {
             String[] jsseAlgs = SSLUtils.mapSignatureAlgorithms(signatureAlgs);
             activeSession.onPeerSignatureAlgorithmsReceived(jsseAlgs);
@@ -393,7 +410,7 @@ class ConscryptFileDescriptorSocket extends OpenSSLSocketImpl
     }
 
     @Override
-    public final void verifyCertificateChain(byte[][] certChain, String authMethod)
+    public final boolean verifyCertificateChain(byte[][] certChain, String authMethod)
             throws CertificateException {
         try {
             if (certChain == null || certChain.length == 0) {
@@ -401,19 +418,30 @@ class ConscryptFileDescriptorSocket extends OpenSSLSocketImpl
             }
             X509Certificate[] peerCertChain = SSLUtils.decodeX509CertificateChain(certChain);
 
+            AsyncCertificateVerifier verifier = sslParameters.getAsyncCertificateVerifier();
             X509TrustManager x509tm = sslParameters.getX509TrustManager();
-            if (x509tm == null) {
+            if (verifier == null && x509tm == null) {
                 throw new CertificateException("No X.509 TrustManager");
             }
             // Update the peer information on the session.
             activeSession.onPeerCertificatesReceived(getHostnameOrIP(), getPort(), peerCertChain);
 
-            if (getUseClientMode()) {
+            if (verifier != null) {
+                String authType = getUseClientMode()
+                        ? authMethod
+                        : peerCertChain[0].getPublicKey().getAlgorithm();
+                // The handshake of a socket blocks its thread anyway, so wait for the verifier
+                // here rather than suspending the handshake.
+                VerificationCallback callback = new VerificationCallback();
+                verifier.verify(peerCertChain, authType, getHandshakeSession(), callback);
+                callback.await(getSoTimeout());
+            } else if (getUseClientMode()) {
                 Platform.checkServerTrusted(x509tm, peerCertChain, authMethod, this);
             } else {
                 String authType = peerCertChain[0].getPublicKey().getAlgorithm();
                 Platform.checkClientTrusted(x509tm, peerCertChain, authType, this);
             }
+            return true;
         } catch (CertificateException e) {
             throw e;
         } catch (Exception e) {
@@ -421,6 +449,69 @@ class ConscryptFileDescriptorSocket extends OpenSSLSocketImpl
         }
     }
 
+    /**
+     * Receives the result of an {@link AsyncCertificateVerifier} on behalf of the handshake
+     * thread, which waits for it.
+     */
+    private static final class VerificationCallback implements AsyncCallback<Void> {
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile Throwable failure;
+
+        @Override
+        public synchronized void onSuccess(Void result) {
+            completed.countDown();
+        }
+
+        @Override
+        public synchronized void onFailure(Throwable failure) {
+            if (completed.getCount() != 0) {
+                this.failure = failure != null ? failure
+                                               : new NullPointerException("failure == null");
+                completed.countDown();
+            }
+        }
+
+        /**
+         * Waits for the verification to complete, for at most {@code timeoutMillis}, which
+         * during the handshake is the handshake timeout.
+         */
+        void await(int timeoutMillis) throws Exception {
+            if (timeoutMillis > 0) {
+                if (!completed.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new CertificateException("Certificate verification timed out");
+                }
+            } else {
+                completed.await();
+            }
+            Throwable t = failure;
+            if (t instanceof Exception) {
+                throw (Exception) t;
+            } else if (t != null) {
+                throw new CertificateException(t);
+            }
+        }
+    }
+
+    @Override
+    int read(ByteBuffer dst) throws IOException {
+        if (dst.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        if (!dst.isDirect()) {
+            return super.read(dst);
+        }
+        return ((SSLInputStream) getInputStream()).read(dst);
+    }
+
+    @Override
+    void write(ByteBuffer src) throws IOException {
+        if (!src.isDirect()) {
+            super.write(src);
+            return;
+        }
+        ((SSLOutputStream) getOutputStream()).write(src);
+    }
+
     @Override
     public final InputStream getInputStream() throws IOException {
         checkOpen();
@@ -562,6 +653,45 @@ class ConscryptFileDescriptorSocket extends OpenSSLSocketImpl
             }
         }
 
+        /**
+         * Reads into a direct buffer without copying through a Java array.
+         */
+        int read(ByteBuffer dst) throws IOException {
+            if (dst.isReadOnly()) {
+                throw new ReadOnlyBufferException();
+            }
+            Platform.blockGuardOnNetwork();
+
+            checkOpen();
+            int byteCount = dst.remaining();
+            if (byteCount == 0) {
+                return 0;
+            }
+
+            synchronized (readLock) {
+                synchronized (ssl) {
+                    if (state == STATE_CLOSED) {
+                        throw new SocketException("socket is closed");
+                    }
+                }
+
+                int position = dst.position();
+                int ret = ssl.readDirect(Platform.getFileDescriptor(socket),
+                                         NativeCrypto.getDirectBufferAddress(dst) + position,
+                                         byteCount, getSoTimeout());
+                if (ret == -1) {
+                    synchronized (ssl) {
+                        if (state == STATE_CLOSED) {
+                            throw new SocketException("socket is closed");
+                        }
+                    }
+                } else if (ret > 0) {
+                    dst.position(position + ret);
+                }
+                return ret;
+            }
+        }
+
         @Override
         public int available() {
             return ssl.getPendingReadableBytes();
@@ -630,13 +760,13 @@ class ConscryptFileDescriptorSocket extends OpenSSLSocketImpl
                     }
                 }
 
-                ssl.write(Platform.getFileDescriptor(socket), buf, offset, byteCount,
-                          writeTimeoutMilliseconds);
-
-                synchronized (ssl) {
-                    if (state == STATE_CLOSED) {
-                        throw new SocketException("socket is closed");
-                    }
+                while (byteCount > 0) {
+                    int recordSize = nextRecordSize(byteCount);
+                    ssl.write(Platform.getFileDescriptor(socket), buf, offset, recordSize,
+                              writeTimeoutMilliseconds);
+                    onRecordWritten(recordSize);
+                    offset += recordSize;
+                    byteCount -= recordSize;
                 }
             }
         }
@@ -652,6 +782,59 @@ class ConscryptFileDescriptorSocket extends OpenSSLSocketImpl
 
             synchronized (writeLock) {}
         }
+
+        /**
+         * Writes from a direct buffer without copying through a Java array.
+         */
+        void write(ByteBuffer src) throws IOException {
+            Platform.blockGuardOnNetwork();
+            checkOpen();
+            int byteCount = src.remaining();
+            if (byteCount == 0) {
+                return;
+            }
+
+            synchronized (writeLock) {
+                synchronized (ssl) {
+                    if (state == STATE_CLOSED) {
+                        throw new SocketException("socket is closed");
+                    }
+                }
+
+                long address = NativeCrypto.getDirectBufferAddress(src);
+                while (byteCount > 0) {
+                    int recordSize = nextRecordSize(byteCount);
+                    ssl.writeDirect(Platform.getFileDescriptor(socket), address + src.position(),
+                                    recordSize, writeTimeoutMilliseconds);
+                    src.position(src.position() + recordSize);
+                    onRecordWritten(recordSize);
+                    byteCount -= recordSize;
+                }
+            }
+        }
+
+        /**
+         * Returns how many of the {@code remaining} bytes to write with the next call to
+         * SSL_write, which only produces records of the sizes chosen by the record sizer if it
+         * is passed no more than one record's worth of data.
+         */
+        private int nextRecordSize(int remaining) {
+            synchronized (ssl) {
+                if (recordSizer.isDefault()) {
+                    return remaining;
+                }
+                return Math.min(remaining, recordSizer.nextRecordSize());
+            }
+        }
+
+        private void onRecordWritten(int length) throws SocketException {
+            synchronized (ssl) {
+                if (state == STATE_CLOSED) {
+                    throw new SocketException("socket is closed");
+                }
+                recordSizer.onRecordWritten(length);
+            }
+        }
     }
 
     @Override
@@ -970,6 +1153,36 @@ class ConscryptFileDescriptorSocket extends OpenSSLSocketImpl
         this.handshakeTimeoutMilliseconds = handshakeTimeoutMilliseconds;
     }
 
+    @Override
+    final void setMaxSendFragment(int maxSendFragment) {
+        synchronized (ssl) {
+            recordSizer.setMaxSendFragment(maxSendFragment);
+        }
+    }
+
+    @Override
+    final void setDynamicRecordSizing(long boostThreshold, long idleTimeoutMillis) {
+        synchronized (ssl) {
+            recordSizer.setDynamicRecordSizing(boostThreshold, idleTimeoutMillis);
+        }
+    }
+
+    @Override
+    final void setUseKernelTls(boolean useKernelTls) {
+        synchronized (ssl) {
+            if (state != STATE_NEW) {
+                throw new IllegalStateException(
+                        "Could not change kernel TLS after the initial handshake has begun.");
+            }
+            this.useKernelTls = useKernelTls;
+        }
+    }
+
+    @Override
+    final boolean isKernelTlsActive() {
+        return ssl.isKernelTlsTxEnabled();
+    }
+
     @Override
     @SuppressWarnings("UnsynchronizedOverridesSynchronized")
     public final void close() throws IOException {
@@ -1112,6 +1325,18 @@ class ConscryptFileDescriptorSocket extends OpenSSLSocketImpl
         sslParameters.setApplicationProtocolSelector(selector);
     }
 
+    @Override
+    final void setAsyncCertificateVerifier(AsyncCertificateVerifier verifier) {
+        synchronized (ssl) {
+            if (state != STATE_NEW) {
+                throw new IllegalStateException(
+                        "Could not set certificate verifier after the initial handshake has"
+                        + " begun.");
+            }
+        }
+        sslParameters.setAsyncCertificateVerifier(verifier);
+    }
+
     @Override
     public int selectApplicationProtocol(byte[] protocols) {
         ApplicationProtocolSelectorAdapter adapter = sslParameters.getApplicationProtocolSelector();
@@ -1121,6 +1346,26 @@ class ConscryptFileDescriptorSocket extends OpenSSLSocketImpl
         return adapter.selectApplicationProtocol(protocols);
     }
 
+    // This socket never offloads its private key operations, so the native private key method
+    // is not installed and these are never called.
+    @Override
+    @SuppressWarnings("unused") // used by native private_key_sign
+    public final byte[] privateKeySign(int signatureAlgorithm, byte[] input) throws SSLException {
+        throw new SSLException("Private key operations are not offloaded");
+    }
+
+    @Override
+    @SuppressWarnings("unused") // used by native private_key_decrypt
+    public final byte[] privateKeyDecrypt(byte[] input) throws SSLException {
+        throw new SSLException("Private key operations are not offloaded");
+    }
+
+    @Override
+    @SuppressWarnings("unused") // used by native private_key_complete
+    public final byte[] privateKeyComplete() throws SSLException {
+        throw new SSLException("Private key operations are not offloaded");
+    }
+
     @Override
     final void setApplicationProtocols(String[] protocols) {
         sslParameters.setApplicationProtocols(protocols);
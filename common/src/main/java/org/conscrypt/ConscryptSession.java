@@ -57,4 +57,10 @@ interface ConscryptSession extends SSLSession {
     public String[] getPeerSupportedSignatureAlgorithms();
 
     public String[] getLocalSupportedSignatureAlgorithms();
+
+    /**
+     * Returns whether TLS 1.3 early data was sent and accepted on the connection of this
+     * session.
+     */
+    EarlyDataStatus getEarlyDataStatus();
 }
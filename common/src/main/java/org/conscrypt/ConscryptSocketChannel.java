@@ -0,0 +1,567 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLEngineResult.Status;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * A {@link ByteChannel} which protects the data read from and written to a {@link SocketChannel}
+ * with TLS, using a Conscrypt {@link SSLEngine}.
+ *
+ * <p>The channel follows the blocking mode of the underlying {@link SocketChannel}. In
+ * non-blocking mode, {@link #handshake()}, {@link #read(ByteBuffer)} and
+ * {@link #write(ByteBuffer)} return without making progress when the socket is not ready, and
+ * {@link #interestOps()} tells which {@link SelectionKey} operations to wait for before calling
+ * them again. Records are encrypted in batches of up to eight, each handed to the socket in
+ * a single gathering write. In blocking mode, {@code write} returns once all of the data has
+ * been written; in non-blocking mode, it stops after the first batch the socket does not fully
+ * accept.
+ *
+ * <p>Delegated tasks of the engine are run on the calling thread.
+ *
+ * <p>One thread may read while another one writes.
+ */
+@ExperimentalApi
+public final class ConscryptSocketChannel
+        implements ByteChannel, GatheringByteChannel, ScatteringByteChannel {
+    static final int MAX_RECORDS_PER_WRITE = 8;
+    private static final ByteBuffer[] EMPTY_BUFFERS = new ByteBuffer[0];
+
+    private final SocketChannel channel;
+    private final AbstractConscryptEngine engine;
+
+    // Lock order: readLock, then writeLock.
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // Encrypted data read from the socket which has not been unwrapped yet, in write mode.
+    // @GuardedBy("readLock")
+    private final ByteBuffer netIn;
+    // @GuardedBy("readLock")
+    private final ByteBuffer[] netInArray;
+    // Decrypted data which did not fit in the caller's buffers, in read mode.
+    // @GuardedBy("readLock")
+    private final ByteBuffer appIn;
+    // @GuardedBy("readLock")
+    private final ByteBuffer[] appInArray;
+    // @GuardedBy("readLock")
+    private final MutableEngineResult unwrapResult = new MutableEngineResult();
+
+    // Records in netOut[netOutStart, netOutEnd) are waiting to be written to the socket.
+    // @GuardedBy("writeLock")
+    private final ByteBuffer[] netOut = new ByteBuffer[MAX_RECORDS_PER_WRITE];
+    // @GuardedBy("writeLock")
+    private int netOutStart;
+    // @GuardedBy("writeLock")
+    private int netOutEnd;
+    // @GuardedBy("writeLock")
+    private final MutableEngineResult wrapResult = new MutableEngineResult();
+
+    private volatile boolean handshakeFinished;
+    private volatile int handshakeInterestOps;
+    private volatile boolean closed;
+
+    ConscryptSocketChannel(SocketChannel channel, AbstractConscryptEngine engine) {
+        this.channel = channel;
+        this.engine = engine;
+        SSLSession session = engine.getSession();
+        netIn = ByteBuffer.allocateDirect(session.getPacketBufferSize());
+        netInArray = new ByteBuffer[] {netIn};
+        appIn = ByteBuffer.allocateDirect(session.getApplicationBufferSize());
+        appIn.flip();
+        appInArray = new ByteBuffer[] {appIn};
+        for (int i = 0; i < netOut.length; i++) {
+            netOut[i] = ByteBuffer.allocateDirect(session.getPacketBufferSize());
+        }
+    }
+
+    /**
+     * Returns the underlying socket channel, for instance to register it with a
+     * {@link java.nio.channels.Selector}.
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns the engine protecting the data of this channel.
+     */
+    public SSLEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Returns the session of this channel, which is only valid once the handshake has
+     * completed.
+     */
+    public SSLSession getSession() {
+        return engine.getSession();
+    }
+
+    /**
+     * Makes as much progress on the handshake as the socket allows. The handshake is also
+     * performed implicitly by the first read or write.
+     *
+     * @return {@code true} if the handshake has completed, or {@code false} if the socket is
+     *         in non-blocking mode and not ready for the operations in {@link #interestOps()}
+     */
+    public boolean handshake() throws IOException {
+        if (handshakeFinished) {
+            return true;
+        }
+        readLock.lock();
+        try {
+            writeLock.lock();
+            try {
+                return doHandshake();
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the {@link SelectionKey} operations the channel is waiting for, either to make
+     * progress on the handshake or to write encrypted data which is still buffered.
+     */
+    public int interestOps() {
+        int ops = handshakeFinished ? 0 : handshakeInterestOps;
+        if (hasPendingOutput()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        return ops;
+    }
+
+    /**
+     * Returns whether data which has already been read from the socket is buffered, so that
+     * a read may return data even if the socket is not readable.
+     */
+    public boolean hasBufferedInput() {
+        readLock.lock();
+        try {
+            return appIn.hasRemaining() || netIn.position() > 0;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether encrypted data is waiting to be written to the socket.
+     */
+    public boolean hasPendingOutput() {
+        writeLock.lock();
+        try {
+            return netOutStart < netOutEnd;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes encrypted data which is still buffered to the socket.
+     *
+     * @return {@code true} if no encrypted data remains buffered
+     */
+    public boolean flush() throws IOException {
+        ensureOpen();
+        writeLock.lock();
+        try {
+            return flushOutbound();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return (int) read(new ByteBuffer[] {dst}, 0, 1);
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts) throws IOException {
+        return read(dsts, 0, dsts.length);
+    }
+
+    /**
+     * Reads decrypted data into the given buffers.
+     *
+     * @return the number of bytes read, possibly zero if the socket is in non-blocking mode,
+     *         or {@code -1} if the peer has closed the connection
+     */
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        checkBounds(dsts, offset, length);
+        ensureOpen();
+        if (!handshake()) {
+            return 0;
+        }
+        readLock.lock();
+        try {
+            if (appIn.hasRemaining()) {
+                return drainAppIn(dsts, offset, length);
+            }
+            long capacity = remaining(dsts, offset, length);
+            if (capacity == 0) {
+                return 0;
+            }
+            while (true) {
+                if (netIn.position() > 0) {
+                    // Unwrap straight into the caller's buffers if any record fits into them.
+                    boolean direct = capacity >= appIn.capacity();
+                    MutableEngineResult result;
+                    if (direct) {
+                        result = unwrap(dsts, offset, length);
+                    } else {
+                        appIn.clear();
+                        result = unwrap(appInArray, 0, 1);
+                        appIn.flip();
+                    }
+                    if (result.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+                        // A post-handshake message needs an answer.
+                        writeLock.lock();
+                        try {
+                            wrapHandshake();
+                            flushOutbound();
+                        } finally {
+                            writeLock.unlock();
+                        }
+                    }
+                    switch (result.getStatus()) {
+                        case OK:
+                            if (result.bytesProduced() > 0) {
+                                return direct ? result.bytesProduced()
+                                              : drainAppIn(dsts, offset, length);
+                            }
+                            if (result.bytesConsumed() > 0) {
+                                // A record without application data, keep unwrapping.
+                                continue;
+                            }
+                            break;
+                        case BUFFER_UNDERFLOW:
+                            break;
+                        case CLOSED:
+                            return -1;
+                        default:
+                            throw new SSLException("Unexpected unwrap status: "
+                                    + result.getStatus());
+                    }
+                }
+                int read = channel.read(netIn);
+                if (read < 0) {
+                    return -1;
+                }
+                if (read == 0) {
+                    return 0;
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[] {src}, 0, 1);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * Encrypts data from the given buffers and writes it to the socket. The returned count
+     * includes data which has been encrypted but is still buffered because the socket in
+     * non-blocking mode did not accept all of it, see {@link #flush()}.
+     *
+     * @return the number of bytes consumed from the buffers, possibly zero if the socket is in
+     *         non-blocking mode
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        checkBounds(srcs, offset, length);
+        ensureOpen();
+        if (!handshake()) {
+            return 0;
+        }
+        writeLock.lock();
+        try {
+            if (!flushOutbound()) {
+                return 0;
+            }
+            long remaining = remaining(srcs, offset, length);
+            long consumed = 0;
+            // Each pass fills the output buffers and flushes them. A blocking socket always
+            // accepts the whole batch, so this only stops early in non-blocking mode.
+            boolean flushed = true;
+            while (flushed && consumed < remaining) {
+                long batch = 0;
+                while (consumed + batch < remaining && netOutEnd < netOut.length) {
+                    MutableEngineResult result = wrap(srcs, offset, length);
+                    if (result.getStatus() == Status.CLOSED) {
+                        throw new ClosedChannelException();
+                    }
+                    if (result.getStatus() != Status.OK) {
+                        throw new SSLException("Unexpected wrap status: " + result.getStatus());
+                    }
+                    if (result.bytesConsumed() == 0) {
+                        break;
+                    }
+                    batch += result.bytesConsumed();
+                }
+                flushed = flushOutbound();
+                if (batch == 0) {
+                    break;
+                }
+                consumed += batch;
+            }
+            return consumed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    /**
+     * Sends a close_notify alert to the peer if it can be written without blocking on a
+     * concurrent write, and closes the socket.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (writeLock.tryLock()) {
+                try {
+                    engine.closeOutbound();
+                    if (flushOutbound()) {
+                        wrap(EMPTY_BUFFERS, 0, 0);
+                        flushOutbound();
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            // Ignore, the socket is being closed anyway.
+        } finally {
+            channel.close();
+        }
+    }
+
+    // @GuardedBy("readLock") and @GuardedBy("writeLock")
+    private boolean doHandshake() throws IOException {
+        if (handshakeFinished) {
+            return true;
+        }
+        try {
+            engine.beginHandshake();
+            while (true) {
+                if (!flushOutbound()) {
+                    handshakeInterestOps = SelectionKey.OP_WRITE;
+                    return false;
+                }
+                switch (engine.getHandshakeStatus()) {
+                    case NEED_WRAP:
+                        wrapHandshake();
+                        break;
+                    case NEED_UNWRAP: {
+                        appIn.compact();
+                        netIn.flip();
+                        MutableEngineResult result;
+                        try {
+                            result = engine.unwrap(
+                                    netInArray, 0, 1, appInArray, 0, 1, unwrapResult);
+                        } finally {
+                            netIn.compact();
+                            appIn.flip();
+                        }
+                        if (result.getStatus() == Status.CLOSED) {
+                            throw SSLUtils.toSSLHandshakeException(
+                                    new EOFException("connection closed"));
+                        }
+                        if (result.getStatus() == Status.BUFFER_UNDERFLOW) {
+                            int read = channel.read(netIn);
+                            if (read < 0) {
+                                throw SSLUtils.toSSLHandshakeException(
+                                        new EOFException("connection closed"));
+                            }
+                            if (read == 0) {
+                                handshakeInterestOps = SelectionKey.OP_READ;
+                                return false;
+                            }
+                        }
+                        break;
+                    }
+                    case NEED_TASK: {
+                        Runnable task;
+                        while ((task = engine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                        break;
+                    }
+                    case NOT_HANDSHAKING:
+                    case FINISHED:
+                        handshakeInterestOps = 0;
+                        handshakeFinished = true;
+                        return true;
+                    default:
+                        throw new IllegalStateException("Unknown handshake status: "
+                                + engine.getHandshakeStatus());
+                }
+            }
+        } catch (SSLException e) {
+            sendAlertQuietly();
+            close();
+            throw e;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Wraps as many handshake records as there are free output buffers.
+    // @GuardedBy("writeLock")
+    private void wrapHandshake() throws IOException {
+        while (netOutEnd < netOut.length
+                && engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+            MutableEngineResult result = wrap(EMPTY_BUFFERS, 0, 0);
+            if (result.getStatus() == Status.CLOSED) {
+                throw new SSLException("Engine closed during the handshake");
+            }
+            if (result.bytesProduced() == 0) {
+                break;
+            }
+        }
+    }
+
+    // Best effort to deliver the alert describing a handshake failure.
+    // @GuardedBy("writeLock")
+    private void sendAlertQuietly() {
+        try {
+            if (flushOutbound() && wrap(EMPTY_BUFFERS, 0, 0).bytesProduced() > 0) {
+                flushOutbound();
+            }
+        } catch (IOException e) {
+            // Ignore, the original exception is more useful.
+        }
+    }
+
+    // Wraps one record into the next free output buffer.
+    // @GuardedBy("writeLock")
+    private MutableEngineResult wrap(ByteBuffer[] srcs, int offset, int length)
+            throws SSLException {
+        ByteBuffer dst = netOut[netOutEnd];
+        dst.clear();
+        MutableEngineResult result = engine.wrap(srcs, offset, length, dst, wrapResult);
+        dst.flip();
+        if (dst.hasRemaining()) {
+            netOutEnd++;
+        }
+        return result;
+    }
+
+    // @GuardedBy("readLock")
+    private MutableEngineResult unwrap(ByteBuffer[] dsts, int offset, int length)
+            throws SSLException {
+        netIn.flip();
+        try {
+            return engine.unwrap(netInArray, 0, 1, dsts, offset, length, unwrapResult);
+        } finally {
+            netIn.compact();
+        }
+    }
+
+    // Writes the buffered records with gathering writes until they are all written or the
+    // socket does not accept more.
+    // @GuardedBy("writeLock")
+    private boolean flushOutbound() throws IOException {
+        while (netOutStart < netOutEnd) {
+            long written = channel.write(netOut, netOutStart, netOutEnd - netOutStart);
+            while (netOutStart < netOutEnd && !netOut[netOutStart].hasRemaining()) {
+                netOutStart++;
+            }
+            if (written == 0 && netOutStart < netOutEnd) {
+                return false;
+            }
+        }
+        netOutStart = 0;
+        netOutEnd = 0;
+        return true;
+    }
+
+    // @GuardedBy("readLock")
+    private int drainAppIn(ByteBuffer[] dsts, int offset, int length) {
+        int drained = 0;
+        for (int i = offset; i < offset + length && appIn.hasRemaining(); i++) {
+            ByteBuffer dst = dsts[i];
+            int count = Math.min(dst.remaining(), appIn.remaining());
+            if (count == 0) {
+                continue;
+            }
+            int limit = appIn.limit();
+            appIn.limit(appIn.position() + count);
+            dst.put(appIn);
+            appIn.limit(limit);
+            drained += count;
+        }
+        return drained;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private static long remaining(ByteBuffer[] buffers, int offset, int length) {
+        long remaining = 0;
+        for (int i = offset; i < offset + length; i++) {
+            remaining += buffers[i].remaining();
+        }
+        return remaining;
+    }
+
+    private static void checkBounds(ByteBuffer[] buffers, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > buffers.length - length) {
+            throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length
+                    + ", buffers.length=" + buffers.length);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+/**
+ * The outcome of an attempt to use TLS 1.3 early data (0-RTT) on a connection.
+ *
+ * @see Conscrypt#getEarlyDataStatus(javax.net.ssl.SSLEngine)
+ * @see Conscrypt#getEarlyDataStatus(javax.net.ssl.SSLSocket)
+ */
+@ExperimentalApi
+public enum EarlyDataStatus {
+    /**
+     * Early data was not offered by the client, for example because it was not enabled or the
+     * connection did not resume a session which allows it. A server also reports early data
+     * which it did not accept this way.
+     */
+    NOT_ATTEMPTED,
+    /**
+     * Early data was offered by the client and accepted by the server.
+     */
+    ACCEPTED,
+    /**
+     * Early data was offered by the client but rejected by the server. The client must send
+     * the data again as ordinary application data if it still needs to be delivered.
+     */
+    REJECTED
+}
@@ -162,6 +162,11 @@ final class ExternalSession implements ConscryptSession {
         return provider.provideSession().getApplicationProtocol();
     }
 
+    @Override
+    public EarlyDataStatus getEarlyDataStatus() {
+        return provider.provideSession().getEarlyDataStatus();
+    }
+
     @Override
     public Object getValue(String name) {
         if (name == null) {
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+import static org.conscrypt.Preconditions.checkArgument;
+import static org.conscrypt.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An {@link AntiReplayStore} which remembers ClientHello messages in memory for a limited
+ * window of time.
+ *
+ * <p>The window should be at least as long as the ticket age tolerance of the server, which is
+ * 60 seconds for BoringSSL, since a ClientHello older than that has its early data rejected
+ * anyway. If the store is full of ClientHellos which are still within the window, further early
+ * data is rejected rather than risking a replay.
+ *
+ * <p>The store only protects a single process. Servers in a cluster which share session ticket
+ * keys need a shared store.
+ */
+@ExperimentalApi
+public final class InMemoryAntiReplayStore implements AntiReplayStore {
+    static final long DEFAULT_WINDOW_MILLIS = 60 * 1000L;
+    static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    private final long windowMillis;
+    private final int maxEntries;
+    // Insertion order is also expiry order, since every entry has the same lifetime.
+    private final LinkedHashMap<ByteArray, Long> seen = new LinkedHashMap<ByteArray, Long>();
+
+    /**
+     * Creates a store with a 60 second window which holds up to 100,000 entries.
+     */
+    public InMemoryAntiReplayStore() {
+        this(DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates a new store.
+     *
+     * @param windowMillis how long a ClientHello is remembered, in milliseconds
+     * @param maxEntries the maximum number of ClientHellos remembered at once
+     */
+    public InMemoryAntiReplayStore(long windowMillis, int maxEntries) {
+        checkArgument(windowMillis > 0, "windowMillis must be positive");
+        checkArgument(maxEntries > 0, "maxEntries must be positive");
+        this.windowMillis = windowMillis;
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public boolean tryAccept(byte[] clientHelloId) {
+        return tryAccept(clientHelloId, System.currentTimeMillis());
+    }
+
+    synchronized boolean tryAccept(byte[] clientHelloId, long now) {
+        checkNotNull(clientHelloId, "clientHelloId");
+        expire(now);
+        ByteArray key = new ByteArray(clientHelloId.clone());
+        if (seen.containsKey(key) || seen.size() >= maxEntries) {
+            return false;
+        }
+        seen.put(key, now);
+        return true;
+    }
+
+    synchronized int size() {
+        return seen.size();
+    }
+
+    private void expire(long now) {
+        Iterator<Map.Entry<ByteArray, Long>> it = seen.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue() < windowMillis) {
+                break;
+            }
+            it.remove();
+        }
+    }
+}
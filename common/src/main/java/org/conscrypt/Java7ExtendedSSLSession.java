@@ -176,4 +176,9 @@ class Java7ExtendedSSLSession extends ExtendedSSLSession implements ConscryptSes
     public String getApplicationProtocol() {
         return delegate.getApplicationProtocol();
     }
+
+    @Override
+    public EarlyDataStatus getEarlyDataStatus() {
+        return delegate.getEarlyDataStatus();
+    }
 }
@@ -72,6 +72,26 @@ final class Java8EngineWrapper extends AbstractConscryptEngine {
         delegate.setBufferAllocator(bufferAllocator);
     }
 
+    @Override
+    void setMaxRecordsPerWrap(int maxRecords) {
+        delegate.setMaxRecordsPerWrap(maxRecords);
+    }
+
+    @Override
+    void setMaxSendFragment(int maxSendFragment) {
+        delegate.setMaxSendFragment(maxSendFragment);
+    }
+
+    @Override
+    void setDynamicRecordSizing(long boostThreshold, long idleTimeoutMillis) {
+        delegate.setDynamicRecordSizing(boostThreshold, idleTimeoutMillis);
+    }
+
+    @Override
+    void setZeroCopyHeapBuffers(boolean enabled) {
+        delegate.setZeroCopyHeapBuffers(enabled);
+    }
+
     @Override
     int maxSealOverhead() {
         return delegate.maxSealOverhead();
@@ -259,6 +279,13 @@ final class Java8EngineWrapper extends AbstractConscryptEngine {
         return delegate.unwrap(srcs, srcsOffset, srcsLength, dsts, dstsOffset, dstsLength);
     }
 
+    @Override
+    MutableEngineResult unwrap(ByteBuffer[] srcs, int srcsOffset, int srcsLength,
+                               ByteBuffer[] dsts, int dstsOffset, int dstsLength,
+                               MutableEngineResult out) throws SSLException {
+        return delegate.unwrap(srcs, srcsOffset, srcsLength, dsts, dstsOffset, dstsLength, out);
+    }
+
     @Override
     public SSLEngineResult wrap(ByteBuffer src, ByteBuffer dst) throws SSLException {
         return delegate.wrap(src, dst);
@@ -270,6 +297,42 @@ final class Java8EngineWrapper extends AbstractConscryptEngine {
         return delegate.wrap(srcs, srcsOffset, srcsLength, dst);
     }
 
+    @Override
+    void setUseDelegatedTasks(boolean useDelegatedTasks) {
+        delegate.setUseDelegatedTasks(useDelegatedTasks);
+    }
+
+    @Override
+    void setAsyncPrivateKeyOperator(AsyncPrivateKeyOperator operator) {
+        delegate.setAsyncPrivateKeyOperator(operator);
+    }
+
+    @Override
+    void setAsyncCertificateVerifier(AsyncCertificateVerifier verifier) {
+        delegate.setAsyncCertificateVerifier(verifier);
+    }
+
+    @Override
+    void setEarlyData(byte[] earlyData) {
+        delegate.setEarlyData(earlyData);
+    }
+
+    @Override
+    void setEarlyDataEnabled(boolean enabled, AntiReplayStore antiReplayStore) {
+        delegate.setEarlyDataEnabled(enabled, antiReplayStore);
+    }
+
+    @Override
+    EarlyDataStatus getEarlyDataStatus() {
+        return delegate.getEarlyDataStatus();
+    }
+
+    @Override
+    MutableEngineResult wrap(ByteBuffer[] srcs, int srcsOffset, int srcsLength, ByteBuffer dst,
+                             MutableEngineResult out) throws SSLException {
+        return delegate.wrap(srcs, srcsOffset, srcsLength, dst, out);
+    }
+
     @Override
     void setUseSessionTickets(boolean useSessionTickets) {
         delegate.setUseSessionTickets(useSessionTickets);
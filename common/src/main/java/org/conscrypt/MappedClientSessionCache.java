@@ -0,0 +1,472 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+import static org.conscrypt.Preconditions.checkArgument;
+
+import org.conscrypt.io.IoUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * An {@link SSLClientSessionCache} which keeps the sessions of many hosts in a single
+ * memory-mapped file, so that clients which talk to a large number of servers can resume their
+ * sessions after a restart.
+ *
+ * <p>The file is an append-only log of records, each holding the session data for one host and
+ * port. An in-memory index maps every host and port to its latest record, so lookups and updates
+ * take constant time and never list or scan the file. When the log fills up it is compacted into
+ * a new file holding only the latest record of each entry, which atomically replaces the old
+ * one, or is copied over it on platforms which cannot replace a mapped file; if the live entries
+ * still take more than half of the file, the least recently used ones are dropped. The number of
+ * entries is also bounded, again evicting the least recently used.
+ *
+ * <p>Each record carries a CRC32 checksum and its length is written last, so a record which was
+ * only partly written when the process died is detected and discarded when the file is opened.
+ * Writes are left to the operating system to flush, so the most recent sessions may be lost
+ * if the whole machine fails, which only costs a full handshake.
+ *
+ * <p>Only one instance, in one process, should use a given file at a time. Instances are
+ * thread-safe.
+ */
+@ExperimentalApi
+public final class MappedClientSessionCache implements SSLClientSessionCache, Closeable {
+    private static final Logger logger =
+            Logger.getLogger(MappedClientSessionCache.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The default maximum size of the file, in bytes.
+     */
+    public static final int DEFAULT_MAX_FILE_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The default maximum number of hosts whose sessions are kept.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 50000;
+
+    private static final int MAGIC = 0x43535343; // "CSSC"
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    // Record length, host length, port, data length and checksum.
+    private static final int RECORD_OVERHEAD = 4 + 2 + 4 + 4 + 4;
+    private static final int MIN_FILE_SIZE = 4096;
+
+    private final File file;
+    private final int maxFileSize;
+    private final int maxEntries;
+    // Index of the latest record of each host and port, in access order.
+    private final LinkedHashMap<String, Entry> index =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true /* access order */);
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    // Offset at which the next record is appended.
+    private int end;
+    // Total size of the records referenced by the index.
+    private long liveBytes;
+    private boolean closed;
+
+    /**
+     * Opens the cache stored in {@code file}, creating it if necessary, with the default limits.
+     *
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static MappedClientSessionCache open(File file) throws IOException {
+        return open(file, DEFAULT_MAX_FILE_SIZE, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Opens the cache stored in {@code file}, creating it if necessary. Records left by an
+     * earlier instance are recovered up to the first one which is incomplete or corrupt.
+     *
+     * @param maxFileSize the size of the file, which is allocated up front, in bytes
+     * @param maxEntries the maximum number of hosts whose sessions are kept
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static MappedClientSessionCache open(File file, int maxFileSize, int maxEntries)
+            throws IOException {
+        checkArgument(maxFileSize >= MIN_FILE_SIZE, "maxFileSize must be at least 4096");
+        checkArgument(maxEntries > 0, "maxEntries must be positive");
+        MappedClientSessionCache cache = new MappedClientSessionCache(file, maxFileSize,
+                                                                      maxEntries);
+        cache.load();
+        return cache;
+    }
+
+    private MappedClientSessionCache(File file, int maxFileSize, int maxEntries) {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxEntries = maxEntries;
+    }
+
+    private static String key(String host, int port) {
+        if (host == null) {
+            throw new NullPointerException("host == null");
+        }
+        return host + ":" + port;
+    }
+
+    @Override
+    public synchronized byte[] getSessionData(String host, int port) {
+        Entry entry = index.get(key(host, port));
+        if (entry == null || closed) {
+            return null;
+        }
+        byte[] data = new byte[entry.dataLength];
+        ByteBuffer view = buffer.duplicate();
+        view.position(entry.dataOffset());
+        view.get(data);
+        return data;
+    }
+
+    @Override
+    public synchronized void putSessionData(SSLSession session, byte[] sessionData) {
+        String host = session.getPeerHost();
+        int port = session.getPeerPort();
+        String key = key(host, port);
+        if (sessionData == null) {
+            throw new NullPointerException("sessionData == null");
+        }
+        if (closed) {
+            return;
+        }
+        byte[] hostBytes = host.getBytes(UTF_8);
+        int recordSize = RECORD_OVERHEAD + hostBytes.length + sessionData.length;
+        if (hostBytes.length > 0xFFFF || recordSize > maxRecordSize()) {
+            logger.log(Level.WARNING,
+                       "MappedClientSessionCache: Session data for " + host + " is too large.");
+            return;
+        }
+        try {
+            if (end + recordSize > maxFileSize) {
+                compact(recordSize);
+            }
+            Entry entry = writeRecord(buffer, end, hostBytes, port, sessionData);
+            end += recordSize;
+            putEntry(key, entry);
+        } catch (IOException e) {
+            logger.log(Level.WARNING,
+                       "MappedClientSessionCache: Error writing session data for " + host
+                               + " to " + file + ".",
+                       e);
+        }
+    }
+
+    /**
+     * Returns the number of hosts with a cached session.
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Closes the file. Later lookups miss and later updates are ignored.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        index.clear();
+        buffer.force();
+        buffer = null;
+        raf.close();
+    }
+
+    private int maxRecordSize() {
+        return (maxFileSize - HEADER_SIZE) / 4;
+    }
+
+    private void putEntry(String key, Entry entry) {
+        Entry previous = index.put(key, entry);
+        if (previous != null) {
+            liveBytes -= previous.recordSize;
+        }
+        liveBytes += entry.recordSize;
+        if (index.size() > maxEntries) {
+            Iterator<Entry> eldest = index.values().iterator();
+            liveBytes -= eldest.next().recordSize;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Opens the file and rebuilds the index from the records in it.
+     */
+    private void load() throws IOException {
+        boolean existed = file.length() > 0;
+        map(file);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            // A new file, or one we do not understand. Start from scratch.
+            if (existed) {
+                clear(buffer, 0, maxFileSize);
+            }
+            writeHeader(buffer);
+            end = HEADER_SIZE;
+            return;
+        }
+
+        int offset = HEADER_SIZE;
+        while (true) {
+            Entry entry = readRecord(buffer, offset, maxFileSize);
+            if (entry == null) {
+                break;
+            }
+            putEntry(entry.key, entry);
+            offset += entry.recordSize;
+        }
+        end = offset;
+        // A torn or corrupt record hides every record appended after it, all the way to the old
+        // end of the log. Clear the whole tail so that none of it can be confused with records
+        // appended later.
+        if (!isClear(buffer, offset, maxFileSize)) {
+            logger.log(Level.WARNING, "MappedClientSessionCache: Discarding corrupt data in "
+                                              + file + " at offset " + offset + ".");
+            clear(buffer, offset, maxFileSize);
+        }
+    }
+
+    /**
+     * Rewrites the file with only the latest record of each entry, dropping the least recently
+     * used entries until they take at most half of the file and there is room for
+     * {@code recordSize} more bytes.
+     */
+    private void compact(int recordSize) throws IOException {
+        int budget = (maxFileSize - HEADER_SIZE) / 2;
+        Iterator<Entry> lru = index.values().iterator();
+        while (liveBytes > budget && lru.hasNext()) {
+            liveBytes -= lru.next().recordSize;
+            lru.remove();
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        RandomAccessFile tmpRaf = new RandomAccessFile(tmp, "rw");
+        List<Map.Entry<String, Entry>> entries =
+                new ArrayList<Map.Entry<String, Entry>>(index.entrySet());
+        List<Entry> copies = new ArrayList<Entry>(entries.size());
+        boolean replaced = false;
+        int offset = HEADER_SIZE;
+        try {
+            // The new file is written without mapping it, so that it can be renamed or deleted
+            // on every platform.
+            tmpRaf.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            writeHeader(header);
+            tmpRaf.write(header.array());
+            // Copy in the current access order so that the order survives a restart.
+            for (Map.Entry<String, Entry> e : entries) {
+                Entry old = e.getValue();
+                byte[] data = new byte[old.dataLength];
+                ByteBuffer view = buffer.duplicate();
+                view.position(old.dataOffset());
+                view.get(data);
+                ByteBuffer record = ByteBuffer.allocate(old.recordSize);
+                writeRecord(record, 0, old.hostBytes, old.port, data);
+                tmpRaf.write(record.array());
+                copies.add(new Entry(null, offset, old.recordSize, old.hostBytes, old.port,
+                                     old.dataLength));
+                offset += old.recordSize;
+            }
+            tmpRaf.setLength(maxFileSize);
+            tmpRaf.getFD().sync();
+            replaced = tmp.renameTo(file);
+            if (!replaced) {
+                // Some platforms, such as Windows, cannot replace a file which is open or
+                // mapped. Rewrite the log in place instead, which a crash can leave holding
+                // only some of the sessions.
+                ByteBuffer view = buffer.duplicate();
+                view.position(0);
+                view.limit(offset);
+                FileChannel channel = tmpRaf.getChannel();
+                while (view.hasRemaining()) {
+                    if (channel.read(view, view.position()) < 0) {
+                        throw new IOException("Unexpected end of " + tmp);
+                    }
+                }
+                clear(buffer, offset, end);
+                buffer.force();
+            }
+        } finally {
+            IoUtils.closeQuietly(tmpRaf);
+            if (!replaced && !tmp.delete()) {
+                logger.log(Level.WARNING, "MappedClientSessionCache: Failed to delete "
+                                                  + tmp + ".");
+            }
+        }
+        if (replaced) {
+            IoUtils.closeQuietly(raf);
+            map(file);
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            entries.get(i).setValue(copies.get(i));
+        }
+        end = offset;
+        if (end + recordSize > maxFileSize) {
+            throw new IOException("No room for a record of " + recordSize + " bytes");
+        }
+    }
+
+    private void map(File file) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            // Mapping extends the file to the full size.
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, maxFileSize);
+        } catch (IOException e) {
+            IoUtils.closeQuietly(raf);
+            throw e;
+        }
+    }
+
+    private static void writeHeader(ByteBuffer buffer) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, 0);
+    }
+
+    private static boolean isClear(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            if (buffer.getLong(i) != 0) {
+                return false;
+            }
+        }
+        for (; i < to; i++) {
+            if (buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void clear(ByteBuffer buffer, int from, int to) {
+        byte[] zeros = new byte[4096];
+        ByteBuffer view = buffer.duplicate();
+        view.position(from);
+        while (view.position() < to) {
+            view.put(zeros, 0, Math.min(zeros.length, to - view.position()));
+        }
+    }
+
+    /**
+     * Appends a record at {@code offset}. The record length is written last so that a
+     * partially written record is never mistaken for a complete one.
+     */
+    private static Entry writeRecord(ByteBuffer buffer, int offset, byte[] hostBytes, int port,
+                                     byte[] data) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + 4);
+        view.putShort((short) hostBytes.length);
+        view.put(hostBytes);
+        view.putInt(port);
+        view.putInt(data.length);
+        view.put(data);
+        int recordSize = RECORD_OVERHEAD + hostBytes.length + data.length;
+        view.putInt(checksum(buffer, offset + 4, recordSize - 8));
+        buffer.putInt(offset, recordSize);
+        return new Entry(null, offset, recordSize, hostBytes, port, data.length);
+    }
+
+    /**
+     * Reads the record at {@code offset}, or returns {@code null} if there is no complete and
+     * valid record there.
+     */
+    private static Entry readRecord(ByteBuffer buffer, int offset, int limit) {
+        if (offset + RECORD_OVERHEAD > limit) {
+            return null;
+        }
+        int recordSize = buffer.getInt(offset);
+        if (recordSize < RECORD_OVERHEAD || recordSize > limit - offset) {
+            return null;
+        }
+        int hostLength = buffer.getShort(offset + 4) & 0xFFFF;
+        if (RECORD_OVERHEAD + hostLength > recordSize) {
+            return null;
+        }
+        int dataLength = buffer.getInt(offset + 6 + hostLength + 4);
+        if (RECORD_OVERHEAD + hostLength + dataLength != recordSize) {
+            return null;
+        }
+        if (buffer.getInt(offset + recordSize - 4)
+                != checksum(buffer, offset + 4, recordSize - 8)) {
+            return null;
+        }
+        byte[] hostBytes = new byte[hostLength];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + 6);
+        view.get(hostBytes);
+        int port = buffer.getInt(offset + 6 + hostLength);
+        String key = key(new String(hostBytes, UTF_8), port);
+        return new Entry(key, offset, recordSize, hostBytes, port, dataLength);
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[Math.min(length, 4096)];
+        while (view.hasRemaining()) {
+            int n = Math.min(chunk.length, view.remaining());
+            view.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The location of a record in the file.
+     */
+    private static final class Entry {
+        final String key;
+        final int offset;
+        final int recordSize;
+        final byte[] hostBytes;
+        final int port;
+        final int dataLength;
+
+        Entry(String key, int offset, int recordSize, byte[] hostBytes, int port,
+              int dataLength) {
+            this.key = key;
+            this.offset = offset;
+            this.recordSize = recordSize;
+            this.hostBytes = hostBytes;
+            this.port = port;
+            this.dataLength = dataLength;
+        }
+
+        int dataOffset() {
+            return offset + 4 + 2 + hostBytes.length + 4 + 4;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLEngineResult.Status;
+
+/**
+ * A reusable holder for the outcome of a wrap or unwrap operation, with the same information as
+ * an {@link SSLEngineResult}. Passing the same instance to
+ * {@link Conscrypt#wrap(javax.net.ssl.SSLEngine, java.nio.ByteBuffer[], int, int,
+ * java.nio.ByteBuffer, MutableEngineResult)} and
+ * {@link Conscrypt#unwrap(javax.net.ssl.SSLEngine, java.nio.ByteBuffer[], int, int,
+ * java.nio.ByteBuffer[], int, int, MutableEngineResult)} avoids allocating a result for every
+ * record.
+ *
+ * <p>Instances are not thread-safe.
+ */
+@ExperimentalApi
+public final class MutableEngineResult {
+    // Results which neither consume nor produce any bytes, indexed by status and handshake
+    // status ordinal.
+    private static final SSLEngineResult[][] EMPTY_RESULTS;
+
+    static {
+        Status[] statuses = Status.values();
+        HandshakeStatus[] handshakeStatuses = HandshakeStatus.values();
+        EMPTY_RESULTS = new SSLEngineResult[statuses.length][handshakeStatuses.length];
+        for (Status status : statuses) {
+            for (HandshakeStatus handshakeStatus : handshakeStatuses) {
+                EMPTY_RESULTS[status.ordinal()][handshakeStatus.ordinal()] =
+                        new SSLEngineResult(status, handshakeStatus, 0, 0);
+            }
+        }
+    }
+
+    private Status status = Status.OK;
+    private HandshakeStatus handshakeStatus = HandshakeStatus.NOT_HANDSHAKING;
+    private int bytesConsumed;
+    private int bytesProduced;
+
+    public MutableEngineResult() {}
+
+    /**
+     * Returns the overall result of the operation.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the handshake status after the operation.
+     */
+    public HandshakeStatus getHandshakeStatus() {
+        return handshakeStatus;
+    }
+
+    /**
+     * Returns the number of bytes consumed from the input buffers.
+     */
+    public int bytesConsumed() {
+        return bytesConsumed;
+    }
+
+    /**
+     * Returns the number of bytes written to the output buffers.
+     */
+    public int bytesProduced() {
+        return bytesProduced;
+    }
+
+    /**
+     * Returns an {@link SSLEngineResult} with the same values as this result.
+     */
+    public SSLEngineResult toSSLEngineResult() {
+        if (bytesConsumed == 0 && bytesProduced == 0) {
+            return EMPTY_RESULTS[status.ordinal()][handshakeStatus.ordinal()];
+        }
+        return new SSLEngineResult(status, handshakeStatus, bytesConsumed, bytesProduced);
+    }
+
+    MutableEngineResult set(Status status, HandshakeStatus handshakeStatus, int bytesConsumed,
+                            int bytesProduced) {
+        this.status = status;
+        this.handshakeStatus = handshakeStatus;
+        this.bytesConsumed = bytesConsumed;
+        this.bytesProduced = bytesProduced;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "MutableEngineResult{status=" + status + ", handshakeStatus=" + handshakeStatus
+                + ", bytesConsumed=" + bytesConsumed + ", bytesProduced=" + bytesProduced + "}";
+    }
+}
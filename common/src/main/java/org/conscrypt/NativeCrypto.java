@@ -1083,6 +1083,12 @@ public final class NativeCrypto {
     static native long SSL_CTX_set_timeout(long ssl_ctx, AbstractSessionContext holder,
                                            long seconds);
 
+    static native void SSL_CTX_set_ticket_keys(long ssl_ctx, AbstractSessionContext holder,
+                                               byte[] keys);
+
+    static native void SSL_CTX_set_num_tickets(long ssl_ctx, AbstractSessionContext holder,
+                                               int num_tickets);
+
     static native long SSL_new(long ssl_ctx, AbstractSessionContext holder) throws SSLException;
 
     static native void SSL_enable_tls_channel_id(long ssl, NativeSsl ssl_holder)
@@ -1105,6 +1111,49 @@ public final class NativeCrypto {
                                                   byte[][] encodedCertificates,
                                                   NativeRef.EVP_PKEY pkey) throws SSLException;
 
+    /**
+     * Sets the local certificates and arranges for the operations with the matching private key
+     * to be performed by the {@code privateKeySign}, {@code privateKeyDecrypt} and
+     * {@code privateKeyComplete} methods of {@link SSLHandshakeCallbacks}.
+     *
+     * @param ssl the SSL reference.
+     * @param encodedCertificates the encoded form of the local certificate chain.
+     * @throws SSLException if a problem occurs setting the certificates.
+     */
+    static native void setLocalCertsAndPrivateKeyMethod(long ssl, NativeSsl ssl_holder,
+                                                        byte[][] encodedCertificates)
+            throws SSLException;
+
+    /**
+     * Creates a native credential holding a certificate chain and its private key, which can
+     * be added to any number of connections without parsing the certificates again.
+     *
+     * @param encodedCertificates the encoded form of the certificate chain.
+     * @param pkey a reference to the private key.
+     * @return a pointer to the new credential, to be freed with {@link #SSL_CREDENTIAL_free}.
+     * @throws SSLException if the certificates and key cannot be used together.
+     */
+    static native long SSL_CREDENTIAL_new_x509(byte[][] encodedCertificates,
+                                               NativeRef.EVP_PKEY pkey) throws SSLException;
+
+    static native void SSL_CREDENTIAL_free(long credential);
+
+    /**
+     * Offers the given credential to the peer during the handshake of the connection.
+     *
+     * @throws SSLException if a problem occurs adding the credential.
+     */
+    static native void SSL_add1_credential(long ssl, NativeSsl ssl_holder,
+                                           NativeRef.SSL_CREDENTIAL credential)
+            throws SSLException;
+
+    /**
+     * Signs {@code input} with {@code pkey} as required by the TLS signature algorithm
+     * {@code signatureAlgorithm}, one of the {@code SSL_SIGN_*} constants.
+     */
+    static native byte[] signWithSignatureAlgorithm(NativeRef.EVP_PKEY pkey,
+                                                    int signatureAlgorithm, byte[] input);
+
     static native void SSL_set_client_CA_list(long ssl, NativeSsl ssl_holder,
                                               byte[][] asn1DerEncodedX500Principals)
             throws SSLException;
@@ -1365,6 +1414,16 @@ public final class NativeCrypto {
 
     static native boolean SSL_session_reused(long ssl, NativeSsl ssl_holder);
 
+    static native void SSL_set_early_data_enabled(long ssl, NativeSsl ssl_holder, boolean enabled);
+
+    static native boolean SSL_in_early_data(long ssl, NativeSsl ssl_holder);
+
+    static native boolean SSL_early_data_accepted(long ssl, NativeSsl ssl_holder);
+
+    static native void SSL_reset_early_data_reject(long ssl, NativeSsl ssl_holder);
+
+    static native byte[] SSL_get_client_random(long ssl, NativeSsl ssl_holder);
+
     static native void SSL_accept_renegotiations(long ssl, NativeSsl ssl_holder)
             throws SSLException;
 
@@ -1404,6 +1463,54 @@ public final class NativeCrypto {
                                  SSLHandshakeCallbacks shc, byte[] b, int off, int len,
                                  int writeTimeoutMillis) throws IOException;
 
+    /**
+     * Variant of {@link #SSL_read} which reads into native memory, typically the contents of a
+     * direct {@link java.nio.ByteBuffer}.
+     */
+    static native int SSL_read_direct(long ssl, NativeSsl ssl_holder, FileDescriptor fd,
+                                      SSLHandshakeCallbacks shc, long address, int len,
+                                      int readTimeoutMillis) throws IOException;
+
+    /**
+     * Variant of {@link #SSL_write} which writes from native memory, typically the contents of
+     * a direct {@link java.nio.ByteBuffer}.
+     */
+    static native void SSL_write_direct(long ssl, NativeSsl ssl_holder, FileDescriptor fd,
+                                        SSLHandshakeCallbacks shc, long address, int len,
+                                        int writeTimeoutMillis) throws IOException;
+
+    /**
+     * Moves the encryption of outgoing records of a connection whose handshake has completed
+     * into the kernel (Linux kTLS). Afterwards data must be written with {@link #SSL_write_ktls}
+     * and the connection closed with {@link #SSL_shutdown_ktls}.
+     *
+     * @return {@code false}, leaving the connection unchanged, if the platform, the kernel or
+     *         the negotiated cipher suite does not support it
+     */
+    static native boolean SSL_enable_ktls_tx(long ssl, NativeSsl ssl_holder, FileDescriptor fd)
+            throws IOException;
+
+    /**
+     * Writes to a connection whose outgoing records are encrypted by the kernel.
+     */
+    static native void SSL_write_ktls(long ssl, NativeSsl ssl_holder, FileDescriptor fd, byte[] b,
+                                      int off, int len, int writeTimeoutMillis)
+            throws IOException;
+
+    /**
+     * Variant of {@link #SSL_write_ktls} which writes from native memory.
+     */
+    static native void SSL_write_ktls_direct(long ssl, NativeSsl ssl_holder, FileDescriptor fd,
+                                             long address, int len, int writeTimeoutMillis)
+            throws IOException;
+
+    /**
+     * Sends a close_notify alert on a connection whose outgoing records are encrypted by the
+     * kernel.
+     */
+    static native void SSL_shutdown_ktls(long ssl, NativeSsl ssl_holder, FileDescriptor fd)
+            throws IOException;
+
     static native void SSL_interrupt(long ssl, NativeSsl ssl_holder);
     static native void SSL_shutdown(long ssl, NativeSsl ssl_holder, FileDescriptor fd,
                                     SSLHandshakeCallbacks shc) throws IOException;
@@ -1434,6 +1541,8 @@ public final class NativeCrypto {
 
     static native boolean SSL_SESSION_should_be_single_use(long sslSessionNativePointer);
 
+    static native long SSL_SESSION_get_max_early_data(long sslSessionNativePointer);
+
     static native void SSL_SESSION_up_ref(long sslSessionNativePointer);
 
     static native void SSL_SESSION_free(long sslSessionNativePointer);
@@ -1452,11 +1561,14 @@ public final class NativeCrypto {
          *
          * @param certificateChain chain of X.509 certificates in their encoded form
          * @param authMethod auth algorithm name
+         * @return {@code true} if the chain is trusted, or {@code false} if verification is still
+         *         in progress, in which case the handshake is suspended and this method is called
+         *         again when it is resumed
          *
          * @throws CertificateException if the certificate is untrusted
          */
         @SuppressWarnings("unused")
-        void verifyCertificateChain(byte[][] certificateChain, String authMethod)
+        boolean verifyCertificateChain(byte[][] certificateChain, String authMethod)
                 throws CertificateException;
 
         /**
@@ -1477,10 +1589,12 @@ public final class NativeCrypto {
          * to resume a session is made. This allows the selection of the correct server
          * certificate based on things like Server Name Indication (SNI).
          *
+         * @param offersEarlyData whether the ClientHello offers early data on a pre-shared key
          * @throws IOException if there was an error during certificate selection.
          */
         @SuppressWarnings("unused")
-        void serverCertificateRequested(int[] signatureAlgs) throws IOException;
+        void serverCertificateRequested(int[] signatureAlgs, boolean offersEarlyData)
+                throws IOException;
 
         /**
          * Gets the key to be used in client mode for this connection in Pre-Shared Key (PSK) key
@@ -1544,6 +1658,38 @@ public final class NativeCrypto {
          * @return the index offset of the selected protocol
          */
         @SuppressWarnings("unused") int selectApplicationProtocol(byte[] applicationProtocols);
+
+        /**
+         * Called when the handshake needs a signature from the local private key, if the
+         * certificates were set with {@link #setLocalCertsAndPrivateKeyMethod}.
+         *
+         * @param signatureAlgorithm the TLS signature algorithm, one of the {@code SSL_SIGN_*}
+         *        constants
+         * @param input the message to sign
+         * @return the signature, or {@code null} if the operation is still in progress, in which
+         *         case the handshake is suspended and {@link #privateKeyComplete()} is called when
+         *         it is resumed
+         */
+        @SuppressWarnings("unused")
+        byte[] privateKeySign(int signatureAlgorithm, byte[] input) throws SSLException;
+
+        /**
+         * Called when the handshake needs a raw RSA decryption with the local private key, if the
+         * certificates were set with {@link #setLocalCertsAndPrivateKeyMethod}.
+         *
+         * @param input the ciphertext
+         * @return the plaintext without any padding removed, or {@code null} if the operation is
+         *         still in progress, as for {@link #privateKeySign}
+         */
+        @SuppressWarnings("unused") byte[] privateKeyDecrypt(byte[] input) throws SSLException;
+
+        /**
+         * Called when a suspended handshake is resumed after {@link #privateKeySign} or
+         * {@link #privateKeyDecrypt} returned {@code null}.
+         *
+         * @return the result of the operation, or {@code null} if it is still in progress
+         */
+        @SuppressWarnings("unused") byte[] privateKeyComplete() throws SSLException;
     }
 
     static native String SSL_CIPHER_get_kx_name(long cipherAddress);
@@ -1609,7 +1755,8 @@ public final class NativeCrypto {
      * order to allow to properly handle SSL errors and propagate useful exceptions.
      *
      * @return Returns the SSL error code for the operation when the error was {@code
-     * SSL_ERROR_NONE}, {@code SSL_ERROR_WANT_READ}, or {@code SSL_ERROR_WANT_WRITE}.
+     * SSL_ERROR_NONE}, {@code SSL_ERROR_WANT_READ}, {@code SSL_ERROR_WANT_WRITE}, {@code
+     * SSL_ERROR_WANT_PRIVATE_KEY_OPERATION} or {@code SSL_ERROR_WANT_CERTIFICATE_VERIFY}.
      * @throws IOException when the error code is anything except those returned by this method.
      */
     static native int ENGINE_SSL_do_handshake(long ssl, NativeSsl ssl_holder,
@@ -1655,6 +1802,91 @@ public final class NativeCrypto {
                                                  long address, int len, SSLHandshakeCallbacks shc)
             throws IOException;
 
+    /**
+     * Variant of {@link #ENGINE_SSL_read_direct} which reads into a byte array. The array is
+     * accessed without copying, so its length should be bounded by the size of a TLS record.
+     */
+    static native int ENGINE_SSL_read_heap(long ssl, NativeSsl ssl_holder, byte[] dest,
+                                           int destOffset, int destLength,
+                                           SSLHandshakeCallbacks shc)
+            throws IOException, CertificateException;
+
+    /**
+     * Variant of {@link #ENGINE_SSL_write_direct} which writes from a byte array. The array is
+     * accessed without copying, so its length should be bounded by the size of a TLS record.
+     */
+    static native int ENGINE_SSL_write_heap(long ssl, NativeSsl ssl_holder, byte[] source,
+                                            int sourceOffset, int sourceLength,
+                                            SSLHandshakeCallbacks shc) throws IOException;
+
+    /**
+     * Writes data from the given byte array to the BIO.
+     */
+    static native int ENGINE_SSL_write_BIO_heap(long ssl, NativeSsl ssl_holder, long bioRef,
+                                                byte[] source, int sourceOffset,
+                                                int sourceLength, SSLHandshakeCallbacks shc)
+            throws IOException;
+
+    /**
+     * Reads data from the given BIO into a byte array.
+     */
+    static native int ENGINE_SSL_read_BIO_heap(long ssl, NativeSsl ssl_holder, long bioRef,
+                                               byte[] dest, int destOffset, int destLength,
+                                               SSLHandshakeCallbacks shc) throws IOException;
+
+    /**
+     * Writes a single encrypted record from {@code srcAddress} to the BIO and reads the resulting
+     * plaintext into the given direct memory regions, filling each before moving on to the next
+     * and stopping at the first short read. This combines {@link #ENGINE_SSL_write_BIO_direct},
+     * {@link #ENGINE_SSL_read_direct} and {@link #SSL_pending_readable_bytes} into a single JNI
+     * call.
+     *
+     * @return a packed value that can be decoded with {@link #unwrapBytesConsumed},
+     * {@link #unwrapBytesProduced}, {@link #unwrapSslError} and
+     * {@link #unwrapHasPendingPlaintext}.
+     *
+     * @throws java.io.EOFException if the end of stream has been reached.
+     * @throws SSLException if any other error occurs.
+     */
+    static native long ENGINE_SSL_unwrap_direct(long ssl, NativeSsl ssl_holder, long bioRef,
+                                                long srcAddress, int srcLength,
+                                                long[] dstAddresses, int[] dstLengths,
+                                                int dstCount, SSLHandshakeCallbacks shc)
+            throws IOException, CertificateException;
+
+    /**
+     * Returns the number of encrypted bytes consumed by {@link #ENGINE_SSL_unwrap_direct}.
+     */
+    static int unwrapBytesConsumed(long packedResult) {
+        return (int) ((packedResult >>> 32) & 0x7FFFFF);
+    }
+
+    /**
+     * Returns the number of plaintext bytes produced by {@link #ENGINE_SSL_unwrap_direct}.
+     */
+    static int unwrapBytesProduced(long packedResult) {
+        return (int) packedResult;
+    }
+
+    /**
+     * Returns the SSL error code which stopped {@link #ENGINE_SSL_unwrap_direct}: {@code
+     * SSL_ERROR_NONE}, {@code SSL_ERROR_ZERO_RETURN}, one of the codes which {@link
+     * #ENGINE_SSL_read_direct} returns negated, or {@code SSL_ERROR_SYSCALL} if the read was
+     * interrupted, where {@link #ENGINE_SSL_read_direct} throws an {@link
+     * java.io.InterruptedIOException}.
+     */
+    static int unwrapSslError(long packedResult) {
+        return (int) (packedResult >>> 56);
+    }
+
+    /**
+     * Returns whether plaintext was still pending after {@link #ENGINE_SSL_unwrap_direct}
+     * filled all of the destinations.
+     */
+    static boolean unwrapHasPendingPlaintext(long packedResult) {
+        return ((packedResult >>> 55) & 1) != 0;
+    }
+
     /**
      * Forces the SSL object to process any data pending in the BIO.
      */
@@ -162,6 +162,17 @@ abstract class NativeRef {
         }
     }
 
+    static final class SSL_CREDENTIAL extends NativeRef {
+        SSL_CREDENTIAL(long nativePointer) {
+            super(nativePointer);
+        }
+
+        @Override
+        void doFree(long context) {
+            NativeCrypto.SSL_CREDENTIAL_free(context);
+        }
+    }
+
     static final class SSL_SESSION extends NativeRef {
         SSL_SESSION(long nativePointer) {
             super(nativePointer);
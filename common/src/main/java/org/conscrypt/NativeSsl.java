@@ -36,15 +36,19 @@ import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.SignatureException;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.crypto.BadPaddingException;
 import javax.crypto.SecretKey;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLHandshakeException;
@@ -61,6 +65,12 @@ final class NativeSsl {
     private final AliasChooser aliasChooser;
     private final PSKCallbacks pskCallbacks;
     private X509Certificate[] localCertificates;
+    private boolean offloadPrivateKeyOperations;
+    // Only set when the private key operations are offloaded.
+    private volatile OpenSSLKey localPrivateKey;
+    private volatile PrivateKey localJcaPrivateKey;
+    // Whether outgoing records are encrypted by the kernel rather than by BoringSSL.
+    private volatile boolean kernelTlsTx;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private volatile long ssl;
 
@@ -134,6 +144,30 @@ final class NativeSsl {
         return NativeCrypto.SSL_get_tls_unique(ssl, this);
     }
 
+    void setEarlyDataEnabled(boolean enabled) {
+        NativeCrypto.SSL_set_early_data_enabled(ssl, this, enabled);
+    }
+
+    /**
+     * Returns whether the handshake has returned early so that early data can be written (on a
+     * client) or read (on a server) before it completes.
+     */
+    boolean isInEarlyData() {
+        return NativeCrypto.SSL_in_early_data(ssl, this);
+    }
+
+    boolean isEarlyDataAccepted() {
+        return NativeCrypto.SSL_early_data_accepted(ssl, this);
+    }
+
+    void resetEarlyDataReject() {
+        NativeCrypto.SSL_reset_early_data_reject(ssl, this);
+    }
+
+    byte[] getClientRandom() {
+        return NativeCrypto.SSL_get_client_random(ssl, this);
+    }
+
     byte[] exportKeyingMaterial(String label, byte[] context, int length) throws SSLException {
         if (label == null) {
             throw new NullPointerException("Label is null");
@@ -230,22 +264,43 @@ final class NativeSsl {
         setCertificate(alias);
     }
 
-    private void setCertificate(String alias) throws CertificateEncodingException, SSLException {
+    /**
+     * Sets the certificate chain and private key of {@code alias} as the local credential.
+     *
+     * @return whether the credential was set
+     */
+    private boolean setCertificate(String alias)
+            throws CertificateEncodingException, SSLException {
         if (alias == null) {
-            return;
+            return false;
         }
         X509KeyManager keyManager = parameters.getX509KeyManager();
         if (keyManager == null) {
-            return;
+            return false;
+        }
+        // The OCSP response and SCT list set in initialize() only apply to the legacy
+        // credential, so connections which staple them cannot use a preloaded one.
+        if (!isClient() && !offloadPrivateKeyOperations && parameters.ocspResponse == null
+                && parameters.sctExtension == null) {
+            // Use the credential converted ahead of time, if any.
+            PreloadedCredentials.Credential credential =
+                    parameters.getServerSessionContext().getPreloadedCredential(keyManager,
+                                                                                alias);
+            if (credential != null) {
+                localCertificates = credential.getCertificateChain();
+                NativeCrypto.SSL_add1_credential(ssl, this, credential.getNativeRef());
+                return true;
+            }
         }
         PrivateKey privateKey = keyManager.getPrivateKey(alias);
         if (privateKey == null) {
-            return;
+            return false;
         }
-        localCertificates = keyManager.getCertificateChain(alias);
-        if (localCertificates == null) {
-            return;
+        X509Certificate[] certificates = keyManager.getCertificateChain(alias);
+        if (certificates == null) {
+            return false;
         }
+        localCertificates = certificates;
         int numLocalCerts = localCertificates.length;
         PublicKey publicKey = (numLocalCerts > 0) ? localCertificates[0].getPublicKey() : null;
 
@@ -264,7 +319,66 @@ final class NativeSsl {
         }
 
         // Set the local certs and private key.
-        NativeCrypto.setLocalCertsAndPrivateKey(ssl, this, encodedLocalCerts, key.getNativeRef());
+        if (offloadPrivateKeyOperations) {
+            localPrivateKey = key;
+            localJcaPrivateKey = privateKey;
+            NativeCrypto.setLocalCertsAndPrivateKeyMethod(ssl, this, encodedLocalCerts);
+        } else {
+            NativeCrypto.setLocalCertsAndPrivateKey(ssl, this, encodedLocalCerts,
+                                                    key.getNativeRef());
+        }
+        return true;
+    }
+
+    /**
+     * Sets whether the operations with the local private key are handed to the
+     * {@link SSLHandshakeCallbacks} instead of being performed by BoringSSL. Must be called
+     * before the local certificates are set.
+     */
+    void setOffloadPrivateKeyOperations(boolean offloadPrivateKeyOperations) {
+        this.offloadPrivateKeyOperations = offloadPrivateKeyOperations;
+    }
+
+    /**
+     * Signs {@code input} with the local private key. Only available when the private key
+     * operations are offloaded, and safe to call from any thread.
+     */
+    byte[] signWithLocalPrivateKey(int signatureAlgorithm, byte[] input) {
+        return NativeCrypto.signWithSignatureAlgorithm(
+                getOffloadedPrivateKey().getNativeRef(), signatureAlgorithm, input);
+    }
+
+    /**
+     * Performs a raw RSA decryption of {@code input} with the local private key. Only available
+     * when the private key operations are offloaded, and safe to call from any thread.
+     */
+    byte[] decryptWithLocalPrivateKey(byte[] input)
+            throws BadPaddingException, SignatureException {
+        NativeRef.EVP_PKEY key = getOffloadedPrivateKey().getNativeRef();
+        byte[] output = new byte[NativeCrypto.RSA_size(key)];
+        int length = NativeCrypto.RSA_private_decrypt(input.length, input, output, key,
+                                                      NativeConstants.RSA_NO_PADDING);
+        return length == output.length ? output : Arrays.copyOf(output, length);
+    }
+
+    /**
+     * Returns the local private key as returned by the key manager. Only available when the
+     * private key operations are offloaded.
+     */
+    PrivateKey getLocalPrivateKey() {
+        PrivateKey key = localJcaPrivateKey;
+        if (key == null) {
+            throw new IllegalStateException("Private key operations are not offloaded");
+        }
+        return key;
+    }
+
+    private OpenSSLKey getOffloadedPrivateKey() {
+        OpenSSLKey key = localPrivateKey;
+        if (key == null) {
+            throw new IllegalStateException("Private key operations are not offloaded");
+        }
+        return key;
     }
 
     String getVersion() {
@@ -431,7 +545,9 @@ final class NativeSsl {
 
         enablePSKKeyManagerIfRequested();
 
-        if (parameters.useSessionTickets) {
+        // Servers with their own ticket keys issue tickets to TLS 1.2 clients which ask for them.
+        if (parameters.useSessionTickets
+                || (!isClient() && parameters.getServerSessionContext().hasTicketKeys())) {
             NativeCrypto.SSL_clear_options(ssl, this, SSL_OP_NO_TICKET);
         } else {
             NativeCrypto.SSL_set_options(
@@ -459,12 +575,21 @@ final class NativeSsl {
         }
         X509KeyManager keyManager = parameters.getX509KeyManager();
         if (keyManager != null) {
+            List<String> aliases = new ArrayList<>();
             for (String keyType : getCipherKeyTypes()) {
-                try {
-                    setCertificate(aliasChooser.chooseServerAlias(keyManager, keyType));
-                } catch (CertificateEncodingException e) {
-                    throw new IOException(e);
+                aliases.add(aliasChooser.chooseServerAlias(keyManager, keyType));
+            }
+            // Only one credential is set, so that the served chain is always the one in
+            // localCertificates. As when each alias replaced the previous one, the last alias
+            // which can be used wins.
+            try {
+                for (int i = aliases.size() - 1; i >= 0; i--) {
+                    if (setCertificate(aliases.get(i))) {
+                        break;
+                    }
                 }
+            } catch (CertificateEncodingException e) {
+                throw new IOException(e);
             }
         }
     }
@@ -536,8 +661,44 @@ final class NativeSsl {
             if (isClosed() || fd == null || !fd.valid()) {
                 throw new SocketException("Socket is closed");
             }
-            NativeCrypto.SSL_write(ssl, this, fd, handshakeCallbacks, buf, offset, len,
-                                   timeoutMillis);
+            if (kernelTlsTx) {
+                NativeCrypto.SSL_write_ktls(ssl, this, fd, buf, offset, len, timeoutMillis);
+            } else {
+                NativeCrypto.SSL_write(ssl, this, fd, handshakeCallbacks, buf, offset, len,
+                                       timeoutMillis);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int readDirect(FileDescriptor fd, long address, int len, int timeoutMillis)
+            throws IOException {
+        lock.readLock().lock();
+        try {
+            if (isClosed() || fd == null || !fd.valid()) {
+                throw new SocketException("Socket is closed");
+            }
+            return NativeCrypto.SSL_read_direct(ssl, this, fd, handshakeCallbacks, address, len,
+                                                timeoutMillis);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void writeDirect(FileDescriptor fd, long address, int len, int timeoutMillis)
+            throws IOException {
+        lock.readLock().lock();
+        try {
+            if (isClosed() || fd == null || !fd.valid()) {
+                throw new SocketException("Socket is closed");
+            }
+            if (kernelTlsTx) {
+                NativeCrypto.SSL_write_ktls_direct(ssl, this, fd, address, len, timeoutMillis);
+            } else {
+                NativeCrypto.SSL_write_direct(ssl, this, fd, handshakeCallbacks, address, len,
+                                              timeoutMillis);
+            }
         } finally {
             lock.readLock().unlock();
         }
@@ -625,7 +786,36 @@ final class NativeSsl {
 
     // TODO(nathanmittler): Remove once after we switch to the engine socket.
     void shutdown(FileDescriptor fd) throws IOException {
-        NativeCrypto.SSL_shutdown(ssl, this, fd, handshakeCallbacks);
+        if (kernelTlsTx) {
+            NativeCrypto.SSL_shutdown_ktls(ssl, this, fd);
+        } else {
+            NativeCrypto.SSL_shutdown(ssl, this, fd, handshakeCallbacks);
+        }
+    }
+
+    /**
+     * Tries to move the encryption of outgoing records into the kernel once the handshake has
+     * completed. Must not be called concurrently with {@link #write}.
+     *
+     * @return whether the kernel now encrypts outgoing records
+     */
+    boolean enableKernelTlsTx(FileDescriptor fd) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (isClosed() || fd == null || !fd.valid()) {
+                throw new SocketException("Socket is closed");
+            }
+            if (!kernelTlsTx) {
+                kernelTlsTx = NativeCrypto.SSL_enable_ktls_tx(ssl, this, fd);
+            }
+            return kernelTlsTx;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean isKernelTlsTxEnabled() {
+        return kernelTlsTx;
     }
 
     void shutdown() throws IOException {
@@ -676,6 +866,27 @@ final class NativeSsl {
         }
     }
 
+    int readArray(byte[] dest, int destOffset, int destLength)
+            throws IOException, CertificateException {
+        lock.readLock().lock();
+        try {
+            return NativeCrypto.ENGINE_SSL_read_heap(ssl, this, dest, destOffset, destLength,
+                                                     handshakeCallbacks);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int writeArray(byte[] source, int sourceOffset, int sourceLength) throws IOException {
+        lock.readLock().lock();
+        try {
+            return NativeCrypto.ENGINE_SSL_write_heap(ssl, this, source, sourceOffset,
+                                                      sourceLength, handshakeCallbacks);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     void forceRead() throws IOException {
         lock.readLock().lock();
         try {
@@ -785,6 +996,49 @@ final class NativeSsl {
             }
         }
 
+        int writeArray(byte[] source, int sourceOffset, int sourceLength) throws IOException {
+            lock.readLock().lock();
+            try {
+                if (isClosed()) {
+                    throw new SSLException("Connection closed");
+                }
+                return NativeCrypto.ENGINE_SSL_write_BIO_heap(ssl, NativeSsl.this, bio, source,
+                                                              sourceOffset, sourceLength,
+                                                              handshakeCallbacks);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        int readArray(byte[] dest, int destOffset, int destLength) throws IOException {
+            lock.readLock().lock();
+            try {
+                if (isClosed()) {
+                    throw new SSLException("Connection closed");
+                }
+                return NativeCrypto.ENGINE_SSL_read_BIO_heap(ssl, NativeSsl.this, bio, dest,
+                                                             destOffset, destLength,
+                                                             handshakeCallbacks);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        long unwrapDirect(long srcAddress, int srcLength, long[] dstAddresses, int[] dstLengths,
+                          int dstCount) throws IOException, CertificateException {
+            lock.readLock().lock();
+            try {
+                if (isClosed()) {
+                    throw new SSLException("Connection closed");
+                }
+                return NativeCrypto.ENGINE_SSL_unwrap_direct(ssl, NativeSsl.this, bio, srcAddress,
+                                                             srcLength, dstAddresses, dstLengths,
+                                                             dstCount, handshakeCallbacks);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
         void close() {
             lock.writeLock().lock();
             try {
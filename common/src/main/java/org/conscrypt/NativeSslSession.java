@@ -168,8 +168,20 @@ abstract class NativeSslSession {
      */
     abstract boolean isSingleUse();
 
+    /**
+     * Returns the maximum number of bytes of early data which may be sent when resuming this
+     * session, or zero if it does not allow early data.
+     */
+    abstract long getMaxEarlyData();
+
     abstract void offerToResume(NativeSsl ssl) throws SSLException;
 
+    /**
+     * Returns the address of the native SSL_SESSION after taking a new reference to it, which
+     * the caller must release.
+     */
+    abstract long newNativeReference();
+
     abstract String getCipherSuite();
 
     abstract String getProtocol();
@@ -265,11 +277,22 @@ abstract class NativeSslSession {
             return NativeCrypto.SSL_SESSION_should_be_single_use(ref.address);
         }
 
+        @Override
+        long getMaxEarlyData() {
+            return NativeCrypto.SSL_SESSION_get_max_early_data(ref.address);
+        }
+
         @Override
         void offerToResume(NativeSsl ssl) throws SSLException {
             ssl.offerToResumeSession(ref.address);
         }
 
+        @Override
+        long newNativeReference() {
+            NativeCrypto.SSL_SESSION_up_ref(ref.address);
+            return ref.address;
+        }
+
         @Override
         String getCipherSuite() {
             return cipherSuite;
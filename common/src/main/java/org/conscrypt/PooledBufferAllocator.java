@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+import static org.conscrypt.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link BufferAllocator} which recycles buffers so that they can be shared between many
+ * engines and sockets.
+ *
+ * <p>Requests are rounded up to a power-of-two size class between 512 bytes and 32KiB, which
+ * covers every temporary buffer used for a single TLS record. Released buffers are kept in a
+ * global pool whose total size is bounded; buffers which do not fit are left to the garbage
+ * collector. Direct and heap buffers are pooled separately. Larger requests are allocated
+ * without pooling.
+ *
+ * <p>Released buffers can optionally be kept in a small per-thread cache first, which avoids
+ * contention on the global pool. The per-thread caches are not bounded in aggregate: each thread
+ * which has released buffers keeps up to {@code maxCachedBuffersPerThread} buffers of every size
+ * class, about 64KiB of direct memory and as much heap per cached buffer, until it exits. They
+ * are only suitable for a small, fixed set of threads.
+ */
+@ExperimentalApi
+public final class PooledBufferAllocator extends BufferAllocator {
+    private static final int MIN_SIZE_CLASS_SHIFT = 9;
+    private static final int MAX_SIZE_CLASS_SHIFT = 15;
+    private static final int NUM_SIZE_CLASSES = MAX_SIZE_CLASS_SHIFT - MIN_SIZE_CLASS_SHIFT + 1;
+    // Direct buffers use pools [0, NUM_SIZE_CLASSES), heap buffers the ones after them.
+    private static final int NUM_POOLS = 2 * NUM_SIZE_CLASSES;
+
+    static final long DEFAULT_MAX_POOLED_BYTES = 16L * 1024 * 1024;
+    static final int DEFAULT_MAX_CACHED_BUFFERS_PER_THREAD = 0;
+
+    private final long maxPooledBytes;
+    private final int maxCachedBuffersPerThread;
+    private final BufferLeakDetector leakDetector;
+    private final Arena[] arenas = new Arena[NUM_POOLS];
+    // Null if per-thread caching is disabled.
+    private final ThreadLocal<ThreadCache> threadCache;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesOutstanding = new AtomicLong();
+    private final AtomicLong bytesPooled = new AtomicLong();
+
+    /**
+     * Creates a new allocator.
+     *
+     * @param maxPooledBytes the maximum number of bytes held by the global pool, not counting
+     *        the per-thread caches
+     * @param maxCachedBuffersPerThread the maximum number of buffers of each size class cached
+     *        by each thread, which are not counted against {@code maxPooledBytes}, or zero to
+     *        disable per-thread caching
+     */
+    public PooledBufferAllocator(long maxPooledBytes, int maxCachedBuffersPerThread) {
+        this(maxPooledBytes, maxCachedBuffersPerThread, 0);
+    }
+
+    /**
+     * Creates a new allocator which checks for leaked buffers.
+     *
+     * <p>One in {@code leakDetectionSamplingInterval} pooled buffers, direct or heap, records the
+     * stack trace of its allocation. If such a buffer is garbage collected before it has been
+     * released, the stack trace is logged and the leak is counted in
+     * {@link Stats#getLeaksDetected()}.
+     *
+     * @param maxPooledBytes the maximum number of bytes held by the global pool, not counting
+     *        the per-thread caches
+     * @param maxCachedBuffersPerThread the maximum number of buffers of each size class cached
+     *        by each thread, which are not counted against {@code maxPooledBytes}, or zero to
+     *        disable per-thread caching
+     * @param leakDetectionSamplingInterval track one in this many buffers, {@code 1} to track
+     *        every buffer or zero to disable leak detection
+     */
+    public PooledBufferAllocator(long maxPooledBytes, int maxCachedBuffersPerThread,
+            int leakDetectionSamplingInterval) {
+        checkArgument(maxPooledBytes >= 0, "maxPooledBytes must be non-negative");
+        checkArgument(maxCachedBuffersPerThread >= 0,
+                      "maxCachedBuffersPerThread must be non-negative");
+        checkArgument(leakDetectionSamplingInterval >= 0,
+                      "leakDetectionSamplingInterval must be non-negative");
+        this.maxPooledBytes = maxPooledBytes;
+        this.maxCachedBuffersPerThread = maxCachedBuffersPerThread;
+        this.leakDetector = leakDetectionSamplingInterval > 0
+                ? new BufferLeakDetector(leakDetectionSamplingInterval)
+                : null;
+        for (int i = 0; i < NUM_POOLS; i++) {
+            arenas[i] = new Arena();
+        }
+        this.threadCache = maxCachedBuffersPerThread > 0 ? new ThreadLocal<ThreadCache>() {
+            @Override
+            protected ThreadCache initialValue() {
+                return new ThreadCache(PooledBufferAllocator.this.maxCachedBuffersPerThread);
+            }
+        } : null;
+    }
+
+    @Override
+    public AllocatedBuffer allocateDirectBuffer(int capacity) {
+        return allocate(capacity, true);
+    }
+
+    @Override
+    public AllocatedBuffer allocateHeapBuffer(int capacity) {
+        return allocate(capacity, false);
+    }
+
+    private AllocatedBuffer allocate(int capacity, boolean direct) {
+        checkArgument(capacity >= 0, "capacity must be non-negative");
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass < 0) {
+            misses.incrementAndGet();
+            return AllocatedBuffer.wrap(newBuffer(capacity, direct));
+        }
+
+        int pool = direct ? sizeClass : NUM_SIZE_CLASSES + sizeClass;
+        ByteBuffer buffer = threadCache != null ? threadCache.get().poll(pool) : null;
+        if (buffer == null) {
+            buffer = arenas[pool].free.poll();
+            if (buffer != null) {
+                bytesPooled.addAndGet(-buffer.capacity());
+            }
+        }
+        if (buffer != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            buffer = newBuffer(1 << (sizeClass + MIN_SIZE_CLASS_SHIFT), direct);
+        }
+        bytesOutstanding.addAndGet(buffer.capacity());
+
+        // Present the buffer as if it had been allocated with the requested capacity.
+        buffer.clear();
+        buffer.limit(capacity);
+        PooledBuffer pooled = new PooledBuffer(buffer, pool);
+        if (leakDetector != null) {
+            // Leaked buffers will never be recycled, so stop counting them as outstanding.
+            bytesOutstanding.addAndGet(-leakDetector.drainLeaks());
+            pooled.tracker = leakDetector.track(pooled, buffer.capacity());
+        }
+        return pooled;
+    }
+
+    private static ByteBuffer newBuffer(int capacity, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this allocator.
+     */
+    public Stats getStats() {
+        long leaksDetected = 0;
+        if (leakDetector != null) {
+            bytesOutstanding.addAndGet(-leakDetector.drainLeaks());
+            leaksDetected = leakDetector.getLeakCount();
+        }
+        return new Stats(hits.get(), misses.get(), bytesOutstanding.get(), bytesPooled.get(),
+                leaksDetected);
+    }
+
+    private void recycle(ByteBuffer buffer, int pool) {
+        int size = buffer.capacity();
+        bytesOutstanding.addAndGet(-size);
+        if (threadCache != null && threadCache.get().offer(pool, buffer)) {
+            return;
+        }
+        if (bytesPooled.addAndGet(size) <= maxPooledBytes) {
+            arenas[pool].free.offer(buffer);
+        } else {
+            // The pool is full, leave this buffer to the garbage collector.
+            bytesPooled.addAndGet(-size);
+        }
+    }
+
+    /**
+     * Returns the index of the smallest size class which can hold {@code capacity} bytes, or
+     * {@code -1} if it is larger than the largest size class.
+     */
+    static int sizeClass(int capacity) {
+        if (capacity <= (1 << MIN_SIZE_CLASS_SHIFT)) {
+            return 0;
+        }
+        if (capacity > (1 << MAX_SIZE_CLASS_SHIFT)) {
+            return -1;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(capacity - 1);
+        return shift - MIN_SIZE_CLASS_SHIFT;
+    }
+
+    /**
+     * A point-in-time snapshot of the statistics of a {@link PooledBufferAllocator}.
+     */
+    @ExperimentalApi
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long bytesOutstanding;
+        private final long bytesPooled;
+        private final long leaksDetected;
+
+        Stats(long hits, long misses, long bytesOutstanding, long bytesPooled,
+                long leaksDetected) {
+            this.hits = hits;
+            this.misses = misses;
+            this.bytesOutstanding = bytesOutstanding;
+            this.bytesPooled = bytesPooled;
+            this.leaksDetected = leaksDetected;
+        }
+
+        /**
+         * Returns the number of allocations served by a recycled buffer.
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * Returns the number of allocations which required a new buffer.
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Returns the total capacity of pooled buffers which have been allocated but not yet
+         * released.
+         */
+        public long getBytesOutstanding() {
+            return bytesOutstanding;
+        }
+
+        /**
+         * Returns the total capacity of the buffers held by the global pool.
+         */
+        public long getBytesPooled() {
+            return bytesPooled;
+        }
+
+        /**
+         * Returns the number of sampled buffers which were garbage collected without having
+         * been released. Always zero if leak detection is disabled.
+         */
+        public long getLeaksDetected() {
+            return leaksDetected;
+        }
+
+        @Override
+        public String toString() {
+            return "PooledBufferAllocator.Stats{hits=" + hits + ", misses=" + misses
+                    + ", bytesOutstanding=" + bytesOutstanding + ", bytesPooled=" + bytesPooled
+                    + ", leaksDetected=" + leaksDetected + "}";
+        }
+    }
+
+    private static final class Arena {
+        final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+    }
+
+    private static final class ThreadCache {
+        private final ByteBuffer[][] buffers;
+        private final int[] counts = new int[NUM_POOLS];
+
+        ThreadCache(int maxBuffers) {
+            buffers = new ByteBuffer[NUM_POOLS][maxBuffers];
+        }
+
+        ByteBuffer poll(int pool) {
+            int count = counts[pool];
+            if (count == 0) {
+                return null;
+            }
+            ByteBuffer[] cache = buffers[pool];
+            ByteBuffer buffer = cache[--count];
+            cache[count] = null;
+            counts[pool] = count;
+            return buffer;
+        }
+
+        boolean offer(int pool, ByteBuffer buffer) {
+            int count = counts[pool];
+            ByteBuffer[] cache = buffers[pool];
+            if (count == cache.length) {
+                return false;
+            }
+            cache[count] = buffer;
+            counts[pool] = count + 1;
+            return true;
+        }
+    }
+
+    private final class PooledBuffer extends AllocatedBuffer {
+        private final int pool;
+        private final ByteBuffer buffer;
+        BufferLeakDetector.Tracker tracker;
+
+        PooledBuffer(ByteBuffer buffer, int pool) {
+            this.buffer = buffer;
+            this.pool = pool;
+        }
+
+        @Override
+        public ByteBuffer nioBuffer() {
+            if (refCnt() == 0) {
+                throw new IllegalStateException("Buffer has already been released");
+            }
+            return buffer;
+        }
+
+        @Override
+        protected void deallocate() {
+            if (tracker != null) {
+                tracker.close();
+                tracker = null;
+            }
+            recycle(buffer, pool);
+        }
+    }
+}
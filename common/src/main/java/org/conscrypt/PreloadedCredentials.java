@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+import java.security.InvalidKeyException;
+import java.security.KeyManagementException;
+import java.security.PrivateKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.X509KeyManager;
+
+/**
+ * The server certificate chains and private keys of an {@link X509KeyManager}, converted into
+ * native credentials ahead of time. Handshakes which choose one of these aliases only need to
+ * add the matching credential to their connection, instead of encoding the chain, converting
+ * the key and parsing both again.
+ */
+final class PreloadedCredentials {
+    private static final String[] SERVER_KEY_TYPES = {SSLUtils.KEY_TYPE_RSA,
+                                                      SSLUtils.KEY_TYPE_EC};
+
+    private final X509KeyManager keyManager;
+    private final Map<String, Credential> credentialsByAlias;
+
+    private PreloadedCredentials(X509KeyManager keyManager,
+                                 Map<String, Credential> credentialsByAlias) {
+        this.keyManager = keyManager;
+        this.credentialsByAlias = credentialsByAlias;
+    }
+
+    /**
+     * Creates a credential for every server alias of {@code keyManager} which has both a
+     * private key and a certificate chain.
+     *
+     * @throws KeyManagementException if a certificate chain or key cannot be converted
+     */
+    static PreloadedCredentials load(X509KeyManager keyManager) throws KeyManagementException {
+        Map<String, Credential> credentialsByAlias = new HashMap<String, Credential>();
+        for (String keyType : SERVER_KEY_TYPES) {
+            String[] aliases = keyManager.getServerAliases(keyType, null);
+            if (aliases == null) {
+                continue;
+            }
+            for (String alias : aliases) {
+                if (alias == null || credentialsByAlias.containsKey(alias)) {
+                    continue;
+                }
+                Credential credential = newCredential(keyManager, alias);
+                if (credential != null) {
+                    credentialsByAlias.put(alias, credential);
+                }
+            }
+        }
+        return new PreloadedCredentials(keyManager,
+                                        Collections.unmodifiableMap(credentialsByAlias));
+    }
+
+    private static Credential newCredential(X509KeyManager keyManager, String alias)
+            throws KeyManagementException {
+        PrivateKey privateKey = keyManager.getPrivateKey(alias);
+        X509Certificate[] chain = keyManager.getCertificateChain(alias);
+        if (privateKey == null || chain == null || chain.length == 0) {
+            return null;
+        }
+        try {
+            byte[][] encodedChain = new byte[chain.length][];
+            for (int i = 0; i < chain.length; i++) {
+                encodedChain[i] = chain[i].getEncoded();
+            }
+            OpenSSLKey key =
+                    OpenSSLKey.fromPrivateKeyForTLSStackOnly(privateKey, chain[0].getPublicKey());
+            NativeRef.SSL_CREDENTIAL ref = new NativeRef.SSL_CREDENTIAL(
+                    NativeCrypto.SSL_CREDENTIAL_new_x509(encodedChain, key.getNativeRef()));
+            return new Credential(chain, ref);
+        } catch (CertificateEncodingException | InvalidKeyException | SSLException e) {
+            throw new KeyManagementException("Unable to load credential for alias " + alias, e);
+        }
+    }
+
+    /**
+     * Returns the credential for {@code alias}, or {@code null} if it was not loaded from
+     * {@code keyManager}.
+     */
+    Credential get(X509KeyManager keyManager, String alias) {
+        if (keyManager != this.keyManager) {
+            return null;
+        }
+        return credentialsByAlias.get(alias);
+    }
+
+    int size() {
+        return credentialsByAlias.size();
+    }
+
+    static final class Credential {
+        private final X509Certificate[] certificateChain;
+        private final NativeRef.SSL_CREDENTIAL ref;
+
+        Credential(X509Certificate[] certificateChain, NativeRef.SSL_CREDENTIAL ref) {
+            this.certificateChain = certificateChain;
+            this.ref = ref;
+        }
+
+        X509Certificate[] getCertificateChain() {
+            return certificateChain;
+        }
+
+        NativeRef.SSL_CREDENTIAL getNativeRef() {
+            return ref;
+        }
+    }
+}
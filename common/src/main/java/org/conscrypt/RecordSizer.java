@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+import static org.conscrypt.NativeConstants.SSL3_RT_MAX_PLAIN_LENGTH;
+import static org.conscrypt.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses how much application data is sealed into each outgoing TLS record.
+ *
+ * <p>Records are limited to a maximum send fragment, the full TLS record size by default. With
+ * dynamic record sizing enabled, records are first kept small enough to fit into a single TCP
+ * segment, so that the peer can decrypt the first bytes of a response without waiting for a
+ * full 16KiB record. Once a threshold of bytes has been sent, records grow to the maximum size
+ * for throughput, until the connection has been idle for a while.
+ *
+ * <p>Instances are not thread-safe.
+ */
+final class RecordSizer {
+    /**
+     * Plaintext size of a record which, with the record overhead of common cipher suites, fits
+     * into a TCP segment on a 1500 byte MTU path with IPv6 and TCP options.
+     */
+    static final int SMALL_RECORD_SIZE = 1369;
+    static final int MIN_SEND_FRAGMENT = 512;
+
+    private int maxSendFragment = SSL3_RT_MAX_PLAIN_LENGTH;
+    // Zero when dynamic record sizing is disabled.
+    private long boostThreshold;
+    // Zero when records never shrink again.
+    private long idleTimeoutNanos;
+
+    private long bytesSinceIdle;
+    private long lastWriteNanos;
+
+    /**
+     * Sets the maximum amount of application data in a record.
+     */
+    void setMaxSendFragment(int maxSendFragment) {
+        checkArgument(maxSendFragment >= MIN_SEND_FRAGMENT
+                              && maxSendFragment <= SSL3_RT_MAX_PLAIN_LENGTH,
+                      "maxSendFragment must be between " + MIN_SEND_FRAGMENT + " and "
+                              + SSL3_RT_MAX_PLAIN_LENGTH + ": %d",
+                      maxSendFragment);
+        this.maxSendFragment = maxSendFragment;
+    }
+
+    /**
+     * Enables dynamic record sizing, or disables it if {@code boostThreshold} is zero.
+     *
+     * @param boostThreshold the number of bytes sent in small records before records grow to
+     *        the maximum send fragment
+     * @param idleTimeoutMillis the time without writes after which records are small again, or
+     *        zero to keep records at the maximum send fragment once they have grown
+     */
+    void setDynamicRecordSizing(long boostThreshold, long idleTimeoutMillis) {
+        checkArgument(boostThreshold >= 0, "boostThreshold must be non-negative: %d",
+                      boostThreshold);
+        checkArgument(idleTimeoutMillis >= 0, "idleTimeoutMillis must be non-negative: %d",
+                      idleTimeoutMillis);
+        this.boostThreshold = boostThreshold;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.bytesSinceIdle = 0;
+    }
+
+    /**
+     * Returns whether every record may be filled up to the maximum TLS record size, in which
+     * case callers can skip splitting their writes.
+     */
+    boolean isDefault() {
+        return boostThreshold == 0 && maxSendFragment == SSL3_RT_MAX_PLAIN_LENGTH;
+    }
+
+    /**
+     * Returns the maximum amount of application data to seal into the next record.
+     */
+    int nextRecordSize() {
+        return boostThreshold == 0 ? maxSendFragment : nextRecordSize(System.nanoTime());
+    }
+
+    int nextRecordSize(long nowNanos) {
+        if (boostThreshold == 0) {
+            return maxSendFragment;
+        }
+        if (idleTimeoutNanos > 0 && bytesSinceIdle > 0
+                && nowNanos - lastWriteNanos > idleTimeoutNanos) {
+            // The congestion window may have shrunk while the connection was idle.
+            bytesSinceIdle = 0;
+        }
+        return bytesSinceIdle < boostThreshold ? Math.min(SMALL_RECORD_SIZE, maxSendFragment)
+                                               : maxSendFragment;
+    }
+
+    /**
+     * Records that a record with {@code length} bytes of application data has been sealed.
+     */
+    void onRecordWritten(int length) {
+        if (boostThreshold != 0) {
+            onRecordWritten(length, System.nanoTime());
+        }
+    }
+
+    void onRecordWritten(int length, long nowNanos) {
+        bytesSinceIdle += length;
+        lastWriteNanos = nowNanos;
+    }
+}
@@ -81,6 +81,11 @@ final class SSLNullSession implements ConscryptSession, Cloneable {
         return null;
     }
 
+    @Override
+    public EarlyDataStatus getEarlyDataStatus() {
+        return EarlyDataStatus.NOT_ATTEMPTED;
+    }
+
     @Override
     public String getCipherSuite() {
         return INVALID_CIPHER;
@@ -108,6 +108,7 @@ final class SSLParametersImpl implements Cloneable {
 
     byte[] applicationProtocols = EmptyArray.BYTE;
     ApplicationProtocolSelectorAdapter applicationProtocolSelector;
+    AsyncCertificateVerifier asyncCertificateVerifier;
     boolean useSessionTickets;
     private Boolean useSni;
 
@@ -237,6 +238,7 @@ final class SSLParametersImpl implements Cloneable {
                 ? null
                 : sslParams.applicationProtocols.clone();
         this.applicationProtocolSelector = sslParams.applicationProtocolSelector;
+        this.asyncCertificateVerifier = sslParams.asyncCertificateVerifier;
         this.useSessionTickets = sslParams.useSessionTickets;
         this.useSni = sslParams.useSni;
         this.channelIdEnabled = sslParams.channelIdEnabled;
@@ -407,6 +409,20 @@ final class SSLParametersImpl implements Cloneable {
         return applicationProtocolSelector;
     }
 
+    /*
+     * Sets or clears the verifier used instead of the trust manager to verify the peer.
+     */
+    void setAsyncCertificateVerifier(AsyncCertificateVerifier asyncCertificateVerifier) {
+        this.asyncCertificateVerifier = asyncCertificateVerifier;
+    }
+
+    /*
+     * Returns the verifier used instead of the trust manager, or null if there is none.
+     */
+    AsyncCertificateVerifier getAsyncCertificateVerifier() {
+        return asyncCertificateVerifier;
+    }
+
     /*
      * Tunes the peer holding this parameters to work in client mode.
      */
@@ -174,10 +174,10 @@ final class SSLUtils {
             Integer.MAX_VALUE - MAX_ENCRYPTION_OVERHEAD_LENGTH;
 
     /** Key type: RSA certificate. */
-    private static final String KEY_TYPE_RSA = "RSA";
+    static final String KEY_TYPE_RSA = "RSA";
 
     /** Key type: Elliptic Curve certificate. */
-    private static final String KEY_TYPE_EC = "EC";
+    static final String KEY_TYPE_EC = "EC";
 
     static X509Certificate[] decodeX509CertificateChain(byte[][] certChain)
             throws java.security.cert.CertificateException {
@@ -16,7 +16,17 @@
 
 package org.conscrypt;
 
+import static org.conscrypt.Preconditions.checkArgument;
+import static org.conscrypt.Preconditions.checkNotNull;
+
+import java.security.KeyManagementException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.X509KeyManager;
 
 /**
  * Caches server sessions. Indexes by session ID. Users typically look up
@@ -24,19 +34,35 @@ import javax.net.ssl.SSLContext;
  */
 @Internal
 public final class ServerSessionContext extends AbstractSessionContext {
-    private SSLServerSessionCache persistentCache;
+    private static final Logger logger = Logger.getLogger(ServerSessionContext.class.getName());
 
-    ServerSessionContext() {
-        super(100);
+    /**
+     * The length of a session ticket key: a 16-byte key name, a 16-byte HMAC-SHA256 secret and
+     * a 16-byte AES-128 key.
+     */
+    static final int TICKET_KEY_LENGTH = 48;
 
-        // TODO make sure SSL_CTX does not automaticaly clear sessions we want it to cache
-        // SSL_CTX_set_session_cache_mode(sslCtxNativePointer, SSL_SESS_CACHE_NO_AUTO_CLEAR);
+    /**
+     * The maximum number of TLS 1.3 tickets BoringSSL sends after a handshake.
+     */
+    static final int MAX_TICKET_COUNT = 16;
 
-        // TODO remove SSL_CTX session cache limit so we can manage it
-        // SSL_CTX_sess_set_cache_size(sslCtxNativePointer, 0);
+    private volatile SSLServerSessionCache persistentCache;
 
-        // TODO override trimToSize and removeEldestEntry to use
-        // SSL_CTX_sessions to remove from native cache
+    private final Object ticketKeysLock = new Object();
+    // The keys installed in the native context, empty if BoringSSL's own keys are used. Written
+    // under ticketKeysLock.
+    private volatile byte[][] ticketKeys = new byte[0][];
+    private volatile SessionTicketKeyCallback ticketKeyCallback;
+
+    // Server credentials converted ahead of handshakes, or null if there are none.
+    private volatile PreloadedCredentials preloadedCredentials;
+
+    ServerSessionContext() {
+        super(100);
+
+        // The native session cache is disabled, so this context is the only place where
+        // sessions are cached and looked up by ID.
 
         // Set a trivial session id context. OpenSSL uses this to make
         // sure you don't reuse sessions externalized with i2d_SSL_SESSION
@@ -53,6 +79,139 @@ public final class ServerSessionContext extends AbstractSessionContext {
         this.persistentCache = persistentCache;
     }
 
+    /**
+     * Returns the number of times a client asked to resume a session by its ID, which TLS 1.2
+     * clients do when they have no session ticket.
+     */
+    public long getSessionLookupCount() {
+        return getLookupCount();
+    }
+
+    /**
+     * Returns the number of requests counted by {@link #getSessionLookupCount()} for which a
+     * valid session was found, either in memory or in the persistent cache. The ratio of the
+     * two is the ID-based resumption rate of this context.
+     */
+    public long getSessionLookupHitCount() {
+        return getLookupHitCount();
+    }
+
+    /**
+     * Looks up the session which a client asked to resume.
+     *
+     * @return a new reference to the native SSL_SESSION, which is handed to BoringSSL, or
+     *         {@code 0} if there is no valid session with that ID
+     */
+    long getSessionForResumption(byte[] sessionId) {
+        NativeSslSession session = getSessionFromCache(sessionId);
+        recordLookup(session != null);
+        if (session == null) {
+            return 0;
+        }
+        return session.newNativeReference();
+    }
+
+    /**
+     * Applications should not use this method. Instead use {@link
+     * Conscrypt#setSessionTicketKeys(SSLContext, byte[]...)}.
+     */
+    public void setTicketKeys(byte[]... keys) {
+        installTicketKeys(copyTicketKeys(keys));
+    }
+
+    /**
+     * Returns whether keys were installed with {@link #setTicketKeys(byte[]...)} or by a
+     * {@link SessionTicketKeyCallback}, in which case tickets are issued to TLS 1.2 clients too.
+     */
+    boolean hasTicketKeys() {
+        return ticketKeys.length > 0;
+    }
+
+    /**
+     * Applications should not use this method. Instead use {@link
+     * Conscrypt#preloadServerCredentials(SSLContext, X509KeyManager)}.
+     */
+    public void preloadCredentials(X509KeyManager keyManager) throws KeyManagementException {
+        preloadedCredentials = keyManager != null ? PreloadedCredentials.load(keyManager) : null;
+    }
+
+    /**
+     * Returns the preloaded credential for the given alias of the given key manager, or
+     * {@code null} if there is none.
+     */
+    PreloadedCredentials.Credential getPreloadedCredential(X509KeyManager keyManager,
+                                                           String alias) {
+        PreloadedCredentials credentials = preloadedCredentials;
+        return credentials != null ? credentials.get(keyManager, alias) : null;
+    }
+
+    /**
+     * Applications should not use this method. Instead use {@link
+     * Conscrypt#setSessionTicketCount(SSLContext, int)}.
+     */
+    public void setTicketCount(int count) {
+        checkArgument(count >= 0 && count <= MAX_TICKET_COUNT,
+                      "count must be between 0 and 16");
+        setNativeTicketCount(count);
+    }
+
+    /**
+     * Applications should not use this method. Instead use {@link
+     * Conscrypt#setSessionTicketKeyCallback(SSLContext, SessionTicketKeyCallback)}.
+     */
+    public void setTicketKeyCallback(SessionTicketKeyCallback callback) {
+        if (callback != null) {
+            installTicketKeys(copyTicketKeys(callback.getTicketKeys()));
+        }
+        ticketKeyCallback = callback;
+    }
+
+    @Override
+    long newSsl() throws SSLException {
+        SessionTicketKeyCallback callback = ticketKeyCallback;
+        if (callback != null) {
+            refreshTicketKeys(callback);
+        }
+        return super.newSsl();
+    }
+
+    private void refreshTicketKeys(SessionTicketKeyCallback callback) {
+        byte[][] keys;
+        try {
+            keys = copyTicketKeys(callback.getTicketKeys());
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Invalid session ticket keys, keeping the current keys", e);
+            return;
+        }
+        if (!Arrays.deepEquals(keys, ticketKeys)) {
+            installTicketKeys(keys);
+        }
+    }
+
+    private void installTicketKeys(byte[][] keys) {
+        byte[] concatenated = new byte[keys.length * TICKET_KEY_LENGTH];
+        for (int i = 0; i < keys.length; i++) {
+            System.arraycopy(keys[i], 0, concatenated, i * TICKET_KEY_LENGTH, TICKET_KEY_LENGTH);
+        }
+        synchronized (ticketKeysLock) {
+            setNativeTicketKeys(concatenated);
+            ticketKeys = keys;
+        }
+        Arrays.fill(concatenated, (byte) 0);
+    }
+
+    private static byte[][] copyTicketKeys(byte[][] keys) {
+        checkNotNull(keys, "keys");
+        byte[][] copy = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            checkNotNull(keys[i], "keys");
+            checkArgument(keys[i].length == TICKET_KEY_LENGTH,
+                          "Session ticket keys must be 48 bytes long");
+            copy[i] = keys[i].clone();
+        }
+        return copy;
+    }
+
     @Override
     NativeSslSession getSessionFromPersistentCache(byte[] sessionId) {
         if (persistentCache != null) {
@@ -60,10 +219,12 @@ public final class ServerSessionContext extends AbstractSessionContext {
             if (data != null) {
                 NativeSslSession session = NativeSslSession.newInstance(this, data, null, -1);
                 if (session != null && session.isValid()) {
+                    recordPersistentLookup(true);
                     cacheSession(session);
                     return session;
                 }
             }
+            recordPersistentLookup(false);
         }
 
         return null;
@@ -71,11 +232,18 @@ public final class ServerSessionContext extends AbstractSessionContext {
 
     @Override
     void onBeforeAddSession(NativeSslSession session) {
-        // TODO: Do this in background thread.
         if (persistentCache != null) {
+            persistSession(new ByteArray(session.getId()), session);
+        }
+    }
+
+    @Override
+    void writeToPersistentCache(NativeSslSession session) {
+        SSLServerSessionCache cache = persistentCache;
+        if (cache != null) {
             byte[] data = session.toBytes();
             if (data != null) {
-                persistentCache.putSessionData(session.toSSLSession(), data);
+                cache.putSessionData(session.toSSLSession(), data);
             }
         }
     }
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+/**
+ * A point-in-time snapshot of the statistics of a client or server session cache.
+ *
+ * @see Conscrypt#getSessionCacheStats(javax.net.ssl.SSLSessionContext)
+ */
+@ExperimentalApi
+public final class SessionCacheStats {
+    private final int size;
+    private final int maximumSize;
+    private final long lookups;
+    private final long hits;
+    private final long persistentLookups;
+    private final long persistentHits;
+    private final long evictions;
+    private final long expirations;
+    private final int pendingPersistentWrites;
+    private final long droppedPersistentWrites;
+
+    SessionCacheStats(int size, int maximumSize, long lookups, long hits, long persistentLookups,
+            long persistentHits, long evictions, long expirations, int pendingPersistentWrites,
+            long droppedPersistentWrites) {
+        this.size = size;
+        this.maximumSize = maximumSize;
+        this.lookups = lookups;
+        this.hits = hits;
+        this.persistentLookups = persistentLookups;
+        this.persistentHits = persistentHits;
+        this.evictions = evictions;
+        this.expirations = expirations;
+        this.pendingPersistentWrites = pendingPersistentWrites;
+        this.droppedPersistentWrites = droppedPersistentWrites;
+    }
+
+    /**
+     * Returns the number of sessions held in memory.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of sessions held in memory, or zero if there is no limit.
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the number of handshakes which looked for a session to resume.
+     */
+    public long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * Returns the number of lookups which found a session, either in memory or in the
+     * persistent cache.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the ratio of hits to lookups, or zero if there were no lookups.
+     */
+    public double getHitRate() {
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    /**
+     * Returns the number of lookups which missed the in-memory cache and consulted the
+     * persistent cache.
+     */
+    public long getPersistentLookups() {
+        return persistentLookups;
+    }
+
+    /**
+     * Returns the number of persistent cache lookups which found a usable session.
+     */
+    public long getPersistentHits() {
+        return persistentHits;
+    }
+
+    /**
+     * Returns the ratio of persistent cache hits to persistent cache lookups, or zero if the
+     * persistent cache was never consulted.
+     */
+    public double getPersistentHitRate() {
+        return persistentLookups > 0 ? (double) persistentHits / persistentLookups : 0;
+    }
+
+    /**
+     * Returns the number of sessions removed from memory to stay within the maximum size.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of sessions removed from memory because they had timed out.
+     */
+    public long getExpirations() {
+        return expirations;
+    }
+
+    /**
+     * Returns the number of sessions waiting to be written to the persistent cache in the
+     * background.
+     */
+    public int getPendingPersistentWrites() {
+        return pendingPersistentWrites;
+    }
+
+    /**
+     * Returns the number of sessions which were not written to the persistent cache because
+     * too many writes were pending.
+     */
+    public long getDroppedPersistentWrites() {
+        return droppedPersistentWrites;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionCacheStats{size=" + size + ", maximumSize=" + maximumSize
+                + ", lookups=" + lookups + ", hits=" + hits
+                + ", persistentLookups=" + persistentLookups
+                + ", persistentHits=" + persistentHits + ", evictions=" + evictions
+                + ", expirations=" + expirations
+                + ", pendingPersistentWrites=" + pendingPersistentWrites
+                + ", droppedPersistentWrites=" + droppedPersistentWrites + "}";
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+import static org.conscrypt.Preconditions.checkArgument;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes sessions to the persistent cache of a session context on a background thread, so that
+ * slow storage does not add to handshake latency.
+ *
+ * <p>Pending writes are keyed, by host and port for clients and by session ID for servers, and
+ * a write for a key which is still pending replaces the older one. At most
+ * {@code maxPendingWrites} writes are pending at once; when that many are queued the oldest is
+ * dropped to make room, since its session is the most likely to be stale.
+ *
+ * <p>All writers share a single daemon thread, which exits when it has been idle for a while.
+ */
+final class SessionCacheWriter {
+    private static final Logger logger = Logger.getLogger(SessionCacheWriter.class.getName());
+
+    private static final Executor EXECUTOR = newExecutor();
+
+    private final AbstractSessionContext context;
+    private final int maxPendingWrites;
+    // Guarded by itself.
+    private final LinkedHashMap<Object, NativeSslSession> pending =
+            new LinkedHashMap<Object, NativeSslSession>();
+    // Whether a drain task has been submitted and not yet finished. Guarded by pending.
+    private boolean draining;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    SessionCacheWriter(AbstractSessionContext context, int maxPendingWrites) {
+        checkArgument(maxPendingWrites > 0, "maxPendingWrites must be positive");
+        this.context = context;
+        this.maxPendingWrites = maxPendingWrites;
+    }
+
+    private static Executor newExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "conscrypt-session-cache-writer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Queues {@code session} to be written, replacing any pending write for the same key.
+     */
+    void enqueue(Object key, NativeSslSession session) {
+        synchronized (pending) {
+            if (pending.put(key, session) == null && pending.size() > maxPendingWrites) {
+                Iterator<NativeSslSession> eldest = pending.values().iterator();
+                eldest.next();
+                eldest.remove();
+                dropped.incrementAndGet();
+            }
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        EXECUTOR.execute(drainTask);
+    }
+
+    /**
+     * Returns the number of writes which are waiting to be performed.
+     */
+    int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Returns the number of writes dropped because too many were pending.
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void drain() {
+        while (true) {
+            NativeSslSession session;
+            synchronized (pending) {
+                Iterator<NativeSslSession> i = pending.values().iterator();
+                if (!i.hasNext()) {
+                    draining = false;
+                    return;
+                }
+                session = i.next();
+                i.remove();
+            }
+            try {
+                context.writeToPersistentCache(session);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to write session to the persistent cache", e);
+            }
+        }
+    }
+}
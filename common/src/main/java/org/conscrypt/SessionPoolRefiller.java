@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+/**
+ * Tops up the client session pool of a host when it runs low, typically by making a handshake
+ * with that host in the background so that its server issues new session tickets.
+ *
+ * <p>TLS 1.3 session tickets can only be used once, so a burst of parallel connections to the
+ * same host drains its pool quickly. Conscrypt cannot make connections on its own, so it asks
+ * the application to do so through this callback.
+ *
+ * @see Conscrypt#setClientSessionPoolRefiller(javax.net.ssl.SSLContext, SessionPoolRefiller,
+ *      int)
+ */
+@ExperimentalApi
+public interface SessionPoolRefiller {
+    /**
+     * Called when a handshake leaves fewer sessions than the threshold in the pool of the
+     * given host and port. It is not called again for that host and port until a new session
+     * has been cached for it.
+     *
+     * <p>This is called on the handshake thread and must not block; implementations should
+     * hand the work to another thread.
+     */
+    void refill(String host, int port);
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+/**
+ * A point-in-time snapshot of how well the client session pool of one host and port serves
+ * handshakes.
+ *
+ * @see Conscrypt#getClientSessionPoolStats(javax.net.ssl.SSLContext, String, int)
+ */
+@ExperimentalApi
+public final class SessionPoolStats {
+    private final long hits;
+    private final long misses;
+    private final int availableSessions;
+
+    SessionPoolStats(long hits, long misses, int availableSessions) {
+        this.hits = hits;
+        this.misses = misses;
+        this.availableSessions = availableSessions;
+    }
+
+    /**
+     * Returns the number of handshakes which were offered a cached session.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of handshakes for which no suitable session was cached.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of sessions currently cached for the host and port.
+     */
+    public int getAvailableSessions() {
+        return availableSessions;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionPoolStats{hits=" + hits + ", misses=" + misses
+                + ", availableSessions=" + availableSessions + "}";
+    }
+}
@@ -44,6 +44,7 @@ final class SessionSnapshot implements ConscryptSession {
     private final int peerPort;
     private final String[] peerSupportedSignatureAlgorithms;
     private final String[] localSupportedSignatureAlgorithms;
+    private final EarlyDataStatus earlyDataStatus;
 
     SessionSnapshot(ConscryptSession session) {
         sessionContext = session.getSessionContext();
@@ -60,6 +61,7 @@ final class SessionSnapshot implements ConscryptSession {
         applicationProtocol = session.getApplicationProtocol();
         peerSupportedSignatureAlgorithms = session.getPeerSupportedSignatureAlgorithms();
         localSupportedSignatureAlgorithms = session.getLocalSupportedSignatureAlgorithms();
+        earlyDataStatus = session.getEarlyDataStatus();
     }
 
     @Override
@@ -212,4 +214,9 @@ final class SessionSnapshot implements ConscryptSession {
         return localSupportedSignatureAlgorithms != null ? localSupportedSignatureAlgorithms.clone()
                                                          : new String[0];
     }
+
+    @Override
+    public EarlyDataStatus getEarlyDataStatus() {
+        return earlyDataStatus;
+    }
 }
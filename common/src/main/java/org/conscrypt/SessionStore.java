@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded map from session ID to session which many handshakes can use at once.
+ *
+ * <p>Entries are spread over independently locked segments so that threads working on different
+ * sessions rarely contend. Each segment keeps its entries in insertion order and every entry is
+ * stamped with a global sequence number; when the store is over capacity the entry with the
+ * lowest sequence number among the heads of the segments is evicted, so eviction follows
+ * insertion order as it did with a single {@link LinkedHashMap}.
+ *
+ * <p>Methods which remove sessions return them rather than calling back into the owning
+ * context, so that callers can notify listeners without holding any segment lock.
+ */
+final class SessionStore {
+    private static final int MAX_SEGMENTS = 64;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile int maximumSize;
+
+    SessionStore(int maximumSize) {
+        this(maximumSize, defaultSegmentCount());
+    }
+
+    SessionStore(int maximumSize, int segmentCount) {
+        if (segmentCount <= 0 || Integer.bitCount(segmentCount) != 1) {
+            throw new IllegalArgumentException("segmentCount must be a power of two");
+        }
+        this.maximumSize = maximumSize;
+        this.segments = new Segment[segmentCount];
+        this.segmentMask = segmentCount - 1;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Returns the smallest power of two which is at least twice the number of processors, up to
+     * {@link #MAX_SEGMENTS}.
+     */
+    private static int defaultSegmentCount() {
+        int target = Math.min(MAX_SEGMENTS, 2 * Runtime.getRuntime().availableProcessors());
+        return Integer.highestOneBit(Math.max(1, target - 1)) << 1;
+    }
+
+    /**
+     * Sets the maximum number of sessions, or zero for no limit. Call {@link #evictExcess()}
+     * afterwards to trim the store.
+     */
+    void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    NativeSslSession get(ByteArray key) {
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * Adds a session, replacing any session with the same ID.
+     *
+     * @return the replaced session, or {@code null}
+     */
+    NativeSslSession put(ByteArray key, NativeSslSession session) {
+        NativeSslSession previous =
+                segmentFor(key).put(key, new Entry(session, sequence.getAndIncrement()));
+        if (previous == null) {
+            size.incrementAndGet();
+        }
+        return previous;
+    }
+
+    /**
+     * Removes the session with the given ID.
+     *
+     * @return the removed session, or {@code null}
+     */
+    NativeSslSession remove(ByteArray key) {
+        NativeSslSession removed = segmentFor(key).remove(key, null);
+        if (removed != null) {
+            size.decrementAndGet();
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the session with the given ID only if it is {@code session}.
+     *
+     * @return whether the session was removed
+     */
+    boolean remove(ByteArray key, NativeSslSession session) {
+        if (segmentFor(key).remove(key, session) != null) {
+            size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evicts the oldest sessions until the store is within its maximum size.
+     *
+     * @return the evicted sessions
+     */
+    List<NativeSslSession> evictExcess() {
+        List<NativeSslSession> evicted = Collections.emptyList();
+        int max;
+        while ((max = maximumSize) > 0 && size.get() > max) {
+            Segment eldest = null;
+            long eldestSequence = Long.MAX_VALUE;
+            for (Segment segment : segments) {
+                long headSequence = segment.headSequence;
+                if (headSequence < eldestSequence) {
+                    eldestSequence = headSequence;
+                    eldest = segment;
+                }
+            }
+            if (eldest == null) {
+                break;
+            }
+            // Fails if another thread changed the head of the segment, in which case we simply
+            // look again.
+            NativeSslSession session = eldest.removeHead(eldestSequence);
+            if (session != null) {
+                size.decrementAndGet();
+                if (evicted.isEmpty()) {
+                    evicted = new ArrayList<NativeSslSession>();
+                }
+                evicted.add(session);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Removes every session which is no longer valid.
+     *
+     * @return the removed sessions
+     */
+    List<NativeSslSession> removeInvalid() {
+        List<NativeSslSession> removed = new ArrayList<NativeSslSession>();
+        for (Segment segment : segments) {
+            int count = segment.removeInvalid(removed);
+            size.addAndGet(-count);
+        }
+        return removed;
+    }
+
+    /**
+     * Returns a snapshot of the sessions, segment by segment.
+     */
+    List<NativeSslSession> values() {
+        List<NativeSslSession> values = new ArrayList<NativeSslSession>(size.get());
+        for (Segment segment : segments) {
+            segment.addValuesTo(values);
+        }
+        return values;
+    }
+
+    private Segment segmentFor(ByteArray key) {
+        // Session IDs are random, but spread the hash in case they are not.
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & segmentMask];
+    }
+
+    private static final class Entry {
+        final NativeSslSession session;
+        final long sequence;
+
+        Entry(NativeSslSession session, long sequence) {
+            this.session = session;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class Segment {
+        private final LinkedHashMap<ByteArray, Entry> entries =
+                new LinkedHashMap<ByteArray, Entry>();
+        // The sequence number of the eldest entry, read without the lock when choosing which
+        // segment to evict from.
+        volatile long headSequence = Long.MAX_VALUE;
+
+        synchronized NativeSslSession get(ByteArray key) {
+            Entry entry = entries.get(key);
+            return entry == null ? null : entry.session;
+        }
+
+        synchronized NativeSslSession put(ByteArray key, Entry entry) {
+            // Remove first so that the new entry moves to the end of the insertion order.
+            Entry previous = entries.remove(key);
+            entries.put(key, entry);
+            updateHeadSequence();
+            return previous == null ? null : previous.session;
+        }
+
+        /**
+         * Removes the entry for {@code key}, only if it holds {@code expected} unless that is
+         * {@code null}.
+         */
+        synchronized NativeSslSession remove(ByteArray key, NativeSslSession expected) {
+            Entry entry = entries.get(key);
+            if (entry == null || (expected != null && entry.session != expected)) {
+                return null;
+            }
+            entries.remove(key);
+            updateHeadSequence();
+            return entry.session;
+        }
+
+        synchronized NativeSslSession removeHead(long expectedSequence) {
+            if (entries.isEmpty()) {
+                return null;
+            }
+            Iterator<Entry> i = entries.values().iterator();
+            Entry head = i.next();
+            if (head.sequence != expectedSequence) {
+                return null;
+            }
+            i.remove();
+            updateHeadSequence();
+            return head.session;
+        }
+
+        synchronized int removeInvalid(List<NativeSslSession> removed) {
+            int count = 0;
+            Iterator<Entry> i = entries.values().iterator();
+            while (i.hasNext()) {
+                NativeSslSession session = i.next().session;
+                if (!session.isValid()) {
+                    i.remove();
+                    removed.add(session);
+                    count++;
+                }
+            }
+            if (count > 0) {
+                updateHeadSequence();
+            }
+            return count;
+        }
+
+        synchronized void addValuesTo(List<NativeSslSession> values) {
+            for (Entry entry : entries.values()) {
+                values.add(entry.session);
+            }
+        }
+
+        private void updateHeadSequence() {
+            headSequence = entries.isEmpty()
+                    ? Long.MAX_VALUE
+                    : entries.values().iterator().next().sequence;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.conscrypt;
+
+/**
+ * Supplies the session ticket keys of a server context, for example from a file shared by a
+ * fleet of servers or from a key management service. The callback is consulted before every
+ * handshake and the keys are reinstalled whenever they change, so rotating keys only requires
+ * returning a new set.
+ *
+ * <p>Implementations must be thread-safe and fast, typically returning keys which are refreshed
+ * in the background.
+ *
+ * @see Conscrypt#setSessionTicketKeyCallback(javax.net.ssl.SSLContext, SessionTicketKeyCallback)
+ */
+@ExperimentalApi
+public interface SessionTicketKeyCallback {
+    /**
+     * Returns the current session ticket keys, in the format accepted by
+     * {@link Conscrypt#setSessionTicketKeys(javax.net.ssl.SSLContext, byte[]...)}. If this
+     * method throws or returns {@code null} the previously installed keys are kept.
+     */
+    byte[][] getTicketKeys();
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.conscrypt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class InMemoryAntiReplayStoreTest {
+    private static final byte[] FIRST = new byte[] {1, 2, 3};
+    private static final byte[] SECOND = new byte[] {4, 5, 6};
+
+    @Test
+    public void replayIsRefused() {
+        InMemoryAntiReplayStore store = new InMemoryAntiReplayStore(1000, 10);
+        assertTrue(store.tryAccept(FIRST, 0));
+        assertFalse(store.tryAccept(FIRST.clone(), 1));
+        assertTrue(store.tryAccept(SECOND, 2));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void entriesExpireAfterWindow() {
+        InMemoryAntiReplayStore store = new InMemoryAntiReplayStore(1000, 10);
+        assertTrue(store.tryAccept(FIRST, 0));
+        assertTrue(store.tryAccept(SECOND, 500));
+        assertFalse(store.tryAccept(FIRST, 999));
+
+        assertTrue(store.tryAccept(FIRST, 1000));
+        assertEquals(2, store.size());
+        assertFalse(store.tryAccept(SECOND, 1499));
+    }
+
+    @Test
+    public void fullStoreRefusesNewEntries() {
+        InMemoryAntiReplayStore store = new InMemoryAntiReplayStore(1000, 1);
+        assertTrue(store.tryAccept(FIRST, 0));
+        assertFalse(store.tryAccept(SECOND, 1));
+        assertTrue(store.tryAccept(SECOND, 1000));
+    }
+
+    @Test
+    public void storedIdIsCopied() {
+        InMemoryAntiReplayStore store = new InMemoryAntiReplayStore(1000, 10);
+        byte[] id = FIRST.clone();
+        assertTrue(store.tryAccept(id, 0));
+        id[0] = 42;
+        assertFalse(store.tryAccept(FIRST, 1));
+    }
+
+    @Test
+    public void invalidArgumentsShouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new InMemoryAntiReplayStore(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new InMemoryAntiReplayStore(1000, 0));
+        assertThrows(NullPointerException.class,
+                      () -> new InMemoryAntiReplayStore().tryAccept(null));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.conscrypt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLEngineResult.Status;
+
+@RunWith(JUnit4.class)
+public class MutableEngineResultTest {
+    @Test
+    public void emptyResultsAreShared() {
+        MutableEngineResult result = new MutableEngineResult();
+        result.set(Status.BUFFER_UNDERFLOW, HandshakeStatus.NEED_UNWRAP, 0, 0);
+        SSLEngineResult first = result.toSSLEngineResult();
+        assertEquals(Status.BUFFER_UNDERFLOW, first.getStatus());
+        assertEquals(HandshakeStatus.NEED_UNWRAP, first.getHandshakeStatus());
+        assertSame(first, result.toSSLEngineResult());
+        assertSame(first, new MutableEngineResult()
+                                  .set(Status.BUFFER_UNDERFLOW, HandshakeStatus.NEED_UNWRAP, 0, 0)
+                                  .toSSLEngineResult());
+    }
+
+    @Test
+    public void nonEmptyResultsAreCopied() {
+        MutableEngineResult result = new MutableEngineResult();
+        result.set(Status.OK, HandshakeStatus.NOT_HANDSHAKING, 10, 20);
+        SSLEngineResult first = result.toSSLEngineResult();
+        assertEquals(Status.OK, first.getStatus());
+        assertEquals(HandshakeStatus.NOT_HANDSHAKING, first.getHandshakeStatus());
+        assertEquals(10, first.bytesConsumed());
+        assertEquals(20, first.bytesProduced());
+        assertNotSame(first, result.toSSLEngineResult());
+
+        result.set(Status.CLOSED, HandshakeStatus.NOT_HANDSHAKING, 0, 5);
+        assertEquals(10, first.bytesConsumed());
+        assertEquals(5, result.bytesProduced());
+    }
+}
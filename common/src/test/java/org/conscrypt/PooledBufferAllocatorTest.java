@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.conscrypt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.ByteBuffer;
+
+@RunWith(JUnit4.class)
+public class PooledBufferAllocatorTest {
+    @Test
+    public void sizeClasses() {
+        assertEquals(0, PooledBufferAllocator.sizeClass(0));
+        assertEquals(0, PooledBufferAllocator.sizeClass(512));
+        assertEquals(1, PooledBufferAllocator.sizeClass(513));
+        assertEquals(6, PooledBufferAllocator.sizeClass(32 * 1024));
+        assertEquals(-1, PooledBufferAllocator.sizeClass(32 * 1024 + 1));
+    }
+
+    @Test
+    public void allocatedBufferHasRequestedCapacity() {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(1024 * 1024, 4);
+        AllocatedBuffer allocated = allocator.allocateDirectBuffer(1000);
+        ByteBuffer buffer = allocated.nioBuffer();
+        assertTrue(buffer.isDirect());
+        assertEquals(0, buffer.position());
+        assertEquals(1000, buffer.remaining());
+        assertEquals(1024, buffer.capacity());
+        allocated.release();
+    }
+
+    @Test
+    public void releasedBufferIsReused() {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(1024 * 1024, 4);
+        AllocatedBuffer first = allocator.allocateDirectBuffer(16 * 1024);
+        ByteBuffer firstBuffer = first.nioBuffer();
+        firstBuffer.put((byte) 1);
+        assertEquals(16 * 1024, allocator.getStats().getBytesOutstanding());
+        first.release();
+        assertEquals(0, allocator.getStats().getBytesOutstanding());
+
+        AllocatedBuffer second = allocator.allocateDirectBuffer(10000);
+        assertSame(firstBuffer, second.nioBuffer());
+        assertEquals(0, second.nioBuffer().position());
+        assertEquals(10000, second.nioBuffer().limit());
+        second.release();
+
+        PooledBufferAllocator.Stats stats = allocator.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(0, stats.getBytesOutstanding());
+    }
+
+    @Test
+    public void heapBuffersArePooledSeparately() {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(1024 * 1024, 4);
+        AllocatedBuffer heap = allocator.allocateHeapBuffer(2000);
+        ByteBuffer heapBuffer = heap.nioBuffer();
+        assertTrue(heapBuffer.hasArray());
+        assertEquals(2000, heapBuffer.remaining());
+        heap.release();
+
+        AllocatedBuffer direct = allocator.allocateDirectBuffer(2000);
+        assertTrue(direct.nioBuffer().isDirect());
+        direct.release();
+
+        heap = allocator.allocateHeapBuffer(2000);
+        assertSame(heapBuffer, heap.nioBuffer());
+        heap.release();
+        assertEquals(1, allocator.getStats().getHits());
+        assertEquals(2, allocator.getStats().getMisses());
+    }
+
+    @Test
+    public void globalPoolIsShared() throws Exception {
+        final PooledBufferAllocator allocator = new PooledBufferAllocator(1024 * 1024, 0);
+        final ByteBuffer[] released = new ByteBuffer[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                AllocatedBuffer allocated = allocator.allocateDirectBuffer(4096);
+                released[0] = allocated.nioBuffer();
+                allocated.release();
+            }
+        });
+        thread.start();
+        thread.join();
+        assertEquals(4096, allocator.getStats().getBytesPooled());
+
+        AllocatedBuffer allocated = allocator.allocateDirectBuffer(4096);
+        assertSame(released[0], allocated.nioBuffer());
+        assertEquals(0, allocator.getStats().getBytesPooled());
+        allocated.release();
+    }
+
+    @Test
+    public void globalPoolIsBounded() {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(8192, 0);
+        AllocatedBuffer[] buffers = new AllocatedBuffer[4];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = allocator.allocateDirectBuffer(4096);
+        }
+        for (AllocatedBuffer buffer : buffers) {
+            buffer.release();
+        }
+        assertEquals(8192, allocator.getStats().getBytesPooled());
+    }
+
+    @Test
+    public void largeBuffersAreNotPooled() {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(1024 * 1024, 4);
+        AllocatedBuffer first = allocator.allocateDirectBuffer(64 * 1024);
+        ByteBuffer firstBuffer = first.nioBuffer();
+        assertEquals(64 * 1024, firstBuffer.capacity());
+        first.release();
+
+        AllocatedBuffer second = allocator.allocateDirectBuffer(64 * 1024);
+        assertNotSame(firstBuffer, second.nioBuffer());
+        assertEquals(2, allocator.getStats().getMisses());
+        assertEquals(0, allocator.getStats().getBytesPooled());
+    }
+
+    @Test
+    public void releaseTwiceShouldFail() {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(1024 * 1024, 4);
+        final AllocatedBuffer allocated = allocator.allocateDirectBuffer(100);
+        allocated.release();
+        assertThrows(IllegalStateException.class, allocated::release);
+        assertThrows(IllegalStateException.class, allocated::nioBuffer);
+    }
+
+    @Test
+    public void retainedBufferIsRecycledOnLastRelease() {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(1024 * 1024, 4);
+        AllocatedBuffer allocated = allocator.allocateDirectBuffer(100);
+        assertEquals(1, allocated.refCnt());
+        assertSame(allocated, allocated.retain());
+        assertEquals(2, allocated.refCnt());
+
+        allocated.release();
+        assertEquals(1, allocated.refCnt());
+        assertEquals(512, allocator.getStats().getBytesOutstanding());
+        allocated.nioBuffer();
+
+        allocated.release();
+        assertEquals(0, allocated.refCnt());
+        assertEquals(0, allocator.getStats().getBytesOutstanding());
+        assertThrows(IllegalStateException.class, allocated::retain);
+    }
+
+    @Test
+    public void wrappedBufferIsReferenceCounted() {
+        final AllocatedBuffer allocated = AllocatedBuffer.wrap(ByteBuffer.allocate(10));
+        allocated.retain();
+        allocated.release();
+        allocated.release();
+        assertEquals(0, allocated.refCnt());
+        assertThrows(IllegalStateException.class, allocated::retain);
+    }
+
+    @Test
+    public void wrappedBufferIgnoresExtraRelease() {
+        AllocatedBuffer allocated = AllocatedBuffer.wrap(ByteBuffer.allocate(10));
+        allocated.release();
+        assertSame(allocated, allocated.release());
+        assertEquals(0, allocated.refCnt());
+    }
+
+    @Test
+    public void leakedBufferIsDetected() throws Exception {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(1024 * 1024, 4, 1);
+        allocator.allocateDirectBuffer(1000).release();
+        allocateAndLeak(allocator);
+        assertEquals(1024, allocator.getStats().getBytesOutstanding());
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (allocator.getStats().getLeaksDetected() == 0
+                && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        PooledBufferAllocator.Stats stats = allocator.getStats();
+        assertEquals(1, stats.getLeaksDetected());
+        assertEquals(0, stats.getBytesOutstanding());
+    }
+
+    private static void allocateAndLeak(PooledBufferAllocator allocator) {
+        allocator.allocateDirectBuffer(1000);
+    }
+
+    @Test
+    public void leakDetectionIsDisabledByDefault() {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(1024 * 1024, 4);
+        allocator.allocateDirectBuffer(1000).release();
+        assertEquals(0, allocator.getStats().getLeaksDetected());
+    }
+
+    @Test
+    public void pooledReturnsSharedInstance() {
+        assertSame(BufferAllocator.pooled(), BufferAllocator.pooled());
+    }
+
+    @Test
+    public void sharedInstanceReleasesIntoBoundedPool() {
+        // Buffers are not kept in per-thread caches, which are not bounded in aggregate.
+        PooledBufferAllocator allocator = BufferAllocator.pooled();
+        AllocatedBuffer allocated = allocator.allocateDirectBuffer(4096);
+        long pooled = allocator.getStats().getBytesPooled();
+        allocated.release();
+        assertEquals(pooled + 4096, allocator.getStats().getBytesPooled());
+    }
+}
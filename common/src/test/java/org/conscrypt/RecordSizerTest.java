@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.conscrypt;
+
+import static org.conscrypt.NativeConstants.SSL3_RT_MAX_PLAIN_LENGTH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class RecordSizerTest {
+    private static final long IDLE_TIMEOUT_MILLIS = 1000;
+
+    @Test
+    public void defaultsToFullRecords() {
+        RecordSizer sizer = new RecordSizer();
+        assertTrue(sizer.isDefault());
+        assertEquals(SSL3_RT_MAX_PLAIN_LENGTH, sizer.nextRecordSize());
+    }
+
+    @Test
+    public void maxSendFragmentLimitsRecords() {
+        RecordSizer sizer = new RecordSizer();
+        sizer.setMaxSendFragment(4096);
+        assertFalse(sizer.isDefault());
+        assertEquals(4096, sizer.nextRecordSize());
+    }
+
+    @Test
+    public void maxSendFragmentOutOfRangeShouldThrow() {
+        final RecordSizer sizer = new RecordSizer();
+        assertThrows(IllegalArgumentException.class, () -> sizer.setMaxSendFragment(511));
+        assertThrows(IllegalArgumentException.class,
+                     () -> sizer.setMaxSendFragment(SSL3_RT_MAX_PLAIN_LENGTH + 1));
+    }
+
+    @Test
+    public void recordsGrowAfterThreshold() {
+        RecordSizer sizer = new RecordSizer();
+        sizer.setDynamicRecordSizing(3000, IDLE_TIMEOUT_MILLIS);
+        long now = 0;
+        assertEquals(RecordSizer.SMALL_RECORD_SIZE, sizer.nextRecordSize(now));
+        sizer.onRecordWritten(RecordSizer.SMALL_RECORD_SIZE, now);
+        assertEquals(RecordSizer.SMALL_RECORD_SIZE, sizer.nextRecordSize(now));
+        sizer.onRecordWritten(RecordSizer.SMALL_RECORD_SIZE, now);
+        assertEquals(RecordSizer.SMALL_RECORD_SIZE, sizer.nextRecordSize(now));
+        sizer.onRecordWritten(RecordSizer.SMALL_RECORD_SIZE, now);
+        assertEquals(SSL3_RT_MAX_PLAIN_LENGTH, sizer.nextRecordSize(now));
+    }
+
+    @Test
+    public void zeroIdleTimeoutKeepsRecordsLarge() {
+        RecordSizer sizer = new RecordSizer();
+        sizer.setDynamicRecordSizing(1000, 0);
+        long now = 0;
+        sizer.onRecordWritten(RecordSizer.SMALL_RECORD_SIZE, now);
+        now += TimeUnit.MILLISECONDS.toNanos(1);
+        assertEquals(SSL3_RT_MAX_PLAIN_LENGTH, sizer.nextRecordSize(now));
+        sizer.onRecordWritten(SSL3_RT_MAX_PLAIN_LENGTH, now);
+        now += TimeUnit.HOURS.toNanos(1);
+        assertEquals(SSL3_RT_MAX_PLAIN_LENGTH, sizer.nextRecordSize(now));
+    }
+
+    @Test
+    public void recordsShrinkAfterIdlePeriod() {
+        RecordSizer sizer = new RecordSizer();
+        sizer.setDynamicRecordSizing(1000, IDLE_TIMEOUT_MILLIS);
+        long now = 0;
+        sizer.onRecordWritten(RecordSizer.SMALL_RECORD_SIZE, now);
+        now += TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT_MILLIS);
+        assertEquals(SSL3_RT_MAX_PLAIN_LENGTH, sizer.nextRecordSize(now));
+        sizer.onRecordWritten(SSL3_RT_MAX_PLAIN_LENGTH, now);
+
+        now += TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT_MILLIS) + 1;
+        assertEquals(RecordSizer.SMALL_RECORD_SIZE, sizer.nextRecordSize(now));
+    }
+
+    @Test
+    public void smallRecordsRespectMaxSendFragment() {
+        RecordSizer sizer = new RecordSizer();
+        sizer.setMaxSendFragment(1024);
+        sizer.setDynamicRecordSizing(1000, IDLE_TIMEOUT_MILLIS);
+        assertEquals(1024, sizer.nextRecordSize(0));
+    }
+
+    @Test
+    public void disablingDynamicSizingRestoresDefault() {
+        RecordSizer sizer = new RecordSizer();
+        sizer.setDynamicRecordSizing(1000, IDLE_TIMEOUT_MILLIS);
+        assertFalse(sizer.isDefault());
+        sizer.setDynamicRecordSizing(0, 0);
+        assertTrue(sizer.isDefault());
+        assertEquals(SSL3_RT_MAX_PLAIN_LENGTH, sizer.nextRecordSize(0));
+    }
+}
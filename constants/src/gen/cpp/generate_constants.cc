@@ -82,7 +82,11 @@ int main(int /* argc */, char** /* argv */) {
     CONST(SSL_ERROR_NONE);
     CONST(SSL_ERROR_WANT_READ);
     CONST(SSL_ERROR_WANT_WRITE);
+    CONST(SSL_ERROR_SYSCALL);
     CONST(SSL_ERROR_ZERO_RETURN);
+    CONST(SSL_ERROR_WANT_PRIVATE_KEY_OPERATION);
+    CONST(SSL_ERROR_WANT_CERTIFICATE_VERIFY);
+    CONST(SSL_ERROR_EARLY_DATA_REJECTED);
 
     CONST(TLS1_VERSION);
     CONST(TLS1_1_VERSION);
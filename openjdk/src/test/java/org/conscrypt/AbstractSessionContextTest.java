@@ -117,6 +117,32 @@ public abstract class AbstractSessionContextTest<T extends AbstractSessionContex
         assertNull(getCachedSession(context, single));
     }
 
+    @Test
+    public void testStatsCountEvictionsAndExpirations() {
+        context.setSessionCacheSize(2);
+        context.cacheSession(newSession("a"));
+        context.cacheSession(newSession("b"));
+        context.cacheSession(newSession("c"));
+        context.cacheSession(new MockSessionBuilder().host("d").valid(false).build());
+        context.setSessionTimeout(60);
+
+        SessionCacheStats stats = context.getSessionCacheStats();
+        assertEquals(1, stats.getSize());
+        assertEquals(2, stats.getMaximumSize());
+        assertEquals(2, stats.getEvictions());
+        assertEquals(1, stats.getExpirations());
+    }
+
+    @Test
+    public void testAdaptiveSizeIsClampedAndDisabledByExplicitSize() {
+        context.setSessionCacheSize(1);
+        context.setAdaptiveSessionCacheSize(20, 1000, 1024 * 1024);
+        assertEquals(20, context.getSessionCacheSize());
+
+        context.setSessionCacheSize(5);
+        assertEquals(5, context.getSessionCacheSize());
+    }
+
     @Test
     public void testSerializeSession() throws Exception {
         byte[] encodedBytes = new byte[] {0x01, 0x02, 0x03};
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.conscrypt;
+
+import static org.conscrypt.AdaptiveCacheSizer.ESTIMATED_SESSION_BYTES;
+import static org.conscrypt.AdaptiveCacheSizer.RESIZE_INTERVAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AdaptiveCacheSizerTest {
+    private static final long BUDGET = 1024L * ESTIMATED_SESSION_BYTES;
+
+    @Test
+    public void invalidBounds_Throw() {
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveCacheSizer(0, 10, BUDGET));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveCacheSizer(10, 9, BUDGET));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveCacheSizer(1, 10, 0));
+    }
+
+    @Test
+    public void memoryBudget_LimitsMaxSize() {
+        assertEquals(1024, new AdaptiveCacheSizer(10, 100000, BUDGET).getMaxSize());
+        assertEquals(100, new AdaptiveCacheSizer(10, 100, BUDGET).getMaxSize());
+        // The minimum size wins over the budget.
+        assertEquals(10, new AdaptiveCacheSizer(10, 100, 1).getMaxSize());
+    }
+
+    @Test
+    public void resize_WaitsForEnoughLookups() {
+        AdaptiveCacheSizer sizer = new AdaptiveCacheSizer(10, 1000, BUDGET);
+        assertEquals(10, sizer.resize(10, 10, RESIZE_INTERVAL - 1, 0, 100));
+    }
+
+    @Test
+    public void resize_GrowsOnEvictionsAndLowHitRate() {
+        AdaptiveCacheSizer sizer = new AdaptiveCacheSizer(10, 1000, BUDGET);
+        assertEquals(20, sizer.resize(10, 10, RESIZE_INTERVAL, 0, 5));
+        assertEquals(40, sizer.resize(20, 20, 2 * RESIZE_INTERVAL, 0, 10));
+    }
+
+    @Test
+    public void resize_StopsAtMaxSize() {
+        AdaptiveCacheSizer sizer = new AdaptiveCacheSizer(10, 15, BUDGET);
+        assertEquals(15, sizer.resize(10, 10, RESIZE_INTERVAL, 0, 5));
+    }
+
+    @Test
+    public void resize_KeepsSizeAtHighHitRate() {
+        AdaptiveCacheSizer sizer = new AdaptiveCacheSizer(10, 1000, BUDGET);
+        assertEquals(100, sizer.resize(100, 100, RESIZE_INTERVAL, RESIZE_INTERVAL, 5));
+    }
+
+    @Test
+    public void resize_ShrinksUnderusedCache() {
+        AdaptiveCacheSizer sizer = new AdaptiveCacheSizer(10, 1000, BUDGET);
+        assertEquals(50, sizer.resize(100, 30, RESIZE_INTERVAL, 0, 0));
+        // Never below the minimum size.
+        assertEquals(10, sizer.resize(15, 1, 2 * RESIZE_INTERVAL, 0, 0));
+        // Not when the sessions would no longer fit.
+        assertEquals(50, sizer.resize(50, 40, 3 * RESIZE_INTERVAL, 0, 0));
+    }
+
+    @Test
+    public void resize_ComparesWithPreviousAdjustment() {
+        AdaptiveCacheSizer sizer = new AdaptiveCacheSizer(10, 1000, BUDGET);
+        assertEquals(20, sizer.resize(10, 10, RESIZE_INTERVAL, 0, 5));
+        // No new evictions since the last adjustment.
+        assertEquals(20, sizer.resize(20, 15, 2 * RESIZE_INTERVAL, 0, 5));
+    }
+}
@@ -18,14 +18,24 @@ package org.conscrypt;
 
 import static org.conscrypt.MockSessionBuilder.DEFAULT_PORT;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.security.KeyManagementException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @RunWith(JUnit4.class)
 public class ClientSessionContextTest extends AbstractSessionContextTest<ClientSessionContext> {
@@ -112,4 +122,162 @@ public class ClientSessionContextTest extends AbstractSessionContextTest<ClientS
                    context.getCachedSession("host", DEFAULT_PORT, getDefaultSSLParameters()));
         assertEquals(0, size(context));
     }
+
+    @Test
+    public void testSingleUseSessionIsHandedOutOnlyOnceAcrossThreads() throws Exception {
+        ClientSessionContext context = newContext();
+        context.setSessionCacheSize(0);
+        int sessionCount = 100;
+        for (int i = 0; i < sessionCount; i++) {
+            context.cacheSession(new MockSessionBuilder()
+                                         .id(new byte[] {(byte) i})
+                                         .host("host")
+                                         .singleUse(true)
+                                         .build());
+        }
+        SSLParametersImpl parameters = getDefaultSSLParameters();
+        List<NativeSslSession> handedOut = Collections.synchronizedList(new ArrayList<>());
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    NativeSslSession session;
+                    while ((session = context.getCachedSession("host", DEFAULT_PORT, parameters))
+                            != null) {
+                        handedOut.add(session);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Set<NativeSslSession> distinct =
+                Collections.newSetFromMap(new IdentityHashMap<NativeSslSession, Boolean>());
+        distinct.addAll(handedOut);
+        assertEquals(sessionCount, handedOut.size());
+        assertEquals(sessionCount, distinct.size());
+        assertEquals(0, size(context));
+    }
+
+    @Test
+    public void testPoolSizeDropsOldestSessions() {
+        ClientSessionContext context = newContext();
+        context.setSessionCacheSize(0);
+        context.setMaxSessionsPerHost(2);
+        NativeSslSession[] sessions = new NativeSslSession[3];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = new MockSessionBuilder()
+                                  .id(new byte[] {(byte) i})
+                                  .host("host")
+                                  .singleUse(true)
+                                  .build();
+            context.cacheSession(sessions[i]);
+        }
+        assertEquals(2, size(context));
+
+        SSLParametersImpl parameters = getDefaultSSLParameters();
+        assertSame(sessions[1], context.getCachedSession("host", DEFAULT_PORT, parameters));
+        assertSame(sessions[2], context.getCachedSession("host", DEFAULT_PORT, parameters));
+        assertNull(context.getCachedSession("host", DEFAULT_PORT, parameters));
+        assertEquals(0, size(context));
+    }
+
+    @Test
+    public void testPoolSizeMustNotBeNegative() {
+        ClientSessionContext context = newContext();
+        assertThrows(IllegalArgumentException.class, () -> context.setMaxSessionsPerHost(-1));
+        assertThrows(IllegalArgumentException.class,
+                     () -> context.setSessionPoolRefiller((host, port) -> {}, 0));
+    }
+
+    @Test
+    public void testPoolStatsAreNotKeptWithoutPooling() {
+        ClientSessionContext context = newContext();
+        context.cacheSession(new MockSessionBuilder().host("host").singleUse(true).build());
+        assertNotNull(
+                context.getCachedSession("host", DEFAULT_PORT, getDefaultSSLParameters()));
+        assertNull(context.getSessionPoolStats("host", DEFAULT_PORT));
+    }
+
+    @Test
+    public void testPoolStatsCountHitsAndMisses() {
+        ClientSessionContext context = newContext();
+        context.setMaxSessionsPerHost(4);
+        assertNull(context.getSessionPoolStats("host", DEFAULT_PORT));
+
+        SSLParametersImpl parameters = getDefaultSSLParameters();
+        context.cacheSession(new MockSessionBuilder().host("host").singleUse(true).build());
+        assertNotNull(context.getCachedSession("host", DEFAULT_PORT, parameters));
+        assertNull(context.getCachedSession("host", DEFAULT_PORT, parameters));
+        assertNull(context.getCachedSession("host", DEFAULT_PORT, parameters));
+
+        SessionPoolStats stats = context.getSessionPoolStats("host", DEFAULT_PORT);
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(0, stats.getAvailableSessions());
+        assertNull(context.getSessionPoolStats("other", DEFAULT_PORT));
+    }
+
+    @Test
+    public void testRefillerIsCalledOncePerLowPool() {
+        ClientSessionContext context = newContext();
+        context.setSessionCacheSize(0);
+        List<String> refills = new ArrayList<>();
+        context.setSessionPoolRefiller((host, port) -> refills.add(host + ":" + port), 2);
+        for (int i = 0; i < 3; i++) {
+            context.cacheSession(new MockSessionBuilder()
+                                         .id(new byte[] {(byte) i})
+                                         .host("host")
+                                         .singleUse(true)
+                                         .build());
+        }
+
+        SSLParametersImpl parameters = getDefaultSSLParameters();
+        context.getCachedSession("host", DEFAULT_PORT, parameters);
+        assertEquals(0, refills.size());
+        context.getCachedSession("host", DEFAULT_PORT, parameters);
+        assertEquals(1, refills.size());
+        assertEquals("host:" + DEFAULT_PORT, refills.get(0));
+        // Only one refill is requested until a new session arrives.
+        context.getCachedSession("host", DEFAULT_PORT, parameters);
+        assertEquals(1, refills.size());
+
+        context.cacheSession(
+                new MockSessionBuilder().id(new byte[] {9}).host("host").singleUse(true).build());
+        context.getCachedSession("host", DEFAULT_PORT, parameters);
+        assertEquals(2, refills.size());
+    }
+
+    @Test
+    public void testFailingRefillerDoesNotFailLookup() {
+        ClientSessionContext context = newContext();
+        context.setSessionPoolRefiller((host, port) -> {
+            throw new IllegalStateException("no executor");
+        }, 1);
+        NativeSslSession session = new MockSessionBuilder().host("host").singleUse(true).build();
+        context.cacheSession(session);
+        assertSame(session,
+                   context.getCachedSession("host", DEFAULT_PORT, getDefaultSSLParameters()));
+    }
+
+    @Test
+    public void testCacheStatsCountLookups() {
+        ClientSessionContext context = newContext();
+        SSLParametersImpl parameters = getDefaultSSLParameters();
+        context.cacheSession(new MockSessionBuilder().host("host").build());
+        assertNotNull(context.getCachedSession("host", DEFAULT_PORT, parameters));
+        assertNull(context.getCachedSession("other", DEFAULT_PORT, parameters));
+
+        SessionCacheStats stats = context.getSessionCacheStats();
+        assertEquals(2, stats.getLookups());
+        assertEquals(1, stats.getHits());
+        assertEquals(0.5, stats.getHitRate(), 0.0);
+        assertEquals(0, stats.getPersistentLookups());
+    }
 }
@@ -24,7 +24,9 @@ import static org.conscrypt.TestUtils.newTextMessage;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.same;
@@ -41,13 +43,26 @@ import org.mockito.Mockito;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.security.PrivateKey;
 import java.security.Provider;
+import java.security.SignatureException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
@@ -56,6 +71,7 @@ import javax.net.ssl.SSLEngineResult.Status;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.X509KeyManager;
 
 @RunWith(Parameterized.class)
 public class ConscryptEngineTest {
@@ -291,6 +307,511 @@ public class ConscryptEngineTest {
         exchangeMessage(inputBuffer, clientEngine, serverEngine);
     }
 
+    @Test
+    public void wrapWithMaxRecordsPerWrapShouldSealMultipleRecords() throws Exception {
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        Conscrypt.setMaxRecordsPerWrap(clientEngine, 4);
+        doHandshake(true);
+
+        // Three full records plus a partial one.
+        ByteBuffer message = newMessage(3 * LARGE_MESSAGE_SIZE);
+        byte[] messageBytes = toArray(message);
+        ByteBuffer encryptedBuffer =
+                bufferType.newBuffer(4 * clientEngine.getSession().getPacketBufferSize());
+        SSLEngineResult wrapResult = clientEngine.wrap(message, encryptedBuffer);
+        assertEquals(Status.OK, wrapResult.getStatus());
+        assertEquals(messageBytes.length, wrapResult.bytesConsumed());
+        assertFalse(message.hasRemaining());
+
+        encryptedBuffer.flip();
+        byte[] actualBytes = unwrap(new ByteBuffer[] {encryptedBuffer}, serverEngine);
+        assertArrayEquals(messageBytes, actualBytes);
+    }
+
+    @Test
+    public void wrapFailingPartwayShouldReportSealedRecords() throws Exception {
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        Conscrypt.setMaxRecordsPerWrap(clientEngine, 4);
+        doHandshake(true);
+        // Fragmented heap buffers are copied through the allocator once per record, so failing
+        // the second allocation fails the wrap after the first record has been sealed.
+        final AtomicInteger allocations = new AtomicInteger();
+        Conscrypt.setBufferAllocator(clientEngine, new BufferAllocator() {
+            @Override
+            public AllocatedBuffer allocateDirectBuffer(int capacity) {
+                if (allocations.incrementAndGet() == 2) {
+                    throw new IllegalStateException("Out of buffers");
+                }
+                return AllocatedBuffer.wrap(ByteBuffer.allocateDirect(capacity));
+            }
+
+            @Override
+            public AllocatedBuffer allocateHeapBuffer(int capacity) {
+                return AllocatedBuffer.wrap(ByteBuffer.allocate(capacity));
+            }
+        });
+
+        byte[] messageBytes = newTextMessage(3 * LARGE_MESSAGE_SIZE);
+        ByteBuffer[] message = new ByteBuffer[messageBytes.length / 1000 + 1];
+        for (int i = 0; i < message.length; i++) {
+            int start = i * 1000;
+            message[i] = ByteBuffer.wrap(
+                    messageBytes, start, Math.min(1000, messageBytes.length - start));
+        }
+        ByteBuffer encryptedBuffer =
+                bufferType.newBuffer(4 * clientEngine.getSession().getPacketBufferSize());
+        SSLEngineResult wrapResult = clientEngine.wrap(message, encryptedBuffer);
+        assertEquals(Status.OK, wrapResult.getStatus());
+        assertTrue(wrapResult.bytesConsumed() > 0);
+        assertTrue(wrapResult.bytesConsumed() < messageBytes.length);
+        assertEquals(encryptedBuffer.position(), wrapResult.bytesProduced());
+
+        // The sealed records hold exactly the data reported as consumed, and the rest is sent
+        // by the next call.
+        encryptedBuffer.flip();
+        byte[] actualBytes = unwrap(new ByteBuffer[] {encryptedBuffer}, serverEngine);
+        assertArrayEquals(Arrays.copyOf(messageBytes, wrapResult.bytesConsumed()), actualBytes);
+        encryptedBuffer.clear();
+        wrapResult = clientEngine.wrap(message, encryptedBuffer);
+        assertEquals(Status.OK, wrapResult.getStatus());
+        assertEquals(messageBytes.length - actualBytes.length, wrapResult.bytesConsumed());
+    }
+
+    @Test
+    public void wrapWithMaxSendFragmentShouldLimitRecordSize() throws Exception {
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        Conscrypt.setMaxSendFragment(clientEngine, 1024);
+        doHandshake(true);
+
+        ByteBuffer message = newMessage(LARGE_MESSAGE_SIZE);
+        byte[] messageBytes = toArray(message);
+        ByteBuffer encryptedBuffer =
+                bufferType.newBuffer(clientEngine.getSession().getPacketBufferSize());
+        SSLEngineResult wrapResult = clientEngine.wrap(message, encryptedBuffer);
+        assertEquals(Status.OK, wrapResult.getStatus());
+        assertEquals(1024, wrapResult.bytesConsumed());
+
+        encryptedBuffer.flip();
+        byte[] actualBytes = unwrap(new ByteBuffer[] {encryptedBuffer}, serverEngine);
+        assertArrayEquals(Arrays.copyOf(messageBytes, 1024), actualBytes);
+    }
+
+    @Test
+    public void dynamicRecordSizingShouldStartWithSmallRecords() throws Exception {
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        Conscrypt.setDynamicRecordSizing(clientEngine, 4 * 1024, 60 * 1000);
+        doHandshake(true);
+
+        ByteBuffer message = newMessage(LARGE_MESSAGE_SIZE);
+        ByteBuffer encryptedBuffer =
+                bufferType.newBuffer(clientEngine.getSession().getPacketBufferSize());
+        int smallRecords = 0;
+        int consumed;
+        do {
+            encryptedBuffer.clear();
+            SSLEngineResult wrapResult = clientEngine.wrap(message, encryptedBuffer);
+            assertEquals(Status.OK, wrapResult.getStatus());
+            consumed = wrapResult.bytesConsumed();
+            if (consumed == RecordSizer.SMALL_RECORD_SIZE) {
+                // A record of this size must fit into a single TCP segment.
+                assertTrue(wrapResult.bytesProduced() <= 1400);
+                smallRecords++;
+            }
+        } while (consumed == RecordSizer.SMALL_RECORD_SIZE);
+
+        // Records grow once the threshold has been crossed.
+        assertEquals((4 * 1024 + RecordSizer.SMALL_RECORD_SIZE - 1)
+                        / RecordSizer.SMALL_RECORD_SIZE, smallRecords);
+        assertTrue(consumed > RecordSizer.SMALL_RECORD_SIZE);
+    }
+
+    @Test
+    public void exchangeLargeMessageWithoutZeroCopyHeapBuffers() throws Exception {
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        Conscrypt.setZeroCopyHeapBuffers(clientEngine, false);
+        Conscrypt.setZeroCopyHeapBuffers(serverEngine, false);
+        doHandshake(true);
+
+        ByteBuffer inputBuffer = newMessage(LARGE_MESSAGE_SIZE);
+        exchangeMessage(inputBuffer, clientEngine, serverEngine);
+    }
+
+    @Test
+    public void exchangeMessageInHeapBufferSlices() throws Exception {
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        doHandshake(true);
+
+        // Slices have a non-zero array offset.
+        byte[] messageBytes = newTextMessage(MESSAGE_SIZE);
+        byte[] sourceArray = new byte[MESSAGE_SIZE + 10];
+        System.arraycopy(messageBytes, 0, sourceArray, 10, MESSAGE_SIZE);
+        ByteBuffer source = ByteBuffer.wrap(sourceArray, 10, MESSAGE_SIZE).slice();
+        int packetBufferSize = clientEngine.getSession().getPacketBufferSize();
+        ByteBuffer encrypted = ByteBuffer.wrap(new byte[packetBufferSize + 20], 20,
+                                               packetBufferSize).slice();
+        assertEquals(Status.OK, clientEngine.wrap(source, encrypted).getStatus());
+        assertFalse(source.hasRemaining());
+        encrypted.flip();
+
+        int appBufferSize = serverEngine.getSession().getApplicationBufferSize();
+        ByteBuffer decrypted =
+                ByteBuffer.wrap(new byte[appBufferSize + 30], 30, appBufferSize).slice();
+        SSLEngineResult result = serverEngine.unwrap(encrypted, decrypted);
+        assertEquals(Status.OK, result.getStatus());
+        assertEquals(MESSAGE_SIZE, result.bytesProduced());
+        decrypted.flip();
+        assertArrayEquals(messageBytes, toArray(decrypted));
+    }
+
+    @Test
+    public void wrapAndUnwrapShouldFillMutableEngineResult() throws Exception {
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        doHandshake(true);
+        MutableEngineResult result = new MutableEngineResult();
+
+        // Only the buffers in the offset range should be used.
+        byte[] messageBytes = newTextMessage(MESSAGE_SIZE);
+        ByteBuffer unused = bufferType.newBuffer(10);
+        ByteBuffer[] sources =
+                new ByteBuffer[] {unused, bufferType.newBuffer(MESSAGE_SIZE), unused};
+        sources[1].put(messageBytes).flip();
+        ByteBuffer encrypted =
+                bufferType.newBuffer(clientEngine.getSession().getPacketBufferSize());
+        assertSame(result, Conscrypt.wrap(clientEngine, sources, 1, 1, encrypted, result));
+        assertEquals(Status.OK, result.getStatus());
+        assertEquals(MESSAGE_SIZE, result.bytesConsumed());
+        assertEquals(encrypted.position(), result.bytesProduced());
+        assertEquals(10, unused.remaining());
+        encrypted.flip();
+
+        ByteBuffer decrypted =
+                bufferType.newBuffer(serverEngine.getSession().getApplicationBufferSize());
+        ByteBuffer[] destinations = new ByteBuffer[] {unused, decrypted};
+        assertSame(result,
+                   Conscrypt.unwrap(serverEngine, new ByteBuffer[] {encrypted}, 0, 1, destinations,
+                                    1, 1, result));
+        assertEquals(Status.OK, result.getStatus());
+        assertEquals(MESSAGE_SIZE, result.bytesProduced());
+        assertEquals(0, unused.position());
+        decrypted.flip();
+        assertArrayEquals(messageBytes, toArray(decrypted));
+
+        // Nothing left to unwrap, the result should be reset rather than accumulated.
+        Conscrypt.unwrap(serverEngine, new ByteBuffer[] {encrypted}, 0, 1, destinations, 1, 1,
+                         result);
+        assertEquals(Status.BUFFER_UNDERFLOW, result.getStatus());
+        assertEquals(0, result.bytesConsumed());
+        assertEquals(0, result.bytesProduced());
+    }
+
+    @Test
+    public void delegatedTasksShouldSuspendHandshake() throws Exception {
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        Conscrypt.setUseDelegatedTasks(clientEngine, true);
+        Conscrypt.setUseDelegatedTasks(serverEngine, true);
+        clientEngine.beginHandshake();
+        serverEngine.beginHandshake();
+
+        ByteBuffer clientHello =
+                bufferType.newBuffer(clientEngine.getSession().getPacketBufferSize());
+        clientEngine.wrap(bufferType.newBuffer(0), clientHello);
+        clientHello.flip();
+
+        // The server has to sign its handshake, which is left to a delegated task.
+        SSLEngineResult result = serverEngine.unwrap(
+                clientHello,
+                bufferType.newBuffer(serverEngine.getSession().getApplicationBufferSize()));
+        assertEquals(Status.OK, result.getStatus());
+        assertEquals(HandshakeStatus.NEED_TASK, result.getHandshakeStatus());
+        assertEquals(HandshakeStatus.NEED_TASK, serverEngine.getHandshakeStatus());
+
+        Runnable task = serverEngine.getDelegatedTask();
+        assertNotNull(task);
+        assertNull(serverEngine.getDelegatedTask());
+        Thread thread = new Thread(task);
+        thread.start();
+        thread.join();
+        assertEquals(HandshakeStatus.NEED_WRAP, serverEngine.getHandshakeStatus());
+
+        doHandshake(false);
+        assertEquals(HandshakeStatus.NOT_HANDSHAKING, clientEngine.getHandshakeStatus());
+        assertEquals(HandshakeStatus.NOT_HANDSHAKING, serverEngine.getHandshakeStatus());
+        exchangeMessage(newMessage(MESSAGE_SIZE), clientEngine, serverEngine);
+    }
+
+    @Test
+    public void delegatedTasksWithClientAuthShouldSucceed() throws Exception {
+        setupEngines(TestKeyStore.getServer(), TestKeyStore.getServer());
+        Conscrypt.setUseDelegatedTasks(clientEngine, true);
+        Conscrypt.setUseDelegatedTasks(serverEngine, true);
+        ClientAuth.REQUIRED.apply(serverEngine);
+        doHandshake(true);
+        assertEquals(HandshakeStatus.NOT_HANDSHAKING, clientEngine.getHandshakeStatus());
+        assertEquals(HandshakeStatus.NOT_HANDSHAKING, serverEngine.getHandshakeStatus());
+        exchangeMessage(newMessage(MESSAGE_SIZE), serverEngine, clientEngine);
+    }
+
+    @Test
+    public void delegatedVerificationOfUntrustedServerShouldFail() throws Exception {
+        setupEngines(TestKeyStore.getClientCA2(), TestKeyStore.getServer());
+        Conscrypt.setUseDelegatedTasks(clientEngine, true);
+        Conscrypt.setUseDelegatedTasks(serverEngine, true);
+        assertThrows(SSLHandshakeException.class, () -> doHandshake(true));
+    }
+
+    @Test
+    public void setUseDelegatedTasksAfterHandshakeShouldThrow() throws Exception {
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        doHandshake(true);
+        assertThrows(IllegalStateException.class,
+                     () -> Conscrypt.setUseDelegatedTasks(clientEngine, true));
+    }
+
+    @Test
+    public void asyncPrivateKeyOperatorShouldSuspendHandshake() throws Exception {
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        final AtomicReference<AsyncCallback<byte[]>> signature =
+                new AtomicReference<AsyncCallback<byte[]>>();
+        final AtomicReference<PrivateKey> signingKey = new AtomicReference<PrivateKey>();
+        final AtomicInteger signatureAlgorithm = new AtomicInteger();
+        final AtomicReference<byte[]> signedMessage = new AtomicReference<byte[]>();
+        Conscrypt.setAsyncPrivateKeyOperator(serverEngine, new AsyncPrivateKeyOperator() {
+            @Override
+            public void sign(PrivateKey key, int algorithm, byte[] message,
+                             AsyncCallback<byte[]> callback) {
+                signingKey.set(key);
+                signatureAlgorithm.set(algorithm);
+                signedMessage.set(message);
+                signature.set(callback);
+            }
+
+            @Override
+            public void decrypt(PrivateKey key, byte[] input, AsyncCallback<byte[]> callback) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        clientEngine.beginHandshake();
+        serverEngine.beginHandshake();
+
+        ByteBuffer clientHello =
+                bufferType.newBuffer(clientEngine.getSession().getPacketBufferSize());
+        clientEngine.wrap(bufferType.newBuffer(0), clientHello);
+        clientHello.flip();
+        SSLEngineResult result = serverEngine.unwrap(
+                clientHello,
+                bufferType.newBuffer(serverEngine.getSession().getApplicationBufferSize()));
+        assertEquals(HandshakeStatus.NEED_TASK, result.getHandshakeStatus());
+        assertNotNull(signingKey.get());
+
+        // Nothing can be sent until the signature is available.
+        ByteBuffer serverFlight =
+                bufferType.newBuffer(serverEngine.getSession().getPacketBufferSize());
+        result = serverEngine.wrap(bufferType.newBuffer(0), serverFlight);
+        assertEquals(0, result.bytesProduced());
+        assertEquals(HandshakeStatus.NEED_TASK, result.getHandshakeStatus());
+
+        Thread signer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    signature.get().onSuccess(NativeCrypto.signWithSignatureAlgorithm(
+                            OpenSSLKey.fromPrivateKey(signingKey.get()).getNativeRef(),
+                            signatureAlgorithm.get(), signedMessage.get()));
+                } catch (Exception e) {
+                    signature.get().onFailure(e);
+                }
+            }
+        });
+        signer.start();
+        serverEngine.getDelegatedTask().run();
+        signer.join();
+        assertEquals(HandshakeStatus.NEED_WRAP, serverEngine.getHandshakeStatus());
+
+        doHandshake(false);
+        assertEquals(HandshakeStatus.NOT_HANDSHAKING, clientEngine.getHandshakeStatus());
+        assertEquals(HandshakeStatus.NOT_HANDSHAKING, serverEngine.getHandshakeStatus());
+        exchangeMessage(newMessage(MESSAGE_SIZE), serverEngine, clientEngine);
+    }
+
+    @Test
+    public void asyncPrivateKeyOperatorFailureShouldFailHandshake() throws Exception {
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        Conscrypt.setAsyncPrivateKeyOperator(serverEngine, new AsyncPrivateKeyOperator() {
+            @Override
+            public void sign(PrivateKey key, int algorithm, byte[] message,
+                             AsyncCallback<byte[]> callback) {
+                callback.onFailure(new SignatureException("Signer unavailable"));
+            }
+
+            @Override
+            public void decrypt(PrivateKey key, byte[] input, AsyncCallback<byte[]> callback) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        assertThrows(SSLException.class, () -> doHandshake(true));
+    }
+
+    @Test
+    public void asyncCertificateVerifierShouldNotBlockOtherConnections() throws Exception {
+        final AtomicReference<AsyncCallback<Void>> verification =
+                new AtomicReference<AsyncCallback<Void>>();
+        final CountDownLatch verifierCalled = new CountDownLatch(1);
+        final AtomicReference<X509Certificate[]> verifiedChain =
+                new AtomicReference<X509Certificate[]>();
+        final SSLEngine slowClient =
+                newEngine(getConscryptProvider(), TestKeyStore.getClient(), true);
+        final SSLEngine slowServer =
+                newEngine(getConscryptProvider(), TestKeyStore.getServer(), false);
+        Conscrypt.setAsyncCertificateVerifier(slowClient, new AsyncCertificateVerifier() {
+            @Override
+            public void verify(X509Certificate[] chain, String authType,
+                               SSLSession handshakeSession, AsyncCallback<Void> callback) {
+                verifiedChain.set(chain);
+                verification.set(callback);
+                verifierCalled.countDown();
+            }
+        });
+
+        // Runs the delegated task, which waits for the verifier, on its own thread.
+        final AtomicReference<Exception> slowFailure = new AtomicReference<Exception>();
+        Thread slowHandshake = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TestUtils.doEngineHandshake(slowClient, slowServer,
+                            bufferType.newBuffer(
+                                    slowClient.getSession().getApplicationBufferSize()),
+                            bufferType.newBuffer(slowClient.getSession().getPacketBufferSize()),
+                            bufferType.newBuffer(
+                                    slowServer.getSession().getApplicationBufferSize()),
+                            bufferType.newBuffer(slowServer.getSession().getPacketBufferSize()),
+                            true);
+                } catch (Exception e) {
+                    slowFailure.set(e);
+                }
+            }
+        });
+        slowHandshake.start();
+        assertTrue(verifierCalled.await(10, TimeUnit.SECONDS));
+        assertEquals(HandshakeStatus.NEED_TASK, slowClient.getHandshakeStatus());
+
+        // Another connection completes while the verification is still pending.
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        doHandshake(true);
+        exchangeMessage(newMessage(MESSAGE_SIZE), clientEngine, serverEngine);
+        assertTrue(slowHandshake.isAlive());
+        assertEquals(HandshakeStatus.NEED_TASK, slowClient.getHandshakeStatus());
+
+        verification.get().onSuccess(null);
+        slowHandshake.join(10000);
+        assertFalse(slowHandshake.isAlive());
+        assertNull(slowFailure.get());
+        assertEquals(HandshakeStatus.NOT_HANDSHAKING, slowClient.getHandshakeStatus());
+        assertEquals(HandshakeStatus.NOT_HANDSHAKING, slowServer.getHandshakeStatus());
+        assertEquals(slowClient.getSession().getPeerCertificates()[0], verifiedChain.get()[0]);
+    }
+
+    @Test
+    public void asyncCertificateVerifierFailureShouldFailHandshake() throws Exception {
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        Conscrypt.setAsyncCertificateVerifier(clientEngine, new AsyncCertificateVerifier() {
+            @Override
+            public void verify(X509Certificate[] chain, String authType,
+                               SSLSession handshakeSession, AsyncCallback<Void> callback) {
+                callback.onFailure(new CertificateException("Revoked"));
+            }
+        });
+        assertThrows(SSLHandshakeException.class, () -> doHandshake(true));
+    }
+
+    @Test
+    public void unwrapShouldConsumeOneRecordPerCall() throws Exception {
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        doHandshake(true);
+
+        // Several records followed by a close_notify in a single source buffer.
+        byte[][] messages = {newTextMessage(100), newTextMessage(200), newTextMessage(300)};
+        int[] recordLengths = new int[messages.length];
+        ByteBuffer encrypted = bufferType.newBuffer(
+                (messages.length + 1) * clientEngine.getSession().getPacketBufferSize());
+        for (int i = 0; i < messages.length; i++) {
+            SSLEngineResult result = clientEngine.wrap(ByteBuffer.wrap(messages[i]), encrypted);
+            assertEquals(Status.OK, result.getStatus());
+            recordLengths[i] = result.bytesProduced();
+        }
+        clientEngine.closeOutbound();
+        assertEquals(Status.CLOSED,
+                     clientEngine.wrap(bufferType.newBuffer(0), encrypted).getStatus());
+        encrypted.flip();
+
+        ByteBuffer decrypted =
+                bufferType.newBuffer(serverEngine.getSession().getApplicationBufferSize());
+        for (int i = 0; i < messages.length; i++) {
+            decrypted.clear();
+            SSLEngineResult result = serverEngine.unwrap(encrypted, decrypted);
+            assertEquals(Status.OK, result.getStatus());
+            assertEquals(recordLengths[i], result.bytesConsumed());
+            assertEquals(messages[i].length, result.bytesProduced());
+            decrypted.flip();
+            byte[] actual = new byte[decrypted.remaining()];
+            decrypted.get(actual);
+            assertArrayEquals(messages[i], actual);
+        }
+
+        decrypted.clear();
+        SSLEngineResult result = serverEngine.unwrap(encrypted, decrypted);
+        assertEquals(Status.CLOSED, result.getStatus());
+        assertEquals(0, result.bytesProduced());
+        assertFalse(encrypted.hasRemaining());
+        assertTrue(serverEngine.isInboundDone());
+    }
+
+    @Test
+    public void unwrapOfCorruptRecordShouldFailAndCloseEngine() throws Exception {
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        doHandshake(true);
+
+        ByteBuffer encrypted =
+                bufferType.newBuffer(clientEngine.getSession().getPacketBufferSize());
+        clientEngine.wrap(ByteBuffer.wrap(newTextMessage(100)), encrypted);
+        encrypted.flip();
+        int last = encrypted.limit() - 1;
+        encrypted.put(last, (byte) (encrypted.get(last) ^ 1));
+
+        ByteBuffer decrypted =
+                bufferType.newBuffer(serverEngine.getSession().getApplicationBufferSize());
+        assertThrows(SSLException.class, () -> serverEngine.unwrap(encrypted, decrypted));
+        assertEquals(0, decrypted.position());
+        assertTrue(serverEngine.isInboundDone());
+        assertEquals(Status.CLOSED, serverEngine.unwrap(encrypted, decrypted).getStatus());
+    }
+
+    @Test
+    public void pooledAllocatorBuffersShouldBeReleasedAfterEachCall() throws Exception {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(1024 * 1024, 4);
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        Conscrypt.setBufferAllocator(clientEngine, allocator);
+        Conscrypt.setBufferAllocator(serverEngine, allocator);
+        doHandshake(true);
+        assertEquals(0, allocator.getStats().getBytesOutstanding());
+
+        // Fragmented heap buffers are copied before being written to the SSL.
+        ByteBuffer[] message = new ByteBuffer[] {
+                ByteBuffer.wrap(newTextMessage(100)), ByteBuffer.wrap(newTextMessage(200))};
+        ByteBuffer encryptedBuffer =
+                ByteBuffer.allocate(clientEngine.getSession().getPacketBufferSize());
+        SSLEngineResult wrapResult = clientEngine.wrap(message, encryptedBuffer);
+        assertEquals(Status.OK, wrapResult.getStatus());
+        assertEquals(300, wrapResult.bytesConsumed());
+        assertEquals(0, allocator.getStats().getBytesOutstanding());
+
+        encryptedBuffer.flip();
+        byte[] actualBytes = unwrap(new ByteBuffer[] {encryptedBuffer}, serverEngine);
+        assertEquals(300, actualBytes.length);
+        assertEquals(0, allocator.getStats().getBytesOutstanding());
+        assertTrue(allocator.getStats().getHits() > 0);
+    }
+
     @Test
     public void alpnWithProtocolListShouldSucceed() throws Exception {
         setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
@@ -432,6 +953,498 @@ public class ConscryptEngineTest {
         assertEquals(alpnProtocol, Conscrypt.getApplicationProtocol(clientEngine));
     }
 
+    @Test
+    public void earlyDataShouldBeAcceptedOnResumption() throws Exception {
+        SSLContext clientContext = newContext(getConscryptProvider(), TestKeyStore.getClient());
+        SSLContext serverContext = newContext(getConscryptProvider(), TestKeyStore.getServer());
+        AntiReplayStore store = new InMemoryAntiReplayStore();
+
+        // The first connection establishes a session which allows early data.
+        setupEarlyDataEngines(clientContext, serverContext, store);
+        assertEquals(0, pumpEarlyDataHandshake().length);
+        assertEquals(EarlyDataStatus.NOT_ATTEMPTED, Conscrypt.getEarlyDataStatus(clientEngine));
+
+        setupEarlyDataEngines(clientContext, serverContext, store);
+        byte[] earlyData = newTextMessage(100);
+        Conscrypt.setEarlyData(clientEngine, earlyData);
+        assertArrayEquals(earlyData, pumpEarlyDataHandshake());
+        assertEquals(EarlyDataStatus.ACCEPTED, Conscrypt.getEarlyDataStatus(clientEngine));
+        assertEquals(EarlyDataStatus.ACCEPTED, Conscrypt.getEarlyDataStatus(serverEngine));
+        assertEquals(HandshakeStatus.NOT_HANDSHAKING, clientEngine.getHandshakeStatus());
+        assertEquals(HandshakeStatus.NOT_HANDSHAKING, serverEngine.getHandshakeStatus());
+        exchangeMessage(newMessage(MESSAGE_SIZE), clientEngine, serverEngine);
+        exchangeMessage(newMessage(MESSAGE_SIZE), serverEngine, clientEngine);
+    }
+
+    @Test
+    public void antiReplayStoreShouldOnlyRecordHellosOfferingEarlyData() throws Exception {
+        SSLContext clientContext = newContext(getConscryptProvider(), TestKeyStore.getClient());
+        SSLContext serverContext = newContext(getConscryptProvider(), TestKeyStore.getServer());
+        final AtomicInteger recorded = new AtomicInteger();
+        AntiReplayStore store = new AntiReplayStore() {
+            @Override
+            public boolean tryAccept(byte[] clientHelloId) {
+                recorded.incrementAndGet();
+                return true;
+            }
+        };
+
+        // Neither a full handshake nor a resumption without early data uses up the store.
+        setupEarlyDataEngines(clientContext, serverContext, store);
+        pumpEarlyDataHandshake();
+        assertEquals(0, recorded.get());
+        setupEarlyDataEngines(clientContext, serverContext, store);
+        pumpEarlyDataHandshake();
+        assertEquals(0, recorded.get());
+
+        setupEarlyDataEngines(clientContext, serverContext, store);
+        Conscrypt.setEarlyData(clientEngine, newTextMessage(100));
+        pumpEarlyDataHandshake();
+        assertEquals(1, recorded.get());
+        assertEquals(EarlyDataStatus.ACCEPTED, Conscrypt.getEarlyDataStatus(serverEngine));
+    }
+
+    @Test
+    public void earlyDataShouldBeRejectedWhenReplayed() throws Exception {
+        SSLContext clientContext = newContext(getConscryptProvider(), TestKeyStore.getClient());
+        SSLContext serverContext = newContext(getConscryptProvider(), TestKeyStore.getServer());
+        AntiReplayStore refusingStore = new AntiReplayStore() {
+            @Override
+            public boolean tryAccept(byte[] clientHelloId) {
+                return false;
+            }
+        };
+
+        setupEarlyDataEngines(clientContext, serverContext, new InMemoryAntiReplayStore());
+        pumpEarlyDataHandshake();
+
+        setupEarlyDataEngines(clientContext, serverContext, refusingStore);
+        Conscrypt.setEarlyData(clientEngine, newTextMessage(100));
+        assertEquals(0, pumpEarlyDataHandshake().length);
+        assertEquals(EarlyDataStatus.REJECTED, Conscrypt.getEarlyDataStatus(clientEngine));
+        assertEquals(EarlyDataStatus.NOT_ATTEMPTED, Conscrypt.getEarlyDataStatus(serverEngine));
+        assertTrue(clientEngine.getSession().isValid());
+        exchangeMessage(newMessage(MESSAGE_SIZE), clientEngine, serverEngine);
+    }
+
+    @Test
+    public void earlyDataShouldNotBeSentWithoutResumption() throws Exception {
+        SSLContext clientContext = newContext(getConscryptProvider(), TestKeyStore.getClient());
+        SSLContext serverContext = newContext(getConscryptProvider(), TestKeyStore.getServer());
+
+        setupEarlyDataEngines(clientContext, serverContext, new InMemoryAntiReplayStore());
+        Conscrypt.setEarlyData(clientEngine, newTextMessage(100));
+        assertEquals(0, pumpEarlyDataHandshake().length);
+        assertEquals(EarlyDataStatus.NOT_ATTEMPTED, Conscrypt.getEarlyDataStatus(clientEngine));
+        assertEquals(EarlyDataStatus.NOT_ATTEMPTED, Conscrypt.getEarlyDataStatus(serverEngine));
+    }
+
+    @Test
+    public void setEarlyDataAfterHandshakeShouldThrow() throws Exception {
+        setupEngines(TestKeyStore.getClient(), TestKeyStore.getServer());
+        doHandshake(true);
+        assertThrows(IllegalStateException.class,
+                     () -> Conscrypt.setEarlyData(clientEngine, new byte[1]));
+        assertThrows(IllegalStateException.class,
+                     () -> Conscrypt.setEarlyDataEnabled(serverEngine, true,
+                                                         new InMemoryAntiReplayStore()));
+    }
+
+    @Test
+    public void sharedTicketKeysShouldAllowResumptionAcrossContexts() throws Exception {
+        SSLContext clientContext = newContext(getConscryptProvider(), TestKeyStore.getClient());
+        SSLContext firstServerContext =
+                newContext(getConscryptProvider(), TestKeyStore.getServer());
+        SSLContext secondServerContext =
+                newContext(getConscryptProvider(), TestKeyStore.getServer());
+        byte[] key = newTicketKey((byte) 1);
+        Conscrypt.setSessionTicketKeys(firstServerContext, key);
+        Conscrypt.setSessionTicketKeys(secondServerContext, key);
+        AntiReplayStore store = new InMemoryAntiReplayStore();
+
+        setupEarlyDataEngines(clientContext, firstServerContext, store);
+        pumpEarlyDataHandshake();
+
+        setupEarlyDataEngines(clientContext, secondServerContext, store);
+        byte[] earlyData = newTextMessage(100);
+        Conscrypt.setEarlyData(clientEngine, earlyData);
+        assertArrayEquals(earlyData, pumpEarlyDataHandshake());
+        assertEquals(EarlyDataStatus.ACCEPTED, Conscrypt.getEarlyDataStatus(serverEngine));
+    }
+
+    @Test
+    public void rotatedTicketKeysShouldStillDecryptTickets() throws Exception {
+        SSLContext clientContext = newContext(getConscryptProvider(), TestKeyStore.getClient());
+        SSLContext serverContext = newContext(getConscryptProvider(), TestKeyStore.getServer());
+        byte[] oldKey = newTicketKey((byte) 1);
+        Conscrypt.setSessionTicketKeys(serverContext, oldKey);
+        AntiReplayStore store = new InMemoryAntiReplayStore();
+
+        setupEarlyDataEngines(clientContext, serverContext, store);
+        pumpEarlyDataHandshake();
+
+        Conscrypt.setSessionTicketKeys(serverContext, newTicketKey((byte) 2), oldKey);
+        setupEarlyDataEngines(clientContext, serverContext, store);
+        Conscrypt.setEarlyData(clientEngine, newTextMessage(100));
+        pumpEarlyDataHandshake();
+        assertEquals(EarlyDataStatus.ACCEPTED, Conscrypt.getEarlyDataStatus(serverEngine));
+    }
+
+    @Test
+    public void unknownTicketKeyShouldFallBackToFullHandshake() throws Exception {
+        SSLContext clientContext = newContext(getConscryptProvider(), TestKeyStore.getClient());
+        SSLContext firstServerContext =
+                newContext(getConscryptProvider(), TestKeyStore.getServer());
+        SSLContext secondServerContext =
+                newContext(getConscryptProvider(), TestKeyStore.getServer());
+        Conscrypt.setSessionTicketKeys(firstServerContext, newTicketKey((byte) 1));
+        Conscrypt.setSessionTicketKeys(secondServerContext, newTicketKey((byte) 2));
+        AntiReplayStore store = new InMemoryAntiReplayStore();
+
+        setupEarlyDataEngines(clientContext, firstServerContext, store);
+        pumpEarlyDataHandshake();
+
+        setupEarlyDataEngines(clientContext, secondServerContext, store);
+        Conscrypt.setEarlyData(clientEngine, newTextMessage(100));
+        assertEquals(0, pumpEarlyDataHandshake().length);
+        assertEquals(EarlyDataStatus.REJECTED, Conscrypt.getEarlyDataStatus(clientEngine));
+        exchangeMessage(newMessage(MESSAGE_SIZE), clientEngine, serverEngine);
+    }
+
+    @Test
+    public void ticketKeyCallbackShouldBeConsultedForEveryHandshake() throws Exception {
+        SSLContext clientContext = newContext(getConscryptProvider(), TestKeyStore.getClient());
+        SSLContext serverContext = newContext(getConscryptProvider(), TestKeyStore.getServer());
+        final byte[][][] keys = {{newTicketKey((byte) 1)}};
+        Conscrypt.setSessionTicketKeyCallback(serverContext, () -> keys[0]);
+        AntiReplayStore store = new InMemoryAntiReplayStore();
+
+        setupEarlyDataEngines(clientContext, serverContext, store);
+        pumpEarlyDataHandshake();
+
+        // Drop the key used for the client's ticket.
+        keys[0] = new byte[][] {newTicketKey((byte) 2)};
+        setupEarlyDataEngines(clientContext, serverContext, store);
+        Conscrypt.setEarlyData(clientEngine, newTextMessage(100));
+        assertEquals(0, pumpEarlyDataHandshake().length);
+        assertEquals(EarlyDataStatus.REJECTED, Conscrypt.getEarlyDataStatus(clientEngine));
+    }
+
+    @Test
+    public void sharedTicketKeysShouldAllowTls12ResumptionAcrossContexts() throws Exception {
+        SSLContext clientContext = newContext(getConscryptProvider(), TestKeyStore.getClient());
+        SSLContext firstServerContext =
+                newContext(getConscryptProvider(), TestKeyStore.getServer());
+        SSLContext secondServerContext =
+                newContext(getConscryptProvider(), TestKeyStore.getServer());
+        SSLContext otherServerContext =
+                newContext(getConscryptProvider(), TestKeyStore.getServer());
+        byte[] key = newTicketKey((byte) 1);
+        Conscrypt.setSessionTicketKeys(firstServerContext, key);
+        Conscrypt.setSessionTicketKeys(secondServerContext, key);
+        Conscrypt.setSessionTicketKeys(otherServerContext, newTicketKey((byte) 2));
+
+        setupTls12Engines(clientContext, firstServerContext);
+        Conscrypt.setUseSessionTickets(clientEngine, true);
+        doHandshake(true);
+        // The client derives the ID of a session from its ticket, and sends it back when
+        // resuming, so the ID only stays the same if the ticket was accepted.
+        byte[] id = clientEngine.getSession().getId();
+        assertTrue(id.length > 0);
+
+        setupTls12Engines(clientContext, secondServerContext);
+        Conscrypt.setUseSessionTickets(clientEngine, true);
+        doHandshake(true);
+        assertArrayEquals(id, clientEngine.getSession().getId());
+        assertArrayEquals(id, serverEngine.getSession().getId());
+
+        setupTls12Engines(clientContext, otherServerContext);
+        Conscrypt.setUseSessionTickets(clientEngine, true);
+        doHandshake(true);
+        assertFalse(Arrays.equals(id, clientEngine.getSession().getId()));
+    }
+
+    @Test
+    public void tls12SessionShouldBeResumedById() throws Exception {
+        SSLContext clientContext = newContext(getConscryptProvider(), TestKeyStore.getClient());
+        SSLContext serverContext = newContext(getConscryptProvider(), TestKeyStore.getServer());
+        ServerSessionContext serverSessions =
+                (ServerSessionContext) serverContext.getServerSessionContext();
+
+        setupTls12Engines(clientContext, serverContext);
+        doHandshake(true);
+        byte[] id = serverEngine.getSession().getId();
+        assertEquals(0, serverSessions.getSessionLookupCount());
+
+        setupTls12Engines(clientContext, serverContext);
+        doHandshake(true);
+        assertArrayEquals(id, serverEngine.getSession().getId());
+        assertEquals(1, serverSessions.getSessionLookupCount());
+        assertEquals(1, serverSessions.getSessionLookupHitCount());
+    }
+
+    @Test
+    public void tls12SessionShouldBeResumedFromPersistentCache() throws Exception {
+        final Map<ByteArray, byte[]> persisted = new HashMap<>();
+        SSLServerSessionCache cache = new SSLServerSessionCache() {
+            @Override
+            public byte[] getSessionData(byte[] id) {
+                return persisted.get(new ByteArray(id));
+            }
+
+            @Override
+            public void putSessionData(SSLSession session, byte[] sessionData) {
+                persisted.put(new ByteArray(session.getId()), sessionData);
+            }
+        };
+        SSLContext clientContext = newContext(getConscryptProvider(), TestKeyStore.getClient());
+        SSLContext firstServerContext =
+                newContext(getConscryptProvider(), TestKeyStore.getServer());
+        Conscrypt.setServerSessionCache(firstServerContext, cache);
+
+        setupTls12Engines(clientContext, firstServerContext);
+        doHandshake(true);
+        byte[] id = serverEngine.getSession().getId();
+        assertEquals(1, persisted.size());
+
+        // A new server context, as after a restart, only has the persistent cache.
+        SSLContext secondServerContext =
+                newContext(getConscryptProvider(), TestKeyStore.getServer());
+        Conscrypt.setServerSessionCache(secondServerContext, cache);
+        ServerSessionContext serverSessions =
+                (ServerSessionContext) secondServerContext.getServerSessionContext();
+        setupTls12Engines(clientContext, secondServerContext);
+        doHandshake(true);
+        assertArrayEquals(id, serverEngine.getSession().getId());
+        assertEquals(1, serverSessions.getSessionLookupHitCount());
+    }
+
+    @Test
+    public void unknownTls12SessionIdShouldBeCountedAsMiss() throws Exception {
+        SSLContext clientContext = newContext(getConscryptProvider(), TestKeyStore.getClient());
+        SSLContext firstServerContext =
+                newContext(getConscryptProvider(), TestKeyStore.getServer());
+        SSLContext secondServerContext =
+                newContext(getConscryptProvider(), TestKeyStore.getServer());
+        ServerSessionContext serverSessions =
+                (ServerSessionContext) secondServerContext.getServerSessionContext();
+
+        setupTls12Engines(clientContext, firstServerContext);
+        doHandshake(true);
+        byte[] id = serverEngine.getSession().getId();
+
+        setupTls12Engines(clientContext, secondServerContext);
+        doHandshake(true);
+        assertFalse(Arrays.equals(id, serverEngine.getSession().getId()));
+        assertEquals(1, serverSessions.getSessionLookupCount());
+        assertEquals(0, serverSessions.getSessionLookupHitCount());
+    }
+
+    @Test
+    public void preloadedServerCredentialsShouldBeUsedForHandshake() throws Exception {
+        TestKeyStore serverKeyStore = TestKeyStore.getServer();
+        AtomicInteger privateKeyRequests = new AtomicInteger();
+        X509KeyManager keyManager = new CountingKeyManager(
+                (X509KeyManager) serverKeyStore.keyManagers[0], privateKeyRequests);
+        SSLContext clientContext = newContext(getConscryptProvider(), TestKeyStore.getClient());
+        SSLContext serverContext =
+                SSLContext.getInstance(highestCommonProtocol(), getConscryptProvider());
+        serverContext.init(new KeyManager[] {keyManager}, serverKeyStore.trustManagers, null);
+        Conscrypt.preloadServerCredentials(serverContext, keyManager);
+        privateKeyRequests.set(0);
+
+        for (int i = 0; i < 2; i++) {
+            clientEngine = clientContext.createSSLEngine();
+            clientEngine.setUseClientMode(true);
+            serverEngine = serverContext.createSSLEngine();
+            serverEngine.setUseClientMode(false);
+            doHandshake(true);
+            assertNotNull(serverEngine.getSession().getLocalCertificates());
+            assertArrayEquals(serverEngine.getSession().getLocalCertificates(),
+                              clientEngine.getSession().getPeerCertificates());
+        }
+        assertEquals(0, privateKeyRequests.get());
+
+        // Discarding the credentials falls back to asking the key manager.
+        Conscrypt.preloadServerCredentials(serverContext, null);
+        clientEngine = clientContext.createSSLEngine();
+        clientEngine.setUseClientMode(true);
+        serverEngine = serverContext.createSSLEngine();
+        serverEngine.setUseClientMode(false);
+        doHandshake(true);
+        assertTrue(privateKeyRequests.get() > 0);
+    }
+
+    @Test
+    public void preloadedServerCredentialsShouldServeOneChainPerKeyType() throws Exception {
+        TestKeyStore keyStore = new TestKeyStore.Builder()
+                                        .keyAlgorithms("RSA", "EC")
+                                        .aliasPrefix("rsa-ec")
+                                        .ca(true)
+                                        .build();
+        X509KeyManager keyManager = (X509KeyManager) keyStore.keyManagers[0];
+        SSLContext clientContext = newContext(getConscryptProvider(), keyStore);
+        SSLContext serverContext = newContext(getConscryptProvider(), keyStore);
+        Conscrypt.preloadServerCredentials(serverContext, keyManager);
+
+        // With both key types acceptable, a single chain is served and reported.
+        clientEngine = clientContext.createSSLEngine();
+        clientEngine.setUseClientMode(true);
+        serverEngine = serverContext.createSSLEngine();
+        serverEngine.setUseClientMode(false);
+        doHandshake(true);
+        assertNotNull(serverEngine.getSession().getLocalCertificates());
+        assertArrayEquals(serverEngine.getSession().getLocalCertificates(),
+                          clientEngine.getSession().getPeerCertificates());
+
+        String[][] suites = {
+                {"TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256", "RSA"},
+                {"TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256", "EC"},
+        };
+        for (String[] suite : suites) {
+            clientEngine = clientContext.createSSLEngine();
+            clientEngine.setUseClientMode(true);
+            clientEngine.setEnabledProtocols(new String[] {"TLSv1.2"});
+            clientEngine.setEnabledCipherSuites(new String[] {suite[0]});
+            serverEngine = serverContext.createSSLEngine();
+            serverEngine.setUseClientMode(false);
+            doHandshake(true);
+            assertEquals(suite[1],
+                         serverEngine.getSession().getLocalCertificates()[0].getPublicKey()
+                                 .getAlgorithm());
+            assertArrayEquals(serverEngine.getSession().getLocalCertificates(),
+                              clientEngine.getSession().getPeerCertificates());
+        }
+    }
+
+    /**
+     * An {@link X509KeyManager} which counts the requests for private keys.
+     */
+    private static final class CountingKeyManager implements X509KeyManager {
+        private final X509KeyManager delegate;
+        private final AtomicInteger privateKeyRequests;
+
+        CountingKeyManager(X509KeyManager delegate, AtomicInteger privateKeyRequests) {
+            this.delegate = delegate;
+            this.privateKeyRequests = privateKeyRequests;
+        }
+
+        @Override
+        public String[] getClientAliases(String keyType, Principal[] issuers) {
+            return delegate.getClientAliases(keyType, issuers);
+        }
+
+        @Override
+        public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+            return delegate.chooseClientAlias(keyType, issuers, socket);
+        }
+
+        @Override
+        public String[] getServerAliases(String keyType, Principal[] issuers) {
+            return delegate.getServerAliases(keyType, issuers);
+        }
+
+        @Override
+        public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+            return delegate.chooseServerAlias(keyType, issuers, socket);
+        }
+
+        @Override
+        public X509Certificate[] getCertificateChain(String alias) {
+            return delegate.getCertificateChain(alias);
+        }
+
+        @Override
+        public PrivateKey getPrivateKey(String alias) {
+            privateKeyRequests.incrementAndGet();
+            return delegate.getPrivateKey(alias);
+        }
+    }
+
+    private void setupTls12Engines(SSLContext clientContext, SSLContext serverContext) {
+        // The client session cache is keyed by the peer's host and port.
+        clientEngine = clientContext.createSSLEngine("localhost", 443);
+        clientEngine.setUseClientMode(true);
+        clientEngine.setEnabledProtocols(new String[] {"TLSv1.2"});
+        serverEngine = serverContext.createSSLEngine();
+        serverEngine.setUseClientMode(false);
+        Conscrypt.setBufferAllocator(clientEngine, bufferType.allocator);
+        Conscrypt.setBufferAllocator(serverEngine, bufferType.allocator);
+    }
+
+    private static byte[] newTicketKey(byte seed) {
+        byte[] key = new byte[48];
+        Arrays.fill(key, seed);
+        return key;
+    }
+
+    private void setupEarlyDataEngines(SSLContext clientContext, SSLContext serverContext,
+                                       AntiReplayStore store) {
+        // The client session cache is keyed by the peer's host and port.
+        clientEngine = clientContext.createSSLEngine("localhost", 443);
+        clientEngine.setUseClientMode(true);
+        serverEngine = serverContext.createSSLEngine();
+        serverEngine.setUseClientMode(false);
+        Conscrypt.setBufferAllocator(clientEngine, bufferType.allocator);
+        Conscrypt.setBufferAllocator(serverEngine, bufferType.allocator);
+        Conscrypt.setEarlyDataEnabled(serverEngine, true, store);
+    }
+
+    /**
+     * Moves records between the engines until neither has anything left to send, which also
+     * delivers the session tickets sent after the handshake. Returns the application data
+     * received by the server.
+     */
+    private byte[] pumpEarlyDataHandshake() throws IOException {
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        ByteBuffer clientToServer = bufferType.newBuffer(64 * 1024);
+        ByteBuffer serverToClient = bufferType.newBuffer(64 * 1024);
+        ByteBuffer serverApp = bufferType.newBuffer(64 * 1024);
+        ByteBuffer clientApp = bufferType.newBuffer(64 * 1024);
+        clientEngine.beginHandshake();
+        serverEngine.beginHandshake();
+        boolean progress;
+        do {
+            progress = wrapAll(clientEngine, empty, clientToServer);
+            progress |= wrapAll(serverEngine, empty, serverToClient);
+            progress |= unwrapAll(serverEngine, clientToServer, serverApp);
+            progress |= unwrapAll(clientEngine, serverToClient, clientApp);
+        } while (progress);
+        assertEquals(0, clientApp.position());
+        serverApp.flip();
+        return toArray(serverApp);
+    }
+
+    private static boolean wrapAll(SSLEngine engine, ByteBuffer src, ByteBuffer dst)
+            throws SSLException {
+        boolean progress = false;
+        SSLEngineResult result;
+        do {
+            result = engine.wrap(src, dst);
+            assertEquals(Status.OK, result.getStatus());
+            progress |= result.bytesProduced() > 0;
+        } while (result.bytesProduced() > 0);
+        return progress;
+    }
+
+    private static boolean unwrapAll(SSLEngine engine, ByteBuffer src, ByteBuffer dst)
+            throws SSLException {
+        boolean progress = false;
+        src.flip();
+        try {
+            while (src.hasRemaining()) {
+                SSLEngineResult result = engine.unwrap(src, dst);
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    break;
+                }
+                progress = true;
+            }
+        } finally {
+            src.compact();
+        }
+        return progress;
+    }
+
     private void doMutualAuthHandshake(TestKeyStore clientKs, TestKeyStore serverKs,
                                        ClientAuth clientAuth) throws Exception {
         setupEngines(clientKs, serverKs);
@@ -82,12 +82,14 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
         // org.conscrypt tests
+        AdaptiveCacheSizerTest.class,
         AddressUtilsTest.class,
         ApplicationProtocolSelectorAdapterTest.class,
         ArrayUtilsTest.class,
         CertPinManagerTest.class,
         ChainStrengthAnalyzerTest.class,
         ClientSessionContextTest.class,
+        ConscryptSocketChannelTest.class,
         ConscryptSocketTest.class,
         ConscryptTest.class,
         DuckTypedHpkeSpiTest.class,
@@ -101,9 +103,12 @@ import org.junit.runners.Suite;
         HpkeContextSenderTest.class,
         HpkeSuiteTest.class,
         HpkeTestVectorsTest.class,
+        InMemoryAntiReplayStoreTest.class,
         KeySpecUtilTest.class,
+        MappedClientSessionCacheTest.class,
         MlDsaTest.class,
         MlKemTest.class,
+        MutableEngineResultTest.class,
         NativeCryptoArgTest.class,
         NativeCryptoTest.class,
         NativeSslTest.class,
@@ -112,8 +117,12 @@ import org.junit.runners.Suite;
         OpenSSLKeyTest.class,
         OpenSSLX509CertificateTest.class,
         PlatformTest.class,
+        PooledBufferAllocatorTest.class,
+        RecordSizerTest.class,
         SSLUtilsTest.class,
         ServerSessionContextTest.class,
+        SessionCacheWriterTest.class,
+        SessionStoreTest.class,
         SlhDsaTest.class,
         TestSessionBuilderTest.class,
         TrustManagerImplTest.class,
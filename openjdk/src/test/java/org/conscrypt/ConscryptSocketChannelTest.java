@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.conscrypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLEngine;
+
+@RunWith(JUnit4.class)
+public class ConscryptSocketChannelTest {
+    private ExecutorService executor;
+    private ConscryptSocketChannel client;
+    private ConscryptSocketChannel server;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(TestUtils.getLoopbackAddress(), 0));
+            SocketChannel clientChannel = SocketChannel.open(listener.getLocalAddress());
+            SocketChannel serverChannel = listener.accept();
+
+            SSLEngine clientEngine =
+                    TestUtils.newClientSslContext(TestUtils.getConscryptProvider())
+                            .createSSLEngine();
+            clientEngine.setUseClientMode(true);
+            SSLEngine serverEngine =
+                    TestUtils.newServerSslContext(TestUtils.getConscryptProvider())
+                            .createSSLEngine();
+            serverEngine.setUseClientMode(false);
+
+            client = Conscrypt.newSocketChannel(clientChannel, clientEngine);
+            server = Conscrypt.newSocketChannel(serverChannel, serverEngine);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void blockingHandshakeAndGatheringWrite() throws Exception {
+        Future<Boolean> serverHandshake = executor.submit(server::handshake);
+        assertTrue(client.handshake());
+        assertTrue(serverHandshake.get(5, TimeUnit.SECONDS));
+        assertEquals(client.getSession().getCipherSuite(), server.getSession().getCipherSuite());
+
+        byte[] first = TestUtils.newTextMessage(100);
+        byte[] second = TestUtils.newTextMessage(200);
+        long written = client.write(new ByteBuffer[] {ByteBuffer.wrap(first),
+                ByteBuffer.allocate(0), ByteBuffer.wrap(second)});
+        assertEquals(first.length + second.length, written);
+
+        ByteBuffer received = ByteBuffer.allocate(first.length + second.length);
+        readFully(server, received);
+        ByteBuffer expected = ByteBuffer.allocate(received.capacity());
+        expected.put(first).put(second);
+        assertArrayEquals(expected.array(), received.array());
+    }
+
+    @Test
+    public void largeWriteSpansManyRecords() throws Exception {
+        final byte[] message = TestUtils.newTextMessage(1024 * 1024);
+        Future<Long> writer = executor.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                // A blocking write does not return until all of the data has been written.
+                ByteBuffer buffer = ByteBuffer.wrap(message);
+                long total = client.write(buffer);
+                assertFalse(buffer.hasRemaining());
+                return total;
+            }
+        });
+
+        // Read into small buffers, which leaves part of each record buffered in the channel.
+        ByteBuffer received = ByteBuffer.allocate(message.length);
+        while (received.hasRemaining()) {
+            ByteBuffer chunk = ByteBuffer.allocate(1000);
+            chunk.limit(Math.min(chunk.capacity(), received.remaining()));
+            int read = server.read(chunk);
+            assertTrue(read > 0);
+            chunk.flip();
+            received.put(chunk);
+        }
+        assertEquals(message.length, (long) writer.get(5, TimeUnit.SECONDS));
+        assertArrayEquals(message, received.array());
+    }
+
+    @Test
+    public void nonBlockingHandshakeWithSelector() throws Exception {
+        client.getChannel().configureBlocking(false);
+        server.getChannel().configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            SelectionKey clientKey = client.getChannel().register(selector, 0, client);
+            SelectionKey serverKey = server.getChannel().register(selector, 0, server);
+
+            boolean clientDone = client.handshake();
+            boolean serverDone = server.handshake();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!clientDone || !serverDone) {
+                assertTrue("Handshake timed out", System.currentTimeMillis() < deadline);
+                clientKey.interestOps(client.interestOps());
+                serverKey.interestOps(server.interestOps());
+                selector.select(100);
+                selector.selectedKeys().clear();
+                clientDone = client.handshake();
+                serverDone = server.handshake();
+            }
+            assertEquals(0, client.interestOps() & SelectionKey.OP_READ);
+            assertEquals(0, server.interestOps() & SelectionKey.OP_READ);
+
+            byte[] message = TestUtils.newTextMessage(50000);
+            ByteBuffer src = ByteBuffer.wrap(message);
+            ByteBuffer received = ByteBuffer.allocate(message.length);
+            while (received.hasRemaining()) {
+                assertTrue("Data exchange timed out", System.currentTimeMillis() < deadline);
+                if (src.hasRemaining()) {
+                    client.write(src);
+                } else {
+                    client.flush();
+                }
+                if (server.read(received) == 0 && !server.hasBufferedInput()) {
+                    clientKey.interestOps(client.interestOps());
+                    serverKey.interestOps(SelectionKey.OP_READ);
+                    selector.select(100);
+                    selector.selectedKeys().clear();
+                }
+            }
+            assertArrayEquals(message, received.array());
+        }
+    }
+
+    @Test
+    public void closeIsSeenByPeer() throws Exception {
+        Future<Boolean> serverHandshake = executor.submit(server::handshake);
+        assertTrue(client.handshake());
+        assertTrue(serverHandshake.get(5, TimeUnit.SECONDS));
+
+        client.close();
+        assertEquals(-1, server.read(ByteBuffer.allocate(10)));
+    }
+
+    private static void readFully(ConscryptSocketChannel channel, ByteBuffer dst)
+            throws Exception {
+        while (dst.hasRemaining()) {
+            assertTrue(channel.read(dst) >= 0);
+        }
+    }
+}
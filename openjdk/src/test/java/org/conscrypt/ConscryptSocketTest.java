@@ -22,6 +22,7 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeFalse;
@@ -41,11 +42,16 @@ import org.mockito.ArgumentMatchers;
 import org.mockito.Mockito;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.security.KeyManagementException;
@@ -53,6 +59,8 @@ import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -60,6 +68,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.HandshakeCompletedEvent;
 import javax.net.ssl.HandshakeCompletedListener;
@@ -288,6 +297,7 @@ public class ConscryptSocketTest {
         KeyManager[] keyManagers;
         TrustManager[] trustManagers;
         String[] alpnProtocols;
+        boolean useKernelTls;
 
         abstract AbstractConscryptSocket createSocket(ServerSocket listener) throws IOException;
 
@@ -339,6 +349,9 @@ public class ConscryptSocketTest {
             if (alpnProtocols != null) {
                 Conscrypt.setApplicationProtocols(socket, alpnProtocols);
             }
+            if (useKernelTls) {
+                Conscrypt.setUseKernelTls(socket, true);
+            }
             return socket;
         }
     }
@@ -347,6 +360,8 @@ public class ConscryptSocketTest {
         byte[] sctTLSExtension;
         byte[] ocspResponse;
         ApplicationProtocolSelector alpnProtocolSelector;
+        BufferAllocator bufferAllocator;
+        boolean preloadCredentials;
 
         @Override
         public OpenSSLContextImpl createContext() throws IOException {
@@ -355,8 +370,12 @@ public class ConscryptSocketTest {
                 SSLParametersImpl sslParameters = getContextSSLParameters(context);
                 sslParameters.setSCTExtension(sctTLSExtension);
                 sslParameters.setOCSPResponse(ocspResponse);
+                if (preloadCredentials) {
+                    ((ServerSessionContext) context.engineGetServerSessionContext())
+                            .preloadCredentials(sslParameters.getX509KeyManager());
+                }
                 return context;
-            } catch (IllegalAccessException e) {
+            } catch (IllegalAccessException | KeyManagementException e) {
                 throw new IOException(e);
             }
         }
@@ -371,6 +390,12 @@ public class ConscryptSocketTest {
             if (alpnProtocolSelector != null) {
                 Conscrypt.setApplicationProtocolSelector(socket, alpnProtocolSelector);
             }
+            if (bufferAllocator != null) {
+                Conscrypt.setBufferAllocator(socket, bufferAllocator);
+            }
+            if (useKernelTls) {
+                Conscrypt.setUseKernelTls(socket, true);
+            }
             return socket;
         }
     }
@@ -594,6 +619,24 @@ public class ConscryptSocketTest {
         assertTrue(connection.serverHooks.isHandshakeCompleted);
     }
 
+    @Test
+    public void test_handshakeWithPreloadedCredentialStaplesOcspAndSCT() throws Exception {
+        TestConnection connection = new TestConnection(new X509Certificate[] {cert, ca}, certKey);
+
+        byte[] ocspResponse = readTestFile("ocsp-response.der");
+        byte[] sctTLSExtension = readTestFile("ct-signed-timestamp-list");
+        connection.serverHooks.ocspResponse = ocspResponse;
+        connection.serverHooks.sctTLSExtension = sctTLSExtension;
+        connection.serverHooks.preloadCredentials = true;
+
+        connection.doHandshakeSuccess();
+
+        ConscryptSession session = (ConscryptSession) connection.client.getActiveSession();
+        assertEquals(1, session.getStatusResponses().size());
+        assertArrayEquals(ocspResponse, session.getStatusResponses().get(0));
+        assertArrayEquals(sctTLSExtension, session.getPeerSignedCertificateTimestamp());
+    }
+
     @Ignore("TODO(nathanmittler): Fix or remove")
     @Test
     public void test_handshake_failsWithMissingSCT() throws Exception {
@@ -766,6 +809,237 @@ public class ConscryptSocketTest {
         }
     }
 
+    @Test
+    public void dataFlowsWithKernelTls() throws Exception {
+        assumeTrue(socketType == SocketType.FILE_DESCRIPTOR);
+        TestConnection connection = new TestConnection(new X509Certificate[] {cert, ca}, certKey);
+        connection.clientHooks.useKernelTls = true;
+        connection.serverHooks.useKernelTls = true;
+        connection.doHandshakeSuccess();
+
+        // Whether the kernel takes over depends on the machine, data must flow either way.
+        int maxDataSize = connection.client.getSession().getApplicationBufferSize();
+        sendData(connection.client, connection.server, randomBuffer(maxDataSize));
+        sendData(connection.server, connection.client, randomBuffer(maxDataSize));
+        for (int i = 0; i < 20; i++) {
+            sendData(connection.client, connection.server, randomSizeBuffer(maxDataSize));
+            sendData(connection.server, connection.client, randomSizeBuffer(maxDataSize));
+        }
+
+        // The close_notify must also be understood by the peer.
+        connection.client.close();
+        assertEquals(-1, connection.server.getInputStream().read());
+    }
+
+    @Test
+    public void kernelTlsIsInactiveByDefault() throws Exception {
+        TestConnection connection = new TestConnection(new X509Certificate[] {cert, ca}, certKey);
+        connection.doHandshakeSuccess();
+        assertFalse(Conscrypt.isKernelTlsActive(connection.client));
+        assertFalse(Conscrypt.isKernelTlsActive(connection.server));
+    }
+
+    @Test
+    public void byteBufferDataFlows() throws Exception {
+        TestConnection connection = new TestConnection(new X509Certificate[] {cert, ca}, certKey);
+        connection.doHandshakeSuccess();
+
+        byte[] first = randomBuffer(1000);
+        byte[] second = randomBuffer(20000);
+        ByteBuffer direct = ByteBuffer.allocateDirect(second.length);
+        direct.put(second).flip();
+        ByteBuffer[] srcs = {ByteBuffer.wrap(first), direct,
+                ByteBuffer.wrap(first).asReadOnlyBuffer()};
+        assertEquals(2 * first.length + second.length, Conscrypt.write(connection.client, srcs));
+        for (ByteBuffer src : srcs) {
+            assertFalse(src.hasRemaining());
+        }
+
+        ByteBuffer received = ByteBuffer.allocateDirect(2 * first.length + second.length);
+        while (received.hasRemaining()) {
+            assertTrue(Conscrypt.read(connection.server, received) > 0);
+        }
+        received.flip();
+        byte[] expected = new byte[received.remaining()];
+        System.arraycopy(first, 0, expected, 0, first.length);
+        System.arraycopy(second, 0, expected, first.length, second.length);
+        System.arraycopy(first, 0, expected, first.length + second.length, first.length);
+        byte[] actual = new byte[received.remaining()];
+        received.get(actual);
+        assertArrayEquals(expected, actual);
+
+        // Heap buffers are also accepted for reads.
+        sendData(connection.server, connection.client, first);
+        Conscrypt.write(connection.server, new ByteBuffer[] {ByteBuffer.wrap(first)});
+        ByteBuffer heap = ByteBuffer.allocate(first.length);
+        while (heap.hasRemaining()) {
+            assertTrue(Conscrypt.read(connection.client, heap) > 0);
+        }
+        assertArrayEquals(first, heap.array());
+    }
+
+    @Test
+    public void readOnlyBuffersAreRejectedForReads() throws Exception {
+        TestConnection connection = new TestConnection(new X509Certificate[] {cert, ca}, certKey);
+        connection.doHandshakeSuccess();
+
+        byte[] data = randomBuffer(100);
+        connection.client.getOutputStream().write(data);
+        ByteBuffer[] readOnly = {ByteBuffer.allocateDirect(data.length).asReadOnlyBuffer(),
+                ByteBuffer.allocate(data.length).asReadOnlyBuffer()};
+        for (ByteBuffer dst : readOnly) {
+            assertThrows(ReadOnlyBufferException.class,
+                         () -> Conscrypt.read(connection.server, dst));
+        }
+
+        // No data was consumed.
+        ByteBuffer received = ByteBuffer.allocateDirect(data.length);
+        while (received.hasRemaining()) {
+            assertTrue(Conscrypt.read(connection.server, received) > 0);
+        }
+        received.flip();
+        byte[] actual = new byte[data.length];
+        received.get(actual);
+        assertArrayEquals(data, actual);
+    }
+
+    @Test
+    public void blockedReadDoesNotHoldPooledBuffers() throws Exception {
+        assumeTrue(socketType == SocketType.ENGINE);
+        PooledBufferAllocator allocator = new PooledBufferAllocator(1024 * 1024, 4);
+        TestConnection connection = new TestConnection(new X509Certificate[] {cert, ca}, certKey);
+        connection.serverHooks.bufferAllocator = allocator;
+        connection.doHandshakeSuccess();
+
+        byte[] received = new byte[100];
+        Future<Integer> read = executor.submit(
+                (Callable<Integer>) () -> connection.server.getInputStream().read(received));
+        // Give the reader time to block on the socket.
+        Thread.sleep(100);
+        assertFalse(read.isDone());
+        assertEquals(0, allocator.getStats().getBytesOutstanding());
+
+        byte[] data = randomBuffer(received.length);
+        connection.client.getOutputStream().write(data);
+        assertEquals(data.length, (int) read.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertArrayEquals(data, received);
+        assertEquals(0, allocator.getStats().getBytesOutstanding());
+    }
+
+    @Test
+    public void smallWritesAreCoalesced() throws Exception {
+        assumeTrue(socketType == SocketType.ENGINE);
+        TestConnection connection = new TestConnection(new X509Certificate[] {cert, ca}, certKey);
+        connection.doHandshakeSuccess();
+        Conscrypt.setWriteBufferSize(connection.client, 1024);
+
+        OutputStream out = connection.client.getOutputStream();
+        byte[] expected = randomBuffer(300);
+        for (int i = 0; i < 100; i++) {
+            out.write(expected[i]);
+        }
+        for (int i = 100; i < expected.length; i += 50) {
+            out.write(expected, i, 50);
+        }
+        assertEquals(0, connection.server.getInputStream().available());
+        out.flush();
+
+        // Everything was sent in a single record.
+        byte[] received = new byte[expected.length];
+        assertEquals(expected.length, connection.server.getInputStream().read(received));
+        assertArrayEquals(expected, received);
+
+        // Writes larger than the buffer are sent immediately.
+        sendData(connection.client, connection.server, randomBuffer(2000));
+
+        // Buffered data is sent before the socket is closed.
+        out.write(expected, 0, 10);
+        connection.client.close();
+        received = new byte[10];
+        assertEquals(10, connection.server.getInputStream().read(received));
+        assertEquals(-1, connection.server.getInputStream().read());
+    }
+
+    @Test
+    public void closeDuringConcurrentWritesSendsAllWrittenData() throws Exception {
+        assumeTrue(socketType == SocketType.ENGINE);
+        TestConnection connection = new TestConnection(new X509Certificate[] {cert, ca}, certKey);
+        connection.doHandshakeSuccess();
+        Conscrypt.setWriteBufferSize(connection.client, 1024);
+
+        final InputStream in = connection.server.getInputStream();
+        Future<Long> reader = executor.submit(() -> {
+            byte[] buffer = new byte[4096];
+            long received = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                received += read;
+            }
+            return received;
+        });
+        final OutputStream out = connection.client.getOutputStream();
+        final byte[] chunk = randomBuffer(10);
+        final AtomicLong written = new AtomicLong();
+        Future<Void> writer = executor.submit((Callable<Void>) () -> {
+            try {
+                while (true) {
+                    out.write(chunk);
+                    written.addAndGet(chunk.length);
+                }
+            } catch (IOException e) {
+                // The socket has been closed.
+            }
+            return null;
+        });
+
+        // Close while the writer is buffering data. Every write which returned must still
+        // reach the peer before the close notify.
+        Thread.sleep(100);
+        connection.client.close();
+        writer.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(written.get(), (long) reader.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void manyConnectionsOnVirtualThreads() throws Exception {
+        assumeTrue(socketType == SocketType.ENGINE);
+        ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+        assumeTrue("Virtual threads are not available", virtualThreads != null);
+        executor.shutdown();
+        executor = virtualThreads;
+
+        List<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            results.add(executor.submit((Callable<Void>) () -> {
+                TestConnection connection =
+                        new TestConnection(new X509Certificate[] {cert, ca}, certKey);
+                connection.doHandshakeSuccess();
+                int maxDataSize = connection.client.getSession().getApplicationBufferSize();
+                for (int j = 0; j < 10; j++) {
+                    sendData(connection.client, connection.server, randomSizeBuffer(maxDataSize));
+                    sendData(connection.server, connection.client, randomSizeBuffer(maxDataSize));
+                }
+                connection.client.close();
+                connection.server.close();
+                return null;
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    // Returns Executors.newVirtualThreadPerTaskExecutor() when running on Java 21 or later,
+    // otherwise null.
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
     private void sendData(SSLSocket source, final SSLSocket destination, byte[] data)
             throws Exception {
         final byte[] received = new byte[data.length];
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.conscrypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.conscrypt.javax.net.ssl.FakeSSLSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+@RunWith(JUnit4.class)
+public class MappedClientSessionCacheTest {
+    private static final int FILE_SIZE = 64 * 1024;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("MappedClientSessionCacheTest", ".cache");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void storesAndReplacesSessions() throws Exception {
+        MappedClientSessionCache cache = open(100);
+        assertNull(cache.getSessionData("a", 443));
+        cache.putSessionData(new FakeSSLSession("a"), data(1, 100));
+        cache.putSessionData(new FakeSSLSession("b"), data(2, 100));
+        cache.putSessionData(new FakeSSLSession("a"), data(3, 200));
+        assertArrayEquals(data(3, 200), cache.getSessionData("a", 443));
+        assertArrayEquals(data(2, 100), cache.getSessionData("b", 443));
+        assertNull(cache.getSessionData("a", 444));
+        assertEquals(2, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void sessionsSurviveReopening() throws Exception {
+        MappedClientSessionCache cache = open(100);
+        for (int i = 0; i < 50; i++) {
+            cache.putSessionData(new FakeSSLSession("host" + i), data(i, 300));
+        }
+        cache.close();
+
+        cache = open(100);
+        assertEquals(50, cache.size());
+        for (int i = 0; i < 50; i++) {
+            assertArrayEquals(data(i, 300), cache.getSessionData("host" + i, 443));
+        }
+        cache.close();
+    }
+
+    @Test
+    public void compactionKeepsLatestSessions() throws Exception {
+        MappedClientSessionCache cache = open(100);
+        // Far more data than fits in the file, forcing several compactions.
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 10; i++) {
+                cache.putSessionData(new FakeSSLSession("host" + i), data(round * 10 + i, 1000));
+            }
+        }
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(data(190 + i, 1000), cache.getSessionData("host" + i, 443));
+        }
+        cache.close();
+
+        cache = open(100);
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(data(190 + i, 1000), cache.getSessionData("host" + i, 443));
+        }
+        cache.close();
+        assertEquals(false, new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() throws Exception {
+        MappedClientSessionCache cache = open(3);
+        cache.putSessionData(new FakeSSLSession("a"), data(1, 10));
+        cache.putSessionData(new FakeSSLSession("b"), data(2, 10));
+        cache.putSessionData(new FakeSSLSession("c"), data(3, 10));
+        cache.getSessionData("a", 443);
+        cache.putSessionData(new FakeSSLSession("d"), data(4, 10));
+        assertEquals(3, cache.size());
+        assertNull(cache.getSessionData("b", 443));
+        assertArrayEquals(data(1, 10), cache.getSessionData("a", 443));
+        cache.close();
+    }
+
+    @Test
+    public void tornRecordIsDiscardedOnRecovery() throws Exception {
+        MappedClientSessionCache cache = open(100);
+        cache.putSessionData(new FakeSSLSession("a"), data(1, 100));
+        cache.putSessionData(new FakeSSLSession("b"), data(2, 100));
+        cache.close();
+
+        // Corrupt a byte in the session data of the second record.
+        int recordSize = 4 + 2 + 1 + 4 + 4 + 100 + 4;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long offset = MappedClientSessionCache.HEADER_SIZE + recordSize + 20;
+            raf.seek(offset);
+            raf.write(raf.read() ^ 0xFF);
+        }
+
+        cache = open(100);
+        assertArrayEquals(data(1, 100), cache.getSessionData("a", 443));
+        assertNull(cache.getSessionData("b", 443));
+        // New records are appended after the last valid one and survive another restart.
+        cache.putSessionData(new FakeSSLSession("c"), data(3, 50));
+        cache.close();
+
+        cache = open(100);
+        assertEquals(2, cache.size());
+        assertArrayEquals(data(3, 50), cache.getSessionData("c", 443));
+        cache.close();
+    }
+
+    @Test
+    public void recordsAfterCorruptRecordAreNotResurrected() throws Exception {
+        MappedClientSessionCache cache = open(100);
+        for (int i = 0; i < 40; i++) {
+            cache.putSessionData(new FakeSSLSession(String.format("h%02d", i)), data(i, 1000));
+        }
+        cache.close();
+
+        // Corrupt the first record, hiding the 39 after it, which span more than a quarter of
+        // the file.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long offset = MappedClientSessionCache.HEADER_SIZE + 20;
+            raf.seek(offset);
+            raf.write(raf.read() ^ 0xFF);
+        }
+
+        cache = open(100);
+        assertEquals(0, cache.size());
+        // Append records of the same size, so that they end exactly where old ones began.
+        for (int i = 0; i < 20; i++) {
+            cache.putSessionData(new FakeSSLSession(String.format("n%02d", i)), data(i, 1000));
+        }
+        cache.close();
+
+        cache = open(100);
+        assertEquals(20, cache.size());
+        assertNull(cache.getSessionData("h39", 443));
+        cache.close();
+    }
+
+    @Test
+    public void tooLargeSessionIsIgnored() throws Exception {
+        MappedClientSessionCache cache = open(100);
+        cache.putSessionData(new FakeSSLSession("a"), new byte[FILE_SIZE / 2]);
+        assertNull(cache.getSessionData("a", 443));
+        cache.close();
+    }
+
+    @Test
+    public void unknownFileIsReset() throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        }
+        MappedClientSessionCache cache = open(100);
+        assertEquals(0, cache.size());
+        cache.putSessionData(new FakeSSLSession("a"), data(1, 10));
+        assertArrayEquals(data(1, 10), cache.getSessionData("a", 443));
+        cache.close();
+    }
+
+    private MappedClientSessionCache open(int maxEntries) throws Exception {
+        return MappedClientSessionCache.open(file, FILE_SIZE, maxEntries);
+    }
+
+    private static byte[] data(int seed, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed + i);
+        }
+        return data;
+    }
+}
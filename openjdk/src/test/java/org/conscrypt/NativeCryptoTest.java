@@ -1101,7 +1101,7 @@ public class NativeCryptoTest {
         private boolean verifyCertificateChainCalled;
 
         @Override
-        public void verifyCertificateChain(byte[][] certs, String authMethod)
+        public boolean verifyCertificateChain(byte[][] certs, String authMethod)
                 throws CertificateException {
             certificateChainRefs = new long[certs.length];
             for (int i = 0; i < certs.length; ++i) {
@@ -1114,6 +1114,7 @@ public class NativeCryptoTest {
             }
             this.authMethod = authMethod;
             this.verifyCertificateChainCalled = true;
+            return true;
         }
 
         private byte[] keyTypes;
@@ -1237,7 +1238,7 @@ public class NativeCryptoTest {
         private int[] serverSignatureAlgs;
 
         @Override
-        public void serverCertificateRequested(int[] signatureAlgs) {
+        public void serverCertificateRequested(int[] signatureAlgs, boolean offersEarlyData) {
             serverCertificateRequestedInvoked = true;
             this.serverSignatureAlgs = signatureAlgs;
         }
@@ -1249,6 +1250,21 @@ public class NativeCryptoTest {
             }
             return alpnSelector.selectApplicationProtocol(protocols);
         }
+
+        @Override
+        public byte[] privateKeySign(int signatureAlgorithm, byte[] input) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public byte[] privateKeyDecrypt(byte[] input) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public byte[] privateKeyComplete() {
+            throw new UnsupportedOperationException();
+        }
     }
 
     static class ClientHooks extends Hooks {
@@ -16,6 +16,9 @@
 
 package org.conscrypt;
 
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -44,4 +47,54 @@ public class ServerSessionContextTest extends AbstractSessionContextTest<ServerS
         }
         return count;
     }
+
+    @Test
+    public void setTicketKeys_InvalidLength_Throws() {
+        ServerSessionContext context = newContext();
+        assertThrows(IllegalArgumentException.class, () -> context.setTicketKeys(new byte[47]));
+        assertThrows(IllegalArgumentException.class,
+                     () -> context.setTicketKeys(new byte[48], new byte[49]));
+        assertThrows(NullPointerException.class, () -> context.setTicketKeys((byte[]) null));
+    }
+
+    @Test
+    public void setTicketKeys_ValidKeys_Succeeds() {
+        ServerSessionContext context = newContext();
+        context.setTicketKeys(new byte[48], new byte[48]);
+        // Restores the default keys.
+        context.setTicketKeys();
+    }
+
+    @Test
+    public void setTicketCount_OutOfRange_Throws() {
+        ServerSessionContext context = newContext();
+        assertThrows(IllegalArgumentException.class, () -> context.setTicketCount(-1));
+        assertThrows(IllegalArgumentException.class,
+                     () -> context.setTicketCount(ServerSessionContext.MAX_TICKET_COUNT + 1));
+        context.setTicketCount(0);
+        context.setTicketCount(ServerSessionContext.MAX_TICKET_COUNT);
+    }
+
+    @Test
+    public void setTicketKeyCallback_InvalidKeys_Throws() {
+        ServerSessionContext context = newContext();
+        assertThrows(IllegalArgumentException.class,
+                     () -> context.setTicketKeyCallback(() -> new byte[][] {new byte[16]}));
+        assertThrows(NullPointerException.class, () -> context.setTicketKeyCallback(() -> null));
+    }
+
+    @Test
+    public void setTicketKeyCallback_FailingCallback_KeepsKeys() throws Exception {
+        ServerSessionContext context = newContext();
+        final boolean[] fail = {false};
+        context.setTicketKeyCallback(() -> {
+            if (fail[0]) {
+                throw new IllegalStateException("key service unavailable");
+            }
+            return new byte[][] {new byte[48]};
+        });
+        fail[0] = true;
+        // Failures are logged rather than aborting the handshake.
+        NativeCrypto.SSL_free(context.newSsl(), null);
+    }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.conscrypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSession;
+
+@RunWith(JUnit4.class)
+public class SessionCacheWriterTest {
+    /**
+     * A persistent cache whose writes block until {@link #release()} is called.
+     */
+    private static final class BlockingCache implements SSLClientSessionCache {
+        final List<byte[]> writes = Collections.synchronizedList(new ArrayList<byte[]>());
+        final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final CountDownLatch done;
+
+        BlockingCache(int expectedWrites) {
+            done = new CountDownLatch(expectedWrites);
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        @Override
+        public byte[] getSessionData(String host, int port) {
+            return null;
+        }
+
+        @Override
+        public void putSessionData(SSLSession session, byte[] sessionData) {
+            firstWriteStarted.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writes.add(sessionData);
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void writesHappenInTheBackground() throws Exception {
+        BlockingCache cache = new BlockingCache(1);
+        ClientSessionContext context = newContext(cache, 10);
+
+        // Would block forever if the write happened on this thread.
+        context.cacheSession(newSession("a", new byte[] {1}));
+        assertTrue(cache.firstWriteStarted.await(5, TimeUnit.SECONDS));
+        cache.release();
+        assertTrue(cache.done.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(new byte[] {1}, cache.writes.get(0));
+    }
+
+    @Test
+    public void pendingWritesForTheSameHostAreCoalesced() throws Exception {
+        BlockingCache cache = new BlockingCache(2);
+        ClientSessionContext context = newContext(cache, 10);
+        context.cacheSession(newSession("a", new byte[] {1}));
+        assertTrue(cache.firstWriteStarted.await(5, TimeUnit.SECONDS));
+
+        context.cacheSession(newSession("b", new byte[] {2}, new byte[] {20}));
+        context.cacheSession(newSession("b", new byte[] {3}, new byte[] {30}));
+        assertEquals(1, context.getPendingPersistentCacheWrites());
+
+        cache.release();
+        assertTrue(cache.done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, cache.writes.size());
+        assertArrayEquals(new byte[] {3}, cache.writes.get(1));
+        assertEquals(0, context.getDroppedPersistentCacheWrites());
+    }
+
+    @Test
+    public void oldestPendingWriteIsDroppedWhenFull() throws Exception {
+        BlockingCache cache = new BlockingCache(3);
+        ClientSessionContext context = newContext(cache, 2);
+        context.cacheSession(newSession("a", new byte[] {1}));
+        assertTrue(cache.firstWriteStarted.await(5, TimeUnit.SECONDS));
+
+        context.cacheSession(newSession("b", new byte[] {2}));
+        context.cacheSession(newSession("c", new byte[] {3}));
+        context.cacheSession(newSession("d", new byte[] {4}));
+        assertEquals(2, context.getPendingPersistentCacheWrites());
+        assertEquals(1, context.getDroppedPersistentCacheWrites());
+
+        cache.release();
+        assertTrue(cache.done.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(new byte[] {3}, cache.writes.get(1));
+        assertArrayEquals(new byte[] {4}, cache.writes.get(2));
+        assertEquals(0, context.getPendingPersistentCacheWrites());
+    }
+
+    @Test
+    public void writeBehindIsDisabledByDefault() {
+        BlockingCache cache = new BlockingCache(1);
+        cache.release();
+        ClientSessionContext context = new ClientSessionContext();
+        context.setPersistentCache(cache);
+        context.cacheSession(newSession("a", new byte[] {1}));
+        assertEquals(1, cache.writes.size());
+    }
+
+    private static ClientSessionContext newContext(SSLClientSessionCache cache,
+                                                   int maxPendingWrites) {
+        ClientSessionContext context = new ClientSessionContext();
+        context.setPersistentCache(cache);
+        context.setPersistentCacheWriteBehind(maxPendingWrites);
+        return context;
+    }
+
+    private static NativeSslSession newSession(String host, byte[] encodedBytes) {
+        return new MockSessionBuilder().host(host).encodedBytes(encodedBytes).build();
+    }
+
+    private static NativeSslSession newSession(String host, byte[] encodedBytes, byte[] id) {
+        return new MockSessionBuilder().host(host).id(id).encodedBytes(encodedBytes).build();
+    }
+}
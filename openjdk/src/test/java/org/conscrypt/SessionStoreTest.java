@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.conscrypt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class SessionStoreTest {
+    @Test
+    public void evictsInInsertionOrderAcrossSegments() {
+        SessionStore store = new SessionStore(3, 8);
+        NativeSslSession[] sessions = new NativeSslSession[6];
+        List<NativeSslSession> evicted = new ArrayList<>();
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = newSession("host" + i);
+            store.put(key(sessions[i]), sessions[i]);
+            evicted.addAll(store.evictExcess());
+        }
+        assertEquals(3, store.size());
+        assertEquals(Arrays.asList(sessions[0], sessions[1], sessions[2]), evicted);
+        for (int i = 3; i < sessions.length; i++) {
+            assertSame(sessions[i], store.get(key(sessions[i])));
+        }
+    }
+
+    @Test
+    public void replacingSessionMovesItToTheEnd() {
+        SessionStore store = new SessionStore(2, 4);
+        NativeSslSession a = newSession("a");
+        NativeSslSession b = newSession("b");
+        NativeSslSession newA = newSession("a");
+        store.put(key(a), a);
+        store.put(key(b), b);
+        assertSame(a, store.put(key(newA), newA));
+        assertEquals(2, store.size());
+
+        NativeSslSession c = newSession("c");
+        store.put(key(c), c);
+        assertEquals(Collections.singletonList(b), store.evictExcess());
+        assertSame(newA, store.get(key(a)));
+    }
+
+    @Test
+    public void removeOnlyRemovesExpectedSession() {
+        SessionStore store = new SessionStore(10, 2);
+        NativeSslSession a = newSession("a");
+        store.put(key(a), a);
+        assertFalse(store.remove(key(a), newSession("a")));
+        assertTrue(store.remove(key(a), a));
+        assertFalse(store.remove(key(a), a));
+        assertNull(store.get(key(a)));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void zeroMaximumSizeIsUnbounded() {
+        SessionStore store = new SessionStore(0, 2);
+        for (int i = 0; i < 100; i++) {
+            NativeSslSession session = newSession("host" + i);
+            store.put(key(session), session);
+            assertTrue(store.evictExcess().isEmpty());
+        }
+        assertEquals(100, store.size());
+    }
+
+    @Test
+    public void removeInvalidRemovesExpiredSessions() {
+        SessionStore store = new SessionStore(10, 4);
+        NativeSslSession valid = newSession("valid");
+        NativeSslSession expired = new MockSessionBuilder().host("expired").valid(false).build();
+        store.put(key(valid), valid);
+        store.put(key(expired), expired);
+        assertEquals(Collections.singletonList(expired), store.removeInvalid());
+        assertEquals(Collections.singletonList(valid), store.values());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void concurrentUpdatesRespectMaximumSize() throws Exception {
+        final SessionStore store = new SessionStore(64, 16);
+        final AtomicInteger evictions = new AtomicInteger();
+        final int threads = 8;
+        final int sessionsPerThread = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < sessionsPerThread; i++) {
+                            NativeSslSession session = newSession(thread + ":" + i);
+                            store.put(key(session), session);
+                            evictions.addAndGet(store.evictExcess().size());
+                            store.get(key(session));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(64, store.size());
+        assertEquals(64, store.values().size());
+        assertEquals(threads * sessionsPerThread - 64, evictions.get());
+    }
+
+    private static NativeSslSession newSession(String host) {
+        return new MockSessionBuilder().host(host).build();
+    }
+
+    private static ByteArray key(NativeSslSession session) {
+        return new ByteArray(session.getId());
+    }
+}